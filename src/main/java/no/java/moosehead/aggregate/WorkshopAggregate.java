@@ -5,28 +5,155 @@ import no.java.moosehead.controller.SystemSetup;
 import no.java.moosehead.eventstore.*;
 import no.java.moosehead.eventstore.core.AbstractEvent;
 import no.java.moosehead.eventstore.core.EventSubscription;
+import no.java.moosehead.eventstore.snapshot.SnapshotInput;
+import no.java.moosehead.eventstore.snapshot.SnapshotWriter;
+import no.java.moosehead.eventstore.snapshot.Snapshotable;
 import no.java.moosehead.repository.WorkshopData;
 import no.java.moosehead.saga.EmailSender;
 import no.java.moosehead.web.Configuration;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Stream;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
-public class WorkshopAggregate implements EventSubscription {
+/**
+ * Validates commands against the state the events have built up. Only the state the commands need is kept,
+ * indexed so that each command is validated with a few lookups however long the history is.
+ */
+public class WorkshopAggregate implements EventSubscription, Snapshotable {
 
-    private ArrayList<AbstractEvent> eventArrayList = new ArrayList<>();
+    private final Map<String, WorkshopAddedEvent> workshops = new HashMap<>();
+    private final Map<String, Map<String, Participation>> participations = new HashMap<>();
+    private final Map<String, Set<String>> workshopsByEmail = new HashMap<>();
+    private final Map<String, String> emailsByToken = new HashMap<>();
+    private final Map<String, Set<String>> cancelledTokensByEmail = new HashMap<>();
+    private final Set<String> confirmedEmails = new HashSet<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private EmailSender emailSender;
 
+    /**
+     * The seats an email holds in a workshop, the reservation waiting for the email to be confirmed if that was
+     * the last event about them, and the tokens of the reservations until they are cancelled
+     */
+    private static class Participation {
+        private int seatsReserved = 0;
+        private ReservationAddedByUser awaitingConfirmation;
+        private final Set<String> tokens = new HashSet<>();
+
+        private Participation copy() {
+            Participation copy = new Participation();
+            copy.seatsReserved = seatsReserved;
+            copy.awaitingConfirmation = awaitingConfirmation;
+            copy.tokens.addAll(tokens);
+            return copy;
+        }
+    }
+
     @Override
     public void eventAdded(AbstractEvent event) {
-        eventArrayList.add(event);
+        lock.writeLock().lock();
+        try {
+            apply(event);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(AbstractEvent event) {
+        if (event instanceof WorkshopAddedEvent) {
+            WorkshopAddedEvent workshop = (WorkshopAddedEvent) event;
+            workshops.putIfAbsent(workshop.getWorkshopId(), workshop);
+        }
+        if (event instanceof UserWorkshopEvent) {
+            applyToParticipation((UserWorkshopEvent) event);
+        }
+        if (event instanceof EmailConfirmedByUser) {
+            String email = ((EmailConfirmedByUser) event).getEmail();
+            confirmedEmails.add(email);
+            forgetTokens(cancelledTokensByEmail.remove(email));
+        }
+    }
+
+    /**
+     * Once all seats are cancelled, the participation is removed. The tokens of its reservations are removed
+     * when the email is confirmed, since the confirmation links can no longer be used then. A reservation that
+     * was cancelled and whose email is confirmed so leaves no trace, as if it had never been made.
+     */
+    private void applyToParticipation(UserWorkshopEvent event) {
+        String workshopId = event.getWorkshopId();
+        String email = event.getEmail();
+        Map<String, Participation> byEmail = participations.computeIfAbsent(workshopId, id -> new HashMap<>());
+        Participation participation = byEmail.computeIfAbsent(email, e -> new Participation());
+        workshopsByEmail.computeIfAbsent(email, e -> new HashSet<>()).add(workshopId);
+        participation.seatsReserved += seatChange(event);
+        participation.awaitingConfirmation = null;
+        if (event instanceof ReservationAddedByUser) {
+            ReservationAddedByUser reservation = (ReservationAddedByUser) event;
+            participation.awaitingConfirmation = reservation;
+            String token = reservation.getReservationToken();
+            if (token != null && emailsByToken.putIfAbsent(token, email) == null) {
+                participation.tokens.add(token);
+            }
+        }
+        if (!(event instanceof AbstractReservationCancelled) || participation.seatsReserved > 0) {
+            return;
+        }
+        if (confirmedEmails.contains(email)) {
+            forgetTokens(participation.tokens);
+        } else if (!participation.tokens.isEmpty()) {
+            cancelledTokensByEmail.computeIfAbsent(email, e -> new HashSet<>()).addAll(participation.tokens);
+        }
+        participation.tokens.clear();
+        if (participation.seatsReserved == 0) {
+            byEmail.remove(email);
+            if (byEmail.isEmpty()) {
+                participations.remove(workshopId);
+            }
+            Set<String> workshopIds = workshopsByEmail.get(email);
+            workshopIds.remove(workshopId);
+            if (workshopIds.isEmpty()) {
+                workshopsByEmail.remove(email);
+            }
+        }
+    }
+
+    private void forgetTokens(Set<String> tokens) {
+        if (tokens != null) {
+            tokens.forEach(emailsByToken::remove);
+        }
+    }
+
+    /**
+     * Commands are validated concurrently, while events are added
+     */
+    private <T> T read(Supplier<T> validation) {
+        lock.readLock().lock();
+        try {
+            return validation.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public WorkshopAddedEvent createEvent(AddWorkshopCommand addWorkshopCommand) {
+        return read(() -> validate(addWorkshopCommand));
     }
 
-    public WorkshopAddedEvent createEvent(AddWorkshopCommand addWorkshopCommand){
+    private WorkshopAddedEvent validate(AddWorkshopCommand addWorkshopCommand){
         Optional<WorkshopAddedEvent> workshop = getWorkshop(addWorkshopCommand.getWorkshopId());
         if (!workshop.isPresent()) {
             switch (addWorkshopCommand.getAuthorEnum()) {
@@ -79,6 +206,10 @@ public class WorkshopAggregate implements EventSubscription {
     }
 
     public AbstractReservationAdded createEvent(AddReservationCommand addReservationCommand) {
+        return read(() -> validate(addReservationCommand));
+    }
+
+    private AbstractReservationAdded validate(AddReservationCommand addReservationCommand) {
         Optional<WorkshopAddedEvent> workshop = getWorkshop(addReservationCommand.getWorkshopReservation().getWorkshopId());
         if (workshop.isPresent()) {
             if (OffsetDateTime.now().isBefore(computeOpenTime(workshop.get()))) {
@@ -135,7 +266,11 @@ public class WorkshopAggregate implements EventSubscription {
     }
 
     public AbstractReservationCancelled createEvent(CancelReservationCommand cancelReservationCommand) {
-        int count = spotsReserved(userWorkshopEvents(cancelReservationCommand.getWorkshopId(), cancelReservationCommand.getEmail()));
+        return read(() -> validate(cancelReservationCommand));
+    }
+
+    private AbstractReservationCancelled validate(CancelReservationCommand cancelReservationCommand) {
+        int count = spotsReserved(cancelReservationCommand.getWorkshopId(), cancelReservationCommand.getEmail());
         if (count == 0) {
             throw new NoReservationFoundException(String.format("The reservation for %s in %s not found",cancelReservationCommand.getEmail(),cancelReservationCommand.getWorkshopId()));
         }
@@ -150,91 +285,200 @@ public class WorkshopAggregate implements EventSubscription {
     }
 
     public AbstractReservationCancelled createEvent(ParitalCancellationCommand paritalCancellationCommand) {
-        int count = spotsReserved(userWorkshopEvents(paritalCancellationCommand.getWorkshopId(), paritalCancellationCommand.getEmail()));
+        return read(() -> validate(paritalCancellationCommand));
+    }
+
+    private AbstractReservationCancelled validate(ParitalCancellationCommand paritalCancellationCommand) {
+        int count = spotsReserved(paritalCancellationCommand.getWorkshopId(), paritalCancellationCommand.getEmail());
         if (count == 0) {
             throw new NoReservationFoundException(String.format("The reservation for %s in %s not found",paritalCancellationCommand.getEmail(),paritalCancellationCommand.getWorkshopId()));
         }
         return new ReservationPartallyCancelled(System.currentTimeMillis(), nextRevision(), paritalCancellationCommand.getEmail(), paritalCancellationCommand.getWorkshopId(),paritalCancellationCommand.getNumberOfSpotsCancelled());
     }
 
-    private int spotsReserved(Stream<? extends UserWorkshopEvent> userWorkshops) {
-        return userWorkshops
-                .map(uw -> {
-                    if (uw instanceof AbstractReservationAdded) {
-                        return ((AbstractReservationAdded) uw).getNumberOfSeatsReserved();
-                    }
-                    if (uw instanceof AbstractReservationCancelled) {
-                        return -((AbstractReservationCancelled) uw).getNumSpotsCancelled();
-                    }
-                    return 0;
-                })
-                .reduce(Integer::sum)
-                .orElse(0);
+    private static int seatChange(UserWorkshopEvent userWorkshopEvent) {
+        if (userWorkshopEvent instanceof AbstractReservationAdded) {
+            return ((AbstractReservationAdded) userWorkshopEvent).getNumberOfSeatsReserved();
+        }
+        if (userWorkshopEvent instanceof AbstractReservationCancelled) {
+            return -((AbstractReservationCancelled) userWorkshopEvent).getNumSpotsCancelled();
+        }
+        return 0;
     }
 
-
-
-    private Stream<? extends UserWorkshopEvent> userWorkshopEvents(String workshopid,String email) {
-        return eventArrayList
-                .stream()
-                .filter(event -> event instanceof UserWorkshopEvent)
-                .map(event -> (UserWorkshopEvent) event)
-                .filter(uwe -> uwe.getEmail().equals(email) && uwe.getWorkshopId().equals(workshopid));
+    private Optional<Participation> participation(String workshopId, String email) {
+        Map<String, Participation> byEmail = participations.get(workshopId);
+        return Optional.ofNullable(byEmail != null ? byEmail.get(email) : null);
     }
 
-    private Stream<WorkshopAddedEvent> getAllWorkshops() {
-       return eventArrayList
-               .parallelStream()
-               .filter(event -> event instanceof WorkshopAddedEvent)
-               .map(event ->(WorkshopAddedEvent) event);
+    private int spotsReserved(String workshopId, String email) {
+        return participation(workshopId, email).map(participation -> participation.seatsReserved).orElse(0);
     }
 
     private Optional<WorkshopAddedEvent> getWorkshop(String workshopId) {
-        return getAllWorkshops()
-                .filter(workshop -> workshop.getWorkshopId().equals(workshopId))
-                .findFirst();
+        return Optional.ofNullable(workshops.get(workshopId));
     }
 
     private Optional<ReservationAddedByUser> getActiveReservationIfPresent(AddReservationCommand reservationAdded) {
-
-        Optional<UserWorkshopEvent> lastEvent =
-                userWorkshopEvents(reservationAdded.getWorkshopReservation().getWorkshopId(),
+        return participation(reservationAdded.getWorkshopReservation().getWorkshopId(),
                 reservationAdded.getWorkshopReservation().getEmail())
-                        .map(uw -> (UserWorkshopEvent)uw)
-                        .reduce((a, b) -> b);
+                .map(participation -> participation.awaitingConfirmation);
+    }
+
+    /**
+     * The email of the reservation with the token
+     * @throws NoReservationFoundException if there is no such reservation
+     */
+    public String emailForReservationToken(String reservationToken) {
+        return read(() -> findEmail(reservationToken));
+    }
 
-        if (lastEvent.isPresent() && lastEvent.get() instanceof ReservationAddedByUser){
-            return Optional.of((ReservationAddedByUser)lastEvent.get());
-        }else{
-            return Optional.empty();
+    private String findEmail(String reservationToken) {
+        String email = emailsByToken.get(reservationToken);
+        if (email == null) {
+            throw new NoReservationFoundException("Could not find reservation with token [" + reservationToken + "]");
         }
+        return email;
+    }
 
+    /**
+     * The workshops the email holds seats in or has a reservation waiting for confirmation in
+     */
+    public Set<String> workshopsForEmail(String email) {
+        return read(() -> new HashSet<>(workshopsByEmail.getOrDefault(email, Collections.emptySet())));
     }
 
     public EmailConfirmedByUser createEvent(ConfirmEmailCommand confirmEmailCommand) {
-        Optional<ReservationAddedByUser> event = eventArrayList
-                .stream()
-                .filter(ae -> ae instanceof ReservationAddedByUser)
-                .map(ae -> (ReservationAddedByUser) ae)
-                .filter(ae -> ae.getReservationToken().equals(confirmEmailCommand.getReservationToken()))
-                .findFirst();
-        if (!(event.isPresent())) {
-            throw new NoReservationFoundException("Could not find reservation with token [" + confirmEmailCommand.getReservationToken()+ "]");
-        }
-        ReservationAddedByUser reservation = event.get();
-        Optional<AbstractEvent> any = eventArrayList.stream()
-                .filter(ae -> {
-                    if (!(ae instanceof EmailConfirmedByUser)) {
-                        return false;
-                    }
-                    EmailConfirmedByUser confirmedByUser = (EmailConfirmedByUser) ae;
-                    return confirmedByUser.getEmail().equals(reservation.getEmail());
-                })
-                .findAny();
-        if (any.isPresent()) {
+        return read(() -> validate(confirmEmailCommand));
+    }
+
+    private EmailConfirmedByUser validate(ConfirmEmailCommand confirmEmailCommand) {
+        String email = findEmail(confirmEmailCommand.getReservationToken());
+        if (confirmedEmails.contains(email)) {
             throw new NoReservationFoundException("This email is already confirmed");
         }
-        return new EmailConfirmedByUser(reservation.getEmail(),System.currentTimeMillis(),nextRevision());
+        return new EmailConfirmedByUser(email,System.currentTimeMillis(),nextRevision());
+    }
+
+    @Override
+    public String snapshotName() {
+        return "workshopAggregate";
+    }
+
+    /**
+     * The events are not changed once added, so only the maps and participations are copied. They are written
+     * sorted, so that the same state is always written the same way. The workshops by email follow from the
+     * participations.
+     */
+    @Override
+    public SnapshotWriter captureSnapshot() {
+        return read(() -> {
+            List<WorkshopAddedEvent> workshopsCopy = new ArrayList<>(workshops.values());
+            Map<String, Map<String, Participation>> participationsCopy = new TreeMap<>();
+            for (Map.Entry<String, Map<String, Participation>> workshop : participations.entrySet()) {
+                Map<String, Participation> byEmail = new TreeMap<>();
+                workshop.getValue().forEach((email, participation) -> byEmail.put(email, participation.copy()));
+                participationsCopy.put(workshop.getKey(), byEmail);
+            }
+            Map<String, String> tokensCopy = new TreeMap<>(emailsByToken);
+            Map<String, Set<String>> cancelledTokensCopy = new TreeMap<>();
+            cancelledTokensByEmail.forEach((email, tokens) -> cancelledTokensCopy.put(email, new TreeSet<>(tokens)));
+            List<String> emails = new ArrayList<>(confirmedEmails);
+            return out -> {
+                workshopsCopy.sort((a, b) -> a.getWorkshopId().compareTo(b.getWorkshopId()));
+                out.writeInt(workshopsCopy.size());
+                for (WorkshopAddedEvent workshop : workshopsCopy) {
+                    out.writeEvent(workshop);
+                }
+                out.writeInt(participationsCopy.size());
+                for (Map.Entry<String, Map<String, Participation>> workshop : participationsCopy.entrySet()) {
+                    out.writeString(workshop.getKey());
+                    out.writeInt(workshop.getValue().size());
+                    for (Map.Entry<String, Participation> participation : workshop.getValue().entrySet()) {
+                        out.writeString(participation.getKey());
+                        out.writeInt(participation.getValue().seatsReserved);
+                        ReservationAddedByUser awaitingConfirmation = participation.getValue().awaitingConfirmation;
+                        out.writeBoolean(awaitingConfirmation != null);
+                        if (awaitingConfirmation != null) {
+                            out.writeEvent(awaitingConfirmation);
+                        }
+                        out.writeStrings(new TreeSet<>(participation.getValue().tokens));
+                    }
+                }
+                out.writeInt(tokensCopy.size());
+                for (Map.Entry<String, String> token : tokensCopy.entrySet()) {
+                    out.writeString(token.getKey());
+                    out.writeString(token.getValue());
+                }
+                out.writeInt(cancelledTokensCopy.size());
+                for (Map.Entry<String, Set<String>> cancelled : cancelledTokensCopy.entrySet()) {
+                    out.writeString(cancelled.getKey());
+                    out.writeStrings(cancelled.getValue());
+                }
+                Collections.sort(emails);
+                out.writeStrings(emails);
+            };
+        });
+    }
+
+    @Override
+    public Runnable readSnapshot(SnapshotInput in) throws IOException {
+        Map<String, WorkshopAddedEvent> restoredWorkshops = new HashMap<>();
+        int numberOfWorkshops = in.readInt();
+        for (int i = 0; i < numberOfWorkshops; i++) {
+            WorkshopAddedEvent workshop = (WorkshopAddedEvent) in.readEvent();
+            restoredWorkshops.put(workshop.getWorkshopId(), workshop);
+        }
+        Map<String, Map<String, Participation>> restoredParticipations = new HashMap<>();
+        Map<String, Set<String>> restoredWorkshopsByEmail = new HashMap<>();
+        int numberOfParticipatedWorkshops = in.readInt();
+        for (int i = 0; i < numberOfParticipatedWorkshops; i++) {
+            String workshopId = in.readString();
+            Map<String, Participation> byEmail = new HashMap<>();
+            int numberOfEmails = in.readInt();
+            for (int j = 0; j < numberOfEmails; j++) {
+                String email = in.readString();
+                Participation participation = new Participation();
+                participation.seatsReserved = in.readInt();
+                if (in.readBoolean()) {
+                    participation.awaitingConfirmation = (ReservationAddedByUser) in.readEvent();
+                }
+                participation.tokens.addAll(in.readStrings());
+                byEmail.put(email, participation);
+                restoredWorkshopsByEmail.computeIfAbsent(email, e -> new HashSet<>()).add(workshopId);
+            }
+            restoredParticipations.put(workshopId, byEmail);
+        }
+        Map<String, String> restoredTokens = new HashMap<>();
+        int numberOfTokens = in.readInt();
+        for (int i = 0; i < numberOfTokens; i++) {
+            restoredTokens.put(in.readString(), in.readString());
+        }
+        Map<String, Set<String>> restoredCancelledTokens = new HashMap<>();
+        int numberOfEmailsWithCancelledTokens = in.readInt();
+        for (int i = 0; i < numberOfEmailsWithCancelledTokens; i++) {
+            restoredCancelledTokens.put(in.readString(), new HashSet<>(in.readStrings()));
+        }
+        List<String> restoredEmails = in.readStrings();
+        return () -> {
+            lock.writeLock().lock();
+            try {
+                workshops.clear();
+                workshops.putAll(restoredWorkshops);
+                participations.clear();
+                participations.putAll(restoredParticipations);
+                workshopsByEmail.clear();
+                workshopsByEmail.putAll(restoredWorkshopsByEmail);
+                emailsByToken.clear();
+                emailsByToken.putAll(restoredTokens);
+                cancelledTokensByEmail.clear();
+                cancelledTokensByEmail.putAll(restoredCancelledTokens);
+                confirmedEmails.clear();
+                confirmedEmails.addAll(restoredEmails);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        };
     }
 
     public void setEmailSender(EmailSender emailSender) {
@@ -1,13 +1,44 @@
 package no.java.moosehead.api;
 
+import no.java.moosehead.commands.ParitalCancellationCommand;
 import no.java.moosehead.commands.WorkshopTypeEnum;
+import no.java.moosehead.domain.WorkshopReservation;
 import no.java.moosehead.repository.WorkshopData;
 
 import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 public interface AdminApi {
     ParticipantActionResult createWorkshop(WorkshopData workshopData,Instant startTime,Instant endTime,Instant openTime,int maxParticipants);
 
     ParticipantActionResult partialCancel(String email, String workshopid, int numSpotCanceled);
+
+    /**
+     * Like {@link #createWorkshop}, run by the command bus
+     */
+    CompletableFuture<ParticipantActionResult> createWorkshopAsync(WorkshopData workshopData,Instant startTime,Instant endTime,Instant openTime,int maxParticipants);
+
+    /**
+     * Like {@link #partialCancel}, run by the command bus
+     */
+    CompletableFuture<ParticipantActionResult> partialCancelAsync(String email, String workshopid, int numSpotCanceled);
+
+    /**
+     * Adds the reservations as admin in one batch. Each reservation is validated against the ones before it in
+     * the batch, and the events of all of them are written to the log together.
+     * @return the result of each reservation, in the same order
+     */
+    List<ParticipantActionResult> reservationBatch(List<WorkshopReservation> workshopReservations);
+
+    /**
+     * Like {@link #reservationBatch}, cancelling the reservations with the tokens as admin
+     */
+    List<ParticipantActionResult> cancellationBatch(List<String> reservationTokens);
+
+    /**
+     * Like {@link #reservationBatch}, for partial cancellations
+     */
+    List<ParticipantActionResult> partialCancelBatch(List<ParitalCancellationCommand> cancellations);
 }
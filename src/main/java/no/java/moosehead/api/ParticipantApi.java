@@ -10,6 +10,7 @@ import org.jsonbuddy.JsonObject;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 public interface ParticipantApi {
@@ -20,6 +21,21 @@ public interface ParticipantApi {
     public ParticipantActionResult cancellation(String reservationId, AuthorEnum authorEnum);
     public List<ParticipantReservation> myReservations(String email);
 
+    /**
+     * Like {@link #reservation}, run by the command bus
+     */
+    public CompletableFuture<ParticipantActionResult> reservationAsync(WorkshopReservation workshopReservation,AuthorEnum authorEnum);
+
+    /**
+     * Like {@link #confirmEmail}, run by the command bus
+     */
+    public CompletableFuture<ParticipantActionResult> confirmEmailAsync(String token);
+
+    /**
+     * Like {@link #cancellation}, run by the command bus
+     */
+    public CompletableFuture<ParticipantActionResult> cancellationAsync(String reservationId, AuthorEnum authorEnum);
+
     public static JsonObject asAdminJson(WorkshopInfo workshop) {
         JsonObject jsonObject = JsonFactory.jsonObject();
         jsonObject.put("id", workshop.getId());
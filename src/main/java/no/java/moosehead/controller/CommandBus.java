@@ -0,0 +1,175 @@
+package no.java.moosehead.controller;
+
+import no.java.moosehead.MoosheadException;
+import no.java.moosehead.api.ParticipantActionResult;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.core.ConcurrencyConflictException;
+import no.java.moosehead.eventstore.core.Eventstore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs commands submitted from any thread on one writer thread. The writer takes the queued commands in batches,
+ * validates each against the aggregate and appends its event without waiting for the log, so the events of a
+ * batch share one write to the log. The batch is then handed to a second thread, which waits until the events
+ * are durable and completes the results in order, while the writer goes on with the next batch.
+ * <p>
+ * Each event is appended with the stream version read before it was validated, so a command that raced with a
+ * command run outside the bus is validated again.
+ */
+public class CommandBus implements AutoCloseable {
+    private final Eventstore eventstore;
+    private final BlockingQueue<Pending<?>> queue;
+    private final int batchSize;
+    private final Thread writer;
+    private final ExecutorService completer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "command-results");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean closed = false;
+
+    /**
+     * @param queueSize commands submitted while this many are waiting are rejected
+     * @param batchSize the most commands appended before waiting for the log
+     */
+    public CommandBus(Eventstore eventstore, int queueSize, int batchSize) {
+        this.eventstore = eventstore;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        writer = new Thread(this::run, "command-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a command that appends the event created by createEvent to the stream
+     * @param result turns the durable event into the result. Called on the thread completing the results, in the
+     *               order the events were appended.
+     * @return the result, or an error result if the command was rejected
+     */
+    public <T extends AbstractEvent> CompletableFuture<ParticipantActionResult> submit(String streamId, Supplier<T> createEvent,
+                                                                                     Function<T, ParticipantActionResult> result) {
+        Pending<T> pending = new Pending<>(streamId, createEvent, result);
+        if (closed || !queue.offer(pending)) {
+            pending.future.complete(ParticipantActionResult.error("The server is busy, please try again"));
+        }
+        return pending.future;
+    }
+
+    /**
+     * The number of commands waiting for the writer
+     */
+    public int queued() {
+        return queue.size();
+    }
+
+    /**
+     * Stops taking commands. Commands already queued are run.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        completer.shutdown();
+    }
+
+    private void run() {
+        List<Pending<?>> batch = new ArrayList<>(batchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            List<Pending<?>> appended = new ArrayList<>(batch.size());
+            for (Pending<?> pending : batch) {
+                if (pending.append()) {
+                    appended.add(pending);
+                }
+            }
+            batch.clear();
+            if (!appended.isEmpty()) {
+                completer.execute(() -> complete(appended));
+            }
+        }
+    }
+
+    private void complete(List<Pending<?>> appended) {
+        for (Pending<?> pending : appended) {
+            pending.complete();
+        }
+    }
+
+    private class Pending<T extends AbstractEvent> {
+        private final String streamId;
+        private final Supplier<T> createEvent;
+        private final Function<T, ParticipantActionResult> result;
+        private final CompletableFuture<ParticipantActionResult> future = new CompletableFuture<>();
+        private T event;
+        private CompletableFuture<Long> durable;
+
+        Pending(String streamId, Supplier<T> createEvent, Function<T, ParticipantActionResult> result) {
+            this.streamId = streamId;
+            this.createEvent = createEvent;
+            this.result = result;
+        }
+
+        /**
+         * Called on the writer thread
+         * @return false if the command was rejected, and its result is completed
+         */
+        boolean append() {
+            try {
+                while (true) {
+                    long version = eventstore.streamVersion(streamId);
+                    event = createEvent.get();
+                    try {
+                        durable = eventstore.appendAsync(streamId, version, event);
+                        return true;
+                    } catch (ConcurrencyConflictException e) {
+                        // validate again
+                    }
+                }
+            } catch (MoosheadException e) {
+                future.complete(ParticipantActionResult.error(e.getMessage()));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+            return false;
+        }
+
+        /**
+         * Called on the completing thread
+         */
+        void complete() {
+            try {
+                eventstore.awaitAppended(durable);
+                future.complete(result.apply(event));
+            } catch (MoosheadException e) {
+                future.complete(ParticipantActionResult.error(e.getMessage()));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package no.java.moosehead.controller;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Runs commands while holding the lock of the partitions of the streams they touch. The partition of a stream is
+ * picked by its hash, so there is a fixed number of locks however many workshops and emails there are. Commands
+ * on the same stream run one at a time, so they do not conflict with each other, while commands on streams in
+ * different partitions run in parallel. The command runs on the calling thread.
+ */
+public class CommandPartitions {
+    private final ReentrantLock[] partitions;
+
+    public CommandPartitions(int numberOfPartitions) {
+        partitions = new ReentrantLock[numberOfPartitions];
+        for (int i = 0; i < numberOfPartitions; i++) {
+            partitions[i] = new ReentrantLock();
+        }
+    }
+
+    public int numberOfPartitions() {
+        return partitions.length;
+    }
+
+    public int partitionOf(String streamId) {
+        return Math.floorMod(streamId.hashCode(), partitions.length);
+    }
+
+    /**
+     * Runs the command holding the lock of the partition of the stream. Exceptions thrown by the command are
+     * thrown here. A command started from a command holding the lock runs at once, but it must not touch
+     * streams in partitions the outer command has not locked.
+     */
+    public <T> T execute(String streamId, Supplier<T> command) {
+        return execute(Collections.singleton(streamId), command);
+    }
+
+    /**
+     * Runs a command that touches several streams holding the locks of all their partitions. The locks are
+     * taken in partition order, so two commands waiting for each other's partitions can not deadlock.
+     */
+    public <T> T execute(Collection<String> streamIds, Supplier<T> command) {
+        TreeSet<Integer> locked = new TreeSet<>();
+        for (String streamId : streamIds) {
+            locked.add(partitionOf(streamId));
+        }
+        for (int partition : locked) {
+            partitions[partition].lock();
+        }
+        try {
+            return command.get();
+        } finally {
+            for (int partition : locked.descendingSet()) {
+                partitions[partition].unlock();
+            }
+        }
+    }
+}
@@ -6,7 +6,7 @@ import no.java.moosehead.eventstore.core.Eventstore;
 import no.java.moosehead.saga.EmailSender;
 
 import java.io.*;
-import java.util.List;
+import java.util.*;
 
 public class ManualConfirmationSender {
     private EmailSender emailSender;
@@ -27,15 +27,8 @@ public class ManualConfirmationSender {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        List<AbstractEvent> eventstorageCopy = eventstore.getEventstorageCopy();
         for (String reservationId : manualContent.split("\n")) {
-            ReservationAddedByUser reservationAddedByUser = eventstorageCopy.stream()
-                    .filter(ae -> {
-                        String id = "" + ae.getRevisionId();
-                        return (ae instanceof ReservationAddedByUser) && id.equals(reservationId);
-                    })
-                    .map(ae -> (ReservationAddedByUser) ae)
-                    .findAny().orElse(null);
+            ReservationAddedByUser reservationAddedByUser = readReservation(eventstore, reservationId);
             if (reservationAddedByUser == null) {
                 System.out.println(String.format("Event %s not found",reservationId));
                 continue;
@@ -49,6 +42,17 @@ public class ManualConfirmationSender {
 
     }
 
+    private static ReservationAddedByUser readReservation(Eventstore eventstore, String reservationId) {
+        long revisionId;
+        try {
+            revisionId = Long.parseLong(reservationId);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        Optional<AbstractEvent> event = eventstore.readEvent(revisionId);
+        return event.filter(ae -> ae instanceof ReservationAddedByUser).map(ae -> (ReservationAddedByUser) ae).orElse(null);
+    }
+
     private static String toString(InputStream inputStream) throws IOException {
         try (Reader reader = new BufferedReader(new InputStreamReader(inputStream, "utf-8"))) {
             StringBuilder result = new StringBuilder();
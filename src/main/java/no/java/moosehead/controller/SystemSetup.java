@@ -5,7 +5,13 @@ import no.java.moosehead.commands.AddWorkshopCommand;
 import no.java.moosehead.commands.AuthorEnum;
 import no.java.moosehead.eventstore.WorkshopAddedEvent;
 import no.java.moosehead.eventstore.core.Eventstore;
+import no.java.moosehead.eventstore.core.LogTailer;
+import no.java.moosehead.eventstore.core.ReplicationFollower;
+import no.java.moosehead.eventstore.core.ReplicationLeader;
+import no.java.moosehead.eventstore.snapshot.SnapshotStore;
+import no.java.moosehead.eventstore.utils.EventLog;
 import no.java.moosehead.eventstore.utils.FileHandler;
+import no.java.moosehead.eventstore.utils.SegmentedEventLog;
 import no.java.moosehead.eventstore.utils.TokenGenerator;
 import no.java.moosehead.projections.Workshop;
 import no.java.moosehead.projections.WorkshopListProjection;
@@ -29,6 +35,12 @@ public class SystemSetup {
     private WorkshopListProjection workshopListProjection;
     private EmailSender emailSender;
     private TokenGenerator tokenGenerator;
+    private CommandPartitions commandPartitions;
+    private CommandBus commandBus;
+    private LogTailer logTailer;
+    private ReplicationLeader replicationLeader;
+    private ReplicationFollower replicationFollower;
+    private EmailSaga emailSaga;
     private boolean initLoaded = false;
 
     private SystemSetup() {
@@ -40,9 +52,12 @@ public class SystemSetup {
             return;
         }
         initLoaded = true;
+        long start = System.currentTimeMillis();
         tokenGenerator = new TokenGenerator();
+        boolean readReplica = Configuration.eventstoreReadReplica() && Configuration.eventstoreFilename() != null;
+        boolean follower = Configuration.replicationLeader() != null && Configuration.eventstoreFilename() != null && !readReplica;
         if (Configuration.eventstoreFilename() != null) {
-            eventstore = new Eventstore(new FileHandler(Configuration.eventstoreFilename()));
+            eventstore = new Eventstore(createEventLog(), Configuration.eventstoreReplayThreads(), Configuration.eventstoreKeepEventsInMemory(), readReplica);
         } else {
             eventstore = new Eventstore();
         }
@@ -50,13 +65,40 @@ public class SystemSetup {
         workshopAggregate = new WorkshopAggregate();
         workshopListProjection = new WorkshopListProjection();
         eventstore.addEventSubscriber(workshopAggregate);
-        eventstore.addEventSubscriber(workshopListProjection);
-        eventstore.addEventSubscriber(new EmailSaga());
+        if (Configuration.eventstoreAsyncDispatch()) {
+            eventstore.addAsyncEventSubscriber(workshopListProjection, Configuration.eventstoreDispatchBufferSize());
+        } else {
+            eventstore.addEventSubscriber(workshopListProjection);
+        }
+        // The process taking writes sends the emails. A follower keeps its saga up to date for when it is promoted
+        if (!readReplica) {
+            addEmailSaga(!follower);
+        }
         eventstore.addEventSubscriber(workshopRepository);
+        if (Configuration.eventstoreSnapshotDirectory() != null && !readReplica) {
+            eventstore.enableSnapshots(new SnapshotStore(Configuration.eventstoreSnapshotDirectory()), Configuration.eventstoreSnapshotInterval());
+        }
         workshopController = new WorkshopController();
+        commandPartitions = new CommandPartitions(Configuration.commandPartitions());
+        commandBus = new CommandBus(eventstore, Configuration.commandQueueSize(), Configuration.commandBatchSize());
         emailSender = Configuration.smtpServer() != null ? new SmtpEmailSender() : new DummyEmailSender();
         workshopAggregate.setEmailSender(emailSender);
 
+        if (readReplica) {
+            eventstore.playbackEventsToSubscribers();
+            logTailer = eventstore.tailLog(Configuration.eventstoreTailMillis());
+            System.out.println("Read replica startup done in " + (System.currentTimeMillis() - start) + " ms with " + eventstore.numberOfEvents() + " events");
+            return;
+        }
+
+        if (follower) {
+            eventstore.playbackEventsToSubscribers();
+            String[] leader = Configuration.replicationLeader().split(":");
+            replicationFollower = eventstore.follow(leader[0], Integer.parseInt(leader[1]), Configuration.replicationRetryMillis());
+            System.out.println("Follower startup done in " + (System.currentTimeMillis() - start) + " ms with " + eventstore.numberOfEvents() + " events");
+            return;
+        }
+
         if (eventstore.numberOfWorkshops() == 0L) {
             createAllWorkshops();
         }
@@ -64,7 +106,48 @@ public class SystemSetup {
         new ManualConfirmationSender(emailSender).doManual(eventstore);
 
         eventstore.playbackEventsToSubscribers();
+        startReplication();
+        System.out.println("Startup done in " + (System.currentTimeMillis() - start) + " ms with " + eventstore.numberOfEvents() + " events");
+    }
+
+    private void addEmailSaga(boolean sendEmails) {
+        emailSaga = new EmailSaga(sendEmails);
+        if (Configuration.eventstoreAsyncDispatch()) {
+            eventstore.addAsyncEventSubscriber(emailSaga, Configuration.eventstoreDispatchBufferSize());
+        } else {
+            eventstore.addEventSubscriber(emailSaga);
+        }
+    }
+
+    private void startReplication() {
+        if (Configuration.replicationPort() != null && Configuration.eventstoreFilename() != null) {
+            replicationLeader = eventstore.startReplication(Configuration.replicationPort(), Configuration.replicationAckPolicy(),
+                    Configuration.replicationAckTimeoutMillis(), Configuration.eventstoreDispatchBufferSize());
+        }
+    }
 
+    /**
+     * Turns this follower into the process taking writes. It sends the emails for the events added from now on,
+     * and replicates to followers if a replication port is configured. The old leader must be stopped first.
+     */
+    public synchronized void promote() {
+        if (replicationFollower == null) {
+            throw new IllegalStateException("This server is not following a leader");
+        }
+        emailSaga.sendEmailsFrom(replicationFollower.promote());
+        replicationFollower = null;
+        startReplication();
+    }
+
+    public boolean isFollowing() {
+        return replicationFollower != null;
+    }
+
+    private EventLog createEventLog() {
+        if ("segmented".equals(Configuration.eventstoreStorage())) {
+            return new SegmentedEventLog(Configuration.eventstoreFilename(), Configuration.eventstoreSegmentSize(), Configuration.eventstoreDurability(), Configuration.eventstoreGroupCommitMillis(), Configuration.eventstoreFormat(), Configuration.eventstoreCompressSegments());
+        }
+        return new FileHandler(Configuration.eventstoreFilename(), Configuration.eventstoreDurability(), Configuration.eventstoreGroupCommitMillis(), Configuration.eventstoreFormat());
     }
 
     public boolean needToLoadSetup() {
@@ -165,6 +248,35 @@ public class SystemSetup {
         return emailSender;
     }
 
+    public CommandPartitions commandPartitions() {
+        return commandPartitions;
+    }
+
+    public CommandBus commandBus() {
+        return commandBus;
+    }
+
+    /**
+     * Reads what the primary appends to the log, or null if this process owns the log
+     */
+    public LogTailer logTailer() {
+        return logTailer;
+    }
+
+    /**
+     * Streams the events to followers, or null if this process does not replicate
+     */
+    public ReplicationLeader replicationLeader() {
+        return replicationLeader;
+    }
+
+    /**
+     * Receives the events from the leader, or null if this process takes writes
+     */
+    public ReplicationFollower replicationFollower() {
+        return replicationFollower;
+    }
+
     public TokenGenerator revisionGenerator() {
         return tokenGenerator;
     }
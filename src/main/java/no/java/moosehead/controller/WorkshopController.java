@@ -9,7 +9,9 @@ import no.java.moosehead.domain.WorkshopReservation;
 import no.java.moosehead.eventstore.AbstractReservationAdded;
 import no.java.moosehead.eventstore.AbstractReservationCancelled;
 import no.java.moosehead.eventstore.EmailConfirmedByUser;
-import no.java.moosehead.eventstore.WorkshopAddedEvent;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.core.ConcurrencyConflictException;
+import no.java.moosehead.eventstore.core.Eventstore;
 import no.java.moosehead.projections.Participant;
 import no.java.moosehead.projections.Workshop;
 import no.java.moosehead.repository.WorkshopData;
@@ -17,11 +19,20 @@ import no.java.moosehead.repository.WorkshopRepository;
 import no.java.moosehead.web.Configuration;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class WorkshopController implements ParticipantApi,AdminApi {
+    private static final long PROJECTION_WAIT_MILLIS = 5000;
+
     @Override
     public WorkshopInfo getWorkshop(String workshopid) {
         List<Workshop> workshops = SystemSetup.instance().workshopListProjection().getWorkshops();
@@ -87,14 +98,16 @@ public class WorkshopController implements ParticipantApi,AdminApi {
         AbstractReservationAdded event;
 
         WorkshopAggregate workshopAggregate = SystemSetup.instance().workshopAggregate();
-        synchronized (workshopAggregate) {
-            try {
-                event = workshopAggregate.createEvent(arc);
-            } catch (MoosheadException e) {
-                return ParticipantActionResult.error(e.getMessage());
-            }
-            SystemSetup.instance().eventstore().addEvent(event);
+        try {
+            event = append(Eventstore.workshopStream(workshopReservation.getWorkshopId()), () -> workshopAggregate.createEvent(arc));
+        } catch (MoosheadException e) {
+            return ParticipantActionResult.error(e.getMessage());
         }
+        return reservationResult(event);
+    }
+
+    private ParticipantActionResult reservationResult(AbstractReservationAdded event) {
+        awaitWorkshopListProjection(event);
         if (SystemSetup.instance().workshopListProjection().isEmailConfirmed(event.getEmail())) {
             return readStatus(event.getReservationToken());
         }
@@ -114,13 +127,10 @@ public class WorkshopController implements ParticipantApi,AdminApi {
         CancelReservationCommand cancelReservationCommand = new CancelReservationCommand(participant.getWorkshopReservation().getEmail(), participant.getWorkshopId(), authorEnum);
         AbstractReservationCancelled event;
         WorkshopAggregate workshopAggregate = SystemSetup.instance().workshopAggregate();
-        synchronized (workshopAggregate) {
-            try {
-                event = workshopAggregate.createEvent(cancelReservationCommand);
-            } catch (MoosheadException e) {
-                return ParticipantActionResult.error(e.getMessage());
-            }
-            SystemSetup.instance().eventstore().addEvent(event);
+        try {
+            event = append(Eventstore.workshopStream(participant.getWorkshopId()), () -> workshopAggregate.createEvent(cancelReservationCommand));
+        } catch (MoosheadException e) {
+            return ParticipantActionResult.error(e.getMessage());
         }
         return ParticipantActionResult.ok();
     }
@@ -131,15 +141,110 @@ public class WorkshopController implements ParticipantApi,AdminApi {
         ConfirmEmailCommand confirmEmailCommand = new ConfirmEmailCommand(token);
         EmailConfirmedByUser emailConfirmedByUser;
         WorkshopAggregate workshopAggregate = SystemSetup.instance().workshopAggregate();
-        synchronized (workshopAggregate) {
+        try {
+            String email = workshopAggregate.emailForReservationToken(token);
+            emailConfirmedByUser = appendConfirmation(email, () -> workshopAggregate.createEvent(confirmEmailCommand));
+        } catch (MoosheadException e) {
+            return ParticipantActionResult.error(e.getMessage());
+        }
+        awaitWorkshopListProjection(emailConfirmedByUser);
+        return readStatus(token);
+    }
+
+    @Override
+    public CompletableFuture<ParticipantActionResult> reservationAsync(WorkshopReservation workshopReservation, AuthorEnum authorEnum) {
+        AddReservationCommand arc = new AddReservationCommand(workshopReservation,authorEnum);
+        WorkshopAggregate workshopAggregate = SystemSetup.instance().workshopAggregate();
+        return SystemSetup.instance().commandBus().submit(Eventstore.workshopStream(workshopReservation.getWorkshopId()),
+                () -> workshopAggregate.createEvent(arc), this::reservationResult);
+    }
+
+    @Override
+    public CompletableFuture<ParticipantActionResult> cancellationAsync(String reservationId, AuthorEnum authorEnum) {
+        Optional<Participant> optByReservationId = SystemSetup.instance().workshopListProjection().findByReservationToken(reservationId);
+        if (!optByReservationId.isPresent()) {
+            return CompletableFuture.completedFuture(ParticipantActionResult.error("Unknown token, reservation not found"));
+        }
+        Participant participant = optByReservationId.get();
+        CancelReservationCommand cancelReservationCommand = new CancelReservationCommand(participant.getWorkshopReservation().getEmail(), participant.getWorkshopId(), authorEnum);
+        WorkshopAggregate workshopAggregate = SystemSetup.instance().workshopAggregate();
+        return SystemSetup.instance().commandBus().submit(Eventstore.workshopStream(participant.getWorkshopId()),
+                () -> workshopAggregate.createEvent(cancelReservationCommand), event -> ParticipantActionResult.ok());
+    }
+
+    @Override
+    public CompletableFuture<ParticipantActionResult> confirmEmailAsync(String token) {
+        ConfirmEmailCommand confirmEmailCommand = new ConfirmEmailCommand(token);
+        WorkshopAggregate workshopAggregate = SystemSetup.instance().workshopAggregate();
+        String streamId;
+        try {
+            streamId = Eventstore.emailStream(workshopAggregate.emailForReservationToken(token));
+        } catch (MoosheadException e) {
+            return CompletableFuture.completedFuture(ParticipantActionResult.error(e.getMessage()));
+        }
+        return SystemSetup.instance().commandBus().submit(streamId, () -> workshopAggregate.createEvent(confirmEmailCommand), event -> {
+            awaitWorkshopListProjection(event);
+            return readStatus(token);
+        });
+    }
+
+    /**
+     * Validates the command and appends the event to the stream, holding the lock of the command partition of
+     * the stream. Commands on the stream are then only in conflict with events added outside the partitions,
+     * and are validated again if that happened.
+     */
+    private <T extends AbstractEvent> T append(String streamId, Supplier<T> createEvent) {
+        return SystemSetup.instance().commandPartitions().execute(streamId, () -> appendLocked(streamId, createEvent));
+    }
+
+    /**
+     * The confirmation moves the email off the waiting lists of its workshops, so commands on them wait. A
+     * reservation on another workshop may come in before the locks are taken, so the workshops are looked up
+     * again holding the locks, and the locks are taken again if there are more of them.
+     */
+    private EmailConfirmedByUser appendConfirmation(String email, Supplier<EmailConfirmedByUser> createEvent) {
+        String streamId = Eventstore.emailStream(email);
+        while (true) {
+            Set<String> lockedStreams = streamsForConfirmation(email);
+            EmailConfirmedByUser event = SystemSetup.instance().commandPartitions().execute(lockedStreams, () ->
+                    lockedStreams.containsAll(streamsForConfirmation(email)) ? appendLocked(streamId, createEvent) : null);
+            if (event != null) {
+                return event;
+            }
+        }
+    }
+
+    private static Set<String> streamsForConfirmation(String email) {
+        Set<String> streams = new HashSet<>();
+        streams.add(Eventstore.emailStream(email));
+        for (String workshopId : SystemSetup.instance().workshopAggregate().workshopsForEmail(email)) {
+            streams.add(Eventstore.workshopStream(workshopId));
+        }
+        return streams;
+    }
+
+    private static <T extends AbstractEvent> T appendLocked(String streamId, Supplier<T> createEvent) {
+        Eventstore eventstore = SystemSetup.instance().eventstore();
+        while (true) {
+            long version = eventstore.streamVersion(streamId);
+            T event = createEvent.get();
             try {
-                emailConfirmedByUser = workshopAggregate.createEvent(confirmEmailCommand);
-            } catch (MoosheadException e) {
-                return ParticipantActionResult.error(e.getMessage());
+                eventstore.append(streamId, version, event);
+                return event;
+            } catch (ConcurrencyConflictException e) {
+                // validate again
             }
-            SystemSetup.instance().eventstore().addEvent(emailConfirmedByUser);
         }
-        return readStatus(token);
+    }
+
+    /**
+     * The projection may be updated on its own thread. Wait for it before reading what the command changed.
+     */
+    private void awaitWorkshopListProjection(AbstractEvent event) {
+        SystemSetup systemSetup = SystemSetup.instance();
+        if (!systemSetup.eventstore().awaitSubscriber(systemSetup.workshopListProjection(), event.getRevisionId(), PROJECTION_WAIT_MILLIS)) {
+            System.out.println("Workshop list projection is behind revision " + event.getRevisionId());
+        }
     }
 
 
@@ -174,32 +279,173 @@ public class WorkshopController implements ParticipantApi,AdminApi {
                 .withWorkshopType(workshopData.getWorkshopTypeEnum())
                 .create();
         WorkshopAggregate workshopAggregate = SystemSetup.instance().workshopAggregate();
-        synchronized (workshopAggregate) {
-            WorkshopAddedEvent event;
-            try {
-                event = workshopAggregate.createEvent(addWorkshopCommand);
-            } catch (MoosheadException e) {
-                return ParticipantActionResult.error(e.getMessage());
-            }
-            SystemSetup.instance().eventstore().addEvent(event);
+        try {
+            append(Eventstore.workshopStream(workshopData.getId()), () -> workshopAggregate.createEvent(addWorkshopCommand));
+        } catch (MoosheadException e) {
+            return ParticipantActionResult.error(e.getMessage());
         }
         return ParticipantActionResult.ok();
     }
 
+    @Override
+    public CompletableFuture<ParticipantActionResult> createWorkshopAsync(WorkshopData workshopData, Instant startTime, Instant endTime, Instant openTime, int maxParticipants) {
+        AddWorkshopCommand addWorkshopCommand = AddWorkshopCommand.builder()
+                .withWorkshopId(workshopData.getId())
+                .withWorkshopData(Optional.of(workshopData))
+                .withStartTime(startTime)
+                .withEndTime(endTime)
+                .withNumberOfSeats(maxParticipants)
+                .withAuthor(AuthorEnum.ADMIN)
+                .withWorkshopType(workshopData.getWorkshopTypeEnum())
+                .create();
+        WorkshopAggregate workshopAggregate = SystemSetup.instance().workshopAggregate();
+        return SystemSetup.instance().commandBus().submit(Eventstore.workshopStream(workshopData.getId()),
+                () -> workshopAggregate.createEvent(addWorkshopCommand), event -> ParticipantActionResult.ok());
+    }
+
     @Override
     public ParticipantActionResult partialCancel(String email, String workshopid, int numSpotCanceled) {
         ParitalCancellationCommand cancellationCommand = new ParitalCancellationCommand(email, workshopid, numSpotCanceled);
         WorkshopAggregate workshopAggregate = SystemSetup.instance().workshopAggregate();
-        synchronized (workshopAggregate) {
-            AbstractReservationCancelled event;
+        try {
+            append(Eventstore.workshopStream(workshopid), () -> workshopAggregate.createEvent(cancellationCommand));
+        } catch (MoosheadException e) {
+            return ParticipantActionResult.error(e.getMessage());
+        }
+        return ParticipantActionResult.ok();
+    }
+
+    @Override
+    public CompletableFuture<ParticipantActionResult> partialCancelAsync(String email, String workshopid, int numSpotCanceled) {
+        ParitalCancellationCommand cancellationCommand = new ParitalCancellationCommand(email, workshopid, numSpotCanceled);
+        WorkshopAggregate workshopAggregate = SystemSetup.instance().workshopAggregate();
+        return SystemSetup.instance().commandBus().submit(Eventstore.workshopStream(workshopid),
+                () -> workshopAggregate.createEvent(cancellationCommand), event -> ParticipantActionResult.ok());
+    }
+
+    @Override
+    public List<ParticipantActionResult> reservationBatch(List<WorkshopReservation> workshopReservations) {
+        WorkshopAggregate workshopAggregate = SystemSetup.instance().workshopAggregate();
+        List<BatchCommand<?>> commands = new ArrayList<>();
+        for (WorkshopReservation workshopReservation : workshopReservations) {
+            AddReservationCommand arc = new AddReservationCommand(workshopReservation, AuthorEnum.ADMIN);
+            commands.add(new BatchCommand<>(Eventstore.workshopStream(workshopReservation.getWorkshopId()),
+                    () -> workshopAggregate.createEvent(arc), this::reservationResult));
+        }
+        return appendBatch(commands);
+    }
+
+    @Override
+    public List<ParticipantActionResult> cancellationBatch(List<String> reservationTokens) {
+        WorkshopAggregate workshopAggregate = SystemSetup.instance().workshopAggregate();
+        List<BatchCommand<?>> commands = new ArrayList<>();
+        for (String reservationToken : reservationTokens) {
+            Optional<Participant> optByReservationId = SystemSetup.instance().workshopListProjection().findByReservationToken(reservationToken);
+            if (!optByReservationId.isPresent()) {
+                commands.add(BatchCommand.rejected("Unknown token, reservation not found"));
+                continue;
+            }
+            Participant participant = optByReservationId.get();
+            CancelReservationCommand cancelReservationCommand = new CancelReservationCommand(participant.getWorkshopReservation().getEmail(), participant.getWorkshopId(), AuthorEnum.ADMIN);
+            commands.add(new BatchCommand<>(Eventstore.workshopStream(participant.getWorkshopId()),
+                    () -> workshopAggregate.createEvent(cancelReservationCommand), event -> ParticipantActionResult.ok()));
+        }
+        return appendBatch(commands);
+    }
+
+    @Override
+    public List<ParticipantActionResult> partialCancelBatch(List<ParitalCancellationCommand> cancellations) {
+        WorkshopAggregate workshopAggregate = SystemSetup.instance().workshopAggregate();
+        List<BatchCommand<?>> commands = new ArrayList<>();
+        for (ParitalCancellationCommand cancellationCommand : cancellations) {
+            commands.add(new BatchCommand<>(Eventstore.workshopStream(cancellationCommand.getWorkshopId()),
+                    () -> workshopAggregate.createEvent(cancellationCommand), event -> ParticipantActionResult.ok()));
+        }
+        return appendBatch(commands);
+    }
+
+    /**
+     * Validates and appends the commands one after the other, each holding the lock of its own stream only, so
+     * other commands are not held up for the whole batch. The commands run in order on this thread, so each one
+     * sees the events of the commands before it. The events are not waited for one by one, so they share writes
+     * to the log. Each event is then waited for, so a failed write is reported for the command it belongs to.
+     */
+    private List<ParticipantActionResult> appendBatch(List<BatchCommand<?>> commands) {
+        Eventstore eventstore = SystemSetup.instance().eventstore();
+        CommandPartitions commandPartitions = SystemSetup.instance().commandPartitions();
+        for (BatchCommand<?> command : commands) {
+            if (command.streamId != null) {
+                commandPartitions.execute(command.streamId, () -> {
+                    command.append(eventstore);
+                    return null;
+                });
+            }
+        }
+        for (BatchCommand<?> command : commands) {
+            command.awaitAppended(eventstore);
+        }
+        return commands.stream()
+                .map(BatchCommand::result)
+                .collect(Collectors.toList());
+    }
+
+    private static class BatchCommand<T extends AbstractEvent> {
+        private final String streamId;
+        private final Supplier<T> createEvent;
+        private final Function<T, ParticipantActionResult> result;
+        private ParticipantActionResult error;
+        private T event;
+        private CompletableFuture<Long> appended;
+
+        BatchCommand(String streamId, Supplier<T> createEvent, Function<T, ParticipantActionResult> result) {
+            this.streamId = streamId;
+            this.createEvent = createEvent;
+            this.result = result;
+        }
+
+        static BatchCommand<AbstractEvent> rejected(String errormessage) {
+            BatchCommand<AbstractEvent> command = new BatchCommand<>(null, null, null);
+            command.error = ParticipantActionResult.error(errormessage);
+            return command;
+        }
+
+        /**
+         * Validates and appends the command, or records why it was rejected
+         */
+        void append(Eventstore eventstore) {
+            if (error != null) {
+                return;
+            }
             try {
-                event = workshopAggregate.createEvent(cancellationCommand);
-            } catch (MoosheadException e) {
-                return ParticipantActionResult.error(e.getMessage());
+                while (true) {
+                    long version = eventstore.streamVersion(streamId);
+                    event = createEvent.get();
+                    try {
+                        appended = eventstore.appendAsync(streamId, version, event);
+                        return;
+                    } catch (ConcurrencyConflictException e) {
+                        // validate again
+                    }
+                }
+            } catch (RuntimeException e) {
+                error = ParticipantActionResult.error(e.getMessage());
             }
-            SystemSetup.instance().eventstore().addEvent(event);
         }
-        return ParticipantActionResult.ok();
+
+        void awaitAppended(Eventstore eventstore) {
+            if (appended == null) {
+                return;
+            }
+            try {
+                eventstore.awaitAppended(appended);
+            } catch (RuntimeException e) {
+                error = ParticipantActionResult.error(e.getMessage());
+            }
+        }
+
+        ParticipantActionResult result() {
+            return error != null ? error : result.apply(event);
+        }
     }
 
     private ParticipantActionResult readStatus(String token) {
@@ -0,0 +1,220 @@
+package no.java.moosehead.eventstore.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands events to a subscriber on its own thread. Events are queued in a bounded ring buffer with one producer,
+ * the thread adding events, and one consumer. When the buffer is full the producer waits, while holding the lock
+ * of the eventstore, so a slow subscriber holds up appends. A subscription created with an overflow handler
+ * instead stops taking events when the buffer is full, so the subscriber can read the rest from the log.
+ */
+public class AsyncSubscription implements EventSubscription {
+    private final EventSubscription subscriber;
+    private final AbstractEvent[] buffer;
+    private final int mask;
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private volatile long publishedRevision = 0;
+    private volatile long handledRevision = 0;
+    private volatile boolean consumerWaiting = false;
+    private volatile Thread producerWaiting;
+    private volatile boolean closed = false;
+    private volatile boolean overflowed = false;
+    private final Runnable onOverflow;
+    private final AtomicInteger awaiting = new AtomicInteger();
+    private final Object caughtUp = new Object();
+    private final Thread thread;
+
+    /**
+     * @param bufferSize rounded up to a power of two
+     */
+    public AsyncSubscription(EventSubscription subscriber, int bufferSize, String name) {
+        this(subscriber, bufferSize, name, null);
+    }
+
+    /**
+     * @param bufferSize rounded up to a power of two
+     * @param onOverflow called on the adding thread, with the eventstore locked, the first time an event does not
+     *                   fit in the buffer. That event and the ones after it are dropped. Null to wait instead.
+     */
+    public AsyncSubscription(EventSubscription subscriber, int bufferSize, String name, Runnable onOverflow) {
+        this.subscriber = subscriber;
+        this.onOverflow = onOverflow;
+        int capacity = Integer.highestOneBit(Math.max(2, bufferSize) * 2 - 1);
+        this.buffer = new AbstractEvent[capacity];
+        this.mask = capacity - 1;
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public EventSubscription getSubscriber() {
+        return subscriber;
+    }
+
+    @Override
+    public void eventAdded(AbstractEvent event) {
+        if (closed) {
+            throw new IllegalStateException("Subscription " + thread.getName() + " is closed");
+        }
+        if (overflowed) {
+            return;
+        }
+        long sequence = published.get();
+        if (onOverflow != null && sequence - consumed.get() >= buffer.length) {
+            overflowed = true;
+            onOverflow.run();
+            return;
+        }
+        while (sequence - consumed.get() >= buffer.length) {
+            producerWaiting = Thread.currentThread();
+            if (sequence - consumed.get() >= buffer.length) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            producerWaiting = null;
+        }
+        buffer[(int) sequence & mask] = event;
+        publishedRevision = Math.max(publishedRevision, event.getRevisionId());
+        published.set(sequence + 1);
+        if (consumerWaiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * True when an event was dropped because the buffer was full
+     */
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * The highest revision handed to the subscriber
+     */
+    public long handledRevision() {
+        return handledRevision;
+    }
+
+    /**
+     * How many revisions the subscriber is behind the events added to it
+     */
+    public long lag() {
+        return publishedRevision - handledRevision;
+    }
+
+    /**
+     * The number of events waiting in the buffer
+     */
+    public long queued() {
+        return published.get() - consumed.get();
+    }
+
+    /**
+     * Waits until the subscriber has handled an event with the given revision or higher. Events appended
+     * concurrently may be added out of revision order, so if the revision has been added already this waits
+     * for everything added so far.
+     * @return false if the timeout passed first
+     */
+    public boolean awaitRevision(long revision, long timeout, TimeUnit unit) {
+        if (revision <= publishedRevision) {
+            return awaitCaughtUp(timeout, unit);
+        }
+        return await(() -> handledRevision >= revision, timeout, unit);
+    }
+
+    /**
+     * Waits until the subscriber has handled every event added so far
+     * @return false if the timeout passed first
+     */
+    public boolean awaitCaughtUp(long timeout, TimeUnit unit) {
+        long target = published.get();
+        return await(() -> consumed.get() >= target, timeout, unit);
+    }
+
+    private interface Condition {
+        boolean isMet();
+    }
+
+    private boolean await(Condition condition, long timeout, TimeUnit unit) {
+        if (condition.isMet()) {
+            return true;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        awaiting.incrementAndGet();
+        try {
+            synchronized (caughtUp) {
+                while (!condition.isMet()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(caughtUp, remaining);
+                }
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return condition.isMet();
+        } finally {
+            awaiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Lets the subscriber handle what is queued and stops the thread
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            long sequence = consumed.get();
+            if (sequence == published.get()) {
+                if (closed) {
+                    return;
+                }
+                consumerWaiting = true;
+                if (sequence == published.get() && !closed) {
+                    LockSupport.park(this);
+                }
+                consumerWaiting = false;
+                continue;
+            }
+            int index = (int) sequence & mask;
+            AbstractEvent event = buffer[index];
+            buffer[index] = null;
+            try {
+                if (event instanceof SnapshotBarrier) {
+                    ((SnapshotBarrier) event).reached();
+                } else {
+                    subscriber.eventAdded(event);
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Subscriber " + thread.getName() + " failed on event " + event.getRevisionId() + ": " + e);
+            }
+            if (event.getRevisionId() > handledRevision) {
+                handledRevision = event.getRevisionId();
+            }
+            consumed.set(sequence + 1);
+            Thread producer = producerWaiting;
+            if (producer != null) {
+                LockSupport.unpark(producer);
+            }
+            if (awaiting.get() > 0) {
+                synchronized (caughtUp) {
+                    caughtUp.notifyAll();
+                }
+            }
+        }
+    }
+}
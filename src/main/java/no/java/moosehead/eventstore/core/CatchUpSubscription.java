@@ -0,0 +1,190 @@
+package no.java.moosehead.eventstore.core;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands a subscriber the stored events from a global position and then the live events. The stored events are
+ * read on a thread of its own. When the end is reached the subscription asks the eventstore to add it as a live
+ * subscriber, which only succeeds if nothing was added in the meantime, otherwise it reads on from where it stopped.
+ * Live events are handed over through an {@link AsyncSubscription}. If the subscriber falls a whole buffer behind,
+ * the live subscription is dropped and the subscriber reads on from the log, so a slow subscriber does not hold up
+ * appends.
+ */
+public class CatchUpSubscription implements AutoCloseable {
+    private final Eventstore eventstore;
+    private final EventSubscription subscriber;
+    private final int bufferSize;
+    private final String name;
+    private final CheckpointStore checkpointStore;
+    private final int checkpointInterval;
+    private final CountDownLatch isLive = new CountDownLatch(1);
+    private final Thread thread;
+    private volatile long position;
+    private long checkpointedPosition;
+    private volatile AsyncSubscription live;
+    private volatile boolean closed = false;
+
+    CatchUpSubscription(Eventstore eventstore, EventSubscription subscriber, long fromPosition, int bufferSize,
+                        String name, CheckpointStore checkpointStore, int checkpointInterval) {
+        this.eventstore = eventstore;
+        this.subscriber = subscriber;
+        this.position = fromPosition;
+        this.checkpointedPosition = fromPosition;
+        this.bufferSize = bufferSize;
+        this.name = name != null ? name : subscriber.getClass().getSimpleName();
+        this.checkpointStore = checkpointStore;
+        this.checkpointInterval = checkpointInterval;
+        thread = new Thread(this::catchUp, "catchup-" + this.name);
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    public EventSubscription getSubscriber() {
+        return subscriber;
+    }
+
+    /**
+     * The number of stored events handled, counting the ones before the start position
+     */
+    public long position() {
+        return position;
+    }
+
+    public boolean isLive() {
+        return live != null;
+    }
+
+    /**
+     * Waits until the stored events are handled and the subscription gets the live events
+     * @return false if the timeout passed first
+     */
+    public boolean awaitLive(long timeout, TimeUnit unit) {
+        try {
+            return isLive.await(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return isLive();
+        }
+    }
+
+    /**
+     * Waits until the subscriber has handled every event added so far
+     * @return false if the timeout passed first
+     */
+    public boolean awaitCaughtUp(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (!awaitLive(timeout, unit)) {
+            return false;
+        }
+        while (true) {
+            AsyncSubscription current = live;
+            // A subscription dropped for falling behind is closed, so it looks caught up
+            if (current != null && current.awaitCaughtUp(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+                    && current == live && !current.isOverflowed()) {
+                return true;
+            }
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Stops the subscription after the events already queued are handled, and saves the checkpoint
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        AsyncSubscription asyncSubscription = live;
+        if (asyncSubscription != null) {
+            eventstore.removeEventSubscriber(asyncSubscription);
+            asyncSubscription.close();
+        }
+        if (checkpointStore != null && position != checkpointedPosition) {
+            checkpointStore.write(name, position);
+        }
+    }
+
+    /**
+     * Reads the stored events until the subscription goes live, then waits until it is closed or the live
+     * subscription overflows, in which case it reads on from the log.
+     */
+    private void catchUp() {
+        while (!closed) {
+            long start = System.nanoTime();
+            long from = position;
+            AsyncSubscription asyncSubscription = new AsyncSubscription(this::handle, bufferSize, "subscriber-" + name,
+                    () -> LockSupport.unpark(thread));
+            if (!readUntilLive(asyncSubscription)) {
+                asyncSubscription.close();
+                return;
+            }
+            live = asyncSubscription;
+            System.out.println("Subscription " + name + " caught up from " + from + " to " + position + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            isLive.countDown();
+            while (!closed && !asyncSubscription.isOverflowed()) {
+                LockSupport.park(this);
+            }
+            if (closed) {
+                return;
+            }
+            // The events queued before the overflow are handled before reading on after them
+            live = null;
+            eventstore.removeEventSubscriber(asyncSubscription);
+            asyncSubscription.close();
+            System.out.println("Subscription " + name + " fell " + bufferSize + " events behind at " + position + ", reading on from the log");
+        }
+    }
+
+    /**
+     * @return false if the subscription was closed or the stored events could not be read
+     */
+    private boolean readUntilLive(AsyncSubscription asyncSubscription) {
+        while (!closed) {
+            try (EventCursor cursor = eventstore.openCursor(position)) {
+                while (!closed && cursor.hasNext()) {
+                    handle(cursor.next());
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Subscription " + name + " could not read stored events from " + position + ": " + e);
+                return false;
+            }
+            if (!closed && eventstore.goLive(position, asyncSubscription)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called on the catch-up thread until the subscription is live, and on the thread of the live subscription after
+     */
+    private void handle(AbstractEvent event) {
+        try {
+            subscriber.eventAdded(event);
+        } catch (RuntimeException e) {
+            System.out.println("Subscriber " + name + " failed on event " + event.getRevisionId() + ": " + e);
+        }
+        if (event instanceof TransientEvent) {
+            return;
+        }
+        position++;
+        if (checkpointStore != null && position - checkpointedPosition >= checkpointInterval) {
+            checkpointStore.write(name, position);
+            checkpointedPosition = position;
+        }
+    }
+}
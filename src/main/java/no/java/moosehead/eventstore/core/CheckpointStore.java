@@ -0,0 +1,56 @@
+package no.java.moosehead.eventstore.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Keeps the position each named subscription has handled up to, one small file per subscription in a directory.
+ * A checkpoint is written to a temporary file which is renamed into place.
+ */
+public class CheckpointStore {
+    private static final String SUFFIX = ".checkpoint";
+
+    private final File directory;
+
+    public CheckpointStore(String directory) {
+        this.directory = new File(directory);
+        if (!this.directory.exists() && !this.directory.mkdirs()) {
+            throw new RuntimeException("Could not create checkpoint directory " + directory);
+        }
+    }
+
+    /**
+     * @return the saved position, or 0 if there is none
+     */
+    public long read(String name) {
+        File file = new File(directory, name + SUFFIX);
+        if (!file.exists()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Could not read checkpoint " + file + ", starting from the first event: " + e);
+            return 0;
+        }
+    }
+
+    public void write(String name, long position) {
+        File file = new File(directory, name + SUFFIX);
+        File tempFile = new File(directory, file.getName() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                out.write(String.valueOf(position).getBytes(StandardCharsets.UTF_8));
+                out.getFD().sync();
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw new RuntimeException(e);
+        }
+    }
+}
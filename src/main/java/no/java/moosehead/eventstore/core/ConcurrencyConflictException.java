@@ -0,0 +1,29 @@
+package no.java.moosehead.eventstore.core;
+
+/**
+ * Thrown when an event is appended to a stream that has changed since the expected version was read
+ */
+public class ConcurrencyConflictException extends RuntimeException {
+    private final String streamId;
+    private final long expectedVersion;
+    private final long actualVersion;
+
+    public ConcurrencyConflictException(String streamId, long expectedVersion, long actualVersion) {
+        super("Stream " + streamId + " is at version " + actualVersion + ", expected " + expectedVersion);
+        this.streamId = streamId;
+        this.expectedVersion = expectedVersion;
+        this.actualVersion = actualVersion;
+    }
+
+    public String getStreamId() {
+        return streamId;
+    }
+
+    public long getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    public long getActualVersion() {
+        return actualVersion;
+    }
+}
@@ -0,0 +1,11 @@
+package no.java.moosehead.eventstore.core;
+
+import java.util.Iterator;
+
+/**
+ * Streams stored events in the order they were added. Transient events are not included.
+ */
+public interface EventCursor extends Iterator<AbstractEvent>, AutoCloseable {
+    @Override
+    void close();
+}
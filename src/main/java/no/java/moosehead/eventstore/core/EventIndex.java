@@ -0,0 +1,233 @@
+package no.java.moosehead.eventstore.core;
+
+import no.java.moosehead.eventstore.EmailConfirmedByUser;
+import no.java.moosehead.eventstore.UserWorkshopEvent;
+import no.java.moosehead.eventstore.WorkshopAddedEvent;
+import no.java.moosehead.eventstore.snapshot.SnapshotInput;
+import no.java.moosehead.eventstore.snapshot.SnapshotOutput;
+import no.java.moosehead.eventstore.snapshot.SnapshotWriter;
+import no.java.moosehead.eventstore.snapshot.Snapshotable;
+import no.java.moosehead.eventstore.utils.Varint;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Postings lists of the persisted events by event class, workshop id and email. An event is identified by its
+ * number among the persisted events, counting from 0, so that it can be read back from memory or from the log.
+ * The lists are saved in snapshots with delta encoded numbers.
+ */
+class EventIndex implements Snapshotable {
+    private static class Postings {
+        private int[] events = new int[4];
+        private int size;
+
+        void add(int event) {
+            if (size == events.length) {
+                events = Arrays.copyOf(events, size * 2);
+            }
+            events[size++] = event;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(events, size);
+        }
+    }
+
+    private Map<Class<?>, Postings> byType = new HashMap<>();
+    private Map<String, Postings> byWorkshop = new HashMap<>();
+    private Map<String, Postings> byEmail = new HashMap<>();
+    private int indexedEvents;
+
+    /**
+     * The number of persisted events indexed so far
+     */
+    synchronized int indexedEvents() {
+        return indexedEvents;
+    }
+
+    /**
+     * Indexes the persisted event with the given number. Events that are already indexed are ignored.
+     */
+    synchronized void add(int number, AbstractEvent event) {
+        if (number < indexedEvents) {
+            return;
+        }
+        if (number > indexedEvents) {
+            throw new IllegalStateException("Event " + number + " indexed before event " + indexedEvents);
+        }
+        indexedEvents++;
+        byType.computeIfAbsent(event.getClass(), type -> new Postings()).add(number);
+        String workshopId = null;
+        String email = null;
+        if (event instanceof UserWorkshopEvent) {
+            workshopId = ((UserWorkshopEvent) event).getWorkshopId();
+            email = ((UserWorkshopEvent) event).getEmail();
+        } else if (event instanceof WorkshopAddedEvent) {
+            workshopId = ((WorkshopAddedEvent) event).getWorkshopId();
+        } else if (event instanceof EmailConfirmedByUser) {
+            email = ((EmailConfirmedByUser) event).getEmail();
+        }
+        if (workshopId != null) {
+            byWorkshop.computeIfAbsent(workshopId, id -> new Postings()).add(number);
+        }
+        if (email != null) {
+            byEmail.computeIfAbsent(email, id -> new Postings()).add(number);
+        }
+    }
+
+    /**
+     * The events of the type or any of its subtypes, in log order
+     */
+    synchronized int[] ofType(Class<?> type) {
+        int[] result = new int[0];
+        for (Map.Entry<Class<?>, Postings> entry : byType.entrySet()) {
+            if (type.isAssignableFrom(entry.getKey())) {
+                int length = result.length;
+                result = Arrays.copyOf(result, length + entry.getValue().size);
+                System.arraycopy(entry.getValue().events, 0, result, length, entry.getValue().size);
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    synchronized int[] forWorkshop(String workshopId) {
+        Postings postings = byWorkshop.get(workshopId);
+        return postings != null ? postings.toArray() : new int[0];
+    }
+
+    synchronized int[] forEmail(String email) {
+        Postings postings = byEmail.get(email);
+        return postings != null ? postings.toArray() : new int[0];
+    }
+
+    /**
+     * The events with both the workshop id and the email
+     */
+    synchronized int[] forWorkshopAndEmail(String workshopId, String email) {
+        Postings workshop = byWorkshop.get(workshopId);
+        Postings user = byEmail.get(email);
+        if (workshop == null || user == null) {
+            return new int[0];
+        }
+        int[] result = new int[Math.min(workshop.size, user.size)];
+        int size = 0;
+        for (int i = 0, j = 0; i < workshop.size && j < user.size; ) {
+            if (workshop.events[i] < user.events[j]) {
+                i++;
+            } else if (workshop.events[i] > user.events[j]) {
+                j++;
+            } else {
+                result[size++] = workshop.events[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    @Override
+    public String snapshotName() {
+        return "eventIndex";
+    }
+
+    /**
+     * The lists are only appended to, so a copy shares their arrays and keeps their current sizes
+     */
+    @Override
+    public synchronized SnapshotWriter captureSnapshot() {
+        int events = indexedEvents;
+        Map<Class<?>, Postings> types = copyOf(byType);
+        Map<String, Postings> workshops = copyOf(byWorkshop);
+        Map<String, Postings> emails = copyOf(byEmail);
+        return out -> {
+            out.writeInt(events);
+            out.writeInt(types.size());
+            for (Map.Entry<Class<?>, Postings> entry : types.entrySet()) {
+                out.writeString(entry.getKey().getName());
+                writePostings(out, entry.getValue());
+            }
+            writePostings(out, workshops);
+            writePostings(out, emails);
+        };
+    }
+
+    private static <K> Map<K, Postings> copyOf(Map<K, Postings> postingsByKey) {
+        Map<K, Postings> copy = new HashMap<>();
+        for (Map.Entry<K, Postings> entry : postingsByKey.entrySet()) {
+            Postings postings = new Postings();
+            postings.events = entry.getValue().events;
+            postings.size = entry.getValue().size;
+            copy.put(entry.getKey(), postings);
+        }
+        return copy;
+    }
+
+    private static void writePostings(SnapshotOutput out, Map<String, Postings> postingsByKey) throws IOException {
+        out.writeInt(postingsByKey.size());
+        for (Map.Entry<String, Postings> entry : postingsByKey.entrySet()) {
+            out.writeString(entry.getKey());
+            writePostings(out, entry.getValue());
+        }
+    }
+
+    private static void writePostings(SnapshotOutput out, Postings postings) throws IOException {
+        out.writeInt(postings.size);
+        int previous = 0;
+        for (int i = 0; i < postings.size; i++) {
+            Varint.write(out, postings.events[i] - previous);
+            previous = postings.events[i];
+        }
+    }
+
+    @Override
+    public Runnable readSnapshot(SnapshotInput in) throws IOException {
+        int restoredEvents = in.readInt();
+        Map<Class<?>, Postings> restoredTypes = new HashMap<>();
+        int types = in.readInt();
+        for (int i = 0; i < types; i++) {
+            String name = in.readString();
+            try {
+                restoredTypes.put(Class.forName(name), readPostings(in));
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Unknown event type " + name, e);
+            }
+        }
+        Map<String, Postings> restoredWorkshops = readPostingsByKey(in);
+        Map<String, Postings> restoredEmails = readPostingsByKey(in);
+        return () -> {
+            synchronized (this) {
+                indexedEvents = restoredEvents;
+                byType = restoredTypes;
+                byWorkshop = restoredWorkshops;
+                byEmail = restoredEmails;
+            }
+        };
+    }
+
+    private static Map<String, Postings> readPostingsByKey(SnapshotInput in) throws IOException {
+        Map<String, Postings> postingsByKey = new HashMap<>();
+        int keys = in.readInt();
+        for (int i = 0; i < keys; i++) {
+            postingsByKey.put(in.readString(), readPostings(in));
+        }
+        return postingsByKey;
+    }
+
+    private static Postings readPostings(SnapshotInput in) throws IOException {
+        Postings postings = new Postings();
+        int size = in.readInt();
+        int event = 0;
+        for (int i = 0; i < size; i++) {
+            long delta = Varint.read(in);
+            if (delta < 0) {
+                throw new EOFException();
+            }
+            event += (int) delta;
+            postings.add(event);
+        }
+        return postings;
+    }
+}
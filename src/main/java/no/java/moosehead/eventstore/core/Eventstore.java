@@ -1,66 +1,554 @@
 package no.java.moosehead.eventstore.core;
 
 import no.java.moosehead.controller.SystemSetup;
+import no.java.moosehead.eventstore.EmailConfirmedByUser;
+import no.java.moosehead.eventstore.UserWorkshopEvent;
 import no.java.moosehead.eventstore.WorkshopAddedBySystem;
+import no.java.moosehead.eventstore.WorkshopAddedEvent;
+import no.java.moosehead.eventstore.snapshot.*;
 import no.java.moosehead.eventstore.system.SystemBootstrapDone;
-import no.java.moosehead.eventstore.utils.ClassSerializer;
-import no.java.moosehead.eventstore.utils.FileHandler;
+import no.java.moosehead.eventstore.utils.AppendOnlyArray;
+import no.java.moosehead.eventstore.utils.EventCodec;
+import no.java.moosehead.eventstore.utils.EventLog;
+import no.java.moosehead.eventstore.utils.RecordReader;
+import no.java.moosehead.eventstore.utils.RevisionIndex;
 import no.java.moosehead.eventstore.utils.TokenGenerator;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 public class Eventstore {
-
-    private FileHandler fileHandler;
-    private ClassSerializer classSerializer = new ClassSerializer();
-    private ArrayList<AbstractEvent> eventstorage = new ArrayList<>();
-    private ArrayList<EventSubscription> eventSubscribers = new ArrayList<>();
+    private EventLog eventLog;
+    private EventCodec eventCodec;
+    private RevisionIndex revisionIndex;
+    private final EventIndex eventIndex = new EventIndex();
+    private final AppendOnlyArray<AbstractEvent> eventstorage = new AppendOnlyArray<>();
+    private final AppendOnlyArray<Integer> transientPositions = new AppendOnlyArray<>();
+    private boolean keepEventsInMemory = true;
+    private boolean readOnly = false;
+    private long lastRecordPosition = -1;
+    private volatile boolean following = false;
+    private volatile ReplicationLeader replicationLeader;
+    private int replayThreads = 1;
+    private final List<EventSubscription> eventSubscribers = new CopyOnWriteArrayList<>();
+    private volatile int numberOfEvents = 0;
+    private long numberOfWorkshops = 0;
+    private volatile long persistedEvents = 0;
+    private final AtomicLong writtenEvents = new AtomicLong();
+    private AbstractEvent lastPersistedEvent;
+    private long maxRevision = 0;
+    private final Map<String, Long> streamVersions = new ConcurrentHashMap<>();
+    private SnapshotStore snapshotStore;
+    private int snapshotInterval;
+    private long persistedEventsAtLastSnapshot;
+    private boolean playbackDone = false;
+    private Executor snapshotWriter;
+    private final AtomicBoolean snapshotInProgress = new AtomicBoolean(false);
+    private volatile Throwable writeFailure;
 
     /**
-     * Will persist all events. Boostraps the eventstore with events from the file.
+     * Will persist all events. Boostraps the eventstore with events from the log.
      * Events will be passed to listeners when they subscribe to the EventStore.
-     * @param fileHandler
+     * @param eventLog
+     */
+    public Eventstore(EventLog eventLog) {
+        this(eventLog, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param replayThreads the number of threads decoding the log at startup
      */
-    public Eventstore(FileHandler fileHandler) {
-        this.fileHandler = fileHandler;
-        initEventStoreWithFileHandler();
+    public Eventstore(EventLog eventLog, int replayThreads) {
+        this(eventLog, replayThreads, true);
+    }
+
+    /**
+     * @param keepEventsInMemory if false, events are only kept in the log. They are read back from it at playback
+     *                           and by {@link #openCursor}, so the heap does not grow with the history.
+     */
+    public Eventstore(EventLog eventLog, int replayThreads, boolean keepEventsInMemory) {
+        this(eventLog, replayThreads, keepEventsInMemory, false);
+    }
+
+    /**
+     * @param readOnly if true, the log is owned by another process. It is read without being opened for appends,
+     *                 only transient events can be added, and {@link #tailLog} picks up what the owner appends.
+     */
+    public Eventstore(EventLog eventLog, int replayThreads, boolean keepEventsInMemory, boolean readOnly) {
+        this.eventLog = eventLog;
+        this.eventCodec = eventLog.format().newCodec();
+        this.replayThreads = replayThreads;
+        this.keepEventsInMemory = keepEventsInMemory;
+        this.readOnly = readOnly;
+        initEventStoreWithEventLog();
     }
 
     public Eventstore() {
 
     }
 
+    /**
+     * Saves the state of the {@link Snapshotable} subscribers every interval events, and uses the newest
+     * snapshot at playback. Must be called before {@link #playbackEventsToSubscribers}.
+     */
+    public void enableSnapshots(SnapshotStore snapshotStore, int interval) {
+        enableSnapshots(snapshotStore, interval, Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * @param snapshotWriter takes the snapshots and writes them to the store
+     */
+    public void enableSnapshots(SnapshotStore snapshotStore, int interval, Executor snapshotWriter) {
+        this.snapshotStore = snapshotStore;
+        this.snapshotInterval = interval;
+        this.snapshotWriter = snapshotWriter;
+    }
+
     public void playbackEventsToSubscribers() {
-        for (AbstractEvent event: eventstorage) {
-            for (EventSubscription eventSubscribers : this.eventSubscribers) {
-                eventSubscribers.eventAdded(event);
+        long start = System.nanoTime();
+        int restored = restoreFromSnapshot();
+        int from = playbackFrom(restored);
+        if (keepEventsInMemory) {
+            for (int i = from; i < eventstorage.size(); i++) {
+                playback(i, eventstorage.get(i), restored);
+            }
+        } else {
+            int[] index = {from};
+            EventCodec codec = eventLog.format().newCodec();
+            try (RecordReader reader = limit(eventLog.openReader(), persistedEvents)) {
+                skip(reader, codec, from);
+                new ParallelEventDecoder(replayThreads).decode(reader, codec, event -> playback(index[0]++, event, restored));
             }
         }
+        report("Played back", numberOfEvents - from, start);
+        playbackDone = true;
+        persistedEventsAtLastSnapshot = restored;
         TokenGenerator tokenGenerator = SystemSetup.instance().revisionGenerator();
-        if (eventstorage.size() > 0) {
-            tokenGenerator.resetRevision(eventstorage.size());
+        if (numberOfEvents > 0) {
+            // Retried commands leave gaps in the revisions, so continue after the highest one
+            tokenGenerator.resetRevision(Math.max(numberOfEvents, maxRevision + 1));
         }
         addEvent(new SystemBootstrapDone(tokenGenerator.nextRevisionId()));
+        for (AsyncSubscription asyncSubscription : asyncSubscriptions()) {
+            asyncSubscription.awaitCaughtUp(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+    }
+
+
+    /**
+     * The events in the snapshot are only played back if a subscriber or the event index was not restored from it
+     */
+    private int playbackFrom(int restored) {
+        if (eventIndex.indexedEvents() < restored) {
+            return 0;
+        }
+        for (EventSubscription eventSubscriber : eventSubscribers) {
+            if (snapshotable(eventSubscriber) == null) {
+                return 0;
+            }
+        }
+        return restored;
     }
 
+    /**
+     * Passes over the records without decoding them, only letting the codec read what later records refer to
+     */
+    private static void skip(RecordReader reader, EventCodec codec, long records) {
+        ByteBuffer record;
+        for (long i = 0; i < records && (record = reader.next()) != null; i++) {
+            codec.readAhead(record);
+        }
+    }
 
+    private void playback(int index, AbstractEvent event, int restored) {
+        if (!(event instanceof TransientEvent)) {
+            eventIndex.add(index, event);
+        }
+        for (EventSubscription eventSubscribers : this.eventSubscribers) {
+            if (index < restored && snapshotable(eventSubscribers) != null) {
+                continue;
+            }
+            eventSubscribers.eventAdded(event);
+        }
+    }
+
+    /**
+     * Adds the event and returns when it is durable
+     */
     public void addEvent(AbstractEvent event) {
+        CompletableFuture<Long> durable;
+        long events;
+        synchronized (this) {
+            checkLeader(event);
+            durable = add(event);
+            events = persistedEvents;
+        }
+        awaitDurable(durable);
+        awaitReplicated(durable, events);
+    }
+
+    /**
+     * Adds the event to the stream if the stream is still at the expected version, that is, if no other event
+     * has been added to it since the version was read with {@link #streamVersion}. Events on different streams
+     * are added concurrently, only the write to the log itself is ordered.
+     * @return the global position of the event, its number among the stored events. Events reach the log and
+     *         the subscribers in the order of their global positions, whatever stream they belong to.
+     * @throws ConcurrencyConflictException if the stream has changed. The command should be validated again.
+     */
+    public long append(String streamId, long expectedVersion, AbstractEvent event) {
+        if (!streamId.equals(streamId(event))) {
+            throw new IllegalArgumentException("Event " + event.getClass().getSimpleName() + " does not belong to stream " + streamId);
+        }
+        CompletableFuture<Long> durable;
+        long globalPosition;
+        synchronized (this) {
+            long version = streamVersion(streamId);
+            if (version != expectedVersion) {
+                throw new ConcurrencyConflictException(streamId, expectedVersion, version);
+            }
+            checkLeader(event);
+            globalPosition = persistedEvents;
+            durable = add(event);
+        }
+        awaitDurable(durable);
+        awaitReplicated(durable, globalPosition + 1);
+        return globalPosition;
+    }
+
+    /**
+     * Like {@link #append}, but returns once the event is stored and handed to the subscribers, without waiting
+     * for the log. Events appended one after the other share writes to the log.
+     * @return completes with the global position of the event when it is durable. Pass it to
+     *         {@link #awaitAppended} to also wait for the replication ack policy.
+     * @throws ConcurrencyConflictException if the stream has changed
+     */
+    public CompletableFuture<Long> appendAsync(String streamId, long expectedVersion, AbstractEvent event) {
+        if (!streamId.equals(streamId(event))) {
+            throw new IllegalArgumentException("Event " + event.getClass().getSimpleName() + " does not belong to stream " + streamId);
+        }
+        synchronized (this) {
+            long version = streamVersion(streamId);
+            if (version != expectedVersion) {
+                throw new ConcurrencyConflictException(streamId, expectedVersion, version);
+            }
+            checkLeader(event);
+            long globalPosition = persistedEvents;
+            CompletableFuture<Long> durable = add(event);
+            return durable != null ? durable.thenApply(position -> globalPosition) : CompletableFuture.completedFuture(globalPosition);
+        }
+    }
+
+    /**
+     * Waits until the event appended with {@link #appendAsync} is durable and, if the ack policy asks for it,
+     * stored by a follower
+     * @return the global position of the event
+     */
+    public long awaitAppended(CompletableFuture<Long> appended) {
+        awaitDurable(appended);
+        long globalPosition = appended.join();
+        ReplicationLeader leader = replicationLeader;
+        if (eventLog != null && leader != null) {
+            leader.awaitAcknowledged(globalPosition + 1);
+        }
+        return globalPosition;
+    }
+
+    /**
+     * The number of events in the stream, which is also the sequence number the next event in it gets. It is
+     * updated after the subscribers added with {@link #addEventSubscriber} have seen the event, so state read
+     * from them after reading the version is at least as new as the version.
+     */
+    public long streamVersion(String streamId) {
+        return streamVersions.getOrDefault(streamId, 0L);
+    }
+
+    public static String workshopStream(String workshopId) {
+        return "workshop/" + workshopId;
+    }
+
+    public static String emailStream(String email) {
+        return "email/" + email;
+    }
+
+    /**
+     * The stream the event belongs to, or null for events outside the streams
+     */
+    public static String streamId(AbstractEvent event) {
+        if (event instanceof UserWorkshopEvent) {
+            return workshopStream(((UserWorkshopEvent) event).getWorkshopId());
+        }
+        if (event instanceof WorkshopAddedEvent) {
+            return workshopStream(((WorkshopAddedEvent) event).getWorkshopId());
+        }
+        if (event instanceof EmailConfirmedByUser) {
+            return emailStream(((EmailConfirmedByUser) event).getEmail());
+        }
+        return null;
+    }
+
+    /**
+     * Queues the event for the log and hands it to the subscribers. Called with the lock held, so events reach
+     * the log and the subscribers in the same order.
+     * <p>
+     * The subscribers see the event before it is durable, so that appends can share writes to the log. If a
+     * write fails, the subscribers may hold events the log does not have. The eventstore then refuses to add
+     * events until it is restarted and has read back what the log holds.
+     * @return completes when the event is durable
+     */
+    private CompletableFuture<Long> add(AbstractEvent event) {
         //System.out.println("Added event " + event.getClass() + "->" + event.getRevisionId());
-        if ((!(event instanceof TransientEvent)) && fileHandler != null) {
-            fileHandler.writeToFile(classSerializer.asString(event) + "\n");
+        CompletableFuture<Long> durable = null;
+        if (readOnly && !(event instanceof TransientEvent)) {
+            throw new IllegalStateException("Events can not be added to a read replica");
+        }
+        if (writeFailure != null && !(event instanceof TransientEvent)) {
+            throw new IllegalStateException("The event log could not be written, restart to read back the stored events", writeFailure);
+        }
+        if ((!(event instanceof TransientEvent)) && eventLog != null) {
+            durable = eventLog.appendAsync(eventCodec.encode(event)).thenApply(position -> {
+                if (revisionIndex != null) {
+                    revisionIndex.appended(event.getRevisionId(), position);
+                }
+                writtenEvents.incrementAndGet();
+                return position;
+            });
+            durable.whenComplete((position, failure) -> {
+                if (failure != null) {
+                    failWrites(failure);
+                }
+            });
+            if (durable.isCompletedExceptionally()) {
+                awaitDurable(durable);
+            }
         }
 
-        eventstorage.add(event);
+        store(event);
         for (EventSubscription eventSubscribers : this.eventSubscribers) {
             eventSubscribers.eventAdded(event);
         }
+        advanceStream(event);
+        if (snapshotStore != null && playbackDone && persistedEvents - persistedEventsAtLastSnapshot >= snapshotInterval
+                && snapshotInProgress.compareAndSet(false, true)) {
+            // If the previous snapshot is still being taken, this one is skipped
+            persistedEventsAtLastSnapshot = persistedEvents;
+            snapshotWriter.execute(this::takeSnapshot);
+        }
+        return durable;
+    }
+
+    private void failWrites(Throwable failure) {
+        if (writeFailure != null) {
+            return;
+        }
+        writeFailure = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        System.out.println("Refusing new events, the event log could not be written: " + writeFailure);
+    }
+
+    private void checkLeader(AbstractEvent event) {
+        if (following && !(event instanceof TransientEvent)) {
+            throw new IllegalStateException("Events can only be added on the leader");
+        }
+    }
+
+    /**
+     * Waits for a follower to store the events if the replication ack policy asks for it
+     */
+    private void awaitReplicated(CompletableFuture<Long> durable, long events) {
+        ReplicationLeader leader = replicationLeader;
+        if (durable != null && leader != null) {
+            leader.awaitAcknowledged(events);
+        }
+    }
+
+    /**
+     * Waits outside the lock, so that appends from several threads are committed to the log together
+     */
+    private static void awaitDurable(CompletableFuture<Long> durable) {
+        if (durable == null) {
+            return;
+        }
+        try {
+            durable.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void advanceStream(AbstractEvent event) {
+        String streamId = streamId(event);
+        if (streamId != null) {
+            streamVersions.merge(streamId, 1L, Long::sum);
+        }
+    }
+
+    /**
+     * Takes a snapshot on the snapshot thread. The lock is held only to pick the position: the subscribers called
+     * directly copy their state there, and a {@link SnapshotBarrier} is queued to each subscriber on its own
+     * thread, which copies its state when it gets to the barrier. The copies are written after the lock is let go,
+     * so appends go on while the state is serialized and while slow subscribers catch up.
+     */
+    private void takeSnapshot() {
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        try {
+            Map<String, CompletableFuture<SnapshotWriter>> writers = new LinkedHashMap<>();
+            long eventCount;
+            AbstractEvent last;
+            synchronized (this) {
+                eventCount = persistedEvents;
+                last = lastPersistedEvent;
+                for (EventSubscription eventSubscriber : eventSubscribers) {
+                    Snapshotable snapshotable = snapshotable(eventSubscriber);
+                    if (snapshotable == null) {
+                        continue;
+                    }
+                    if (eventSubscriber instanceof AsyncSubscription) {
+                        SnapshotBarrier barrier = new SnapshotBarrier(snapshotable);
+                        eventSubscriber.eventAdded(barrier);
+                        writers.put(snapshotable.snapshotName(), barrier.captured());
+                    } else {
+                        writers.put(snapshotable.snapshotName(), CompletableFuture.completedFuture(snapshotable.captureSnapshot()));
+                    }
+                }
+                writers.put(eventIndex.snapshotName(), CompletableFuture.completedFuture(eventIndex.captureSnapshot()));
+            }
+            Map<String, byte[]> states = new LinkedHashMap<>();
+            for (Map.Entry<String, CompletableFuture<SnapshotWriter>> writer : writers.entrySet()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (SnapshotOutput out = new SnapshotOutput(bytes)) {
+                    writer.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS).write(out);
+                }
+                states.put(writer.getKey(), bytes.toByteArray());
+            }
+            snapshotStore.write(new Snapshot(eventCount, last.getRevisionId(), last.getSystemTimeInMillis(), states));
+        } catch (TimeoutException e) {
+            System.out.println("Could not take snapshot, a subscriber is not catching up");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.out.println("Could not take snapshot: " + e.getCause());
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not take snapshot: " + e);
+        } finally {
+            snapshotInProgress.set(false);
+        }
+    }
+
+    /**
+     * Restores the subscribers from the newest snapshot that matches the log
+     * @return the number of events the restored state includes, 0 if no snapshot was used
+     */
+    private int restoreFromSnapshot() {
+        if (snapshotStore == null) {
+            return 0;
+        }
+        List<Snapshotable> snapshotables = snapshotables();
+        for (Snapshot snapshot : snapshotStore.readNewestFirst()) {
+            if (!matchesLog(snapshot) || !snapshot.getStates().keySet().containsAll(names(snapshotables))) {
+                System.out.println("Ignoring snapshot at " + snapshot.getEventCount() + " events, it does not match the event log");
+                continue;
+            }
+            try {
+                List<Runnable> restorers = new ArrayList<>();
+                for (Snapshotable snapshotable : snapshotables) {
+                    byte[] state = snapshot.getStates().get(snapshotable.snapshotName());
+                    try (SnapshotInput in = new SnapshotInput(new ByteArrayInputStream(state))) {
+                        restorers.add(snapshotable.readSnapshot(in));
+                    }
+                }
+                byte[] indexState = snapshot.getStates().get(eventIndex.snapshotName());
+                if (indexState != null && snapshot.getEventCount() > eventIndex.indexedEvents()) {
+                    try (SnapshotInput in = new SnapshotInput(new ByteArrayInputStream(indexState))) {
+                        restorers.add(eventIndex.readSnapshot(in));
+                    }
+                }
+                restorers.forEach(Runnable::run);
+                System.out.println("Restored subscribers from snapshot at " + snapshot.getEventCount() + " events");
+                return (int) snapshot.getEventCount();
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Could not read snapshot at " + snapshot.getEventCount() + " events: " + e);
+            }
+        }
+        return 0;
+    }
+
+    private boolean matchesLog(Snapshot snapshot) {
+        long eventCount = snapshot.getEventCount();
+        if (eventCount <= 0 || eventCount > persistedEvents) {
+            return false;
+        }
+        AbstractEvent last;
+        if (keepEventsInMemory) {
+            last = eventstorage.get((int) eventCount - 1);
+        } else {
+            try (LogEventCursor cursor = openLogCursor()) {
+                cursor.skip(eventCount - 1);
+                last = cursor.next();
+            }
+        }
+        return last.getRevisionId() == snapshot.getLastRevisionId() && last.getSystemTimeInMillis() == snapshot.getLastSystemTimeInMillis();
+    }
+
+    private List<Snapshotable> snapshotables() {
+        List<Snapshotable> result = new ArrayList<>();
+        for (EventSubscription eventSubscriber : eventSubscribers) {
+            Snapshotable snapshotable = snapshotable(eventSubscriber);
+            if (snapshotable != null) {
+                result.add(snapshotable);
+            }
+        }
+        return result;
+    }
+
+    private static Snapshotable snapshotable(EventSubscription eventSubscriber) {
+        if (eventSubscriber instanceof AsyncSubscription) {
+            eventSubscriber = ((AsyncSubscription) eventSubscriber).getSubscriber();
+        }
+        return eventSubscriber instanceof Snapshotable ? (Snapshotable) eventSubscriber : null;
+    }
+
+    private List<AsyncSubscription> asyncSubscriptions() {
+        List<AsyncSubscription> result = new ArrayList<>();
+        for (EventSubscription eventSubscriber : eventSubscribers) {
+            if (eventSubscriber instanceof AsyncSubscription) {
+                result.add((AsyncSubscription) eventSubscriber);
+            }
+        }
+        return result;
+    }
+
+    private static Set<String> names(List<Snapshotable> snapshotables) {
+        Set<String> names = new HashSet<>();
+        for (Snapshotable snapshotable : snapshotables) {
+            names.add(snapshotable.snapshotName());
+        }
+        return names;
     }
 
     public int numberOfEvents() {
-        return eventstorage.size();
+        return numberOfEvents;
     }
 
     public int numberOfListeners() {
@@ -72,32 +560,533 @@ public class Eventstore {
     }
 
     /**
-     * Reads the file and creates Events
+     * Adds a subscriber that gets the events on its own thread, so it does not slow down the thread adding them.
+     * Subscribers that commands depend on must be added with {@link #addEventSubscriber}.
      */
-    private void initEventStoreWithFileHandler() {
-        try {
-            String line;
+    public AsyncSubscription addAsyncEventSubscriber(EventSubscription eventSubscriber, int bufferSize) {
+        AsyncSubscription asyncSubscription = new AsyncSubscription(eventSubscriber, bufferSize, "subscriber-" + eventSubscriber.getClass().getSimpleName());
+        eventSubscribers.add(asyncSubscription);
+        return asyncSubscription;
+    }
+
+    /**
+     * Starts a subscription that gets the stored events from the given global position, counting the stored
+     * events from 0, and then the events added from then on, on its own thread. The stored events are read at
+     * full speed from memory or the log. When they are all handled, the subscription switches to the live
+     * events while the eventstore is locked, so no event is missed or handed over twice.
+     */
+    public CatchUpSubscription subscribeFrom(EventSubscription subscriber, long fromPosition, int bufferSize) {
+        checkPosition(fromPosition);
+        CatchUpSubscription subscription = new CatchUpSubscription(this, subscriber, fromPosition, bufferSize, null, null, 0);
+        subscription.start();
+        return subscription;
+    }
+
+    /**
+     * Starts a subscription from the checkpoint saved for the name, or from the first event if there is none.
+     * The checkpoint is saved every checkpointInterval events and when the subscription is closed, so after a
+     * restart the subscriber only gets the events it has not handled. Events handled after the last saved
+     * checkpoint are handed over again after a crash.
+     */
+    public CatchUpSubscription subscribe(String name, EventSubscription subscriber, CheckpointStore checkpointStore, int checkpointInterval, int bufferSize) {
+        long checkpoint = checkpointStore.read(name);
+        checkPosition(checkpoint);
+        CatchUpSubscription subscription = new CatchUpSubscription(this, subscriber, checkpoint, bufferSize, name, checkpointStore, checkpointInterval);
+        subscription.start();
+        return subscription;
+    }
+
+    private void checkPosition(long position) {
+        if (position < 0 || position > persistedEvents) {
+            throw new IllegalArgumentException("Position " + position + " is outside the " + persistedEvents + " stored events");
+        }
+    }
+
+    /**
+     * Adds the live subscriber if the position is at the end of the stored events
+     * @return false if events were added after the position
+     */
+    synchronized boolean goLive(long position, EventSubscription live) {
+        if (position != persistedEvents) {
+            return false;
+        }
+        eventSubscribers.add(live);
+        return true;
+    }
 
-            fileHandler.openFileForInput();
-            BufferedReader buffStream = new BufferedReader(fileHandler.getInputStreamReader());
-            while((line = buffStream.readLine()) != null) {
-                AbstractEvent ev = classSerializer.asObject(line);
-                eventstorage.add(ev);
+    synchronized void removeEventSubscriber(EventSubscription eventSubscriber) {
+        eventSubscribers.remove(eventSubscriber);
+    }
+
+    /**
+     * How many revisions the subscriber is behind. Always 0 for subscribers called directly.
+     */
+    public long lag(EventSubscription eventSubscriber) {
+        AsyncSubscription asyncSubscription = asyncSubscription(eventSubscriber);
+        return asyncSubscription != null ? asyncSubscription.lag() : 0;
+    }
+
+    /**
+     * Waits until the subscriber has handled the given revision. Returns at once for subscribers called directly.
+     * @return false if the timeout passed first
+     */
+    public boolean awaitSubscriber(EventSubscription eventSubscriber, long revision, long timeoutMillis) {
+        AsyncSubscription asyncSubscription = asyncSubscription(eventSubscriber);
+        return asyncSubscription == null || asyncSubscription.awaitRevision(revision, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private AsyncSubscription asyncSubscription(EventSubscription eventSubscriber) {
+        for (AsyncSubscription asyncSubscription : asyncSubscriptions()) {
+            if (asyncSubscription == eventSubscriber || asyncSubscription.getSubscriber() == eventSubscriber) {
+                return asyncSubscription;
             }
-            buffStream.close();
-            fileHandler.closeInputFile();
+        }
+        return null;
+    }
 
-            fileHandler.openFileForOutput();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    /**
+     * Reads the log and creates Events
+     */
+    private void initEventStoreWithEventLog() {
+        long start = System.nanoTime();
+        File indexFile = eventLog.indexFile();
+        if (readOnly) {
+            // The revision index belongs to the process appending to the log
+            try (RecordReader reader = eventLog.openReader()) {
+                new ParallelEventDecoder(replayThreads).decode(track(reader), eventCodec, event -> {
+                    store(event);
+                    advanceStream(event);
+                });
+            }
+            report("Read", numberOfEvents, start);
+            writtenEvents.set(persistedEvents);
+            return;
         }
+        if (indexFile == null) {
+            try (RecordReader reader = eventLog.openReader()) {
+                new ParallelEventDecoder(replayThreads).decode(reader, eventCodec, event -> {
+                    store(event);
+                    advanceStream(event);
+                });
+            }
+        } else {
+            revisionIndex = new RevisionIndex(indexFile);
+            try (RecordReader reader = revisionIndex.loading(eventLog.openReader())) {
+                new ParallelEventDecoder(replayThreads).decode(reader, eventCodec, event -> {
+                    store(event);
+                    advanceStream(event);
+                    revisionIndex.loaded(event.getRevisionId());
+                });
+            }
+            revisionIndex.finishLoading();
+        }
+        report("Read", numberOfEvents, start);
+        writtenEvents.set(persistedEvents);
+        eventLog.openForAppend();
+    }
+
+    /**
+     * Starts a thread that reads the records appended to the log by the process owning it, every pollMillis
+     */
+    public LogTailer tailLog(long pollMillis) {
+        if (!readOnly) {
+            throw new IllegalStateException("Only a read replica tails the log");
+        }
+        LogTailer logTailer = new LogTailer(this, pollMillis);
+        logTailer.start();
+        return logTailer;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Listens for followers on the port and streams every stored and added event to them
+     * @param bufferSize the number of events queued for each follower
+     */
+    public ReplicationLeader startReplication(int port, ReplicationAckPolicy ackPolicy, long ackTimeoutMillis, int bufferSize) {
+        if (readOnly || following) {
+            throw new IllegalStateException("Only the process adding events replicates them");
+        }
+        ReplicationLeader leader = new ReplicationLeader(this, port, ackPolicy, ackTimeoutMillis, bufferSize);
+        leader.start();
+        replicationLeader = leader;
+        return leader;
+    }
+
+    /**
+     * Stores the events of the leader at the given address. From now on only the leader adds events, until
+     * {@link ReplicationFollower#promote} is called.
+     */
+    public ReplicationFollower follow(String host, int port, long retryMillis) {
+        if (readOnly || replicationLeader != null) {
+            throw new IllegalStateException("A read replica or leader can not follow another leader");
+        }
+        following = true;
+        ReplicationFollower follower = new ReplicationFollower(this, host, port, retryMillis);
+        follower.start();
+        return follower;
+    }
+
+    public boolean isFollowing() {
+        return following;
+    }
+
+    /**
+     * Adds an event received from the leader and returns when it is durable
+     * @return the number of stored events, which the leader waits for
+     */
+    long replicate(AbstractEvent event) {
+        CompletableFuture<Long> durable;
+        long events;
+        synchronized (this) {
+            if (!following) {
+                throw new IllegalStateException("The eventstore is not following a leader");
+            }
+            durable = add(event);
+            events = persistedEvents;
+        }
+        awaitDurable(durable);
+        return events;
+    }
+
+    /**
+     * Revisions continue after the highest one received from the old leader.
+     * @return the revision of the first event added after following stopped
+     */
+    synchronized long stopFollowing() {
+        following = false;
+        SystemSetup.instance().revisionGenerator().resetRevision(maxRevision + 1);
+        return maxRevision + 1;
+    }
+
+    long persistedEvents() {
+        return persistedEvents;
+    }
+
+    /**
+     * Reads the records appended after the last one read and hands the events to the subscribers. A record
+     * that is still being written is left for the next call.
+     * @return the number of events read
+     */
+    int readAppended() {
+        int read = 0;
+        long from = lastRecordPosition;
+        try (RecordReader reader = from < 0 ? eventLog.openReader() : eventLog.openReader(from)) {
+            if (from >= 0 && reader.next() == null) {
+                return 0;
+            }
+            ByteBuffer record;
+            while ((record = reader.next()) != null) {
+                AbstractEvent event = eventCodec.decode(record);
+                synchronized (this) {
+                    store(event);
+                    for (EventSubscription eventSubscribers : this.eventSubscribers) {
+                        eventSubscribers.eventAdded(event);
+                    }
+                    advanceStream(event);
+                    writtenEvents.incrementAndGet();
+                }
+                lastRecordPosition = reader.position();
+                read++;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Remembers the position of each record read, so that reading can continue after the last one
+     */
+    private RecordReader track(RecordReader reader) {
+        return new RecordReader() {
+            @Override
+            public ByteBuffer next() {
+                ByteBuffer record = reader.next();
+                if (record != null) {
+                    lastRecordPosition = reader.position();
+                }
+                return record;
+            }
+
+            @Override
+            public long position() {
+                return reader.position();
+            }
+
+            @Override
+            public void close() {
+                reader.close();
+            }
+        };
+    }
+
+    /**
+     * Stops after the given number of records, so that records appended since are not read
+     */
+    private static RecordReader limit(RecordReader reader, long records) {
+        return new RecordReader() {
+            private long remaining = records;
+
+            @Override
+            public ByteBuffer next() {
+                if (remaining <= 0) {
+                    return null;
+                }
+                remaining--;
+                return reader.next();
+            }
+
+            @Override
+            public long position() {
+                return reader.position();
+            }
+
+            @Override
+            public void close() {
+                reader.close();
+            }
+        };
+    }
+
+    private void store(AbstractEvent event) {
+        if (keepEventsInMemory) {
+            if (event instanceof TransientEvent) {
+                transientPositions.add(eventstorage.size());
+            }
+            eventstorage.add(event);
+        }
+        numberOfEvents++;
+        maxRevision = Math.max(maxRevision, event.getRevisionId());
+        if (event instanceof WorkshopAddedBySystem) {
+            numberOfWorkshops++;
+        }
+        if (!(event instanceof TransientEvent)) {
+            if (playbackDone) {
+                eventIndex.add((int) persistedEvents, event);
+            }
+            persistedEvents++;
+            lastPersistedEvent = event;
+        }
+    }
+
+    private static void report(String what, int events, long startNanos) {
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        System.out.println(what + " " + events + " events in " + millis + " ms (" + (events * 1000L / millis) + " events/s)");
     }
 
     public long numberOfWorkshops() {
-        return eventstorage.stream().filter(ae -> ae instanceof WorkshopAddedBySystem).count();
+        return numberOfWorkshops;
+    }
+
+    /**
+     * Opens a cursor over the events stored so far, starting at the given global position
+     */
+    public EventCursor openCursor(long fromPosition) {
+        if (!keepEventsInMemory) {
+            LogEventCursor cursor = openLogCursor();
+            cursor.skip(fromPosition);
+            return cursor;
+        }
+        EventCursor cursor = openCursor();
+        for (long i = 0; i < fromPosition && cursor.hasNext(); i++) {
+            cursor.next();
+        }
+        return cursor;
+    }
+
+    /**
+     * Opens a cursor over the events stored so far. Events added later are not included.
+     */
+    public EventCursor openCursor() {
+        if (!keepEventsInMemory) {
+            return openLogCursor();
+        }
+        List<AbstractEvent> events = eventstorage.view();
+        return new EventCursor() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                while (index < events.size() && events.get(index) instanceof TransientEvent) {
+                    index++;
+                }
+                return index < events.size();
+            }
+
+            @Override
+            public AbstractEvent next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return events.get(index++);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Appends are written to the log after they are stored, so this waits for the stored events to be written
+     */
+    private LogEventCursor openLogCursor() {
+        long records = persistedEvents;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (writtenEvents.get() < records) {
+            if (System.nanoTime() > deadline) {
+                throw new RuntimeException("Only " + writtenEvents.get() + " of " + records + " events are written to the log");
+            }
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        return new LogEventCursor(eventLog.openReader(), eventLog.format().newCodec(), records);
+    }
+
+    /**
+     * Reads the stored event with the given revision
+     */
+    public Optional<AbstractEvent> readEvent(long revisionId) {
+        List<AbstractEvent> events = readEvents(revisionId, revisionId);
+        return events.isEmpty() ? Optional.empty() : Optional.of(events.get(0));
+    }
+
+    /**
+     * Reads the stored events with revisions from fromRevisionId to toRevisionId, both included, in log order.
+     * With a revision index only the part of the log that can hold them is read. Transient events are not included.
+     */
+    public List<AbstractEvent> readEvents(long fromRevisionId, long toRevisionId) {
+        List<AbstractEvent> events = new ArrayList<>();
+        if (revisionIndex == null) {
+            try (EventCursor cursor = openCursor()) {
+                cursor.forEachRemaining(event -> {
+                    if (event.getRevisionId() >= fromRevisionId && event.getRevisionId() <= toRevisionId) {
+                        events.add(event);
+                    }
+                });
+            }
+            return events;
+        }
+        int entry = revisionIndex.find(fromRevisionId);
+        if (entry < 0) {
+            return events;
+        }
+        boolean ordered = revisionIndex.isOrdered();
+        try (LogEventCursor cursor = new LogEventCursor(eventLog.openReader(revisionIndex.position(entry)), eventCodec, revisionIndex.recordsFrom(entry))) {
+            while (cursor.hasNext()) {
+                AbstractEvent event = cursor.next();
+                if (ordered && event.getRevisionId() > toRevisionId) {
+                    break;
+                }
+                if (event.getRevisionId() >= fromRevisionId && event.getRevisionId() <= toRevisionId) {
+                    events.add(event);
+                }
+            }
+        }
+        return events;
     }
 
+    /**
+     * The stored events of the type or any of its subtypes, in log order. Transient events are not included.
+     */
+    public List<AbstractEvent> eventsOfType(Class<? extends AbstractEvent> type) {
+        return indexedEvents(upToDateIndex().ofType(type));
+    }
+
+    /**
+     * The stored events for the workshop: the workshop being added, and reservations and cancellations
+     */
+    public List<AbstractEvent> eventsForWorkshop(String workshopId) {
+        return indexedEvents(upToDateIndex().forWorkshop(workshopId));
+    }
+
+    /**
+     * The stored events for the email: reservations, cancellations and email confirmations
+     */
+    public List<AbstractEvent> eventsForEmail(String email) {
+        return indexedEvents(upToDateIndex().forEmail(email));
+    }
+
+    /**
+     * The stored reservations and cancellations for the email in the workshop
+     */
+    public List<AbstractEvent> eventsForWorkshopAndEmail(String workshopId, String email) {
+        return indexedEvents(upToDateIndex().forWorkshopAndEmail(workshopId, email));
+    }
+
+    /**
+     * The index is kept up to date from playback on. Before that it is caught up with the stored events when asked.
+     */
+    private EventIndex upToDateIndex() {
+        if (!playbackDone && eventIndex.indexedEvents() < persistedEvents) {
+            int number = 0;
+            try (EventCursor cursor = openCursor()) {
+                while (cursor.hasNext()) {
+                    eventIndex.add(number++, cursor.next());
+                }
+            }
+        }
+        return eventIndex;
+    }
+
+    /**
+     * Reads the persisted events with the given numbers, which must be in increasing order
+     */
+    private List<AbstractEvent> indexedEvents(int[] numbers) {
+        List<AbstractEvent> events = new ArrayList<>(numbers.length);
+        if (keepEventsInMemory) {
+            List<Integer> transients = transientPositions.view();
+            for (int number : numbers) {
+                int position = number;
+                for (int transientPosition : transients) {
+                    if (transientPosition > position) {
+                        break;
+                    }
+                    position++;
+                }
+                events.add(eventstorage.get(position));
+            }
+            return events;
+        }
+        if (numbers.length == 0) {
+            return events;
+        }
+        try (LogEventCursor cursor = openLogCursor()) {
+            int next = 0;
+            for (int number : numbers) {
+                cursor.skip(number - next);
+                events.add(cursor.next());
+                next = number + 1;
+            }
+        }
+        return events;
+    }
+
+    /**
+     * A read-only view of the events stored so far, transient events included. Nothing is copied, and the view
+     * does not change when events are added later, so it can be read while events are being added. Use
+     * {@link List#subList} for a range. Only available when events are kept in memory, otherwise use
+     * {@link #openCursor}.
+     */
+    public List<AbstractEvent> eventsView() {
+        if (!keepEventsInMemory) {
+            throw new IllegalStateException("Events are not kept in memory, read them with a cursor");
+        }
+        return eventstorage.view();
+    }
+
+    /**
+     * When events are not kept in memory, this reads the whole log and leaves out transient events.
+     * Prefer {@link #eventsView} or {@link #openCursor}, which do not copy.
+     */
     public List<AbstractEvent> getEventstorageCopy() {
-        return new ArrayList<>(eventstorage);
+        if (keepEventsInMemory) {
+            return new ArrayList<>(eventstorage.view());
+        }
+        List<AbstractEvent> events = new ArrayList<>();
+        try (EventCursor cursor = openCursor()) {
+            cursor.forEachRemaining(events::add);
+        }
+        return events;
     }
 }
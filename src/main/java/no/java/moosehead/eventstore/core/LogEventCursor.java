@@ -0,0 +1,68 @@
+package no.java.moosehead.eventstore.core;
+
+import no.java.moosehead.eventstore.utils.EventCodec;
+import no.java.moosehead.eventstore.utils.RecordReader;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads events back from the log. Stops after the given number of records, so that records appended
+ * while the cursor is open are not read half written.
+ */
+class LogEventCursor implements EventCursor {
+    private final RecordReader reader;
+    private final EventCodec codec;
+    private long remaining;
+    private AbstractEvent next;
+
+    LogEventCursor(RecordReader reader, EventCodec codec, long records) {
+        this.reader = reader;
+        this.codec = codec;
+        this.remaining = records;
+    }
+
+    /**
+     * Skips records without decoding them
+     */
+    void skip(long records) {
+        for (long i = 0; i < records && remaining > 0; i++) {
+            ByteBuffer record = reader.next();
+            if (record == null) {
+                remaining = 0;
+                return;
+            }
+            codec.readAhead(record);
+            remaining--;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && remaining > 0) {
+            ByteBuffer record = reader.next();
+            if (record == null) {
+                remaining = 0;
+            } else {
+                remaining--;
+                next = codec.decode(record);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public AbstractEvent next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        AbstractEvent event = next;
+        next = null;
+        return event;
+    }
+
+    @Override
+    public void close() {
+        reader.close();
+    }
+}
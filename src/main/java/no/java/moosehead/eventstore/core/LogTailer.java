@@ -0,0 +1,94 @@
+package no.java.moosehead.eventstore.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Polls the log of a read replica for records appended by the process owning it, and hands them to the
+ * subscribers of the eventstore. The lag is how long ago the tailer last found no more records, which bounds
+ * how stale the read side can be.
+ */
+public class LogTailer implements AutoCloseable {
+    private final Eventstore eventstore;
+    private final long pollMillis;
+    private final Thread thread;
+    private volatile boolean closed = false;
+    private volatile long caughtUpAt = System.currentTimeMillis();
+    private volatile long readEvents = 0;
+    private volatile String lastError;
+
+    LogTailer(Eventstore eventstore, long pollMillis) {
+        this.eventstore = eventstore;
+        this.pollMillis = pollMillis;
+        thread = new Thread(this::run, "eventlog-tailer");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Milliseconds since the tailer last read to the end of the log
+     */
+    public long lagMillis() {
+        return Math.max(0, System.currentTimeMillis() - caughtUpAt);
+    }
+
+    /**
+     * The number of events read from the log since the replica started
+     */
+    public long readEvents() {
+        return readEvents;
+    }
+
+    /**
+     * The last error reading the log, or null if the last poll succeeded
+     */
+    public String lastError() {
+        return lastError;
+    }
+
+    /**
+     * Reads what has been appended so far, on the calling thread
+     * @return the number of events read
+     */
+    public int poll() {
+        synchronized (this) {
+            long start = System.currentTimeMillis();
+            int read = eventstore.readAppended();
+            readEvents += read;
+            caughtUpAt = start;
+            lastError = null;
+            return read;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(pollMillis));
+            if (closed) {
+                return;
+            }
+            try {
+                poll();
+            } catch (RuntimeException e) {
+                if (lastError == null) {
+                    System.out.println("Could not read the event log, retrying: " + e);
+                }
+                lastError = e.toString();
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package no.java.moosehead.eventstore.core;
+
+import no.java.moosehead.eventstore.utils.EventCodec;
+import no.java.moosehead.eventstore.utils.RecordReader;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * Decodes an event log on several threads. The calling thread reads the records and copies them into chunks,
+ * the chunks are decoded on a fork-join pool, and the events are handed to the consumer on the calling
+ * thread in log order.
+ */
+public class ParallelEventDecoder {
+    private static final int CHUNK_RECORDS = 1024;
+    private static final int CHUNKS_IN_FLIGHT_PER_THREAD = 4;
+
+    private final int parallelism;
+
+    public ParallelEventDecoder(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @return the number of events decoded
+     */
+    public long decode(RecordReader reader, EventCodec codec, Consumer<AbstractEvent> consumer) {
+        if (parallelism == 1) {
+            return decodeSequentially(reader, codec, consumer);
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            ArrayDeque<ForkJoinTask<AbstractEvent[]>> inFlight = new ArrayDeque<>();
+            int maxInFlight = parallelism * CHUNKS_IN_FLIGHT_PER_THREAD;
+            long count = 0;
+            Chunk chunk = new Chunk();
+            ByteBuffer record;
+            while ((record = reader.next()) != null) {
+                codec.readAhead(record);
+                chunk.add(record);
+                if (chunk.size == CHUNK_RECORDS) {
+                    if (inFlight.size() == maxInFlight) {
+                        count += deliver(inFlight.removeFirst(), consumer);
+                    }
+                    inFlight.addLast(pool.submit(decodeTask(chunk, codec)));
+                    chunk = new Chunk();
+                }
+            }
+            if (chunk.size > 0) {
+                inFlight.addLast(pool.submit(decodeTask(chunk, codec)));
+            }
+            while (!inFlight.isEmpty()) {
+                count += deliver(inFlight.removeFirst(), consumer);
+            }
+            return count;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static long decodeSequentially(RecordReader reader, EventCodec codec, Consumer<AbstractEvent> consumer) {
+        long count = 0;
+        ByteBuffer record;
+        while ((record = reader.next()) != null) {
+            consumer.accept(codec.decode(record));
+            count++;
+        }
+        return count;
+    }
+
+    private static ForkJoinTask<AbstractEvent[]> decodeTask(Chunk chunk, EventCodec codec) {
+        return ForkJoinTask.adapt(() -> chunk.decode(codec));
+    }
+
+    private static int deliver(ForkJoinTask<AbstractEvent[]> task, Consumer<AbstractEvent> consumer) {
+        AbstractEvent[] events = task.join();
+        for (AbstractEvent event : events) {
+            consumer.accept(event);
+        }
+        return events.length;
+    }
+
+    /**
+     * Copies of consecutive records, kept in one array since a reader reuses its buffers
+     */
+    private static class Chunk {
+        private byte[] data = new byte[64 * 1024];
+        private int length = 0;
+        private final int[] ends = new int[CHUNK_RECORDS];
+        private int size = 0;
+
+        private void add(ByteBuffer record) {
+            int recordLength = record.remaining();
+            if (length + recordLength > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + recordLength));
+            }
+            record.duplicate().get(data, length, recordLength);
+            length += recordLength;
+            ends[size++] = length;
+        }
+
+        private AbstractEvent[] decode(EventCodec codec) {
+            AbstractEvent[] events = new AbstractEvent[size];
+            int start = 0;
+            for (int i = 0; i < size; i++) {
+                events[i] = codec.decode(ByteBuffer.wrap(data, start, ends[i] - start));
+                start = ends[i];
+            }
+            return events;
+        }
+    }
+}
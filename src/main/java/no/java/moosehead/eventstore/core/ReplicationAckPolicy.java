@@ -0,0 +1,8 @@
+package no.java.moosehead.eventstore.core;
+
+public enum ReplicationAckPolicy {
+    /** An event is acknowledged when it is durable on the leader */
+    LEADER,
+    /** An event is acknowledged when a follower has stored it too, or when the ack timeout has passed */
+    ONE_FOLLOWER
+}
@@ -0,0 +1,187 @@
+package no.java.moosehead.eventstore.core;
+
+import no.java.moosehead.eventstore.utils.ClassSerializer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Connects to a {@link ReplicationLeader} and stores the events it sends in the local eventstore, which hands them
+ * to the projections. While following, the eventstore takes no other events. The connection is retried until the
+ * follower is closed or promoted.
+ */
+public class ReplicationFollower implements AutoCloseable {
+    private final Eventstore eventstore;
+    private final String host;
+    private final int port;
+    private final long retryMillis;
+    private final Thread thread;
+    private final ClassSerializer serializer = new ClassSerializer();
+    private volatile Socket socket;
+    private volatile boolean closed = false;
+    private volatile boolean connected = false;
+    private volatile long leaderEvents;
+    private volatile long lastEventMillis;
+    private volatile long receivedEvents = 0;
+    private volatile String lastError;
+
+    ReplicationFollower(Eventstore eventstore, String host, int port, long retryMillis) {
+        this.eventstore = eventstore;
+        this.host = host;
+        this.port = port;
+        this.retryMillis = retryMillis;
+        this.leaderEvents = eventstore.persistedEvents();
+        thread = new Thread(this::run, "replication-follower");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * How many events the leader had stored when it last sent one, that are not stored here yet
+     */
+    public long lagEvents() {
+        return Math.max(0, leaderEvents - eventstore.persistedEvents());
+    }
+
+    /**
+     * How long ago the last stored event was created on the leader, or 0 when no events are missing
+     */
+    public long lagMillis() {
+        if (lagEvents() == 0) {
+            return 0;
+        }
+        return Math.max(0, System.currentTimeMillis() - lastEventMillis);
+    }
+
+    /**
+     * The number of events received from the leader since the follower started
+     */
+    public long receivedEvents() {
+        return receivedEvents;
+    }
+
+    /**
+     * The last error talking to the leader, or null while connected
+     */
+    public String lastError() {
+        return lastError;
+    }
+
+    /**
+     * Waits until the given number of events are stored
+     * @return false if the timeout passed first
+     */
+    public boolean awaitEvents(long events, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (eventstore.persistedEvents() < events) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+
+    /**
+     * Stops following and lets the eventstore take events of its own. Events the leader stored after the last
+     * one received here are lost, so the old leader must be stopped first.
+     * @return the revision of the first event added by this process. Earlier events came from the old leader.
+     */
+    public long promote() {
+        close();
+        long firstRevision = eventstore.stopFollowing();
+        System.out.println("Promoted to leader at " + eventstore.persistedEvents() + " events");
+        return firstRevision;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        disconnect();
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (!closed) {
+            try (Socket socket = new Socket()) {
+                this.socket = socket;
+                if (closed) {
+                    return;
+                }
+                socket.connect(new InetSocketAddress(host, port), (int) Math.max(retryMillis, 1000));
+                socket.setTcpNoDelay(true);
+                follow(socket);
+            } catch (IOException | RuntimeException e) {
+                if (!closed) {
+                    if (lastError == null) {
+                        System.out.println("Lost connection to leader " + host + ":" + port + ", retrying: " + e);
+                    }
+                    lastError = e.toString();
+                }
+            } finally {
+                connected = false;
+            }
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(retryMillis));
+        }
+    }
+
+    private void follow(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeLong(eventstore.persistedEvents());
+        out.flush();
+        connected = true;
+        lastError = null;
+        System.out.println("Following leader " + host + ":" + port + " from " + eventstore.persistedEvents() + " events");
+        // The leader sends a heartbeat when it hears nothing, so a silent leader is gone
+        socket.setSoTimeout((int) ReplicationLeader.FOLLOWER_TIMEOUT_MILLIS);
+        while (!closed) {
+            byte[] record = new byte[in.readInt()];
+            in.readFully(record);
+            leaderEvents = in.readLong();
+            if (record.length == 0) {
+                out.writeLong(eventstore.persistedEvents());
+                out.flush();
+                continue;
+            }
+            AbstractEvent event = serializer.decode(ByteBuffer.wrap(record));
+            out.writeLong(eventstore.replicate(event));
+            lastEventMillis = event.getSystemTimeInMillis();
+            receivedEvents++;
+            if (in.available() == 0) {
+                out.flush();
+            }
+        }
+    }
+
+    private void disconnect() {
+        Socket socket = this.socket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.out.println("Could not close connection to leader: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package no.java.moosehead.eventstore.core;
+
+import no.java.moosehead.eventstore.utils.ClassSerializer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Streams the events of the writing eventstore to follower processes over TCP. A follower connects and sends the
+ * number of events it has stored. From there on it gets every stored and live event through a
+ * {@link CatchUpSubscription}, and answers each one with the number of events it has stored.
+ * <p>
+ * Each event is sent as the length of the record, the record in the text format, and the number of events stored
+ * on the leader when it was sent. The text format decodes each record on its own, whatever format the logs use.
+ * When no acknowledgement has come for a while, the leader sends a heartbeat, an empty record, which the follower
+ * also answers. A follower that answers nothing for {@link #FOLLOWER_TIMEOUT_MILLIS} is disconnected, which also
+ * ends a write blocked on a peer that is gone. A follower that can not keep up with the live events reads them
+ * from the log instead of holding up appends, see {@link CatchUpSubscription}.
+ */
+public class ReplicationLeader implements AutoCloseable {
+    static final int HEARTBEAT_MILLIS = 1000;
+    static final long FOLLOWER_TIMEOUT_MILLIS = 10 * HEARTBEAT_MILLIS;
+
+    private final Eventstore eventstore;
+    private final ServerSocket serverSocket;
+    private final ReplicationAckPolicy ackPolicy;
+    private final long ackTimeoutMillis;
+    private final int bufferSize;
+    private final Thread acceptor;
+    private final List<Follower> followers = new CopyOnWriteArrayList<>();
+    private final Object acknowledged = new Object();
+    private final AtomicLong ackTimeouts = new AtomicLong();
+    private volatile boolean closed = false;
+
+    ReplicationLeader(Eventstore eventstore, int port, ReplicationAckPolicy ackPolicy, long ackTimeoutMillis, int bufferSize) {
+        this.eventstore = eventstore;
+        this.ackPolicy = ackPolicy;
+        this.ackTimeoutMillis = ackTimeoutMillis;
+        this.bufferSize = bufferSize;
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not listen for followers on port " + port, e);
+        }
+        acceptor = new Thread(this::accept, "replication-leader");
+        acceptor.setDaemon(true);
+    }
+
+    void start() {
+        acceptor.start();
+    }
+
+    /**
+     * The port followers connect to
+     */
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    public ReplicationAckPolicy ackPolicy() {
+        return ackPolicy;
+    }
+
+    public int connectedFollowers() {
+        return followers.size();
+    }
+
+    /**
+     * How many stored events each connected follower has not acknowledged yet
+     */
+    public List<Long> followerLag() {
+        List<Long> lag = new ArrayList<>();
+        for (Follower follower : followers) {
+            lag.add(Math.max(0, eventstore.persistedEvents() - follower.acknowledged));
+        }
+        return lag;
+    }
+
+    /**
+     * The number of events that were acknowledged without a follower, because none was connected or none
+     * answered within the ack timeout
+     */
+    public long ackTimeouts() {
+        return ackTimeouts.get();
+    }
+
+    /**
+     * Waits until a follower has stored the given number of events, if the ack policy asks for it. Commands are
+     * not failed when no follower answers, the event is already stored on the leader.
+     * @return false if no follower acknowledged the events
+     */
+    boolean awaitAcknowledged(long events) {
+        if (ackPolicy == ReplicationAckPolicy.LEADER) {
+            return true;
+        }
+        long deadline = System.currentTimeMillis() + ackTimeoutMillis;
+        synchronized (acknowledged) {
+            while (acknowledgedEvents() < events) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (followers.isEmpty() || remaining <= 0) {
+                    if (ackTimeouts.getAndIncrement() == 0) {
+                        System.out.println("No follower acknowledged event " + events + ", acknowledging on the leader only");
+                    }
+                    return false;
+                }
+                try {
+                    acknowledged.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private long acknowledgedEvents() {
+        long result = 0;
+        for (Follower follower : followers) {
+            result = Math.max(result, follower.acknowledged);
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        for (Follower follower : followers) {
+            follower.disconnect();
+        }
+        try {
+            acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Follower follower = new Follower(socket);
+                Thread thread = new Thread(follower::run, "replication-" + socket.getRemoteSocketAddress());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.out.println("Could not accept follower: " + e);
+                }
+            }
+        }
+    }
+
+    private void acknowledged(Follower follower, long events) {
+        follower.acknowledged = events;
+        synchronized (acknowledged) {
+            acknowledged.notifyAll();
+        }
+    }
+
+    /**
+     * Reads the acknowledgements of one follower on its own thread. The events are written by the subscription.
+     */
+    private class Follower implements EventSubscription {
+        private final Socket socket;
+        private final ClassSerializer serializer = new ClassSerializer();
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private DataOutputStream out;
+        private volatile long acknowledged;
+        private long lastAnswerMillis = System.currentTimeMillis();
+        private volatile boolean failed = false;
+
+        Follower(Socket socket) {
+            this.socket = socket;
+        }
+
+        void run() {
+            CatchUpSubscription subscription = null;
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                long from = in.readLong();
+                if (from > eventstore.persistedEvents()) {
+                    System.out.println("Follower " + socket.getRemoteSocketAddress() + " has " + from + " events, more than the "
+                            + eventstore.persistedEvents() + " on the leader. It must be rebuilt from the leader.");
+                    return;
+                }
+                acknowledged = from;
+                followers.add(this);
+                subscription = eventstore.subscribeFrom(this, from, bufferSize);
+                System.out.println("Follower " + socket.getRemoteSocketAddress() + " connected at " + from + " events");
+                socket.setSoTimeout(HEARTBEAT_MILLIS);
+                while (!closed) {
+                    try {
+                        acknowledged(this, in.readLong());
+                        lastAnswerMillis = System.currentTimeMillis();
+                    } catch (SocketTimeoutException e) {
+                        if (System.currentTimeMillis() - lastAnswerMillis > FOLLOWER_TIMEOUT_MILLIS) {
+                            System.out.println("Follower " + socket.getRemoteSocketAddress() + " has not answered in "
+                                    + FOLLOWER_TIMEOUT_MILLIS + " ms, disconnecting");
+                            return;
+                        }
+                        heartbeat();
+                    }
+                }
+            } catch (IOException e) {
+                if (!closed && !failed) {
+                    System.out.println("Follower " + socket.getRemoteSocketAddress() + " disconnected: " + e);
+                }
+            } finally {
+                followers.remove(this);
+                disconnect();
+                if (subscription != null) {
+                    subscription.close();
+                }
+                synchronized (ReplicationLeader.this.acknowledged) {
+                    ReplicationLeader.this.acknowledged.notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public void eventAdded(AbstractEvent event) {
+            if (failed || event instanceof TransientEvent) {
+                return;
+            }
+            byte[] record = serializer.encode(event);
+            writeLock.lock();
+            try {
+                out.writeInt(record.length);
+                out.write(record);
+                out.writeLong(eventstore.persistedEvents());
+                out.flush();
+            } catch (IOException e) {
+                System.out.println("Could not send event " + event.getRevisionId() + " to follower " + socket.getRemoteSocketAddress() + ": " + e);
+                disconnect();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * Skipped while an event is being sent, which the follower answers as well
+         */
+        private void heartbeat() throws IOException {
+            if (!writeLock.tryLock()) {
+                return;
+            }
+            try {
+                out.writeInt(0);
+                out.writeLong(eventstore.persistedEvents());
+                out.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * Closing the socket ends the thread reading the acknowledgements, which closes the subscription
+         */
+        void disconnect() {
+            failed = true;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.out.println("Could not close connection to follower: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package no.java.moosehead.eventstore.core;
+
+import no.java.moosehead.eventstore.snapshot.SnapshotWriter;
+import no.java.moosehead.eventstore.snapshot.Snapshotable;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Queued to a subscriber on its own thread at the position of a snapshot. When the subscriber's thread gets to it,
+ * the subscriber has handled exactly the events in the snapshot, and its state is captured there.
+ */
+class SnapshotBarrier extends AbstractEvent implements TransientEvent {
+    private final Snapshotable snapshotable;
+    private final CompletableFuture<SnapshotWriter> captured = new CompletableFuture<>();
+
+    SnapshotBarrier(Snapshotable snapshotable) {
+        this.snapshotable = snapshotable;
+    }
+
+    CompletableFuture<SnapshotWriter> captured() {
+        return captured;
+    }
+
+    void reached() {
+        try {
+            captured.complete(snapshotable.captureSnapshot());
+        } catch (RuntimeException e) {
+            captured.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package no.java.moosehead.eventstore.snapshot;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The state of the snapshotable subscribers after a number of events from the log were handled.
+ * The revision and time of the last of those events identify the position in the log, so a snapshot
+ * belonging to another log is not used.
+ */
+public class Snapshot {
+    private final long eventCount;
+    private final long lastRevisionId;
+    private final long lastSystemTimeInMillis;
+    private final Map<String, byte[]> states;
+
+    public Snapshot(long eventCount, long lastRevisionId, long lastSystemTimeInMillis, Map<String, byte[]> states) {
+        this.eventCount = eventCount;
+        this.lastRevisionId = lastRevisionId;
+        this.lastSystemTimeInMillis = lastSystemTimeInMillis;
+        this.states = new LinkedHashMap<>(states);
+    }
+
+    /**
+     * The number of events from the log the state includes
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    public long getLastRevisionId() {
+        return lastRevisionId;
+    }
+
+    public long getLastSystemTimeInMillis() {
+        return lastSystemTimeInMillis;
+    }
+
+    public Map<String, byte[]> getStates() {
+        return states;
+    }
+}
@@ -0,0 +1,104 @@
+package no.java.moosehead.eventstore.snapshot;
+
+import no.java.moosehead.commands.WorkshopTypeEnum;
+import no.java.moosehead.domain.WorkshopReservation;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.repository.WorkshopData;
+import org.jsonbuddy.JsonObject;
+import org.jsonbuddy.parse.JsonParser;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Reads what {@link SnapshotOutput} wrote
+ */
+public class SnapshotInput extends DataInputStream {
+    public SnapshotInput(InputStream in) {
+        super(in);
+    }
+
+    public String readNullableString() throws IOException {
+        return readBoolean() ? readString() : null;
+    }
+
+    public String readString() throws IOException {
+        int length = readInt();
+        if (length < 0) {
+            throw new IOException("Negative string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public List<String> readStrings() throws IOException {
+        int size = readInt();
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            values.add(readString());
+        }
+        return values;
+    }
+
+    public Instant readInstant() throws IOException {
+        if (!readBoolean()) {
+            return null;
+        }
+        long seconds = readLong();
+        return Instant.ofEpochSecond(seconds, readInt());
+    }
+
+    public OffsetDateTime readOffsetDateTime() throws IOException {
+        Instant instant = readInstant();
+        if (instant == null) {
+            return null;
+        }
+        return instant.atOffset(ZoneOffset.ofTotalSeconds(readInt()));
+    }
+
+    public WorkshopReservation readWorkshopReservation() throws IOException {
+        WorkshopReservation.Builder builder = WorkshopReservation.builder()
+                .setEmail(readNullableString())
+                .setFullname(readNullableString())
+                .setWorkshopId(readNullableString())
+                .setReservationToken(readNullableString())
+                .setNumberOfSeatsReserved(readInt());
+        String additionalInfo = readNullableString();
+        if (additionalInfo != null) {
+            builder.setAdditionalInfo((JsonObject) JsonParser.parse(additionalInfo));
+        }
+        return builder
+                .setSystemTimeInMillis(readLong())
+                .setRevisionId(readLong())
+                .setGoogleUserEmail(readOptionalString())
+                .create();
+    }
+
+    public AbstractEvent readEvent() throws IOException {
+        return SnapshotOutput.EVENTS.asObject(readString());
+    }
+
+    public WorkshopData readWorkshopData() throws IOException {
+        String id = readNullableString();
+        String title = readNullableString();
+        String description = readNullableString();
+        Instant startTime = readInstant();
+        Instant endTime = readInstant();
+        Optional<Instant> registrationOpens = readBoolean() ? Optional.ofNullable(readInstant()) : null;
+        String workshopType = readNullableString();
+        return new WorkshopData(id, title, description, startTime, endTime, registrationOpens, workshopType != null ? WorkshopTypeEnum.valueOf(workshopType) : null);
+    }
+
+    private Optional<String> readOptionalString() throws IOException {
+        return readBoolean() ? Optional.ofNullable(readNullableString()) : null;
+    }
+}
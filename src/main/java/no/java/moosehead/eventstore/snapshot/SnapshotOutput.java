@@ -0,0 +1,104 @@
+package no.java.moosehead.eventstore.snapshot;
+
+import no.java.moosehead.domain.WorkshopReservation;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.utils.ClassSerializer;
+import no.java.moosehead.repository.WorkshopData;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * Writes subscriber state, with helpers for the values subscribers keep
+ */
+public class SnapshotOutput extends DataOutputStream {
+    static final ClassSerializer EVENTS = new ClassSerializer();
+
+    public SnapshotOutput(OutputStream out) {
+        super(out);
+    }
+
+    public void writeNullableString(String value) throws IOException {
+        writeBoolean(value != null);
+        if (value != null) {
+            writeString(value);
+        }
+    }
+
+    /**
+     * Writes a string of any length, unlike {@link #writeUTF}
+     */
+    public void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        write(bytes);
+    }
+
+    public void writeStrings(Collection<String> values) throws IOException {
+        writeInt(values.size());
+        for (String value : values) {
+            writeString(value);
+        }
+    }
+
+    public void writeInstant(Instant value) throws IOException {
+        writeBoolean(value != null);
+        if (value != null) {
+            writeLong(value.getEpochSecond());
+            writeInt(value.getNano());
+        }
+    }
+
+    public void writeOffsetDateTime(OffsetDateTime value) throws IOException {
+        writeInstant(value != null ? value.toInstant() : null);
+        if (value != null) {
+            writeInt(value.getOffset().getTotalSeconds());
+        }
+    }
+
+    public void writeWorkshopReservation(WorkshopReservation reservation) throws IOException {
+        writeNullableString(reservation.getEmail());
+        writeNullableString(reservation.getFullname());
+        writeNullableString(reservation.getWorkshopId());
+        writeNullableString(reservation.getReservationToken());
+        writeInt(reservation.getNumberOfSeatsReserved());
+        writeNullableString(reservation.getAdditionalInfo() != null ? reservation.getAdditionalInfo().toJson() : null);
+        writeLong(reservation.getSystemTimeInMillis());
+        writeLong(reservation.getRevisionId());
+        writeOptionalString(reservation.getGoogleUserEmail());
+    }
+
+    /**
+     * Writes an event the subscriber keeps, in the text format of the event log
+     */
+    public void writeEvent(AbstractEvent event) throws IOException {
+        writeString(EVENTS.asString(event));
+    }
+
+    public void writeWorkshopData(WorkshopData workshopData) throws IOException {
+        writeNullableString(workshopData.getId());
+        writeNullableString(workshopData.getTitle());
+        writeNullableString(workshopData.getDescription());
+        writeInstant(workshopData.getStartTime());
+        writeInstant(workshopData.getEndTime());
+        Optional<Instant> registrationOpens = workshopData.getRegistrationOpens();
+        writeBoolean(registrationOpens != null);
+        if (registrationOpens != null) {
+            writeInstant(registrationOpens.orElse(null));
+        }
+        writeNullableString(workshopData.getWorkshopTypeEnum() != null ? workshopData.getWorkshopTypeEnum().name() : null);
+    }
+
+    private void writeOptionalString(Optional<String> value) throws IOException {
+        writeBoolean(value != null);
+        if (value != null) {
+            writeNullableString(value.orElse(null));
+        }
+    }
+}
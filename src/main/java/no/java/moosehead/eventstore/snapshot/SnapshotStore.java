@@ -0,0 +1,149 @@
+package no.java.moosehead.eventstore.snapshot;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Keeps snapshots as files in a directory, named after the number of events they include. A snapshot is written
+ * to a temporary file which is renamed into place, and ends with a checksum of its content. The newest
+ * snapshots are kept so an older one can be used if the newest turns out to be unusable.
+ */
+public class SnapshotStore {
+    /**
+     * Bump when the state written by any {@link Snapshotable} changes. Snapshots of other schema versions are ignored.
+     */
+    public static final int SCHEMA_VERSION = 3;
+
+    private static final int MAGIC = 0x4D48534E;
+    private static final int FILE_VERSION = 1;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+    private static final int SNAPSHOTS_TO_KEEP = 2;
+
+    private final File directory;
+
+    public SnapshotStore(String directory) {
+        this.directory = new File(directory);
+        if (!this.directory.exists() && !this.directory.mkdirs()) {
+            throw new RuntimeException("Could not create snapshot directory " + directory);
+        }
+    }
+
+    public void write(Snapshot snapshot) {
+        File file = new File(directory, String.format("%s%020d%s", PREFIX, snapshot.getEventCount(), SUFFIX));
+        File tempFile = new File(directory, file.getName() + ".tmp");
+        try {
+            try (FileOutputStream fileOutputStream = new FileOutputStream(tempFile)) {
+                CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOutputStream), new CRC32());
+                DataOutputStream out = new DataOutputStream(checked);
+                out.writeInt(MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.writeInt(SCHEMA_VERSION);
+                out.writeLong(snapshot.getEventCount());
+                out.writeLong(snapshot.getLastRevisionId());
+                out.writeLong(snapshot.getLastSystemTimeInMillis());
+                out.writeInt(snapshot.getStates().size());
+                for (Map.Entry<String, byte[]> state : snapshot.getStates().entrySet()) {
+                    out.writeUTF(state.getKey());
+                    out.writeInt(state.getValue().length);
+                    out.write(state.getValue());
+                }
+                out.flush();
+                long checksum = checked.getChecksum().getValue();
+                out.writeLong(checksum);
+                out.flush();
+                fileOutputStream.getFD().sync();
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            syncDirectory();
+        } catch (IOException e) {
+            tempFile.delete();
+            throw new RuntimeException(e);
+        }
+        deleteOldSnapshots();
+    }
+
+    /**
+     * Reads the snapshots, newest first. Files that are damaged or of another version are skipped.
+     */
+    public List<Snapshot> readNewestFirst() {
+        List<Snapshot> result = new ArrayList<>();
+        List<File> files = snapshotFiles();
+        Collections.reverse(files);
+        for (File file : files) {
+            try {
+                result.add(read(file));
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Ignoring snapshot " + file + ": " + e);
+            }
+        }
+        return result;
+    }
+
+    private Snapshot read(File file) throws IOException {
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
+            CheckedInputStream checked = new CheckedInputStream(inputStream, new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a snapshot");
+            }
+            int fileVersion = in.readInt();
+            int schemaVersion = in.readInt();
+            if (fileVersion != FILE_VERSION || schemaVersion != SCHEMA_VERSION) {
+                throw new IOException("Snapshot version " + fileVersion + "/" + schemaVersion + " is not supported");
+            }
+            long eventCount = in.readLong();
+            long lastRevisionId = in.readLong();
+            long lastSystemTimeInMillis = in.readLong();
+            int count = in.readInt();
+            Map<String, byte[]> states = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                int length = in.readInt();
+                if (length < 0 || length > file.length()) {
+                    throw new IOException("Bad length " + length + " of state " + name);
+                }
+                byte[] state = new byte[length];
+                in.readFully(state);
+                states.put(name, state);
+            }
+            long checksum = checked.getChecksum().getValue();
+            if (new DataInputStream(inputStream).readLong() != checksum) {
+                throw new IOException("Checksum mismatch");
+            }
+            return new Snapshot(eventCount, lastRevisionId, lastSystemTimeInMillis, states);
+        }
+    }
+
+    private void deleteOldSnapshots() {
+        List<File> files = snapshotFiles();
+        for (int i = 0; i < files.size() - SNAPSHOTS_TO_KEEP; i++) {
+            files.get(i).delete();
+        }
+    }
+
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not every platform can sync a directory. The rename is still atomic.
+        }
+    }
+
+    private List<File> snapshotFiles() {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        List<File> result = new ArrayList<>(Arrays.asList(files));
+        result.sort(Comparator.comparing(File::getName));
+        return result;
+    }
+}
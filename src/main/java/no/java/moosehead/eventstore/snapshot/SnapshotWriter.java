@@ -0,0 +1,10 @@
+package no.java.moosehead.eventstore.snapshot;
+
+import java.io.IOException;
+
+/**
+ * Writes a copy of the state of a {@link Snapshotable} taken by {@link Snapshotable#captureSnapshot}
+ */
+public interface SnapshotWriter {
+    void write(SnapshotOutput out) throws IOException;
+}
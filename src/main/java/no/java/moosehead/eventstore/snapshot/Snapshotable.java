@@ -0,0 +1,29 @@
+package no.java.moosehead.eventstore.snapshot;
+
+import java.io.IOException;
+
+/**
+ * A subscriber whose state can be saved in a snapshot, so that only the events after the snapshot
+ * need to be played back to it at startup.
+ */
+public interface Snapshotable {
+    /**
+     * Names the state in the snapshot. Must be unique among the subscribers.
+     */
+    String snapshotName();
+
+    /**
+     * Copies the current state, which the returned writer writes later on the snapshot thread while events are
+     * added. Called when the subscriber has handled exactly the events in the snapshot: holding the eventstore
+     * lock for a subscriber called directly, and on its own thread for one added with
+     * {@link no.java.moosehead.eventstore.core.Eventstore#addAsyncEventSubscriber}. Keep the copy cheap, appends
+     * to the eventstore wait for it.
+     */
+    SnapshotWriter captureSnapshot();
+
+    /**
+     * Reads a state written by the writer from {@link #captureSnapshot}. The returned action installs it. Nothing may change
+     * before the action runs, so that startup can fall back to full replay if any subscriber fails to read its state.
+     */
+    Runnable readSnapshot(SnapshotInput in) throws IOException;
+}
@@ -0,0 +1,383 @@
+package no.java.moosehead.eventstore.tools;
+
+import no.java.moosehead.aggregate.WorkshopAggregate;
+import no.java.moosehead.eventstore.*;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.snapshot.SnapshotOutput;
+import no.java.moosehead.eventstore.snapshot.Snapshotable;
+import no.java.moosehead.eventstore.utils.*;
+import no.java.moosehead.projections.WorkshopListProjection;
+import no.java.moosehead.repository.WorkshopData;
+import no.java.moosehead.saga.EmailSaga;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+/**
+ * Rewrites an event log into a smaller log with the same end state. A reservation that is cancelled again is
+ * left out together with its cancellations when that cannot change the workshop list, the email saga or the
+ * workshop aggregate:
+ * <ul>
+ * <li>a reservation by an admin cancelled by an admin, which the saga does not see</li>
+ * <li>a reservation by a user cancelled by the user, if the email is confirmed somewhere in the log so that the
+ * aggregate forgets the confirmation link either way, and if the reservation was never confirmed while it was active,
+ * the workshop has never had more seats reserved than it has, or replaying the workshop without it leaves
+ * the waiting list of the saga the same</li>
+ * </ul>
+ * Everything else is kept in the original order and with the original revisions, so waiting lists are built
+ * the same way. The new log is read back and replayed, and the tool fails if it does not give the same state.
+ *
+ * Usage: CompactEventLog source target [TEXT|BINARY|CHECKSUMMED] [segmented]
+ */
+public class CompactEventLog {
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: CompactEventLog source target [TEXT|BINARY|CHECKSUMMED] [segmented]");
+            System.exit(1);
+        }
+        if (new File(args[1]).exists()) {
+            System.out.println("Target " + args[1] + " already exists");
+            System.exit(1);
+        }
+        EventLog source = openLog(args[0]);
+        LogFormat targetFormat = args.length > 2 ? LogFormat.valueOf(args[2].toUpperCase()) : source.format();
+        boolean segmentedTarget = args.length > 3 && "segmented".equals(args[3]);
+        EventLog target = segmentedTarget
+                ? new SegmentedEventLog(args[1], DEFAULT_SEGMENT_SIZE, DurabilityMode.OS_BUFFERED, 0, targetFormat)
+                : new FileHandler(args[1], DurabilityMode.OS_BUFFERED, 0, targetFormat);
+
+        long start = System.currentTimeMillis();
+        List<AbstractEvent> events = readAll(source);
+        List<AbstractEvent> compacted = compact(events);
+        write(compacted, target);
+        System.out.println("Kept " + compacted.size() + " of " + events.size() + " events in " + (System.currentTimeMillis() - start) + " ms");
+        System.out.println("Size before " + sizeOf(new File(args[0])) + " bytes, after " + sizeOf(new File(args[1])) + " bytes");
+
+        Map<String, String> before = replayedState(events);
+        Map<String, String> after = replayedState(readAll(openLog(args[1])));
+        boolean equivalent = true;
+        for (String name : before.keySet()) {
+            if (!before.get(name).equals(after.get(name))) {
+                System.out.println("The " + name + " of " + args[1] + " differs from " + args[0]);
+                equivalent = false;
+            }
+        }
+        if (!equivalent) {
+            System.out.println("Do not use " + args[1]);
+            System.exit(1);
+        }
+        System.out.println("Both logs replay to the same " + String.join(", ", before.keySet()));
+    }
+
+    /**
+     * Reads a log, or a segmented log if it is a directory
+     */
+    private static EventLog openLog(String path) {
+        return new File(path).isDirectory()
+                ? new SegmentedEventLog(path, DEFAULT_SEGMENT_SIZE, DurabilityMode.OS_BUFFERED, 0)
+                : new FileHandler(path);
+    }
+
+    public static List<AbstractEvent> readAll(EventLog log) {
+        EventCodec codec = log.format().newCodec();
+        List<AbstractEvent> events = new ArrayList<>();
+        try (RecordReader reader = log.openReader()) {
+            ByteBuffer record;
+            while ((record = reader.next()) != null) {
+                events.add(codec.decode(record));
+            }
+        }
+        return events;
+    }
+
+    private static void write(List<AbstractEvent> events, EventLog target) {
+        EventCodec codec = target.format().newCodec();
+        target.openForAppend();
+        try {
+            for (AbstractEvent event : events) {
+                target.append(codec.encode(event));
+            }
+        } finally {
+            target.close();
+        }
+    }
+
+    private static class Reservation {
+        private final AbstractReservationAdded added;
+        private final int start;
+        private final List<Integer> events = new ArrayList<>();
+
+        private Reservation(AbstractReservationAdded added, int start) {
+            this.added = added;
+            this.start = start;
+            events.add(start);
+        }
+    }
+
+    /**
+     * @return the events to keep, in their original order
+     */
+    public static List<AbstractEvent> compact(List<AbstractEvent> events) {
+        Map<String, Integer> firstConfirmedByUser = new HashMap<>();
+        Map<String, Integer> firstConfirmed = new HashMap<>();
+        for (int i = 0; i < events.size(); i++) {
+            AbstractEvent event = events.get(i);
+            if (event instanceof EmailConfirmedByUser) {
+                firstConfirmedByUser.putIfAbsent(((EmailConfirmedByUser) event).getEmail(), i);
+                firstConfirmed.putIfAbsent(((EmailConfirmedByUser) event).getEmail(), i);
+            } else if (event instanceof ReservationAddedByUser && reservingWithGoogle((ReservationAddedByUser) event)) {
+                firstConfirmed.putIfAbsent(((ReservationAddedByUser) event).getEmail(), i);
+            }
+        }
+
+        Map<String, Integer> numberOfSeats = new HashMap<>();
+        Map<String, Integer> seatsReservedByUsers = new HashMap<>();
+        Set<String> overbookedWorkshops = new HashSet<>();
+        Map<String, Integer> seatsReserved = new HashMap<>();
+        Map<String, Reservation> active = new HashMap<>();
+        Set<String> irregular = new HashSet<>();
+        boolean[] dropped = new boolean[events.size()];
+        Map<String, List<Reservation>> toCheck = new HashMap<>();
+
+        for (int i = 0; i < events.size(); i++) {
+            AbstractEvent event = events.get(i);
+            if (event instanceof WorkshopAddedEvent) {
+                WorkshopAddedEvent workshopAdded = (WorkshopAddedEvent) event;
+                numberOfSeats.put(workshopAdded.getWorkshopId(), workshopAdded.getNumberOfSeats());
+            } else if (event instanceof AbstractReservationAdded) {
+                AbstractReservationAdded added = (AbstractReservationAdded) event;
+                String key = key(added);
+                int before = seatsReserved.getOrDefault(key, 0);
+                if (before == 0) {
+                    active.put(key, new Reservation(added, i));
+                } else {
+                    active.remove(key);
+                    irregular.add(key);
+                }
+                seatsReserved.put(key, before + added.getNumberOfSeatsReserved());
+                if (added instanceof ReservationAddedByUser) {
+                    int reserved = seatsReservedByUsers.merge(added.getWorkshopId(), added.getNumberOfSeatsReserved(), Integer::sum);
+                    if (reserved > numberOfSeats.getOrDefault(added.getWorkshopId(), 0)) {
+                        overbookedWorkshops.add(added.getWorkshopId());
+                    }
+                }
+            } else if (event instanceof AbstractReservationCancelled) {
+                AbstractReservationCancelled cancelled = (AbstractReservationCancelled) event;
+                String key = key(cancelled);
+                int after = seatsReserved.getOrDefault(key, 0) - cancelled.getNumSpotsCancelled();
+                seatsReserved.put(key, after);
+                // the saga keeps reservations that are cancelled by an admin
+                if (!(cancelled instanceof ReservationCancelledByAdmin)) {
+                    seatsReservedByUsers.merge(cancelled.getWorkshopId(), -cancelled.getNumSpotsCancelled(), Integer::sum);
+                }
+                Reservation reservation = active.get(key);
+                if (reservation == null) {
+                    irregular.add(key);
+                    continue;
+                }
+                reservation.events.add(i);
+                if (after > 0) {
+                    continue;
+                }
+                active.remove(key);
+                // the saga cannot take partial cancellations of reservations by an admin
+                boolean partiallyCancelledByAdmin = reservation.added instanceof ReservationAddedByAdmin && reservation.events.size() > 2;
+                if (after < 0 || !cancelledBySameAuthor(reservation.added, cancelled) || partiallyCancelledByAdmin) {
+                    irregular.add(key);
+                    continue;
+                }
+                if (irregular.contains(key)) {
+                    continue;
+                }
+                if (reservation.added instanceof ReservationAddedByUser) {
+                    String email = reservation.added.getEmail();
+                    Integer confirmedByUser = firstConfirmedByUser.get(email);
+                    if (confirmedByUser == null) {
+                        continue;
+                    }
+                    if (reservingWithGoogle((ReservationAddedByUser) reservation.added) && confirmedByUser > reservation.start) {
+                        continue;
+                    }
+                    boolean confirmedWhileActive = firstConfirmed.get(email) < i;
+                    if (confirmedWhileActive && overbookedWorkshops.contains(reservation.added.getWorkshopId())) {
+                        toCheck.computeIfAbsent(reservation.added.getWorkshopId(), workshopId -> new ArrayList<>()).add(reservation);
+                        continue;
+                    }
+                }
+                setDropped(reservation, dropped, true);
+            }
+        }
+        for (Map.Entry<String, List<Reservation>> entry : toCheck.entrySet()) {
+            dropWhereSagaIsUnchanged(events, entry.getKey(), entry.getValue(), dropped);
+        }
+
+        Set<Long> droppedRevisions = new HashSet<>();
+        for (int i = 0; i < events.size(); i++) {
+            if (dropped[i] && events.get(i) instanceof AbstractReservationAdded) {
+                droppedRevisions.add(events.get(i).getRevisionId());
+            }
+        }
+        List<AbstractEvent> compacted = new ArrayList<>();
+        for (int i = 0; i < events.size(); i++) {
+            AbstractEvent event = events.get(i);
+            if (dropped[i] || event instanceof EmailConfimationSentByEmailSaga
+                    && droppedRevisions.contains(((EmailConfimationSentByEmailSaga) event).getReferingToEventWithRevision())) {
+                continue;
+            }
+            compacted.add(event);
+        }
+        return compacted;
+    }
+
+    private static void setDropped(Reservation reservation, boolean[] dropped, boolean value) {
+        for (int index : reservation.events) {
+            dropped[index] = value;
+        }
+    }
+
+    /**
+     * A confirmed reservation in a workshop with a waiting list moves the waiting list when it is cancelled, so
+     * the reservations are only left out if the saga ends up the same. Workshops only share confirmed emails in
+     * the saga, so it is enough to replay the events of the workshop and the confirmations of its participants.
+     */
+    private static void dropWhereSagaIsUnchanged(List<AbstractEvent> events, String workshopId, List<Reservation> reservations, boolean[] dropped) {
+        Set<String> emails = new HashSet<>();
+        for (AbstractEvent event : events) {
+            if (event instanceof UserWorkshopEvent && ((UserWorkshopEvent) event).getWorkshopId().equals(workshopId)) {
+                emails.add(((UserWorkshopEvent) event).getEmail());
+            }
+        }
+        List<Integer> workshopEvents = new ArrayList<>();
+        for (int i = 0; i < events.size(); i++) {
+            AbstractEvent event = events.get(i);
+            boolean include;
+            if (event instanceof WorkshopAddedEvent) {
+                include = true;
+            } else if (event instanceof EmailConfirmedByUser) {
+                include = emails.contains(((EmailConfirmedByUser) event).getEmail());
+            } else if (event instanceof UserWorkshopEvent) {
+                UserWorkshopEvent userWorkshopEvent = (UserWorkshopEvent) event;
+                include = userWorkshopEvent.getWorkshopId().equals(workshopId)
+                        || event instanceof ReservationAddedByUser && reservingWithGoogle((ReservationAddedByUser) event) && emails.contains(userWorkshopEvent.getEmail());
+            } else {
+                include = false;
+            }
+            if (include) {
+                workshopEvents.add(i);
+            }
+        }
+        String expected = sagaState(events, workshopEvents, new boolean[events.size()]);
+        tryDropping(events, workshopEvents, reservations, dropped, expected);
+    }
+
+    /**
+     * Drops all the reservations if the saga ends up the same, or else tries each half
+     */
+    private static void tryDropping(List<AbstractEvent> events, List<Integer> workshopEvents, List<Reservation> reservations, boolean[] dropped, String expected) {
+        reservations.forEach(reservation -> setDropped(reservation, dropped, true));
+        if (sagaState(events, workshopEvents, dropped).equals(expected)) {
+            return;
+        }
+        reservations.forEach(reservation -> setDropped(reservation, dropped, false));
+        if (reservations.size() > 1) {
+            int middle = reservations.size() / 2;
+            tryDropping(events, workshopEvents, reservations.subList(0, middle), dropped, expected);
+            tryDropping(events, workshopEvents, reservations.subList(middle, reservations.size()), dropped, expected);
+        }
+    }
+
+    private static String sagaState(List<AbstractEvent> events, List<Integer> indexes, boolean[] dropped) {
+        EmailSaga emailSaga = new EmailSaga();
+        for (int index : indexes) {
+            if (!dropped[index]) {
+                emailSaga.eventAdded(events.get(index));
+            }
+        }
+        return serialize(emailSaga);
+    }
+
+    private static String key(UserWorkshopEvent event) {
+        return event.getEmail() + "\n" + event.getWorkshopId();
+    }
+
+    private static boolean reservingWithGoogle(ReservationAddedByUser reservation) {
+        return reservation.getGoogleUserEmail().filter(email -> email.equals(reservation.getEmail())).isPresent();
+    }
+
+    private static boolean cancelledBySameAuthor(AbstractReservationAdded added, AbstractReservationCancelled cancelled) {
+        return added instanceof ReservationAddedByUser && cancelled instanceof ReservationCancelledByUser
+                || added instanceof ReservationAddedByAdmin && cancelled instanceof ReservationCancelledByAdmin;
+    }
+
+    /**
+     * Replays the events into a workshop list, an email saga and a workshop aggregate
+     * @return the state of each of them, in a form that can be compared
+     */
+    public static Map<String, String> replayedState(List<AbstractEvent> events) {
+        WorkshopListProjection workshopListProjection = new WorkshopListProjection(workshopId -> Optional.of(new WorkshopData(workshopId, workshopId, workshopId)));
+        EmailSaga emailSaga = new EmailSaga();
+        WorkshopAggregate workshopAggregate = new WorkshopAggregate();
+        for (AbstractEvent event : events) {
+            workshopListProjection.eventAdded(event);
+            emailSaga.eventAdded(event);
+            workshopAggregate.eventAdded(event);
+        }
+
+        Map<String, String> state = new LinkedHashMap<>();
+        state.put("workshop list", serialize(workshopListProjection));
+        state.put("email saga", serialize(emailSaga));
+        state.put("aggregate", serialize(workshopAggregate));
+        return state;
+    }
+
+    private static String serialize(Snapshotable snapshotable) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (SnapshotOutput out = new ComparableSnapshotOutput(bytes)) {
+            snapshotable.captureSnapshot().write(out);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * Sorts sets, and truncates confirmedAt since Participant takes its fraction of a second from the clock
+     */
+    private static class ComparableSnapshotOutput extends SnapshotOutput {
+        ComparableSnapshotOutput(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void writeStrings(Collection<String> values) throws IOException {
+            super.writeStrings(values instanceof Set ? new TreeSet<>(values) : values);
+        }
+
+        @Override
+        public void writeOffsetDateTime(OffsetDateTime value) throws IOException {
+            super.writeOffsetDateTime(value != null ? value.truncatedTo(ChronoUnit.SECONDS) : null);
+        }
+    }
+
+    private static long sizeOf(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                size += sizeOf(child);
+            }
+        }
+        return size;
+    }
+}
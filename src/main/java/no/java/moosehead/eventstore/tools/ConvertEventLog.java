@@ -0,0 +1,78 @@
+package no.java.moosehead.eventstore.tools;
+
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.utils.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * Copies an event log into a new log of another format, typically an old text log into a checksummed binary one.
+ * A directory is read as a segmented log. The target must not exist.
+ *
+ * Usage: ConvertEventLog source target [TEXT|BINARY|CHECKSUMMED] [segmented]
+ */
+public class ConvertEventLog {
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: ConvertEventLog source target [TEXT|BINARY|CHECKSUMMED] [segmented]");
+            System.exit(1);
+        }
+        LogFormat targetFormat = args.length > 2 ? LogFormat.valueOf(args[2].toUpperCase()) : LogFormat.CHECKSUMMED;
+        boolean segmentedTarget = args.length > 3 && "segmented".equals(args[3]);
+        if (new File(args[1]).exists()) {
+            System.out.println("Target " + args[1] + " already exists");
+            System.exit(1);
+        }
+        EventLog source = new File(args[0]).isDirectory()
+                ? new SegmentedEventLog(args[0], DEFAULT_SEGMENT_SIZE, DurabilityMode.OS_BUFFERED, 0)
+                : new FileHandler(args[0]);
+        EventLog target = segmentedTarget
+                ? new SegmentedEventLog(args[1], DEFAULT_SEGMENT_SIZE, DurabilityMode.OS_BUFFERED, 0, targetFormat)
+                : new FileHandler(args[1], DurabilityMode.OS_BUFFERED, 0, targetFormat);
+
+        long start = System.currentTimeMillis();
+        int count = convert(source, target);
+        System.out.println("Converted " + count + " events from " + source.format() + " to " + targetFormat
+                + " in " + (System.currentTimeMillis() - start) + " ms");
+        System.out.println("Size before " + sizeOf(new File(args[0])) + " bytes, after " + sizeOf(new File(args[1])) + " bytes");
+    }
+
+    /**
+     * Decodes every record of the source and appends it to the target, which is closed afterwards
+     * @return the number of events copied
+     */
+    public static int convert(EventLog source, EventLog target) {
+        EventCodec sourceCodec = source.format().newCodec();
+        EventCodec targetCodec = target.format().newCodec();
+        int count = 0;
+        target.openForAppend();
+        try (RecordReader reader = source.openReader()) {
+            ByteBuffer record;
+            while ((record = reader.next()) != null) {
+                AbstractEvent event = sourceCodec.decode(record);
+                target.append(targetCodec.encode(event));
+                count++;
+            }
+        } finally {
+            target.close();
+        }
+        return count;
+    }
+
+    private static long sizeOf(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                size += sizeOf(child);
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,46 @@
+package no.java.moosehead.eventstore.tools;
+
+import no.java.moosehead.eventstore.utils.DurabilityMode;
+import no.java.moosehead.eventstore.utils.FileHandler;
+import no.java.moosehead.eventstore.utils.LogVerifier;
+import no.java.moosehead.eventstore.utils.SegmentedEventLog;
+
+import java.io.File;
+
+/**
+ * Checks every record of an event log without changing it. Checksums are only verified for logs in the
+ * CHECKSUMMED format, other logs are checked for complete records. A directory is read as a segmented log.
+ * Exits with 1 if the log is damaged, and 2 if it ends with a torn record, which is cut off at the next startup.
+ *
+ * Usage: VerifyEventLog log [threads]
+ */
+public class VerifyEventLog {
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: VerifyEventLog log [threads]");
+            System.exit(1);
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        File file = new File(args[0]);
+        long start = System.currentTimeMillis();
+        LogVerifier.Result result;
+        if (file.isDirectory()) {
+            SegmentedEventLog log = new SegmentedEventLog(args[0], DEFAULT_SEGMENT_SIZE, DurabilityMode.OS_BUFFERED, 0);
+            System.out.println("Verifying segmented " + log.format() + " log " + args[0]);
+            result = log.verify(threads);
+        } else {
+            FileHandler log = new FileHandler(args[0]);
+            System.out.println("Verifying " + log.format() + " log " + args[0]);
+            result = log.verify(threads);
+        }
+        System.out.println(result + " in " + (System.currentTimeMillis() - start) + " ms");
+        if (result.isDamaged()) {
+            System.exit(1);
+        }
+        if (result.getTornBytes() > 0) {
+            System.exit(2);
+        }
+    }
+}
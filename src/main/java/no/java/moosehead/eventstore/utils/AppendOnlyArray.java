@@ -0,0 +1,92 @@
+package no.java.moosehead.eventstore.utils;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An array that only grows at the end, kept in fixed size chunks so that growing never moves the elements.
+ * One thread appends at a time, and any number of threads read without locking. An element is written before
+ * the length that includes it is published, so readers see either the whole element or not the element.
+ */
+public class AppendOnlyArray<T> {
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile Object[][] chunks = new Object[16][];
+    private volatile int size = 0;
+
+    /**
+     * Must not be called from more than one thread at a time
+     */
+    public void add(T element) {
+        int index = size;
+        int chunk = index >>> CHUNK_BITS;
+        Object[][] current = chunks;
+        if (chunk == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+            chunks = current;
+        }
+        if (current[chunk] == null) {
+            current[chunk] = new Object[CHUNK_SIZE];
+        }
+        current[chunk][index & CHUNK_MASK] = element;
+        size = index + 1;
+    }
+
+    /**
+     * The number of published elements
+     */
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+        return (T) chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+    }
+
+    /**
+     * A read-only view of the elements published so far. It does not copy them, and does not change when more
+     * elements are added.
+     */
+    public List<T> view() {
+        return new View(0, size);
+    }
+
+    private class View extends AbstractList<T> implements RandomAccess {
+        private final int from;
+        private final int to;
+
+        private View(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public T get(int index) {
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + (to - from));
+            }
+            return AppendOnlyArray.this.get(from + index);
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        @Override
+        public List<T> subList(int fromIndex, int toIndex) {
+            if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+                throw new IndexOutOfBoundsException("Range " + fromIndex + " to " + toIndex + ", size " + size());
+            }
+            return new View(from + fromIndex, from + toIndex);
+        }
+    }
+}
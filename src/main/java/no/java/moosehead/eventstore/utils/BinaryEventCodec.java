@@ -0,0 +1,464 @@
+package no.java.moosehead.eventstore.utils;
+
+import no.java.moosehead.domain.WorkshopReservation;
+import no.java.moosehead.eventstore.*;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.repository.WorkshopData;
+import org.jsonbuddy.JsonNode;
+import org.jsonbuddy.parse.JsonParser;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary encoding of events. Known classes are written as small type ids, numbers as varints and
+ * class names, field names and identifiers such as workshop ids and emails as references into a string dictionary.
+ * A record starts with the dictionary entries it introduces, so the dictionary is rebuilt while a log is read
+ * from the start and needs no storage of its own. Fields are written by name, so classes can gain and lose fields
+ * the same way as with {@link ClassSerializer}.
+ */
+public class BinaryEventCodec implements EventCodec {
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int SHARED_STRING = 2;
+    private static final int INT = 3;
+    private static final int LONG = 4;
+    private static final int TRUE = 5;
+    private static final int FALSE = 6;
+    private static final int DOUBLE = 7;
+    private static final int CHAR = 8;
+    private static final int INSTANT = 9;
+    private static final int DATE = 10;
+    private static final int BIG_DECIMAL = 11;
+    private static final int ENUM = 12;
+    private static final int JSON = 13;
+    private static final int OPTIONAL_EMPTY = 14;
+    private static final int OPTIONAL = 15;
+    private static final int LIST = 16;
+    private static final int MAP = 17;
+    private static final int ARRAY = 18;
+    private static final int OBJECT = 19;
+    private static final int OBJECT_BY_NAME = 20;
+
+    private static final Set<String> SHARED_FIELDS = new HashSet<>(Arrays.asList("workshopId", "id", "email", "googleUserEmail"));
+
+    private static final Map<Class<?>, Integer> TYPE_IDS = new HashMap<>();
+    private static final Map<Integer, Class<?>> TYPES = new HashMap<>();
+
+    static {
+        // Type ids are stored in the log. Never reuse or renumber them.
+        registerType(1, WorkshopAddedBySystem.class);
+        registerType(2, WorkshopAddedByAdmin.class);
+        registerType(3, KidsaKoderWorkshopAddedByAdmin.class);
+        registerType(4, BeerWorkshopAddedByAdmin.class);
+        registerType(5, ReservationAddedByUser.class);
+        registerType(6, ReservationAddedByAdmin.class);
+        registerType(7, ReservationCancelledByUser.class);
+        registerType(8, ReservationCancelledByAdmin.class);
+        registerType(9, ReservationPartallyCancelled.class);
+        registerType(10, EmailConfirmedByUser.class);
+        registerType(11, EmailConfimationSentByEmailSaga.class);
+        registerType(20, WorkshopReservation.class);
+        registerType(21, WorkshopData.class);
+    }
+
+    private static void registerType(int id, Class<?> type) {
+        TYPE_IDS.put(type, id);
+        TYPES.put(id, type);
+    }
+
+    private static final Map<Class<?>, ClassInfo> CLASS_INFO = new ConcurrentHashMap<>();
+    private static final Map<String, Class<?>> CLASSES_BY_NAME = new ConcurrentHashMap<>();
+
+    private static class ClassInfo {
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+        private final Map<String, Field> fieldsByName = new HashMap<>();
+
+        private ClassInfo(Class<?> type) {
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new RuntimeException(e);
+            }
+            List<Field> result = new ArrayList<>();
+            for (Field field : ClassSerializer.getAllFields(new ArrayList<>(), type)) {
+                if (Modifier.isStatic(field.getModifiers()) || fieldsByName.containsKey(field.getName())) {
+                    continue;
+                }
+                field.setAccessible(true);
+                fieldsByName.put(field.getName(), field);
+                result.add(field);
+            }
+            fields = result.toArray(new Field[result.size()]);
+        }
+    }
+
+    private static ClassInfo classInfo(Class<?> type) {
+        return CLASS_INFO.computeIfAbsent(type, ClassInfo::new);
+    }
+
+    private static Class<?> classForName(String name) {
+        return CLASSES_BY_NAME.computeIfAbsent(name, n -> {
+            try {
+                return Class.forName(n);
+            } catch (ClassNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private final Map<String, Integer> dictionaryIds = new HashMap<>();
+    private volatile String[] dictionary = new String[256];
+    private volatile int dictionarySize = 0;
+
+    @Override
+    public byte[] encode(AbstractEvent event) {
+        synchronized (dictionaryIds) {
+            Map<String, Integer> introduced = new LinkedHashMap<>();
+            Output body = new Output();
+            writeValue(body, event, false, introduced);
+
+            Output record = new Output();
+            record.writeVarint(introduced.size());
+            for (Map.Entry<String, Integer> entry : introduced.entrySet()) {
+                record.writeVarint(entry.getValue());
+                record.writeString(entry.getKey());
+                addToDictionary(entry.getValue(), entry.getKey());
+            }
+            record.write(body);
+            return record.toByteArray();
+        }
+    }
+
+    @Override
+    public AbstractEvent decode(ByteBuffer record) {
+        ByteBuffer in = record.duplicate();
+        readDefinitions(in);
+        Object value = readValue(in);
+        if (!(value instanceof AbstractEvent)) {
+            throw new RuntimeException("Record does not contain an event: " + value);
+        }
+        return (AbstractEvent) value;
+    }
+
+    @Override
+    public void readAhead(ByteBuffer record) {
+        readDefinitions(record.duplicate());
+    }
+
+    private void readDefinitions(ByteBuffer in) {
+        int count = (int) Varint.get(in);
+        for (int i = 0; i < count; i++) {
+            int id = (int) Varint.get(in);
+            String value = readString(in);
+            synchronized (dictionaryIds) {
+                if (id == dictionarySize) {
+                    addToDictionary(id, value);
+                } else if (id > dictionarySize) {
+                    throw new RuntimeException("Dictionary entry " + id + " is defined before entry " + dictionarySize);
+                }
+            }
+        }
+    }
+
+    private void addToDictionary(int id, String value) {
+        String[] entries = dictionary;
+        if (id == entries.length) {
+            entries = Arrays.copyOf(entries, entries.length * 2);
+        }
+        entries[id] = value;
+        dictionaryIds.put(value, id);
+        dictionary = entries;
+        dictionarySize = id + 1;
+    }
+
+    private String dictionaryEntry(int id) {
+        if (id >= dictionarySize) {
+            throw new RuntimeException("Unknown dictionary entry " + id);
+        }
+        return dictionary[id];
+    }
+
+    private void writeShared(Output out, String value, Map<String, Integer> introduced) {
+        Integer id = dictionaryIds.get(value);
+        if (id == null) {
+            id = introduced.get(value);
+        }
+        if (id == null) {
+            id = dictionarySize + introduced.size();
+            introduced.put(value, id);
+        }
+        out.writeVarint(id);
+    }
+
+    private void writeValue(Output out, Object value, boolean shared, Map<String, Integer> introduced) {
+        if (value == null) {
+            out.writeTag(NULL);
+        } else if (value instanceof String) {
+            if (shared) {
+                out.writeTag(SHARED_STRING);
+                writeShared(out, (String) value, introduced);
+            } else {
+                out.writeTag(STRING);
+                out.writeString((String) value);
+            }
+        } else if (value instanceof Integer) {
+            out.writeTag(INT);
+            out.writeVarint(Varint.zigZag((Integer) value));
+        } else if (value instanceof Long) {
+            out.writeTag(LONG);
+            out.writeVarint(Varint.zigZag((Long) value));
+        } else if (value instanceof Boolean) {
+            out.writeTag((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+            out.writeTag(DOUBLE);
+            out.writeLong(Double.doubleToLongBits((Double) value));
+        } else if (value instanceof Character) {
+            out.writeTag(CHAR);
+            out.writeVarint((Character) value);
+        } else if (value instanceof Instant) {
+            Instant instant = (Instant) value;
+            out.writeTag(INSTANT);
+            out.writeVarint(Varint.zigZag(instant.getEpochSecond()));
+            out.writeVarint(instant.getNano());
+        } else if (value instanceof Date) {
+            out.writeTag(DATE);
+            out.writeVarint(Varint.zigZag(((Date) value).getTime()));
+        } else if (value instanceof BigDecimal) {
+            out.writeTag(BIG_DECIMAL);
+            out.writeString(value.toString());
+        } else if (value instanceof Enum) {
+            out.writeTag(ENUM);
+            writeShared(out, ((Enum<?>) value).getDeclaringClass().getName(), introduced);
+            writeShared(out, ((Enum<?>) value).name(), introduced);
+        } else if (value instanceof JsonNode) {
+            out.writeTag(JSON);
+            out.writeString(((JsonNode) value).toJson());
+        } else if (value instanceof Optional) {
+            Optional<?> optional = (Optional<?>) value;
+            if (optional.isPresent()) {
+                out.writeTag(OPTIONAL);
+                writeValue(out, optional.get(), shared, introduced);
+            } else {
+                out.writeTag(OPTIONAL_EMPTY);
+            }
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeTag(LIST);
+            out.writeVarint(list.size());
+            for (Object element : list) {
+                writeValue(out, element, shared, introduced);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeTag(MAP);
+            out.writeVarint(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(out, entry.getKey(), shared, introduced);
+                writeValue(out, entry.getValue(), shared, introduced);
+            }
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            out.writeTag(ARRAY);
+            writeShared(out, value.getClass().getComponentType().getName(), introduced);
+            out.writeVarint(array.length);
+            for (Object element : array) {
+                writeValue(out, element, shared, introduced);
+            }
+        } else {
+            writeObject(out, value, introduced);
+        }
+    }
+
+    private void writeObject(Output out, Object value, Map<String, Integer> introduced) {
+        Class<?> type = value.getClass();
+        if (type.getName().startsWith("java.")) {
+            throw new RuntimeException("Can not encode value of " + type);
+        }
+        Integer typeId = TYPE_IDS.get(type);
+        if (typeId != null) {
+            out.writeTag(OBJECT);
+            out.writeVarint(typeId);
+        } else {
+            out.writeTag(OBJECT_BY_NAME);
+            writeShared(out, type.getName(), introduced);
+        }
+        ClassInfo info = classInfo(type);
+        out.writeVarint(info.fields.length);
+        for (Field field : info.fields) {
+            writeShared(out, field.getName(), introduced);
+            try {
+                writeValue(out, field.get(value), SHARED_FIELDS.contains(field.getName()), introduced);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object readValue(ByteBuffer in) {
+        int tag = in.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case SHARED_STRING:
+                return dictionaryEntry((int) Varint.get(in));
+            case INT:
+                return (int) Varint.unZigZag(Varint.get(in));
+            case LONG:
+                return Varint.unZigZag(Varint.get(in));
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case DOUBLE:
+                return Double.longBitsToDouble(in.getLong());
+            case CHAR:
+                return (char) Varint.get(in);
+            case INSTANT:
+                long seconds = Varint.unZigZag(Varint.get(in));
+                return Instant.ofEpochSecond(seconds, Varint.get(in));
+            case DATE:
+                return new Date(Varint.unZigZag(Varint.get(in)));
+            case BIG_DECIMAL:
+                return new BigDecimal(readString(in));
+            case ENUM:
+                Class<?> enumType = classForName(dictionaryEntry((int) Varint.get(in)));
+                return Enum.valueOf((Class<Enum>) enumType, dictionaryEntry((int) Varint.get(in)));
+            case JSON:
+                return JsonParser.parse(readString(in));
+            case OPTIONAL_EMPTY:
+                return Optional.empty();
+            case OPTIONAL:
+                return Optional.of(readValue(in));
+            case LIST:
+                int listSize = (int) Varint.get(in);
+                List<Object> list = new ArrayList<>(listSize);
+                for (int i = 0; i < listSize; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            case MAP:
+                int mapSize = (int) Varint.get(in);
+                Map<Object, Object> map = new HashMap<>();
+                for (int i = 0; i < mapSize; i++) {
+                    Object key = readValue(in);
+                    map.put(key, readValue(in));
+                }
+                return map;
+            case ARRAY:
+                Class<?> componentType = classForName(dictionaryEntry((int) Varint.get(in)));
+                int length = (int) Varint.get(in);
+                Object array = Array.newInstance(componentType, length);
+                for (int i = 0; i < length; i++) {
+                    Array.set(array, i, readValue(in));
+                }
+                return array;
+            case OBJECT:
+                int typeId = (int) Varint.get(in);
+                Class<?> type = TYPES.get(typeId);
+                if (type == null) {
+                    throw new RuntimeException("Unknown type id " + typeId);
+                }
+                return readObject(in, type);
+            case OBJECT_BY_NAME:
+                return readObject(in, classForName(dictionaryEntry((int) Varint.get(in))));
+            default:
+                throw new RuntimeException("Unknown value tag " + tag);
+        }
+    }
+
+    private Object readObject(ByteBuffer in, Class<?> type) {
+        ClassInfo info = classInfo(type);
+        try {
+            Object object = info.constructor.newInstance();
+            int fieldCount = (int) Varint.get(in);
+            for (int i = 0; i < fieldCount; i++) {
+                String fieldName = dictionaryEntry((int) Varint.get(in));
+                Object value = readValue(in);
+                Field field = info.fieldsByName.get(fieldName);
+                if (field == null) {
+                    throw new RuntimeException(new NoSuchFieldError(fieldName));
+                }
+                field.set(object, value);
+            }
+            return object;
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = (int) Varint.get(in);
+        if (in.hasArray()) {
+            String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Output {
+        private byte[] bytes = new byte[128];
+        private int size = 0;
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+
+        private void writeTag(int tag) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) tag;
+        }
+
+        private void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void writeLong(long value) {
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void writeString(String value) {
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(encoded.length);
+            ensureCapacity(encoded.length);
+            System.arraycopy(encoded, 0, bytes, size, encoded.length);
+            size += encoded.length;
+        }
+
+        private void write(Output other) {
+            ensureCapacity(other.size);
+            System.arraycopy(other.bytes, 0, bytes, size, other.size);
+            size += other.size;
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
@@ -6,143 +6,164 @@ import org.jsonbuddy.parse.JsonParser;
 
 import java.lang.reflect.*;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class ClassSerializer {
-    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMddHHmmssSSS");
+public class ClassSerializer implements EventCodec {
+    private static final Map<Class<?>, ClassMetadata> CLASS_METADATA = new ConcurrentHashMap<>();
+    private static final Map<String, Class<?>> CLASSES_BY_NAME = new ConcurrentHashMap<>();
+    private static final Set<String> INTERNED_FIELDS = new HashSet<>(Arrays.asList("workshopId", "id", "email", "googleUserEmail"));
+    private static final StringInterner SHARED_INTERNER = new StringInterner(1 << 16);
 
-    public String asString(AbstractEvent object) {
-        String encodedValue = encodeValue(object);
-        if (object != null && !encodedValue.startsWith("<")) {
-            return "<" + object.getClass().getName() + ";" + encodedValue + ">";
-        }
-        return encodedValue;
+    private final StringInterner interner;
+
+    private static final StringInterner NAMES = new StringInterner(1024);
+    private static final String[] ENTITIES = {"amp", "semi", "eq", "lt", "gt"};
+    private static final char[] ESCAPED = {'&', ';', '=', '<', '>'};
+
+    private final ThreadLocal<SimpleDateFormat> dateFormat = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyyMMddHHmmssSSS"));
+    private final ThreadLocal<CharsetDecoder> utf8Decoder = ThreadLocal.withInitial(() -> StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE));
+    private final ThreadLocal<CharBuffer> charBuffer = ThreadLocal.withInitial(() -> CharBuffer.allocate(1024));
+
+    public ClassSerializer() {
+        this(SHARED_INTERNER);
     }
 
-    public AbstractEvent asObject(String serializedValue) {
-        return (AbstractEvent) internalAsObject(serializedValue);
+    /**
+     * @param interner shares the values of the workshop id and email fields between the decoded events,
+     *                 or null to give every event its own copies
+     */
+    public ClassSerializer(StringInterner interner) {
+        this.interner = interner;
     }
 
-    private Object internalAsObject(String serializedValue) {
-        if ("<null>".equals(serializedValue)) {
-            return null;
+    /**
+     * What we need to know about a class to encode and decode it, looked up once per class.
+     * The fields are accessible and in the order of {@link #getAllFields}, which is the order they are written in.
+     */
+    private static class ClassMetadata {
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+        private final Map<String, Field> fieldsByName = new HashMap<>();
+        private final Set<Field> internedFields = new HashSet<>();
+
+        private ClassMetadata(Class<?> type) {
+            Constructor<?> noArgs;
+            try {
+                noArgs = type.getDeclaredConstructor();
+                noArgs.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                noArgs = null;
+            }
+            constructor = noArgs;
+            List<Field> allFields = getAllFields(new ArrayList<>(), type);
+            fields = allFields.toArray(new Field[allFields.size()]);
+            for (Field field : fields) {
+                field.setAccessible(true);
+                fieldsByName.putIfAbsent(field.getName(), field);
+                if (INTERNED_FIELDS.contains(field.getName()) && (field.getType() == String.class || field.getType() == Optional.class)) {
+                    internedFields.add(field);
+                }
+            }
         }
-        String[] parts = splitToParts(serializedValue);
+    }
+
+    private static ClassMetadata metadata(Class<?> type) {
+        return CLASS_METADATA.computeIfAbsent(type, ClassMetadata::new);
+    }
 
-        if (!serializedValue.contains("=")) {
+    private static Class<?> classForName(String classname) {
+        Class<?> type = CLASSES_BY_NAME.get(classname);
+        if (type == null) {
             try {
-                Class<?> clazz=null;
-                if ("list".equals(parts[0]) || "map".equals(parts[0])) {
-                    return objectValueFromString(serializedValue,null);
-                }
-                return objectValueFromString(parts[1], Class.forName(parts[0]));
+                type = Class.forName(classname);
             } catch (ClassNotFoundException e) {
                 throw new RuntimeException(e);
             }
+            CLASSES_BY_NAME.put(classname, type);
         }
+        return type;
+    }
 
-        Object object = initObject(parts[0]);
-
-        List<Field> declaredFields = getAllFields(new LinkedList<Field>(), object.getClass());
-
-        for (int i=1;i<parts.length;i++) {
-            int eqPos=parts[i].indexOf("=");
-            String fieldName = parts[i].substring(0,eqPos);
-            String encFieldValue = parts[i].substring(eqPos+1);
+    @Override
+    public byte[] encode(AbstractEvent event) {
+        return asString(event).getBytes(StandardCharsets.UTF_8);
+    }
 
-            Optional<Field> opt = declaredFields.stream()
-                    .filter(f -> f.getName().equals(fieldName))
-                    .findFirst();
-            if (opt.isPresent())
-                setFieldValue(object, encFieldValue, opt.get());
-            else
-                throw new RuntimeException(new NoSuchFieldError(fieldName));
+    @Override
+    public AbstractEvent decode(ByteBuffer record) {
+        CharsetDecoder decoder = utf8Decoder.get();
+        CharBuffer chars = charBuffer.get();
+        int maxLength = (int) (record.remaining() * (double) decoder.maxCharsPerByte());
+        if (chars.capacity() < maxLength) {
+            chars = CharBuffer.allocate(Math.max(maxLength, chars.capacity() * 2));
+            charBuffer.set(chars);
         }
-
-        return object;
+        chars.clear();
+        decoder.reset();
+        decoder.decode(record, chars, true);
+        decoder.flush(chars);
+        return (AbstractEvent) new Parser(chars.array(), 0, chars.position()).parse();
     }
 
-    private String[] splitToParts(String serializedValue) {
-        List<String> result = new ArrayList<>();
-
-        int level = 0;
-        int prevpos=0;
-        for (int pos=0;pos<serializedValue.length();pos++) {
-            Character c = serializedValue.charAt(pos);
-            if (c == '<') {
-                level++;
-                if (level == 1) {
-                    prevpos=pos+1;
-                }
-                continue;
-            }
-            if (c == '>') {
-                level--;
-                if (level == 0) {
-                    result.add(serializedValue.substring(prevpos,pos));
-                    prevpos=pos+1;
-                }
-                continue;
-            }
-            if (c == ';' && level == 1) {
-                result.add(serializedValue.substring(prevpos,pos));
-                prevpos=pos+1;
-            }
+    public String asString(AbstractEvent object) {
+        String encodedValue = encodeValue(object);
+        if (object != null && !encodedValue.startsWith("<")) {
+            return "<" + object.getClass().getName() + ";" + encodedValue + ">";
         }
-        return result.toArray(new String[result.size()]);
+        return encodedValue;
     }
 
-    private Object objectValueFromString(String fieldValue, Class<?> type) {
-        Object value;
-
-        if ("&null".equals(fieldValue)) {
-            value = null;
-        } else if (fieldValue.startsWith("<")) {
-            value = complexValueFromString(fieldValue,type);
-        } else if (int.class.equals(type) || Integer.class.equals(type)) {
-            value = Integer.parseInt(fieldValue);
-        } else if (long.class.equals(type) || Long.class.equals(type)) {
-            value = Long.parseLong(fieldValue);
-        } else if (char.class.equals(type) || Character.class.equals(type)) {
-            value = fieldValue.charAt(0);
+    public AbstractEvent asObject(String serializedValue) {
+        char[] chars = serializedValue.toCharArray();
+        return (AbstractEvent) new Parser(chars, 0, chars.length).parse();
+    }
+
+
+    /**
+     * Converts plain values of the types that are not stored as text
+     */
+    private Object valueFromString(String fieldValue, Class<?> type) {
+        if (char.class.equals(type) || Character.class.equals(type)) {
+            return fieldValue.charAt(0);
         } else if (double.class.equals(type) || Double.class.equals(type)) {
-            value = Double.parseDouble(fieldValue);
+            return Double.parseDouble(fieldValue);
         } else if (Date.class.equals(type)) {
             try {
-                value = dateFormat.parse(fieldValue);
+                return dateFormat.get().parse(fieldValue);
             } catch (ParseException e) {
                 throw new RuntimeException(e);
             }
         } else if ("org.joda.time.DateTime".equals(type.getName())) {
             try {
-                Date val = dateFormat.parse(fieldValue);
+                Date val = dateFormat.get().parse(fieldValue);
                 Constructor<?> constructor = type.getConstructor(Object.class);
                 return constructor.newInstance(val);
             } catch (InvocationTargetException | IllegalAccessException | InstantiationException | ParseException | NoSuchMethodException e) {
                 throw new RuntimeException(e);
             }
         } else if (Instant.class.equals(type)) {
-            value = Instant.parse(fieldValue);
+            return Instant.parse(fieldValue);
         } else if (BigDecimal.class.equals(type)) {
-            value = new BigDecimal(Double.parseDouble(fieldValue));
-        } else if (type.isEnum()) {
-            value = Enum.valueOf((Class<Enum>) type,fieldValue);
+            return new BigDecimal(Double.parseDouble(fieldValue));
         } else {
-            value = backFromEncoding(fieldValue);
+            return Enum.valueOf((Class<Enum>) type,fieldValue);
         }
-        return value;
     }
 
-    private String backFromEncoding(String fieldValue) {
-        return fieldValue
-                .replaceAll("&amp","&")
-                .replaceAll("&semi", ";")
-                .replaceAll("&eq", "=")
-                .replaceAll("&lt", "<")
-                .replaceAll("&gt", ">");
+    private static boolean isText(Class<?> type) {
+        return type == null || !(type.isPrimitive() || Number.class.isAssignableFrom(type) || Character.class.equals(type)
+                || Date.class.equals(type) || Instant.class.equals(type) || type.isEnum() || "org.joda.time.DateTime".equals(type.getName()));
     }
 
     private String encodeValue(Object fieldValue) {
@@ -200,7 +221,7 @@ public class ClassSerializer {
             return res.toString();
         }
         if (Date.class.equals(fieldValue.getClass())) {
-            return dateFormat.format(fieldValue);
+            return dateFormat.get().format(fieldValue);
         }
         if (fieldValue instanceof Enum) {
             return fieldValue.toString();
@@ -209,7 +230,7 @@ public class ClassSerializer {
             try {
                 Method toDate = fieldValue.getClass().getMethod("toDate");
                 Date asDate = (Date) toDate.invoke(fieldValue);
-                return dateFormat.format(asDate);
+                return dateFormat.get().format(asDate);
             } catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException e) {
                 throw new RuntimeException(e);
             }
@@ -224,7 +245,11 @@ public class ClassSerializer {
     }
 
     private String replaceSpecialCharacters(Object fieldValue) {
-        return fieldValue.toString()
+        String value = fieldValue.toString();
+        if (!containsSpecialCharacters(value)) {
+            return value;
+        }
+        return value
                 .replaceAll("&","&amp")
                 .replaceAll(";","&semi")
                 .replaceAll("<","&lt")
@@ -232,6 +257,16 @@ public class ClassSerializer {
                 .replaceAll("=","&eq");
     }
 
+    private static boolean containsSpecialCharacters(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '&' || c == ';' || c == '<' || c == '>' || c == '=') {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Recursivly getting all fields from superclasses as well
      * @param fields
@@ -249,24 +284,15 @@ public class ClassSerializer {
     }
 
     private String computeFields(Object object) {
-        List<Field> declaredFields = getAllFields(new LinkedList<Field>(), object.getClass());
-
         StringBuilder result = new StringBuilder();
-        for (Field field : declaredFields) {
+        for (Field field : metadata(object.getClass()).fields) {
             result.append(";");
             result.append(field.getName());
             result.append("=");
             try {
-                boolean access = field.isAccessible();
-                if (!access) {
-                    field.setAccessible(true);
-                }
                 Object fieldValue = field.get(object);
                 String encodedValue = encodeValue(fieldValue);
                 result.append(encodedValue);
-                if (!access) {
-                    field.setAccessible(false);
-                }
             } catch (IllegalAccessException e) {
                 throw new RuntimeException(e);
             }
@@ -274,114 +300,269 @@ public class ClassSerializer {
         return result.toString();
     }
 
-    private void setFieldValue(Object object, String fieldValue, Field field) {
-        Object value;
-        value = objectValueFromString(fieldValue, field.getType());
-
-        boolean access = field.isAccessible();
-        if (!access) {
-            field.setAccessible(true);
-        }
-        try {
-            field.set(object, value);
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
+    private Object intern(Object value) {
+        if (value instanceof String) {
+            return interner.intern((String) value);
         }
-        if (!access) {
-            field.setAccessible(false);
+        if (value instanceof Optional && ((Optional<?>) value).orElse(null) instanceof String) {
+            return Optional.of(interner.intern((String) ((Optional<?>) value).get()));
         }
+        return value;
     }
 
-    private Object initObject(String classname) {
+    private Object initObject(ClassMetadata metadata, String classname) {
+        if (metadata.constructor == null) {
+            throw new RuntimeException(new InstantiationException(classname));
+        }
         try {
-            return Class.forName(classname).newInstance();
-        } catch (InstantiationException | IllegalAccessException | ClassNotFoundException e) {
+            return metadata.constructor.newInstance();
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private Object complexValueFromString(String fieldValue, Class<?> type) {
-        String[] parts = splitToParts(fieldValue);
-        if ("array".equals(parts[0])) {
-            Object arr = Array.newInstance(type.getComponentType(), parts.length - 1);
+    /**
+     * Reads the text format in one pass over the characters. Plain values become strings and numbers straight
+     * from the characters, and nested values are read where they are instead of being split out first.
+     */
+    private class Parser {
+        private final char[] chars;
+        private final int end;
+        private int pos;
+
+        private Parser(char[] chars, int start, int end) {
+            this.chars = chars;
+            this.pos = start;
+            this.end = end;
+        }
 
-            for (int i=0;i<parts.length-1;i++) {
-                String codeStr = parts[i + 1];
-                String[] valType = splitToParts(codeStr);
-                Class<?> aClass;
-                try {
-                    aClass = Class.forName(valType[0]);
-                } catch (ClassNotFoundException e) {
-                    throw new RuntimeException(e);
+        private Object parse() {
+            return readComplex(null);
+        }
+
+        private Object readComplex(Class<?> type) {
+            expect('<');
+            int nameStart = pos;
+            skipTo(';', '>');
+            int nameEnd = pos;
+            if (equalsRange(nameStart, nameEnd, "null")) {
+                expect('>');
+                return null;
+            }
+            if (equalsRange(nameStart, nameEnd, "array")) {
+                List<Object> entries = readEntries();
+                Object arr = Array.newInstance(type.getComponentType(), entries.size());
+                for (int i = 0; i < entries.size(); i++) {
+                    Array.set(arr, i, entries.get(i));
+                }
+                return arr;
+            }
+            if (equalsRange(nameStart, nameEnd, "list")) {
+                return readEntries();
+            }
+            if (equalsRange(nameStart, nameEnd, "map")) {
+                List<Object> entries = readEntries();
+                Map<Object,Object> resMap = new HashMap<>();
+                for (int i = 0; i + 1 < entries.size(); i += 2) {
+                    resMap.put(entries.get(i), entries.get(i + 1));
                 }
-                Array.set(arr, i, objectValueFromString(valType[1], aClass));
+                return resMap;
+            }
+            if (equalsRange(nameStart, nameEnd, "Optional")) {
+                expect(';');
+                if (startsWith(pos, "EMPTY")) {
+                    pos += "EMPTY".length();
+                    expect('>');
+                    return Optional.empty();
+                }
+                Object value = readEntry();
+                expect('>');
+                return Optional.of(value);
+            }
+            if (equalsRange(nameStart, nameEnd, "json")) {
+                expect(';');
+                int start = pos;
+                skipTo('>', '>');
+                JsonNode jsonNode = JsonParser.parse(readText(start, pos, false));
+                expect('>');
+                return jsonNode;
             }
 
-            return arr;
+            String classname = NAMES.intern(chars, nameStart, nameEnd - nameStart);
+            Class<?> valueType = classForName(classname);
+            if (pos < end && chars[pos] == '>') {
+                pos++;
+                return initObject(metadata(valueType), classname);
+            }
+            expect(';');
+            if (pos < end && chars[pos] == '<') {
+                Object value = readComplex(valueType);
+                expect('>');
+                return value;
+            }
+            int start = pos;
+            while (pos < end && chars[pos] != '=' && chars[pos] != ';' && chars[pos] != '>') {
+                pos++;
+            }
+            if (pos < end && chars[pos] == '=') {
+                pos = start;
+                return readFields(valueType, classname);
+            }
+            Object value = leaf(valueType, start, pos, false);
+            expect('>');
+            return value;
         }
-        if ("list".equals(parts[0])) {
-            List<Object> resList = new ArrayList<>();
 
-            for (int i=0;i<parts.length-1;i++) {
-                String codeStr = parts[i + 1];
-                String[] valType = splitToParts(codeStr);
-                Class<?> aClass;
+        private Object readFields(Class<?> type, String classname) {
+            ClassMetadata metadata = metadata(type);
+            Object object = initObject(metadata, classname);
+            while (true) {
+                int nameStart = pos;
+                skipTo('=', '>');
+                String fieldName = NAMES.intern(chars, nameStart, pos - nameStart);
+                expect('=');
+                Field field = metadata.fieldsByName.get(fieldName);
+                if (field == null) {
+                    throw new RuntimeException(new NoSuchFieldError(fieldName));
+                }
+                Object value = readValue(field.getType(), metadata.internedFields.contains(field));
                 try {
-                    aClass = Class.forName(valType[0]);
-                } catch (ClassNotFoundException e) {
+                    field.set(object, value);
+                } catch (IllegalAccessException e) {
                     throw new RuntimeException(e);
                 }
-                resList.add(objectValueFromString(valType[1], aClass));
+                if (pos < end && chars[pos] == ';') {
+                    pos++;
+                } else {
+                    expect('>');
+                    return object;
+                }
             }
+        }
 
-            return resList;
+        /**
+         * Reads the entries of an array, list or map, each one "&null" or "<classname;value>", and the closing '>'
+         */
+        private List<Object> readEntries() {
+            List<Object> entries = new ArrayList<>();
+            while (pos < end && chars[pos] == ';') {
+                pos++;
+                entries.add(readEntry());
+            }
+            expect('>');
+            return entries;
         }
-        if ("map".equals(parts[0])) {
-            Map<Object,Object> resMap = new HashMap<>();
 
-            for (int i=0;i<parts.length-1;i++) {
-                Object key = extractObject(parts[i + 1]);
-                i++;
-                Object value = extractObject(parts[i +  1]);
-                resMap.put(key,value);
+        private Object readEntry() {
+            if (startsWith(pos, "&null")) {
+                pos += "&null".length();
+                return null;
             }
+            return readComplex(null);
+        }
 
-            return resMap;
+        private Object readValue(Class<?> type, boolean intern) {
+            if (pos < end && chars[pos] == '<') {
+                Object value = readComplex(type);
+                return intern && interner != null ? intern(value) : value;
+            }
+            int start = pos;
+            skipTo(';', '>');
+            return leaf(type, start, pos, intern);
         }
-        if ("Optional".equals(parts[0])) {
-            if ("EMPTY".equals(parts[1])) {
-                return Optional.empty();
+
+        private Object leaf(Class<?> type, int start, int stop, boolean intern) {
+            if (equalsRange(start, stop, "&null")) {
+                return null;
             }
-            String[] valType = splitToParts(parts[1]);
-            Class<?> aClass;
-            try {
-                aClass = Class.forName(valType[0]);
-            } catch (ClassNotFoundException e) {
-                throw new RuntimeException(e);
+            int length = stop - start;
+            if (int.class.equals(type) || Integer.class.equals(type)) {
+                return length <= 9 ? (int) parseLong(start, stop) : Integer.parseInt(new String(chars, start, length));
+            }
+            if (long.class.equals(type) || Long.class.equals(type)) {
+                return length <= 18 ? parseLong(start, stop) : Long.parseLong(new String(chars, start, length));
             }
-            Object res = objectValueFromString(valType[1], aClass);
-            return Optional.of(res);
+            if (!isText(type)) {
+                return valueFromString(new String(chars, start, length), type);
+            }
+            return readText(start, stop, intern);
         }
-        if ("json".equals(parts[0])) {
-            JsonNode jsonNode = JsonParser.parse(backFromEncoding(parts[1]));
-            return jsonNode;
+
+        /**
+         * Parses numbers short enough not to overflow
+         */
+        private long parseLong(int start, int stop) {
+            boolean negative = start < stop && chars[start] == '-';
+            int i = negative ? start + 1 : start;
+            if (i == stop) {
+                throw new NumberFormatException("For input string: \"" + new String(chars, start, stop - start) + "\"");
+            }
+            long value = 0;
+            for (; i < stop; i++) {
+                int digit = chars[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException("For input string: \"" + new String(chars, start, stop - start) + "\"");
+                }
+                value = value * 10 + digit;
+            }
+            return negative ? -value : value;
         }
 
-        return internalAsObject(fieldValue);
-    }
+        private String readText(int start, int stop, boolean intern) {
+            int amp = start;
+            while (amp < stop && chars[amp] != '&') {
+                amp++;
+            }
+            if (amp == stop) {
+                return intern && interner != null ? interner.intern(chars, start, stop - start) : new String(chars, start, stop - start);
+            }
+            StringBuilder result = new StringBuilder(stop - start).append(chars, start, amp - start);
+            int i = amp;
+            while (i < stop) {
+                char c = chars[i++];
+                if (c == '&') {
+                    for (int e = 0; e < ENTITIES.length; e++) {
+                        if (startsWith(i, ENTITIES[e]) && i + ENTITIES[e].length() <= stop) {
+                            c = ESCAPED[e];
+                            i += ENTITIES[e].length();
+                            break;
+                        }
+                    }
+                }
+                result.append(c);
+            }
+            String value = result.toString();
+            return intern && interner != null ? interner.intern(value) : value;
+        }
 
-    private Object extractObject(String part) {
-        if ("&null".equals(part)) {
-            return null;
+        private void skipTo(char first, char second) {
+            while (pos < end && chars[pos] != first && chars[pos] != second) {
+                pos++;
+            }
         }
-        String[] valType = splitToParts(part);
-        Class<?> aClass;
-        try {
-            aClass = Class.forName(valType[0]);
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException(e);
+
+        private boolean startsWith(int at, String value) {
+            if (at + value.length() > end) {
+                return false;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                if (chars[at + i] != value.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean equalsRange(int start, int stop, String value) {
+            return stop - start == value.length() && startsWith(start, value);
+        }
+
+        private void expect(char c) {
+            if (pos >= end || chars[pos] != c) {
+                throw new RuntimeException("Expected '" + c + "' at position " + pos + " of " + new String(chars, 0, end));
+            }
+            pos++;
         }
-        return objectValueFromString(valType[1], aClass);
     }
 
     private void encode(StringBuilder res, Object val) {
@@ -0,0 +1,227 @@
+package no.java.moosehead.eventstore.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A sealed segment compressed in blocks of whole records. Each block is deflated on its own with a dictionary
+ * taken from the start of the segment, so any block can be decompressed without the ones before it. The file
+ * starts with the dictionary and an index of the blocks, which lets readers find the block holding a position
+ * and decompress the following blocks in parallel.
+ */
+class CompressedSegment {
+    static final String SUFFIX = ".segz";
+    private static final int MAGIC = 0x4D48535A;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int BLOCK_ENTRY_SIZE = 24;
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final File file;
+    private final LogFormat format;
+    private final long dataLength;
+    private final byte[] dictionary;
+    private final long[] blockStarts;
+    private final long[] fileOffsets;
+    private final int[] compressedLengths;
+    private final int[] blockLengths;
+    private final MappedByteBuffer buffer;
+
+    private CompressedSegment(File file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a compressed eventstore segment " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported compressed segment version in " + file);
+        }
+        format = LogFormat.fromCode(buffer.getInt(8));
+        int blocks = buffer.getInt(12);
+        dataLength = buffer.getLong(16);
+        dictionary = new byte[buffer.getInt(24)];
+        ByteBuffer in = buffer.duplicate();
+        in.position(HEADER_SIZE);
+        in.get(dictionary);
+        blockStarts = new long[blocks];
+        fileOffsets = new long[blocks];
+        compressedLengths = new int[blocks];
+        blockLengths = new int[blocks];
+        for (int i = 0; i < blocks; i++) {
+            blockStarts[i] = in.getLong();
+            fileOffsets[i] = in.getLong();
+            compressedLengths[i] = in.getInt();
+            blockLengths[i] = in.getInt();
+        }
+    }
+
+    static CompressedSegment open(File file) {
+        try {
+            return new CompressedSegment(file);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Compresses the records of a segment
+     * @param data the records, from the position to the limit of the buffer
+     */
+    static void write(ByteBuffer data, LogFormat format, File target) throws IOException {
+        byte[] dictionary = new byte[Math.min(DICTIONARY_SIZE, data.remaining())];
+        data.duplicate().get(dictionary);
+
+        List<byte[]> blocks = new ArrayList<>();
+        List<long[]> entries = new ArrayList<>();
+        ByteBuffer scan = data.duplicate();
+        int dataStart = data.position();
+        int blockStart = dataStart;
+        long fileOffset = 0;
+        Deflater deflater = new Deflater();
+        try {
+            while (true) {
+                boolean more = format.nextRecord(scan) != null;
+                int blockLength = scan.position() - blockStart;
+                if (blockLength > 0 && (!more || blockLength >= BLOCK_SIZE)) {
+                    byte[] block = new byte[blockLength];
+                    ByteBuffer source = data.duplicate();
+                    source.position(blockStart);
+                    source.get(block);
+                    byte[] compressed = deflate(deflater, dictionary, block);
+                    blocks.add(compressed);
+                    entries.add(new long[] {blockStart - dataStart, fileOffset, compressed.length, blockLength});
+                    fileOffset += compressed.length;
+                    blockStart = scan.position();
+                }
+                if (!more) {
+                    break;
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+
+        long blocksOffset = HEADER_SIZE + dictionary.length + (long) entries.size() * BLOCK_ENTRY_SIZE;
+        File tempFile = new File(target.getPath() + ".tmp");
+        try (FileOutputStream fileOutputStream = new FileOutputStream(tempFile)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(format.code());
+            out.writeInt(blocks.size());
+            out.writeLong(blockStart - dataStart);
+            out.writeInt(dictionary.length);
+            out.writeInt(0);
+            out.write(dictionary);
+            for (long[] entry : entries) {
+                out.writeLong(entry[0]);
+                out.writeLong(blocksOffset + entry[1]);
+                out.writeInt((int) entry[2]);
+                out.writeInt((int) entry[3]);
+            }
+            for (byte[] block : blocks) {
+                out.write(block);
+            }
+            out.flush();
+            fileOutputStream.getFD().sync();
+        }
+        Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] dictionary, byte[] block) {
+        deflater.reset();
+        deflater.setDictionary(dictionary);
+        deflater.setInput(block);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(block.length / 4 + 64);
+        byte[] chunk = new byte[16 * 1024];
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        return out.toByteArray();
+    }
+
+    LogFormat format() {
+        return format;
+    }
+
+    /**
+     * The length of the records before compression
+     */
+    long dataLength() {
+        return dataLength;
+    }
+
+    int blockCount() {
+        return blockStarts.length;
+    }
+
+    /**
+     * The offset in the uncompressed data of the first record in the block
+     */
+    long blockStart(int block) {
+        return blockStarts[block];
+    }
+
+    /**
+     * The block holding the given offset of the uncompressed data
+     */
+    int blockFor(long offset) {
+        int low = 0;
+        int high = blockStarts.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (blockStarts[middle] <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Decompresses a block. Safe to call from several threads.
+     */
+    ByteBuffer decompress(int block) {
+        byte[] compressed = new byte[compressedLengths[block]];
+        ByteBuffer in = buffer.duplicate();
+        in.position((int) fileOffsets[block]);
+        in.get(compressed);
+        byte[] data = new byte[blockLengths[block]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < data.length) {
+                int inflated = inflater.inflate(data, length, data.length - length);
+                if (inflated == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.finished() || inflater.needsInput()) {
+                        throw new IOException("Block " + block + " of " + file + " is shorter than its index says");
+                    }
+                }
+                length += inflated;
+            }
+            return ByteBuffer.wrap(data);
+        } catch (DataFormatException | IOException e) {
+            throw new RuntimeException("Could not decompress block " + block + " of " + file, e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package no.java.moosehead.eventstore.utils;
+
+public enum DurabilityMode {
+    /** Every event is written and forced to disk on its own */
+    FSYNC_EACH,
+    /** Events arriving within the group commit window share one write and one force */
+    FSYNC_GROUP,
+    /** Events are handed to the operating system, which decides when they reach the disk */
+    OS_BUFFERED
+}
@@ -0,0 +1,24 @@
+package no.java.moosehead.eventstore.utils;
+
+import no.java.moosehead.eventstore.core.AbstractEvent;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns events into log records and back
+ */
+public interface EventCodec {
+    byte[] encode(AbstractEvent event);
+
+    /**
+     * Decodes one record. Unless {@link #readAhead} has seen the record, records must be decoded in the order
+     * they were encoded.
+     */
+    AbstractEvent decode(ByteBuffer record);
+
+    /**
+     * Called in log order for every record before it is decoded. Afterwards the record can be decoded on any thread.
+     */
+    default void readAhead(ByteBuffer record) {
+    }
+}
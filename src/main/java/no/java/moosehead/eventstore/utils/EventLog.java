@@ -0,0 +1,51 @@
+package no.java.moosehead.eventstore.utils;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage for serialized events. Records are read back in the order they were appended.
+ */
+public interface EventLog {
+    /**
+     * Opens a reader positioned at the first record
+     */
+    RecordReader openReader();
+
+    /**
+     * Opens a reader positioned at the record starting at the given position, as returned by {@link #append}
+     * or {@link RecordReader#position()}
+     */
+    RecordReader openReader(long position);
+
+    /**
+     * Prepares the log for appends. Called once, after the stored records have been read.
+     */
+    void openForAppend();
+
+    /**
+     * Appends one record and returns when it is as durable as the log is configured to be
+     * @return the position of the record, or -1 for a log that is not stored
+     */
+    long append(byte[] record);
+
+    /**
+     * Queues the record for appending. The future completes with the position of the record when it is as
+     * durable as the log is configured to be. Records are stored in the order they were queued.
+     */
+    default CompletableFuture<Long> appendAsync(byte[] record) {
+        return CompletableFuture.completedFuture(append(record));
+    }
+
+    /**
+     * The format of the stored records. For a log without records this is the format it will be created with.
+     */
+    LogFormat format();
+
+    /**
+     * Where the revision index of this log is kept, or null if the log is not stored
+     */
+    File indexFile();
+
+    void close();
+}
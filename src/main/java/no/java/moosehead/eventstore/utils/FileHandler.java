@@ -1,14 +1,31 @@
 package no.java.moosehead.eventstore.utils;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
-public class FileHandler {
+/**
+ * Keeps the whole event log in one file. Text logs hold one event per line. Binary logs start with
+ * a header naming the format, followed by length prefixed records.
+ * <p>
+ * Before appending, the log is checked and a record torn by a crash is cut off the end.
+ */
+public class FileHandler implements EventLog {
+    private static final byte[] BINARY_HEADER = {0, 'M', 'H', 'B'};
+    private static final int HEADER_LENGTH = BINARY_HEADER.length + 1;
 
-    private final String ENCODING = "UTF-8";
     private boolean isInMemory = false;
     private String filename;
-    private FileInputStream fileInputStream;
-    private PrintWriter printWriter;
+    private DurabilityMode durabilityMode = DurabilityMode.OS_BUFFERED;
+    private long groupCommitMillis;
+    private LogFormat format = LogFormat.TEXT;
+    private FileChannel outputChannel;
+    private long end;
+    private GroupCommitWriter writer;
 
     public FileHandler(){
         isInMemory = true;
@@ -16,51 +33,170 @@ public class FileHandler {
 
     public FileHandler(String filename) {
         this.filename = filename;
+        this.format = detectFormat(LogFormat.TEXT);
     }
 
-    public void writeToFile(String line) {
-        if (!isInMemory) {
-            printWriter.append(line);
-            printWriter.flush();
+    public FileHandler(String filename, DurabilityMode durabilityMode, long groupCommitMillis) {
+        this(filename, durabilityMode, groupCommitMillis, LogFormat.TEXT);
+    }
+
+    /**
+     * @param newLogFormat the format used if the file is new or empty. An existing log keeps its format.
+     */
+    public FileHandler(String filename, DurabilityMode durabilityMode, long groupCommitMillis, LogFormat newLogFormat) {
+        this.filename = filename;
+        this.durabilityMode = durabilityMode;
+        this.groupCommitMillis = groupCommitMillis;
+        this.format = detectFormat(newLogFormat);
+    }
+
+    private LogFormat detectFormat(LogFormat newLogFormat) {
+        File file = new File(filename);
+        if (!file.exists() || file.length() == 0) {
+            return newLogFormat;
+        }
+        byte[] start = new byte[HEADER_LENGTH];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int read = inputStream.read(start);
+            if (read < 1 || start[0] != 0) {
+                return LogFormat.TEXT;
+            }
+            if (read < HEADER_LENGTH || !Arrays.equals(Arrays.copyOf(start, BINARY_HEADER.length), BINARY_HEADER)) {
+                throw new RuntimeException("Unknown event log format in " + filename);
+            }
+            if (start[BINARY_HEADER.length] == LogFormat.TEXT.code()) {
+                throw new RuntimeException("Unsupported binary event log version " + start[BINARY_HEADER.length] + " in " + filename);
+            }
+            return LogFormat.fromCode(start[BINARY_HEADER.length]);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Unsupported binary event log version in " + filename, e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
     }
 
-    public InputStreamReader getInputStreamReader() {
-        if (!isInMemory) {
-            try {
-                return new InputStreamReader(fileInputStream,ENCODING);
-            } catch (UnsupportedEncodingException e) {
-                throw new RuntimeException(e);
+    @Override
+    public LogFormat format() {
+        return format;
+    }
+
+    /**
+     * Appends the record and returns when it is as durable as the durability mode promises.
+     * Records written concurrently from several threads are committed together.
+     */
+    @Override
+    public long append(byte[] record) {
+        if (isInMemory) {
+            return -1;
+        }
+        return writer.write(format.frame(record));
+    }
+
+    @Override
+    public CompletableFuture<Long> appendAsync(byte[] record) {
+        if (isInMemory) {
+            return CompletableFuture.completedFuture(-1L);
+        }
+        return writer.submit(format.frame(record));
+    }
+
+    @Override
+    public RecordReader openReader() {
+        return openReader(dataStart());
+    }
+
+    @Override
+    public RecordReader openReader(long position) {
+        if (isInMemory) {
+            return new LineRecordReader(new ByteArrayInputStream(new byte[0]), 0);
+        }
+        try {
+            FileInputStream inputStream = new FileInputStream(filename);
+            if (inputStream.getChannel().size() < position) {
+                inputStream.close();
+                return new LineRecordReader(new ByteArrayInputStream(new byte[0]), position);
             }
-        } else {
-            return  new InputStreamReader(new ByteArrayInputStream("".getBytes()));
+            inputStream.getChannel().position(position);
+            return format.streamReader(inputStream, position);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
     }
 
-    public void openFileForInput() {
+    @Override
+    public File indexFile() {
+        return isInMemory ? null : new File(filename + ".idx");
+    }
+
+    @Override
+    public void openForAppend() {
         if (!isInMemory) {
             try {
-                fileInputStream = new FileInputStream(filename);
-            } catch (FileNotFoundException e) {
+                cutTornTail();
+                outputChannel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                if (format != LogFormat.TEXT && outputChannel.size() == 0) {
+                    outputChannel.write(ByteBuffer.wrap(Arrays.copyOf(BINARY_HEADER, HEADER_LENGTH)).put(BINARY_HEADER.length, (byte) format.code()));
+                }
+                end = outputChannel.size();
+            } catch (IOException e) {
                 throw new RuntimeException(e);
             }
+            writer = new GroupCommitWriter(new GroupCommitWriter.Target() {
+                @Override
+                public void write(ByteBuffer[] buffers, long[] positions) throws IOException {
+                    for (int i = 0; i < buffers.length; i++) {
+                        positions[i] = end;
+                        end += buffers[i].remaining();
+                    }
+                    while (buffers[buffers.length - 1].hasRemaining()) {
+                        outputChannel.write(buffers);
+                    }
+                }
+
+                @Override
+                public void force() throws IOException {
+                    outputChannel.force(false);
+                }
+            }, durabilityMode, groupCommitMillis, "eventstore-writer");
         }
     }
 
-    public void openFileForOutput() {
-        if (!isInMemory) {
-            try {
-                printWriter = new PrintWriter(new OutputStreamWriter(new FileOutputStream(filename,true), ENCODING));
-            } catch (FileNotFoundException | UnsupportedEncodingException e) {
-                throw new RuntimeException(e);
+    private int dataStart() {
+        return format == LogFormat.TEXT ? 0 : HEADER_LENGTH;
+    }
+
+    private void cutTornTail() throws IOException {
+        File file = new File(filename);
+        if (file.length() <= dataStart()) {
+            return;
+        }
+        LogVerifier.Result result = verify(Runtime.getRuntime().availableProcessors());
+        if (result.isDamaged()) {
+            throw new RuntimeException("Event log " + filename + " is damaged at position " + result.getDamagedAt() + ". Check it with VerifyEventLog.");
+        }
+        if (file.length() > result.getValidEnd()) {
+            System.out.println("Cutting " + (file.length() - result.getValidEnd()) + " bytes (" + result.getTornBytes()
+                    + " non-zero) of a torn record off the end of " + filename);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(result.getValidEnd());
+                channel.force(true);
             }
         }
     }
 
-    public void closeInputFile() {
-        if (!isInMemory) {
+    /**
+     * Checks every record of the log
+     */
+    public LogVerifier.Result verify(int parallelism) {
+        return new LogVerifier(format, parallelism).verify(new File(filename), dataStart());
+    }
+
+    @Override
+    public void close() {
+        if (!isInMemory && writer != null) {
+            writer.close();
             try {
-                fileInputStream.close();
+                outputChannel.close();
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -0,0 +1,181 @@
+package no.java.moosehead.eventstore.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects appends from concurrent callers and hands them to a single writer thread, which writes
+ * everything that has queued up as one batch. A caller is released when its batch is as durable as
+ * the {@link DurabilityMode} promises.
+ */
+public class GroupCommitWriter {
+    private static final int MAX_BATCH_SIZE = 1024;
+
+    public interface Target {
+        /**
+         * Writes the buffers in order and fills in the log position each of them was written at
+         */
+        void write(ByteBuffer[] buffers, long[] positions) throws IOException;
+        void force() throws IOException;
+    }
+
+    private static class PendingWrite {
+        private final ByteBuffer data;
+        private final CompletableFuture<Long> done = new CompletableFuture<>();
+
+        private PendingWrite(byte[] data) {
+            this.data = ByteBuffer.wrap(data);
+        }
+    }
+
+    private final Target target;
+    private final DurabilityMode durabilityMode;
+    private final long groupCommitNanos;
+    private final LinkedBlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    private volatile boolean closed = false;
+    private volatile Throwable failure;
+
+    public GroupCommitWriter(Target target, DurabilityMode durabilityMode, long groupCommitMillis, String threadName) {
+        this.target = target;
+        this.durabilityMode = durabilityMode;
+        this.groupCommitNanos = TimeUnit.MILLISECONDS.toNanos(groupCommitMillis);
+        writerThread = new Thread(this::run, threadName);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queues the data for writing. The returned future completes with the position of the data when it is durable.
+     * After a write has failed, the future fails at once, since the log may be missing data before it.
+     */
+    public CompletableFuture<Long> submit(byte[] data) {
+        if (failure != null) {
+            CompletableFuture<Long> failed = new CompletableFuture<>();
+            failed.completeExceptionally(failure);
+            return failed;
+        }
+        PendingWrite pendingWrite = new PendingWrite(data);
+        // Checked and added under the same lock that close takes, so nothing is queued after the writer has stopped
+        synchronized (queue) {
+            if (closed) {
+                throw new IllegalStateException("Writer is closed");
+            }
+            queue.add(pendingWrite);
+        }
+        return pendingWrite.done;
+    }
+
+    /**
+     * Writes the data and waits until it is durable
+     * @return the position the data was written at
+     */
+    public long write(byte[] data) {
+        try {
+            return submit(data).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Writes what is already queued and stops the writer thread
+     */
+    public void close() {
+        synchronized (queue) {
+            closed = true;
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                if (durabilityMode == DurabilityMode.FSYNC_GROUP) {
+                    waitForMore(batch);
+                }
+                queue.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+                commit(batch);
+            } catch (InterruptedException e) {
+                synchronized (queue) {
+                    closed = true;
+                }
+            } catch (Throwable e) {
+                failure = e;
+                fail(batch, e);
+            }
+            batch.clear();
+        }
+    }
+
+    private void waitForMore(List<PendingWrite> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + groupCommitNanos;
+        long remaining;
+        while (batch.size() < MAX_BATCH_SIZE && (remaining = deadline - System.nanoTime()) > 0) {
+            PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void commit(List<PendingWrite> batch) {
+        if (failure != null) {
+            fail(batch, failure);
+            return;
+        }
+        try {
+            if (durabilityMode == DurabilityMode.FSYNC_EACH) {
+                long[] position = new long[1];
+                for (PendingWrite pendingWrite : batch) {
+                    target.write(new ByteBuffer[] {pendingWrite.data}, position);
+                    target.force();
+                    pendingWrite.done.complete(position[0]);
+                }
+                return;
+            }
+            ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+            long[] positions = new long[batch.size()];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = batch.get(i).data;
+            }
+            target.write(buffers, positions);
+            if (durabilityMode == DurabilityMode.FSYNC_GROUP) {
+                target.force();
+            }
+            for (int i = 0; i < positions.length; i++) {
+                batch.get(i).done.complete(positions[i]);
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            // A failed write may have left part of the batch in the log, so later writes are refused
+            failure = e;
+            fail(batch, e);
+        }
+    }
+
+    private void fail(List<PendingWrite> batch, Throwable e) {
+        for (PendingWrite pendingWrite : batch) {
+            pendingWrite.done.completeExceptionally(e);
+        }
+    }
+}
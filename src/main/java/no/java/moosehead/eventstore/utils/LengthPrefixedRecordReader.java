@@ -0,0 +1,67 @@
+package no.java.moosehead.eventstore.utils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads records that are prefixed by their varint length, and optionally followed by a checksum. A record cut short
+ * by the end of the stream, or with a wrong checksum, is treated as not written and ends the log.
+ */
+class LengthPrefixedRecordReader implements RecordReader {
+    private final DataInputStream inputStream;
+    private final boolean checksummed;
+    private byte[] record = new byte[1024];
+    private long nextPosition;
+    private long position = -1;
+
+    LengthPrefixedRecordReader(InputStream inputStream, long startPosition, boolean checksummed) {
+        this.inputStream = new DataInputStream(new BufferedInputStream(inputStream, 64 * 1024));
+        this.nextPosition = startPosition;
+        this.checksummed = checksummed;
+    }
+
+    @Override
+    public ByteBuffer next() {
+        try {
+            long length = Varint.read(inputStream);
+            if (length <= 0) {
+                return null;
+            }
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Record length " + length + " is out of range");
+            }
+            if (length > record.length) {
+                record = new byte[Math.max((int) length, record.length * 2)];
+            }
+            inputStream.readFully(record, 0, (int) length);
+            if (checksummed && inputStream.readInt() != LogFormat.checksum(record, 0, (int) length)) {
+                return null;
+            }
+            position = nextPosition;
+            nextPosition += Varint.sizeOf(length) + length + (checksummed ? LogFormat.CHECKSUM_SIZE : 0);
+            return ByteBuffer.wrap(record, 0, (int) length);
+        } catch (EOFException e) {
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public void close() {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
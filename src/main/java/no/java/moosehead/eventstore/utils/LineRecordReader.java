@@ -0,0 +1,74 @@
+package no.java.moosehead.eventstore.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads newline terminated records from a stream without decoding them. A last line without a newline was
+ * torn by a crash and is not returned.
+ */
+class LineRecordReader implements RecordReader {
+    private final InputStream inputStream;
+    private final byte[] buffer = new byte[64 * 1024];
+    private int position = 0;
+    private int limit = 0;
+    private long bufferStart;
+    private long recordStart = -1;
+    private byte[] line = new byte[1024];
+
+    LineRecordReader(InputStream inputStream, long startPosition) {
+        this.inputStream = inputStream;
+        this.bufferStart = startPosition;
+    }
+
+    @Override
+    public ByteBuffer next() {
+        int length = 0;
+        long start = bufferStart + position;
+        recordStart = start;
+        while (true) {
+            if (position == limit && !fill()) {
+                return null;
+            }
+            byte b = buffer[position++];
+            if (b == '\n') {
+                return ByteBuffer.wrap(line, 0, length);
+            }
+            if (length == line.length) {
+                line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[length++] = b;
+        }
+    }
+
+    private boolean fill() {
+        try {
+            int read = inputStream.read(buffer);
+            if (read <= 0) {
+                return false;
+            }
+            bufferStart += limit;
+            position = 0;
+            limit = read;
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public long position() {
+        return recordStart;
+    }
+
+    @Override
+    public void close() {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package no.java.moosehead.eventstore.utils;
+
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * How events are encoded and framed in an event log. A log records its format when it is created,
+ * so old text logs keep working after new logs are switched to binary.
+ */
+public enum LogFormat {
+    /**
+     * {@link ClassSerializer} text, one event per line. Lines have no checksum, so only a torn last line, which
+     * lacks its newline, is detected. Logs that need damaged records detected should use {@link #CHECKSUMMED}.
+     */
+    TEXT(0) {
+        @Override
+        public EventCodec newCodec() {
+            return new ClassSerializer();
+        }
+
+        @Override
+        public byte[] frame(byte[] record) {
+            byte[] line = new byte[record.length + 1];
+            System.arraycopy(record, 0, line, 0, record.length);
+            line[record.length] = '\n';
+            return line;
+        }
+
+        @Override
+        public ByteBuffer nextRecord(ByteBuffer data) {
+            int start = data.position();
+            for (int i = start; i < data.limit(); i++) {
+                byte b = data.get(i);
+                if (b == 0) {
+                    return null;
+                }
+                if (b == '\n') {
+                    ByteBuffer record = data.duplicate();
+                    record.limit(i);
+                    data.position(i + 1);
+                    return record;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        int frameEnd(ByteBuffer data, int position) {
+            for (int i = position; i < data.limit(); i++) {
+                byte b = data.get(i);
+                if (b == 0) {
+                    return MALFORMED;
+                }
+                if (b == '\n') {
+                    return i + 1;
+                }
+            }
+            return INCOMPLETE;
+        }
+
+        @Override
+        RecordReader streamReader(InputStream inputStream, long startPosition) {
+            return new LineRecordReader(inputStream, startPosition);
+        }
+    },
+    /**
+     * {@link BinaryEventCodec} records, each prefixed by its varint length
+     */
+    BINARY(1) {
+        @Override
+        public EventCodec newCodec() {
+            return new BinaryEventCodec();
+        }
+
+        @Override
+        public byte[] frame(byte[] record) {
+            ByteBuffer framed = ByteBuffer.allocate(Varint.sizeOf(record.length) + record.length);
+            Varint.put(framed, record.length);
+            framed.put(record);
+            return framed.array();
+        }
+
+        @Override
+        public ByteBuffer nextRecord(ByteBuffer data) {
+            int end = frameEnd(data, data.position());
+            if (end < 0) {
+                return null;
+            }
+            ByteBuffer record = data.duplicate();
+            record.position(end - (int) lengthAt(data, data.position()));
+            record.limit(end);
+            data.position(end);
+            return record;
+        }
+
+        @Override
+        int frameEnd(ByteBuffer data, int position) {
+            return lengthPrefixedFrameEnd(data, position, 0);
+        }
+
+        @Override
+        RecordReader streamReader(InputStream inputStream, long startPosition) {
+            return new LengthPrefixedRecordReader(inputStream, startPosition, false);
+        }
+    },
+    /**
+     * {@link BinaryEventCodec} records, each prefixed by its varint length and followed by the CRC32 of the record.
+     * CRC32C would be cheaper to compute, but java.util.zip.CRC32C needs Java 9 and the build targets Java 8.
+     * Switching would also need a new format code, since existing logs are checked with CRC32.
+     */
+    CHECKSUMMED(2) {
+        @Override
+        public EventCodec newCodec() {
+            return new BinaryEventCodec();
+        }
+
+        @Override
+        public byte[] frame(byte[] record) {
+            ByteBuffer framed = ByteBuffer.allocate(Varint.sizeOf(record.length) + record.length + CHECKSUM_SIZE);
+            Varint.put(framed, record.length);
+            framed.put(record);
+            framed.putInt(checksum(record, 0, record.length));
+            return framed.array();
+        }
+
+        @Override
+        public ByteBuffer nextRecord(ByteBuffer data) {
+            int end = frameEnd(data, data.position());
+            if (end < 0) {
+                return null;
+            }
+            ByteBuffer record = data.duplicate();
+            record.position(end - CHECKSUM_SIZE - (int) lengthAt(data, data.position()));
+            record.limit(end - CHECKSUM_SIZE);
+            if (checksum(record) != data.getInt(end - CHECKSUM_SIZE)) {
+                return null;
+            }
+            data.position(end);
+            return record;
+        }
+
+        @Override
+        int frameEnd(ByteBuffer data, int position) {
+            return lengthPrefixedFrameEnd(data, position, CHECKSUM_SIZE);
+        }
+
+        @Override
+        RecordReader streamReader(InputStream inputStream, long startPosition) {
+            return new LengthPrefixedRecordReader(inputStream, startPosition, true);
+        }
+    };
+
+    static final int INCOMPLETE = -1;
+    static final int MALFORMED = -2;
+    static final int CHECKSUM_SIZE = 4;
+
+    private final int code;
+
+    LogFormat(int code) {
+        this.code = code;
+    }
+
+    /**
+     * The number stored in log headers for this format
+     */
+    public int code() {
+        return code;
+    }
+
+    public static LogFormat fromCode(int code) {
+        for (LogFormat format : values()) {
+            if (format.code == code) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown log format " + code);
+    }
+
+    /**
+     * Creates a codec for a log of this format. A codec may keep state built up from the records of one log,
+     * so each log needs its own.
+     */
+    public abstract EventCodec newCodec();
+
+    /**
+     * Wraps an encoded event so it can be appended to a log
+     */
+    public abstract byte[] frame(byte[] record);
+
+    /**
+     * Reads the framed record at the position of the buffer and moves past it. A zero byte marks the end of data.
+     * @return the record without framing, or null if there is no complete record
+     */
+    public abstract ByteBuffer nextRecord(ByteBuffer data);
+
+    /**
+     * Finds the end of the framed record starting at the position, without looking at its content
+     * @return the end, {@link #INCOMPLETE} if the data ends inside the record, or {@link #MALFORMED} if no record
+     * starts at the position. A zero byte is malformed, since it marks the end of data.
+     */
+    abstract int frameEnd(ByteBuffer data, int position);
+
+    /**
+     * Reads the records of a log stream one by one
+     * @param startPosition the log position of the first byte of the stream
+     */
+    abstract RecordReader streamReader(InputStream inputStream, long startPosition);
+
+    private static int lengthPrefixedFrameEnd(ByteBuffer data, int position, int trailer) {
+        if (position >= data.limit()) {
+            return INCOMPLETE;
+        }
+        if (data.get(position) == 0) {
+            return MALFORMED;
+        }
+        ByteBuffer header = data.duplicate();
+        header.position(position);
+        long length;
+        try {
+            length = Varint.get(header);
+        } catch (BufferUnderflowException e) {
+            return INCOMPLETE;
+        } catch (IllegalArgumentException e) {
+            return MALFORMED;
+        }
+        if (length > Integer.MAX_VALUE) {
+            return MALFORMED;
+        }
+        long end = header.position() + length + trailer;
+        return end > data.limit() ? INCOMPLETE : (int) end;
+    }
+
+    private static long lengthAt(ByteBuffer data, int position) {
+        ByteBuffer header = data.duplicate();
+        header.position(position);
+        return Varint.get(header);
+    }
+
+    static int checksum(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    static int checksum(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        return (int) crc.getValue();
+    }
+}
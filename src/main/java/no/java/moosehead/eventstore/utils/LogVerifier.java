@@ -0,0 +1,251 @@
+package no.java.moosehead.eventstore.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Checks the records of a log without decoding them. The record boundaries are found on the calling thread,
+ * which only reads the framing, and the content of the records is checked in chunks on a fork-join pool.
+ * <p>
+ * A bad record followed by nothing but zeros is a torn tail, left by a crash in the middle of an append.
+ * A bad record anywhere else means the log is damaged.
+ */
+public class LogVerifier {
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+
+    public static class Result {
+        private long records;
+        private long validEnd;
+        private long tornBytes;
+        private long damagedAt = -1;
+
+        /**
+         * The number of good records
+         */
+        public long getRecords() {
+            return records;
+        }
+
+        /**
+         * The position after the last good record before any bad one
+         */
+        public long getValidEnd() {
+            return validEnd;
+        }
+
+        /**
+         * The number of non-zero bytes in a torn tail
+         */
+        public long getTornBytes() {
+            return tornBytes;
+        }
+
+        /**
+         * The position of the first bad record that is not a torn tail, or -1
+         */
+        public long getDamagedAt() {
+            return damagedAt;
+        }
+
+        public boolean isDamaged() {
+            return damagedAt >= 0;
+        }
+
+        void add(Result other) {
+            records += other.records;
+            validEnd = other.validEnd;
+            tornBytes += other.tornBytes;
+            if (damagedAt < 0) {
+                damagedAt = other.damagedAt;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return records + " good records, " + (isDamaged() ? "damaged at position " + damagedAt
+                    : tornBytes > 0 ? tornBytes + " bytes torn after position " + validEnd : "no damage");
+        }
+    }
+
+    private final LogFormat format;
+    private final int parallelism;
+
+    public LogVerifier(LogFormat format, int parallelism) {
+        this.format = format;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Checks the records of a file from the start position to the end, mapping it a window at a time
+     */
+    public Result verify(File file, long start) {
+        Result result = new Result();
+        result.validEnd = start;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = start;
+            while (position < size) {
+                long length = Math.min(WINDOW_SIZE, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean lastWindow = position + length == size;
+                Scan scan = scan(window, lastWindow);
+                result.records += scan.records;
+                result.validEnd = position + scan.validEnd;
+                if (scan.badAt < 0) {
+                    if (scan.validEnd == 0 && !lastWindow) {
+                        throw new IOException("Record at position " + position + " is larger than " + WINDOW_SIZE + " bytes");
+                    }
+                    position += scan.validEnd;
+                    continue;
+                }
+                if (nonZeroBytes(channel, position + scan.afterBad, size) == 0) {
+                    result.tornBytes = nonZeroBytes(channel, result.validEnd, size);
+                } else {
+                    result.damagedAt = position + scan.badAt;
+                }
+                break;
+            }
+            return result;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Checks the records of a buffer from its position to its limit
+     * @param basePosition the log position of the start of the buffer
+     * @param mayBeTorn false if every record up to the limit must be good
+     */
+    public Result verify(ByteBuffer data, long basePosition, boolean mayBeTorn) {
+        Result result = new Result();
+        Scan scan = scan(data, true);
+        result.records = scan.records;
+        result.validEnd = basePosition + scan.validEnd;
+        if (scan.badAt >= 0) {
+            boolean zerosAfter = true;
+            for (int i = scan.afterBad; i < data.limit() && zerosAfter; i++) {
+                zerosAfter = data.get(i) == 0;
+            }
+            if (mayBeTorn && zerosAfter) {
+                for (int i = scan.validEnd; i < data.limit(); i++) {
+                    if (data.get(i) != 0) {
+                        result.tornBytes++;
+                    }
+                }
+            } else {
+                result.damagedAt = basePosition + scan.badAt;
+            }
+        }
+        return result;
+    }
+
+    private static class Scan {
+        private long records;
+        /** the buffer index after the last good record */
+        private int validEnd;
+        /** the buffer index of the first bad record, or -1 if all complete records are good */
+        private int badAt = -1;
+        /** the buffer index after the bad record, as far as it can be told. Torn if only zeros follow. */
+        private int afterBad;
+    }
+
+    /**
+     * @param toLimit true if a record cut short by the limit is bad, false if it may continue after the limit
+     */
+    private Scan scan(ByteBuffer data, boolean toLimit) {
+        List<int[]> chunks = new ArrayList<>();
+        Scan scan = new Scan();
+        int position = data.position();
+        int chunkStart = position;
+        while (position < data.limit()) {
+            int end = format.frameEnd(data, position);
+            if (end < 0) {
+                if (end == LogFormat.INCOMPLETE && !toLimit) {
+                    break;
+                }
+                scan.badAt = position;
+                scan.afterBad = end == LogFormat.INCOMPLETE ? data.limit() : position;
+                break;
+            }
+            position = end;
+            if (position - chunkStart >= CHUNK_SIZE) {
+                chunks.add(new int[] {chunkStart, position});
+                chunkStart = position;
+            }
+        }
+        if (position > chunkStart) {
+            chunks.add(new int[] {chunkStart, position});
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<long[]>> tasks = new ArrayList<>();
+            for (int[] chunk : chunks) {
+                tasks.add(pool.submit(() -> checkChunk(data, chunk[0], chunk[1])));
+            }
+            scan.validEnd = data.position();
+            for (ForkJoinTask<long[]> task : tasks) {
+                long[] checked = task.join();
+                scan.records += checked[0];
+                scan.validEnd = (int) checked[1];
+                if (checked[2] >= 0) {
+                    scan.badAt = (int) checked[2];
+                    scan.afterBad = format.frameEnd(data, scan.badAt);
+                    break;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return scan;
+    }
+
+    /**
+     * @return the number of good records, the end of the last of them, and the position of the first bad one or -1
+     */
+    private long[] checkChunk(ByteBuffer data, int start, int end) {
+        ByteBuffer chunk = data.duplicate();
+        chunk.limit(end);
+        chunk.position(start);
+        long records = 0;
+        while (chunk.position() < end) {
+            int recordStart = chunk.position();
+            if (format.nextRecord(chunk) == null) {
+                return new long[] {records, recordStart, recordStart};
+            }
+            records++;
+        }
+        return new long[] {records, end, -1};
+    }
+
+    /**
+     * Counts the non-zero bytes from the position to the end
+     */
+    private static long nonZeroBytes(FileChannel channel, long position, long end) throws IOException {
+        long count = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        while (position < end) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) != 0) {
+                    count++;
+                }
+            }
+            position += read;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,18 @@
+package no.java.moosehead.eventstore.utils;
+
+import java.nio.ByteBuffer;
+
+public interface RecordReader extends AutoCloseable {
+    /**
+     * Returns the next record, or null when there are no more. The buffer is only valid until the next call.
+     */
+    ByteBuffer next();
+
+    /**
+     * The position of the record last returned by {@link #next()}
+     */
+    long position();
+
+    @Override
+    void close();
+}
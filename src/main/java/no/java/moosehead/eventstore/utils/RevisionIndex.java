@@ -0,0 +1,218 @@
+package no.java.moosehead.eventstore.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * A sparse index from revision to log position, kept in a file next to the log. Every {@link #INTERVAL}th record
+ * gets an entry with its position and the highest revision of the records before it, so a lookup finds where
+ * to start reading and reads at most about one interval of records when revisions are in log order.
+ * <p>
+ * The log is read at startup anyway, so the entries in the file are checked against it while it is read.
+ * A missing or stale file is rewritten. The file only saves work, so if it cannot be written the index is kept
+ * in memory.
+ */
+public class RevisionIndex {
+    public static final int INTERVAL = 64;
+
+    private static final int MAGIC = 0x4D485249;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_SIZE = 16;
+
+    private final File file;
+    private long[] maxRevisions = new long[256];
+    private long[] positions = new long[256];
+    private int size = 0;
+    private long records = 0;
+    private long maxRevision = 0;
+    private boolean ordered = true;
+    private final ArrayDeque<Long> loadingPositions = new ArrayDeque<>();
+    private FileChannel output;
+
+    public RevisionIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Wraps the reader used to load the log, noting the positions of the records that get entries.
+     * The revisions of the records must then be passed to {@link #loaded} in log order.
+     */
+    public RecordReader loading(RecordReader reader) {
+        return new RecordReader() {
+            private long read = 0;
+
+            @Override
+            public ByteBuffer next() {
+                ByteBuffer record = reader.next();
+                if (record != null && read++ % INTERVAL == 0) {
+                    loadingPositions.addLast(reader.position());
+                }
+                return record;
+            }
+
+            @Override
+            public long position() {
+                return reader.position();
+            }
+
+            @Override
+            public void close() {
+                reader.close();
+            }
+        };
+    }
+
+    public synchronized void loaded(long revision) {
+        add(revision, records % INTERVAL == 0 ? loadingPositions.removeFirst() : -1);
+    }
+
+    /**
+     * Brings the index file up to date with the loaded log and opens it for appends
+     */
+    public synchronized void finishLoading() {
+        long[] persisted = readFile();
+        int matching = 0;
+        while (persisted != null && matching < Math.min(size, persisted.length / 2)
+                && persisted[2 * matching] == maxRevisions[matching] && persisted[2 * matching + 1] == positions[matching]) {
+            matching++;
+        }
+        try {
+            if (persisted == null || matching < persisted.length / 2) {
+                rewrite();
+            } else {
+                output = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                for (int entry = matching; entry < size; entry++) {
+                    writeEntry(entry);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Could not write revision index " + file + ", it is kept in memory only: " + e);
+            output = null;
+        }
+    }
+
+    /**
+     * Notes a record appended to the log
+     */
+    public synchronized void appended(long revision, long position) {
+        add(revision, position);
+        if (output != null && (records - 1) % INTERVAL == 0) {
+            try {
+                writeEntry(size - 1);
+            } catch (IOException e) {
+                System.out.println("Could not write revision index " + file + ", it is kept in memory only: " + e);
+                output = null;
+            }
+        }
+    }
+
+    private void add(long revision, long position) {
+        if (records % INTERVAL == 0) {
+            if (size == positions.length) {
+                maxRevisions = Arrays.copyOf(maxRevisions, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            maxRevisions[size] = maxRevision;
+            positions[size] = position;
+            size++;
+        }
+        // Some events are stored without a revision, so they do not count against the order
+        if (revision != 0 && revision < maxRevision) {
+            ordered = false;
+        }
+        maxRevision = Math.max(maxRevision, revision);
+        records++;
+    }
+
+    /**
+     * Finds where to start reading for the given revision
+     * @return the entry to start at, or -1 if no record can have the revision
+     */
+    public synchronized int find(long revision) {
+        if (size == 0 || revision > maxRevision) {
+            return -1;
+        }
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (maxRevisions[middle] < revision) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    public synchronized long position(int entry) {
+        return positions[entry];
+    }
+
+    /**
+     * The number of records from the entry to the end of the log
+     */
+    public synchronized long recordsFrom(int entry) {
+        return records - (long) entry * INTERVAL;
+    }
+
+    /**
+     * True if the revisions have been appended in increasing order, so that reading can stop at a higher revision
+     */
+    public synchronized boolean isOrdered() {
+        return ordered;
+    }
+
+    private long[] readFile() {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (file.length() < HEADER_SIZE || (file.length() - HEADER_SIZE) % ENTRY_SIZE != 0 || in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != INTERVAL) {
+                return null;
+            }
+            int entries = (int) ((file.length() - HEADER_SIZE) / ENTRY_SIZE);
+            long[] persisted = new long[entries * 2];
+            for (int i = 0; i < persisted.length; i++) {
+                persisted[i] = in.readLong();
+            }
+            return persisted;
+        } catch (IOException e) {
+            System.out.println("Ignoring revision index " + file + ": " + e);
+            return null;
+        }
+    }
+
+    private void rewrite() throws IOException {
+        System.out.println("Writing revision index " + file);
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(INTERVAL);
+            for (int entry = 0; entry < size; entry++) {
+                out.writeLong(maxRevisions[entry]);
+                out.writeLong(positions[entry]);
+            }
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        output = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void writeEntry(int entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE);
+        buffer.putLong(maxRevisions[entry]);
+        buffer.putLong(positions[entry]);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,606 @@
+package no.java.moosehead.eventstore.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Stores the event log as a directory of fixed size, preallocated segment files that are memory mapped.
+ * Only the newest segment is active and receives appends. When it is full it is sealed, which records
+ * its data length in the header, and a new segment is started. Segment files are named after the log
+ * position of their first record, so positions run on across segments. The header also records the
+ * {@link LogFormat} of the log.
+ * <p>
+ * Sealed segments can be compressed in the background into {@link CompressedSegment} files, which replace them.
+ * Positions are not changed by compression, and readers handle both kinds of segment.
+ * <p>
+ * A new segment file is sized before its header is written, so a crash in between leaves a last segment of
+ * zeros. It holds no records, and its header is written again when the log is opened for append.
+ */
+public class SegmentedEventLog implements EventLog {
+    static final int HEADER_SIZE = 32;
+    private static final int MAGIC = 0x4D48534C;
+    private static final int VERSION = 1;
+    private static final int STATE_ACTIVE = 0;
+    private static final int STATE_SEALED = 1;
+    private static final int STATE_OFFSET = 8;
+    private static final int FORMAT_OFFSET = 12;
+    private static final int DATA_LENGTH_OFFSET = 16;
+    private static final String SUFFIX = ".seg";
+    private static final int UNWRITTEN_RUN = 4096;
+    private static final int BLOCKS_IN_FLIGHT = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final Consumer<MappedByteBuffer> UNMAPPER = unmapper();
+
+    private static class Segment {
+        private final long basePosition;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private Segment(long basePosition, FileChannel channel, MappedByteBuffer buffer) {
+            this.basePosition = basePosition;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private long dataLength() {
+            return buffer.position() - HEADER_SIZE;
+        }
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final DurabilityMode durabilityMode;
+    private final long groupCommitMillis;
+    private final LogFormat format;
+    private final boolean compressSealedSegments;
+    private GroupCommitWriter writer;
+    private ExecutorService compressor;
+    private Segment active;
+
+    public SegmentedEventLog(String directory, int segmentSize, DurabilityMode durabilityMode, long groupCommitMillis) {
+        this(directory, segmentSize, durabilityMode, groupCommitMillis, LogFormat.TEXT);
+    }
+
+    /**
+     * @param newLogFormat the format used if the directory holds no segments. An existing log keeps its format.
+     */
+    public SegmentedEventLog(String directory, int segmentSize, DurabilityMode durabilityMode, long groupCommitMillis, LogFormat newLogFormat) {
+        this(directory, segmentSize, durabilityMode, groupCommitMillis, newLogFormat, false);
+    }
+
+    /**
+     * @param compressSealedSegments if true, segments are compressed when they are sealed. The active segment is not.
+     */
+    public SegmentedEventLog(String directory, int segmentSize, DurabilityMode durabilityMode, long groupCommitMillis, LogFormat newLogFormat, boolean compressSealedSegments) {
+        this.directory = new File(directory);
+        this.compressSealedSegments = compressSealedSegments;
+        this.segmentSize = segmentSize;
+        this.durabilityMode = durabilityMode;
+        this.groupCommitMillis = groupCommitMillis;
+        if (!this.directory.exists() && !this.directory.mkdirs()) {
+            throw new RuntimeException("Could not create eventstore directory " + directory);
+        }
+        this.format = detectFormat(newLogFormat);
+    }
+
+    private LogFormat detectFormat(LogFormat newLogFormat) {
+        List<File> files = segmentFiles();
+        if (files.isEmpty()) {
+            return newLogFormat;
+        }
+        File file = files.get(0);
+        if (isCompressed(file)) {
+            return CompressedSegment.open(file).format();
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) > 0) {
+                // keep reading until the header is complete
+            }
+            if (files.size() == 1 && isUnwritten(header)) {
+                return newLogFormat;
+            }
+            checkHeader(header, file);
+            return LogFormat.fromCode(header.getInt(FORMAT_OFFSET));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public LogFormat format() {
+        return format;
+    }
+
+    @Override
+    public RecordReader openReader() {
+        return new SegmentReader(segmentFiles(), format, 0);
+    }
+
+    @Override
+    public RecordReader openReader(long position) {
+        List<File> files = segmentFiles();
+        while (files.size() > 1 && basePosition(files.get(1)) <= position) {
+            files.remove(0);
+        }
+        return new SegmentReader(files, format, position);
+    }
+
+    @Override
+    public File indexFile() {
+        return new File(directory, "revisions.idx");
+    }
+
+    @Override
+    public void openForAppend() {
+        List<File> files = segmentFiles();
+        try {
+            if (files.isEmpty()) {
+                active = createSegment(0);
+            } else {
+                active = reopenLastSegment(files.get(files.size() - 1));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (compressSealedSegments) {
+            compressor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "segment-compressor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            for (File file : segmentFiles()) {
+                if (!isCompressed(file) && basePosition(file) != active.basePosition) {
+                    compressLater(file);
+                }
+            }
+        }
+        writer = new GroupCommitWriter(new GroupCommitWriter.Target() {
+            @Override
+            public void write(ByteBuffer[] buffers, long[] positions) throws IOException {
+                for (int i = 0; i < buffers.length; i++) {
+                    ByteBuffer record = buffers[i];
+                    if (record.remaining() > active.buffer.remaining()) {
+                        rollOver();
+                    }
+                    if (record.remaining() > active.buffer.remaining()) {
+                        throw new IOException("Record of " + record.remaining() + " bytes does not fit in a segment");
+                    }
+                    positions[i] = active.basePosition + active.dataLength();
+                    active.buffer.put(record);
+                }
+            }
+
+            @Override
+            public void force() throws IOException {
+                active.buffer.force();
+            }
+        }, durabilityMode, groupCommitMillis, "eventstore-writer");
+    }
+
+    @Override
+    public long append(byte[] record) {
+        return writer.write(format.frame(record));
+    }
+
+    @Override
+    public CompletableFuture<Long> appendAsync(byte[] record) {
+        return writer.submit(format.frame(record));
+    }
+
+    @Override
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        writer.close();
+        if (active == null) {
+            return;
+        }
+        try {
+            active.buffer.force();
+            active.channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        UNMAPPER.accept(active.buffer);
+        if (compressor != null) {
+            compressor.shutdown();
+            try {
+                compressor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void rollOver() throws IOException {
+        Segment sealed = active;
+        long nextBase = sealed.basePosition + sealed.dataLength();
+        // The sealed segment is unmapped, so it must not be written to even if the next one can not be created
+        active = null;
+        seal(sealed);
+        if (compressor != null) {
+            compressLater(segmentFile(sealed.basePosition));
+        }
+        active = createSegment(nextBase);
+    }
+
+    private void compressLater(File file) {
+        compressor.execute(() -> {
+            try {
+                compress(file);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Could not compress segment " + file + ": " + e);
+            }
+        });
+    }
+
+    /**
+     * Writes the compressed segment next to the sealed one and then deletes the sealed one. Readers prefer the
+     * compressed segment, so a crash in between leaves the log readable.
+     */
+    private void compress(File file) throws IOException {
+        File target = compressedFile(file);
+        if (!target.exists()) {
+            long start = System.nanoTime();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                checkHeader(buffer, file);
+                if (buffer.getInt(STATE_OFFSET) != STATE_SEALED) {
+                    throw new IOException("Segment is not sealed");
+                }
+                buffer.limit((int) (HEADER_SIZE + buffer.getLong(DATA_LENGTH_OFFSET)));
+                buffer.position(HEADER_SIZE);
+                CompressedSegment.write(buffer, format, target);
+                UNMAPPER.accept(buffer);
+            }
+            System.out.println("Compressed segment " + file.getName() + " from " + file.length() + " to " + target.length()
+                    + " bytes in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        }
+        if (!file.delete()) {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+
+    private File segmentFile(long basePosition) {
+        return new File(directory, String.format("%020d%s", basePosition, SUFFIX));
+    }
+
+    private static File compressedFile(File file) {
+        return new File(file.getParentFile(), String.format("%020d%s", basePosition(file), CompressedSegment.SUFFIX));
+    }
+
+    private static boolean isCompressed(File file) {
+        return file.getName().endsWith(CompressedSegment.SUFFIX);
+    }
+
+    private void seal(Segment segment) throws IOException {
+        segment.buffer.putLong(DATA_LENGTH_OFFSET, segment.dataLength());
+        segment.buffer.putInt(STATE_OFFSET, STATE_SEALED);
+        segment.buffer.force();
+        segment.channel.close();
+        UNMAPPER.accept(segment.buffer);
+    }
+
+    private Segment createSegment(long basePosition) throws IOException {
+        File file = segmentFile(basePosition);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(segmentSize);
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(STATE_ACTIVE);
+        buffer.putInt(format.code());
+        buffer.putLong(0L);
+        buffer.putLong(0L);
+        buffer.force();
+        return new Segment(basePosition, channel, buffer);
+    }
+
+    private Segment reopenLastSegment(File file) throws IOException {
+        if (isCompressed(file)) {
+            return createSegment(basePosition(file) + CompressedSegment.open(file).dataLength());
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        long basePosition = basePosition(file);
+        if (isUnwritten(buffer)) {
+            System.out.println("Writing the missing header of the empty segment " + file);
+            channel.close();
+            UNMAPPER.accept(buffer);
+            return createSegment(basePosition);
+        }
+        checkHeader(buffer, file);
+        if (buffer.getInt(STATE_OFFSET) == STATE_SEALED) {
+            long nextBase = basePosition + buffer.getLong(DATA_LENGTH_OFFSET);
+            channel.close();
+            UNMAPPER.accept(buffer);
+            return createSegment(nextBase);
+        }
+        int end = endOfCompleteRecords(buffer, format);
+        // Zero out whatever a crash left after the last complete record, so appends continue cleanly.
+        // Binary records may contain zero bytes, so only a long run of zeros marks the untouched part of the file.
+        int zeros = 0;
+        int torn = 0;
+        for (int i = end; i < buffer.capacity() && zeros < UNWRITTEN_RUN; i++) {
+            if (buffer.get(i) == 0) {
+                zeros++;
+            } else {
+                zeros = 0;
+                torn++;
+                buffer.put(i, (byte) 0);
+            }
+        }
+        if (torn > 0) {
+            System.out.println("Cleared " + torn + " bytes of a torn record at position " + (basePosition + end - HEADER_SIZE) + " in " + file);
+        }
+        buffer.position(end);
+        return new Segment(basePosition, channel, buffer);
+    }
+
+    /**
+     * Checks every record of the log. Only the end of the active segment may be torn.
+     */
+    public LogVerifier.Result verify(int parallelism) {
+        LogVerifier verifier = new LogVerifier(format, parallelism);
+        LogVerifier.Result result = new LogVerifier.Result();
+        List<File> files = segmentFiles();
+        for (int i = 0; i < files.size() && !result.isDamaged(); i++) {
+            File file = files.get(i);
+            long basePosition = basePosition(file);
+            if (isCompressed(file)) {
+                CompressedSegment segment = CompressedSegment.open(file);
+                for (int block = 0; block < segment.blockCount() && !result.isDamaged(); block++) {
+                    result.add(verifier.verify(segment.decompress(block), basePosition + segment.blockStart(block), false));
+                }
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (i == files.size() - 1 && isUnwritten(buffer)) {
+                    continue;
+                }
+                checkHeader(buffer, file);
+                boolean sealed = buffer.getInt(STATE_OFFSET) == STATE_SEALED;
+                if (sealed) {
+                    buffer.limit((int) (HEADER_SIZE + buffer.getLong(DATA_LENGTH_OFFSET)));
+                }
+                buffer.position(HEADER_SIZE);
+                result.add(verifier.verify(buffer, basePosition - HEADER_SIZE, !sealed));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return result;
+    }
+
+    private static int endOfCompleteRecords(ByteBuffer buffer, LogFormat format) {
+        ByteBuffer data = buffer.duplicate();
+        data.position(HEADER_SIZE);
+        while (format.nextRecord(data) != null) {
+            // skip to the end of the last complete record
+        }
+        return data.position();
+    }
+
+    /**
+     * True for the header of a segment file that was sized but never had its header written
+     */
+    private static boolean isUnwritten(ByteBuffer buffer) {
+        if (buffer.limit() < HEADER_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < HEADER_SIZE; i++) {
+            if (buffer.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Releases a mapping at once instead of when the buffer is garbage collected, so sealed segments do not
+     * stay mapped. Only used for buffers the log has not handed out views of. If the JVM offers no way to do
+     * it, the mapping is left to the garbage collector.
+     */
+    private static Consumer<MappedByteBuffer> unmapper() {
+        try {
+            // Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> {
+                try {
+                    invokeCleaner.invoke(unsafe, buffer);
+                } catch (ReflectiveOperationException e) {
+                    // left to the garbage collector
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Java 8
+            return buffer -> {
+                try {
+                    Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                    cleanerMethod.setAccessible(true);
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    if (cleaner != null) {
+                        cleaner.getClass().getMethod("clean").invoke(cleaner);
+                    }
+                } catch (ReflectiveOperationException | RuntimeException notAvailable) {
+                    // left to the garbage collector
+                }
+            };
+        }
+    }
+
+    private static void checkHeader(ByteBuffer buffer, File file) {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new RuntimeException("Not an eventstore segment " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new RuntimeException("Unsupported segment version in " + file);
+        }
+    }
+
+    private static long basePosition(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(0, name.lastIndexOf('.')));
+    }
+
+    /**
+     * The segments in log order. Where a segment has been compressed but not yet deleted, the compressed one is used.
+     */
+    private List<File> segmentFiles() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX) || name.endsWith(CompressedSegment.SUFFIX));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        TreeMap<Long, File> segments = new TreeMap<>();
+        for (File file : files) {
+            File other = segments.put(basePosition(file), file);
+            if (other != null && isCompressed(other)) {
+                segments.put(basePosition(file), other);
+            }
+        }
+        return new ArrayList<>(segments.values());
+    }
+
+    private static class SegmentReader implements RecordReader {
+        private final List<File> files;
+        private final LogFormat format;
+        private long startPosition;
+        private int nextFile = 0;
+        private ByteBuffer current;
+        private boolean currentIsComplete;
+        private long currentBase;
+        private long currentDelta;
+        private CompressedSegment compressed;
+        private int nextBlock;
+        private final ArrayDeque<CompletableFuture<ByteBuffer>> blocks = new ArrayDeque<>();
+        private long position = -1;
+
+        private SegmentReader(List<File> files, LogFormat format, long startPosition) {
+            this.files = files;
+            this.format = format;
+            this.startPosition = startPosition;
+        }
+
+        @Override
+        public ByteBuffer next() {
+            while (true) {
+                if (current == null && !openNextBlock() && !openNextSegment()) {
+                    return null;
+                }
+                long recordPosition = currentDelta + current.position();
+                ByteBuffer record = format.nextRecord(current);
+                if (record != null) {
+                    position = recordPosition;
+                    return record;
+                }
+                if (currentIsComplete && current.hasRemaining()) {
+                    throw new RuntimeException("Damaged record at position " + recordPosition + " of the event log");
+                }
+                current = null;
+            }
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        private boolean openNextBlock() {
+            if (blocks.isEmpty()) {
+                compressed = null;
+                return false;
+            }
+            long blockStart = compressed.blockStart(nextBlock - blocks.size());
+            ByteBuffer block = blocks.removeFirst().join();
+            decompressAhead();
+            currentDelta = currentBase + blockStart;
+            skipToStart(block, 0);
+            current = block;
+            currentIsComplete = true;
+            return true;
+        }
+
+        private void decompressAhead() {
+            CompressedSegment segment = compressed;
+            while (blocks.size() < BLOCKS_IN_FLIGHT && nextBlock < segment.blockCount()) {
+                int block = nextBlock++;
+                blocks.addLast(CompletableFuture.supplyAsync(() -> segment.decompress(block)));
+            }
+        }
+
+        private void skipToStart(ByteBuffer buffer, int dataStart) {
+            long skip = Math.max(0, startPosition - currentDelta - dataStart);
+            if (dataStart + skip > buffer.limit()) {
+                throw new RuntimeException("Position " + startPosition + " is outside the segment at " + currentBase);
+            }
+            buffer.position((int) (dataStart + skip));
+            startPosition = 0;
+        }
+
+        private boolean openNextSegment() {
+            if (nextFile >= files.size()) {
+                return false;
+            }
+            File file = files.get(nextFile++);
+            currentBase = basePosition(file);
+            if (isCompressed(file)) {
+                compressed = CompressedSegment.open(file);
+                if (compressed.blockCount() == 0) {
+                    return openNextSegment();
+                }
+                nextBlock = compressed.blockFor(Math.max(0, startPosition - currentBase));
+                decompressAhead();
+                return openNextBlock();
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (nextFile == files.size() && isUnwritten(buffer)) {
+                    return false;
+                }
+                checkHeader(buffer, file);
+                currentIsComplete = buffer.getInt(STATE_OFFSET) == STATE_SEALED;
+                if (currentIsComplete) {
+                    buffer.limit((int) (HEADER_SIZE + buffer.getLong(DATA_LENGTH_OFFSET)));
+                }
+                currentDelta = currentBase - HEADER_SIZE;
+                skipToStart(buffer, HEADER_SIZE);
+                current = buffer;
+                return true;
+            } catch (NoSuchFileException e) {
+                // compressed since the list was made
+                files.set(--nextFile, compressedFile(file));
+                return openNextSegment();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            current = null;
+            blocks.clear();
+        }
+    }
+}
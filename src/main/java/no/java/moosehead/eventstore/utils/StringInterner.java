@@ -0,0 +1,66 @@
+package no.java.moosehead.eventstore.utils;
+
+/**
+ * Shares equal strings read from the log, so that the thousands of events about the same workshop or participant
+ * point to one copy of its id or email. The table has a fixed size and each string has one slot, picked by its
+ * hash. A string that hashes to a taken slot replaces the string in it, so rare values do not pile up.
+ * The table is read and written without locks. Strings are immutable, so a thread that sees a slot
+ * written by another thread sees the whole string, and a lost write only costs a duplicate.
+ */
+public class StringInterner {
+    private final String[] table;
+    private final int mask;
+
+    /**
+     * @param size rounded up to a power of two
+     */
+    public StringInterner(int size) {
+        int capacity = Integer.highestOneBit(Math.max(2, size) * 2 - 1);
+        this.table = new String[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        int hash = value.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        String existing = table[slot];
+        if (value.equals(existing)) {
+            return existing;
+        }
+        table[slot] = value;
+        return value;
+    }
+
+    /**
+     * Interns the characters without creating a string when an equal one is in the table
+     */
+    public String intern(char[] chars, int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        String existing = table[slot];
+        if (existing != null && matches(existing, chars, start, length)) {
+            return existing;
+        }
+        String value = new String(chars, start, length);
+        table[slot] = value;
+        return value;
+    }
+
+    private static boolean matches(String value, char[] chars, int start, int length) {
+        if (value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -48,6 +48,13 @@ public class Participant {
                 false);
     }
 
+    static Participant restoredParticipant(WorkshopReservation workshopReservation, Workshop workshop, boolean emailConfirmed, OffsetDateTime confirmedAt, int numberOfSeatsReserved) {
+        Participant participant = new Participant(workshopReservation, workshop, emailConfirmed);
+        participant.confirmedAt = confirmedAt;
+        participant.numberOfSeatsReserved = numberOfSeatsReserved;
+        return participant;
+    }
+
     public static Participant dummyParticipant(String email) {
         WorkshopReservation workshopReservation = WorkshopReservation.builder()
                 .setEmail(email)
@@ -35,6 +35,18 @@ public class Workshop {
         }
     }
 
+    /**
+     * The confirmed list as it is. A participant can be in the other list even if its email is confirmed,
+     * since {@link #moveToConfirmed} does not move a second reservation with the same email.
+     */
+    List<Participant> confirmedList() {
+        return confirmed;
+    }
+
+    List<Participant> notConfirmedList() {
+        return notConfirmed;
+    }
+
     public int getNumberOfSeats() {
         return numberOfSeats;
     }
@@ -4,15 +4,32 @@ import no.java.moosehead.controller.SystemSetup;
 import no.java.moosehead.eventstore.*;
 import no.java.moosehead.eventstore.core.AbstractEvent;
 import no.java.moosehead.eventstore.core.EventSubscription;
+import no.java.moosehead.eventstore.snapshot.SnapshotInput;
+import no.java.moosehead.eventstore.snapshot.SnapshotOutput;
+import no.java.moosehead.eventstore.snapshot.SnapshotWriter;
+import no.java.moosehead.eventstore.snapshot.Snapshotable;
 import no.java.moosehead.repository.WorkshopData;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
-public class WorkshopListProjection implements EventSubscription {
+public class WorkshopListProjection implements EventSubscription, Snapshotable {
     public List<Workshop> workshops = new ArrayList<Workshop>();
     public Set<String> confirmedEmails = new HashSet<>();
+    private final Function<String, Optional<WorkshopData>> workshopLookup;
 
+    public WorkshopListProjection() {
+        this(workshopId -> SystemSetup.instance().workshopRepository().workshopById(workshopId));
+    }
+
+    /**
+     * @param workshopLookup finds the data of workshops added without it
+     */
+    public WorkshopListProjection(Function<String, Optional<WorkshopData>> workshopLookup) {
+        this.workshopLookup = workshopLookup;
+    }
 
     @Override
     public void eventAdded(AbstractEvent event) {
@@ -33,7 +50,7 @@ public class WorkshopListProjection implements EventSubscription {
         if (dataOptional.isPresent()) {
             workshopData = dataOptional.get();
         } else {
-            Optional<WorkshopData> workshopDataOptional = SystemSetup.instance().workshopRepository().workshopById(workshopAdded.getWorkshopId());
+            Optional<WorkshopData> workshopDataOptional = workshopLookup.apply(workshopAdded.getWorkshopId());
             if (!workshopDataOptional.isPresent()) {
                 System.out.println("Warning did not find event " + workshopAdded.getWorkshopId() + ". Ignoring");
                 return;
@@ -115,6 +132,80 @@ public class WorkshopListProjection implements EventSubscription {
         return optWs.get();
     }
 
+    @Override
+    public String snapshotName() {
+        return "workshopListProjection";
+    }
+
+    @Override
+    public SnapshotWriter captureSnapshot() {
+        List<String> emails = new ArrayList<>(confirmedEmails);
+        List<Workshop> copies = workshops.stream().map(WorkshopListProjection::copyOf).collect(Collectors.toList());
+        return out -> {
+            out.writeStrings(emails);
+            out.writeInt(copies.size());
+            for (Workshop workshop : copies) {
+                out.writeWorkshopData(workshop.getWorkshopData());
+                out.writeInt(workshop.getNumberOfSeats());
+                writeParticipants(out, workshop.confirmedList());
+                writeParticipants(out, workshop.notConfirmedList());
+            }
+        };
+    }
+
+    /**
+     * The participants change as events are handled, so they are copied
+     */
+    private static Workshop copyOf(Workshop workshop) {
+        Workshop copy = new Workshop(workshop.getWorkshopData(), workshop.getNumberOfSeats());
+        for (Participant participant : workshop.confirmedList()) {
+            copy.confirmedList().add(copyOf(participant, copy));
+        }
+        for (Participant participant : workshop.notConfirmedList()) {
+            copy.notConfirmedList().add(copyOf(participant, copy));
+        }
+        return copy;
+    }
+
+    private static Participant copyOf(Participant participant, Workshop workshop) {
+        return Participant.restoredParticipant(participant.getWorkshopReservation(), workshop, participant.isEmailConfirmed(),
+                participant.getConfirmedAt().orElse(null), participant.getNumberOfSeatsReserved());
+    }
+
+    private static void writeParticipants(SnapshotOutput out, List<Participant> participants) throws IOException {
+        out.writeInt(participants.size());
+        for (Participant participant : participants) {
+            out.writeWorkshopReservation(participant.getWorkshopReservation());
+            out.writeBoolean(participant.isEmailConfirmed());
+            out.writeOffsetDateTime(participant.getConfirmedAt().orElse(null));
+            out.writeInt(participant.getNumberOfSeatsReserved());
+        }
+    }
+
+    private static void readParticipants(SnapshotInput in, Workshop workshop, List<Participant> participants) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            participants.add(Participant.restoredParticipant(in.readWorkshopReservation(), workshop, in.readBoolean(), in.readOffsetDateTime(), in.readInt()));
+        }
+    }
+
+    @Override
+    public Runnable readSnapshot(SnapshotInput in) throws IOException {
+        Set<String> restoredEmails = new HashSet<>(in.readStrings());
+        List<Workshop> restoredWorkshops = new ArrayList<>();
+        int numberOfWorkshops = in.readInt();
+        for (int i = 0; i < numberOfWorkshops; i++) {
+            Workshop workshop = new Workshop(in.readWorkshopData(), in.readInt());
+            readParticipants(in, workshop, workshop.confirmedList());
+            readParticipants(in, workshop, workshop.notConfirmedList());
+            restoredWorkshops.add(workshop);
+        }
+        return () -> {
+            workshops = restoredWorkshops;
+            confirmedEmails = restoredEmails;
+        };
+    }
+
     public boolean isEmailConfirmed(String email) {
         return confirmedEmails.contains(email);
     }
@@ -8,6 +8,9 @@ import no.java.moosehead.commands.WorkshopTypeEnum;
 import no.java.moosehead.eventstore.WorkshopAddedEvent;
 import no.java.moosehead.eventstore.core.AbstractEvent;
 import no.java.moosehead.eventstore.core.EventSubscription;
+import no.java.moosehead.eventstore.snapshot.SnapshotInput;
+import no.java.moosehead.eventstore.snapshot.SnapshotWriter;
+import no.java.moosehead.eventstore.snapshot.Snapshotable;
 import no.java.moosehead.web.Configuration;
 
 import java.io.*;
@@ -18,8 +21,9 @@ import java.time.Instant;
 import java.util.*;
 import java.util.stream.Collectors;
 
-public class WorkshopRepository implements EventSubscription {
+public class WorkshopRepository implements EventSubscription, Snapshotable {
     private List<WorkshopData> workshops;
+    private List<WorkshopData> addedByEvents = new ArrayList<>();
 
     public WorkshopRepository() {
         List<Item> items = readItems();
@@ -131,7 +135,40 @@ public class WorkshopRepository implements EventSubscription {
             Optional<WorkshopData> workshopData = workshopAddedEvent.getWorkshopData();
             if (workshopData.isPresent()) {
                 workshops.add(workshopData.get());
+                addedByEvents.add(workshopData.get());
             }
         }
     }
+
+    @Override
+    public String snapshotName() {
+        return "workshopRepository";
+    }
+
+    /**
+     * Only the workshops added by events are saved. The ones from EMS are read when the repository is created.
+     */
+    @Override
+    public SnapshotWriter captureSnapshot() {
+        List<WorkshopData> added = new ArrayList<>(addedByEvents);
+        return out -> {
+            out.writeInt(added.size());
+            for (WorkshopData workshopData : added) {
+                out.writeWorkshopData(workshopData);
+            }
+        };
+    }
+
+    @Override
+    public Runnable readSnapshot(SnapshotInput in) throws IOException {
+        int size = in.readInt();
+        List<WorkshopData> restored = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            restored.add(in.readWorkshopData());
+        }
+        return () -> {
+            workshops.addAll(restored);
+            addedByEvents.addAll(restored);
+        };
+    }
 }
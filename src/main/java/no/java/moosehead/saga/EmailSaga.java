@@ -4,13 +4,18 @@ import no.java.moosehead.controller.SystemSetup;
 import no.java.moosehead.eventstore.*;
 import no.java.moosehead.eventstore.core.AbstractEvent;
 import no.java.moosehead.eventstore.core.EventSubscription;
+import no.java.moosehead.eventstore.snapshot.SnapshotInput;
+import no.java.moosehead.eventstore.snapshot.SnapshotOutput;
+import no.java.moosehead.eventstore.snapshot.SnapshotWriter;
+import no.java.moosehead.eventstore.snapshot.Snapshotable;
 import no.java.moosehead.eventstore.system.SystemBootstrapDone;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
 
-public class EmailSaga implements EventSubscription {
+public class EmailSaga implements EventSubscription, Snapshotable {
     private static class ReservationInfo {
         private final ReservationAddedByUser res;
         private int spacesReserved;
@@ -44,10 +49,31 @@ public class EmailSaga implements EventSubscription {
     }
 
     private boolean sagaIsInitialized = false;
+    private volatile long sendEmailsFromRevision;
+    private boolean sendEmailsForEvent = false;
     private List<ReservationInfo> unconfirmedReservations = new ArrayList<>();
     private Set<String> confirmedEmails = new HashSet<>();
     private Map<String,WorkshopReservationInfo> participants = new HashMap<>();
 
+    public EmailSaga() {
+        this(true);
+    }
+
+    /**
+     * @param sendEmails false on a follower, which keeps the saga up to date but leaves the emails to the leader
+     *                   until {@link #sendEmailsFrom(long)} is called on promotion
+     */
+    public EmailSaga(boolean sendEmails) {
+        this.sendEmailsFromRevision = sendEmails ? 0 : Long.MAX_VALUE;
+    }
+
+    /**
+     * Sends the emails for events with this revision or later. The old leader sent the emails for earlier events.
+     */
+    public void sendEmailsFrom(long revisionId) {
+        sendEmailsFromRevision = revisionId;
+    }
+
     private boolean addParticipant(ReservationInfo res) {
         WorkshopReservationInfo workshopReservationInfo = participants.get(res.res.getWorkshopId());
         boolean waitingList = (!workshopReservationInfo.waitingList.isEmpty()) ||
@@ -61,6 +87,12 @@ public class EmailSaga implements EventSubscription {
         return waitingList;
     }
 
+    /**
+     * Only looked up when the saga is initialized, so that the saga can replay events without a running system
+     */
+    private EmailSender emailSender() {
+        return SystemSetup.instance().emailSender();
+    }
 
 
 
@@ -71,30 +103,30 @@ public class EmailSaga implements EventSubscription {
             sagaIsInitialized = true;
             return;
         }
+        sendEmailsForEvent = sagaIsInitialized && event.getRevisionId() >= sendEmailsFromRevision;
         if (event instanceof WorkshopAddedEvent) {
             WorkshopAddedEvent workshopAddedEvent = (WorkshopAddedEvent) event;
             participants.put(workshopAddedEvent.getWorkshopId(),new WorkshopReservationInfo(workshopAddedEvent.getNumberOfSeats()));
         }
         if (event instanceof ReservationAddedByUser) {
             ReservationAddedByUser res = (ReservationAddedByUser) event;
-            EmailSender emailSender = SystemSetup.instance().emailSender();
             if (res.getGoogleUserEmail().filter(email -> email.equals(res.getEmail())).isPresent()) {
                 confirmedEmails.add(res.getGoogleUserEmail().get());
             }
             boolean emailIsConfirmed = confirmedEmails.contains(res.getEmail());
             if (!emailIsConfirmed) {
                 unconfirmedReservations.add(new ReservationInfo(res));
-                if (sagaIsInitialized) {
-                    emailSender.sendEmailConfirmation(res.getEmail(), res.getReservationToken() ,res.getWorkshopId());
+                if (sendEmailsForEvent) {
+                    emailSender().sendEmailConfirmation(res.getEmail(), res.getReservationToken() ,res.getWorkshopId());
                 }
                 return;
             }
             boolean isWaiting = addParticipant(new ReservationInfo(res));
-            if (sagaIsInitialized) {
+            if (sendEmailsForEvent) {
                 if (isWaiting) {
-                    emailSender.sendWaitingListInfo(res.getEmail(), res.getWorkshopId());
+                    emailSender().sendWaitingListInfo(res.getEmail(), res.getWorkshopId());
                 } else {
-                    emailSender.sendReservationConfirmation(res.getEmail(), res.getWorkshopId(), res.getReservationToken());
+                    emailSender().sendReservationConfirmation(res.getEmail(), res.getWorkshopId(), res.getReservationToken());
                 }
             }
 
@@ -105,15 +137,14 @@ public class EmailSaga implements EventSubscription {
                     .filter(res -> res.res.getEmail().equals(emailConfirmedByUser.getEmail()))
                     .collect(Collectors.toList());
 
-            EmailSender emailSender = SystemSetup.instance().emailSender();
             for (ReservationInfo reservationInfo : toConfirm) {
                 unconfirmedReservations.remove(reservationInfo);
                 boolean isWaiting = addParticipant(reservationInfo);
-                if (sagaIsInitialized) {
+                if (sendEmailsForEvent) {
                     if (isWaiting) {
-                        emailSender.sendWaitingListInfo(reservationInfo.res.getEmail(), reservationInfo.res.getWorkshopId());
+                        emailSender().sendWaitingListInfo(reservationInfo.res.getEmail(), reservationInfo.res.getWorkshopId());
                     } else {
-                        emailSender.sendReservationConfirmation(reservationInfo.res.getEmail(), reservationInfo.res.getWorkshopId(), reservationInfo.res.getReservationToken());
+                        emailSender().sendReservationConfirmation(reservationInfo.res.getEmail(), reservationInfo.res.getWorkshopId(), reservationInfo.res.getReservationToken());
                     }
                 }
             }
@@ -124,9 +155,8 @@ public class EmailSaga implements EventSubscription {
             Optional<ReservationInfo> reservation = findUnconfirmedReservation(cancelledByUser.getEmail(),cancelledByUser.getWorkshopId());
             if (reservation.isPresent()) {
                 unconfirmedReservations.remove(reservation.get());
-                if (sagaIsInitialized) {
-                    EmailSender emailSender = SystemSetup.instance().emailSender();
-                    emailSender.sendCancellationConfirmation(cancelledByUser.getEmail(), cancelledByUser.getWorkshopId());
+                if (sendEmailsForEvent) {
+                    emailSender().sendCancellationConfirmation(cancelledByUser.getEmail(), cancelledByUser.getWorkshopId());
                 }
                 return;
             }
@@ -153,7 +183,6 @@ public class EmailSaga implements EventSubscription {
         int pos = indexOfReservation(workshopReservationInfo.spaces,reservationPartallyCancelled.getEmail());
         workshopReservationInfo.spaces.get(pos).spacesReserved-=reservationPartallyCancelled.getNumSpotsCancelled();
         workshopReservationInfo.spacesLeft+=reservationPartallyCancelled.getNumSpotsCancelled();
-        EmailSender emailSender = SystemSetup.instance().emailSender();
 
         while (!workshopReservationInfo.waitingList.isEmpty()) {
             ReservationInfo waiting = workshopReservationInfo.waitingList.get(0);
@@ -163,8 +192,8 @@ public class EmailSaga implements EventSubscription {
             workshopReservationInfo.waitingList.remove(0);
             workshopReservationInfo.spaces.add(waiting);
             workshopReservationInfo.spacesLeft-=waiting.spacesReserved;
-            if (sagaIsInitialized) {
-                emailSender.sendReservationConfirmation(waiting.res.getEmail(), reservationPartallyCancelled.getWorkshopId(), waiting.res.getReservationToken());
+            if (sendEmailsForEvent) {
+                emailSender().sendReservationConfirmation(waiting.res.getEmail(), reservationPartallyCancelled.getWorkshopId(), waiting.res.getReservationToken());
             }
         }
     }
@@ -180,9 +209,8 @@ public class EmailSaga implements EventSubscription {
             ReservationInfo remove = workshopReservationInfo.spaces.remove(index);
             workshopReservationInfo.spacesLeft+=remove.spacesReserved;
         }
-        EmailSender emailSender = SystemSetup.instance().emailSender();
-        if (sagaIsInitialized) {
-            emailSender.sendCancellationConfirmation(email, wsid);
+        if (sendEmailsForEvent) {
+            emailSender().sendCancellationConfirmation(email, wsid);
         }
         while (!workshopReservationInfo.waitingList.isEmpty()) {
             ReservationInfo waiting = workshopReservationInfo.waitingList.get(0);
@@ -192,8 +220,8 @@ public class EmailSaga implements EventSubscription {
             workshopReservationInfo.waitingList.remove(0);
             workshopReservationInfo.spaces.add(waiting);
             workshopReservationInfo.spacesLeft-=waiting.spacesReserved;
-            if (sagaIsInitialized) {
-                emailSender.sendReservationConfirmation(waiting.res.getEmail(), wsid, waiting.res.getReservationToken());
+            if (sendEmailsForEvent) {
+                emailSender().sendReservationConfirmation(waiting.res.getEmail(), wsid, waiting.res.getReservationToken());
             }
         }
 
@@ -206,6 +234,87 @@ public class EmailSaga implements EventSubscription {
                         .findAny();
     }
 
+    @Override
+    public String snapshotName() {
+        return "emailSaga";
+    }
+
+    @Override
+    public SnapshotWriter captureSnapshot() {
+        List<String> emails = new ArrayList<>(confirmedEmails);
+        List<ReservationInfo> unconfirmed = copyOf(unconfirmedReservations);
+        Map<String, WorkshopReservationInfo> workshops = new LinkedHashMap<>();
+        for (Map.Entry<String, WorkshopReservationInfo> entry : participants.entrySet()) {
+            WorkshopReservationInfo copy = new WorkshopReservationInfo(entry.getValue().spacesLeft);
+            copy.spaces = copyOf(entry.getValue().spaces);
+            copy.waitingList = copyOf(entry.getValue().waitingList);
+            workshops.put(entry.getKey(), copy);
+        }
+        return out -> {
+            out.writeStrings(emails);
+            writeReservations(out, unconfirmed);
+            out.writeInt(workshops.size());
+            for (Map.Entry<String, WorkshopReservationInfo> entry : workshops.entrySet()) {
+                out.writeString(entry.getKey());
+                out.writeInt(entry.getValue().spacesLeft);
+                writeReservations(out, entry.getValue().spaces);
+                writeReservations(out, entry.getValue().waitingList);
+            }
+        };
+    }
+
+    /**
+     * The seats of a reservation change as it is partially cancelled, so the reservations are copied
+     */
+    private static List<ReservationInfo> copyOf(List<ReservationInfo> reservations) {
+        List<ReservationInfo> copies = new ArrayList<>();
+        for (ReservationInfo reservation : reservations) {
+            ReservationInfo copy = new ReservationInfo(reservation.res);
+            copy.spacesReserved = reservation.spacesReserved;
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    @Override
+    public Runnable readSnapshot(SnapshotInput in) throws IOException {
+        Set<String> restoredEmails = new HashSet<>(in.readStrings());
+        List<ReservationInfo> restoredUnconfirmed = new ArrayList<>(readReservations(in));
+        Map<String, WorkshopReservationInfo> restoredParticipants = new HashMap<>();
+        int numberOfWorkshops = in.readInt();
+        for (int i = 0; i < numberOfWorkshops; i++) {
+            String workshopId = in.readString();
+            WorkshopReservationInfo workshopReservationInfo = new WorkshopReservationInfo(in.readInt());
+            workshopReservationInfo.spaces.addAll(readReservations(in));
+            workshopReservationInfo.waitingList.addAll(readReservations(in));
+            restoredParticipants.put(workshopId, workshopReservationInfo);
+        }
+        return () -> {
+            confirmedEmails = restoredEmails;
+            unconfirmedReservations = restoredUnconfirmed;
+            participants = restoredParticipants;
+        };
+    }
+
+    private static void writeReservations(SnapshotOutput out, List<ReservationInfo> reservations) throws IOException {
+        out.writeInt(reservations.size());
+        for (ReservationInfo reservation : reservations) {
+            out.writeWorkshopReservation(reservation.res.getWorkshopReservation());
+            out.writeInt(reservation.spacesReserved);
+        }
+    }
+
+    private static List<ReservationInfo> readReservations(SnapshotInput in) throws IOException {
+        int size = in.readInt();
+        List<ReservationInfo> reservations = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            ReservationInfo reservation = new ReservationInfo(new ReservationAddedByUser(in.readWorkshopReservation()));
+            reservation.spacesReserved = in.readInt();
+            reservations.add(reservation);
+        }
+        return reservations;
+    }
+
     private int indexOfReservation(List<ReservationInfo> reservationAddedByUsers, String email) {
         for (int i=0;i<reservationAddedByUsers.size();i++) {
             if (email.equals(reservationAddedByUsers.get(i).res.getEmail())) {
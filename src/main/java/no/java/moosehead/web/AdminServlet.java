@@ -5,6 +5,7 @@ import no.java.moosehead.api.ParticipantActionResult;
 import no.java.moosehead.api.ParticipantApi;
 import no.java.moosehead.api.WorkshopInfo;
 import no.java.moosehead.commands.AuthorEnum;
+import no.java.moosehead.commands.ParitalCancellationCommand;
 import no.java.moosehead.commands.WorkshopTypeEnum;
 import no.java.moosehead.controller.SystemSetup;
 import no.java.moosehead.domain.WorkshopReservation;
@@ -21,8 +22,10 @@ import java.io.PrintWriter;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static no.java.moosehead.web.Utils.*;
@@ -82,6 +85,17 @@ public class AdminServlet  extends HttpServlet {
             resp.sendError(HttpServletResponse.SC_UNAUTHORIZED);
             return;
         }
+        if ("/promote".equals(req.getPathInfo())) {
+            promote(resp);
+            return;
+        }
+        if (sendToPrimary(req, resp)) {
+            return;
+        }
+        if (req.getPathInfo() != null && req.getPathInfo().startsWith("/batch/")) {
+            doBatch(req, resp);
+            return;
+        }
 
         JsonObject jsonInput = readJson(req.getInputStream());
         if (jsonInput == null) {
@@ -107,12 +121,123 @@ public class AdminServlet  extends HttpServlet {
             return;
         }
         resp.setContentType("text/json");
+        toJson(apiResult.get()).toJson(resp.getWriter());
+    }
+
+    private static JsonObject toJson(ParticipantActionResult apiResult) {
         JsonObject result = JsonFactory.jsonObject();
-        result.put("status", apiResult.get().getStatus());
-        String errormessage = apiResult.get().getErrormessage();
+        result.put("status", apiResult.getStatus());
+        String errormessage = apiResult.getErrormessage();
         if (errormessage != null) {
             result.put("message",errormessage);
         }
+        return result;
+    }
+
+    /**
+     * Runs a JSON array of commands of one kind as one batch, and answers with an array of their results in
+     * the same order. Items with missing fields get an error result, the others are run.
+     */
+    private void doBatch(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String pathInfo = req.getPathInfo();
+        if (!Arrays.asList("/batch/reserve", "/batch/cancel", "/batch/partialCancel").contains(pathInfo)) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST,"Illegal path");
+            return;
+        }
+        JsonArray jsonInput = readJsonArray(req.getInputStream());
+        if (jsonInput == null) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST,"Illegal json input");
+            return;
+        }
+        List<ParticipantActionResult> results;
+        if ("/batch/reserve".equals(pathInfo)) {
+            results = runBatch(jsonInput, AdminServlet::readReservation, adminApi::reservationBatch,
+                    "Name and email must be present without spesial characters");
+        } else if ("/batch/cancel".equals(pathInfo)) {
+            results = runBatch(jsonInput, json -> batchField(json, "token"), adminApi::cancellationBatch,
+                    "Token must be present");
+        } else {
+            results = runBatch(jsonInput, AdminServlet::readPartialCancellation, adminApi::partialCancelBatch,
+                    "Need email, workshopid and num canceled");
+        }
+        resp.setContentType("text/json");
+        JsonArray.map(results, AdminServlet::toJson).toJson(resp.getWriter());
+    }
+
+    /**
+     * @param read returns null if the item is not valid
+     */
+    private static <T> List<ParticipantActionResult> runBatch(JsonArray jsonInput, Function<JsonObject, T> read,
+                                                              Function<List<T>, List<ParticipantActionResult>> batch, String errormessage) {
+        List<ParticipantActionResult> results = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        List<T> commands = new ArrayList<>();
+        for (JsonNode item : jsonInput) {
+            T command = item instanceof JsonObject ? read.apply((JsonObject) item) : null;
+            if (command == null) {
+                results.add(ParticipantActionResult.error(errormessage));
+                continue;
+            }
+            positions.add(results.size());
+            results.add(null);
+            commands.add(command);
+        }
+        List<ParticipantActionResult> batchResults = commands.isEmpty() ? Collections.emptyList() : batch.apply(commands);
+        for (int i = 0; i < positions.size(); i++) {
+            results.set(positions.get(i), batchResults.get(i));
+        }
+        return results;
+    }
+
+    private static WorkshopReservation readReservation(JsonObject jsonInput) {
+        String workshopid = batchField(jsonInput, "workshopid");
+        String email = batchField(jsonInput,"email");
+        String fullname = batchField(jsonInput, "fullname");
+        if (workshopid == null || email == null || fullname == null) {
+            return null;
+        }
+        return WorkshopReservation.builder()
+                .setWorkshopId(workshopid)
+                .setEmail(email)
+                .setFullname(fullname)
+                .create();
+    }
+
+    private static ParitalCancellationCommand readPartialCancellation(JsonObject jsonInput) {
+        String email = batchField(jsonInput, "email");
+        String workshopid = batchField(jsonInput, "workshopid");
+        Optional<Long> numSpotCanceled = jsonInput.value("numSpotCanceled")
+                .filter(value -> value instanceof JsonNumber)
+                .map(value -> ((JsonNumber) value).longValue());
+        if (email == null || workshopid == null || !numSpotCanceled.isPresent()) {
+            return null;
+        }
+        return new ParitalCancellationCommand(email, workshopid, numSpotCanceled.get().intValue());
+    }
+
+    /**
+     * The sanitized value of a string field of a batch item, or null if it is missing, not a string or not valid
+     */
+    private static String batchField(JsonObject jsonInput, String name) {
+        return jsonInput.value(name)
+                .filter(value -> value instanceof JsonString)
+                .map(value -> sanitize(value.stringValue()))
+                .orElse(null);
+    }
+
+    /**
+     * Makes this follower the server taking writes, after the old leader is stopped
+     */
+    private void promote(HttpServletResponse resp) throws IOException {
+        try {
+            SystemSetup.instance().promote();
+        } catch (IllegalStateException e) {
+            resp.sendError(HttpServletResponse.SC_CONFLICT, e.getMessage());
+            return;
+        }
+        resp.setContentType("text/json");
+        JsonObject result = JsonFactory.jsonObject();
+        result.put("status", ParticipantActionResult.Status.OK);
         result.toJson(resp.getWriter());
     }
 
@@ -1,5 +1,9 @@
 package no.java.moosehead.web;
 
+import no.java.moosehead.eventstore.core.ReplicationAckPolicy;
+import no.java.moosehead.eventstore.utils.DurabilityMode;
+import no.java.moosehead.eventstore.utils.LogFormat;
+
 import java.io.*;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
@@ -170,6 +174,111 @@ public class Configuration {
         return readConf("eventstoreFilename", null);
     }
 
+    public static String eventstoreStorage() {
+        return readConf("eventstoreStorage", "file");
+    }
+
+    public static LogFormat eventstoreFormat() {
+        return LogFormat.valueOf(readConf("eventstoreFormat", LogFormat.TEXT.name()));
+    }
+
+    public static int eventstoreReplayThreads() {
+        return Integer.parseInt(readConf("eventstoreReplayThreads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+    }
+
+    public static boolean eventstoreKeepEventsInMemory() {
+        return "true".equals(readConf("eventstoreKeepEventsInMemory", "true"));
+    }
+
+    public static boolean eventstoreAsyncDispatch() {
+        return "true".equals(readConf("eventstoreAsyncDispatch", "false"));
+    }
+
+    public static int eventstoreDispatchBufferSize() {
+        return Integer.parseInt(readConf("eventstoreDispatchBufferSize", "8192"));
+    }
+
+    public static String eventstoreSnapshotDirectory() {
+        return readConf("eventstoreSnapshotDirectory", null);
+    }
+
+    public static int eventstoreSnapshotInterval() {
+        return Integer.parseInt(readConf("eventstoreSnapshotInterval", "10000"));
+    }
+
+    public static int eventstoreSegmentSize() {
+        return Integer.parseInt(readConf("eventstoreSegmentSize", "67108864"));
+    }
+
+    public static boolean eventstoreCompressSegments() {
+        return "true".equals(readConf("eventstoreCompressSegments", "false"));
+    }
+
+    public static DurabilityMode eventstoreDurability() {
+        return DurabilityMode.valueOf(readConf("eventstoreDurability", DurabilityMode.OS_BUFFERED.name()));
+    }
+
+    public static long eventstoreGroupCommitMillis() {
+        return Long.parseLong(readConf("eventstoreGroupCommitMillis", "2"));
+    }
+
+    public static boolean eventstoreReadReplica() {
+        return "true".equals(readConf("eventstoreReadReplica", "false"));
+    }
+
+    public static long eventstoreTailMillis() {
+        return Long.parseLong(readConf("eventstoreTailMillis", "100"));
+    }
+
+    /**
+     * Where a read replica sends requests that change data, or null to reject them
+     */
+    public static String primaryLocation() {
+        return readConf("primaryLocation", null);
+    }
+
+    /**
+     * The port the leader listens for followers on, or null to not replicate
+     */
+    public static Integer replicationPort() {
+        String port = readConf("replicationPort", null);
+        return port != null ? Integer.parseInt(port) : null;
+    }
+
+    /**
+     * The host:port of the leader to follow, or null for the process taking writes
+     */
+    public static String replicationLeader() {
+        return readConf("replicationLeader", null);
+    }
+
+    public static ReplicationAckPolicy replicationAckPolicy() {
+        return ReplicationAckPolicy.valueOf(readConf("replicationAckPolicy", ReplicationAckPolicy.LEADER.name()));
+    }
+
+    public static long replicationAckTimeoutMillis() {
+        return Long.parseLong(readConf("replicationAckTimeoutMillis", "1000"));
+    }
+
+    public static long replicationRetryMillis() {
+        return Long.parseLong(readConf("replicationRetryMillis", "1000"));
+    }
+
+    public static int commandPartitions() {
+        return Integer.parseInt(readConf("commandPartitions", String.valueOf(Runtime.getRuntime().availableProcessors())));
+    }
+
+    /**
+     * Commands submitted to the command bus while this many are waiting are rejected
+     */
+    public static int commandQueueSize() {
+        return Integer.parseInt(readConf("commandQueueSize", "4096"));
+    }
+
+    public static int commandBatchSize() {
+        return Integer.parseInt(readConf("commandBatchSize", "256"));
+    }
+
     public static boolean isProdEnviroment() {
         return "false".equals(readConf("testenv", "true"));
     }
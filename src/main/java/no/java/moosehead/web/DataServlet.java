@@ -8,6 +8,9 @@ import no.java.moosehead.commands.AuthorEnum;
 import no.java.moosehead.commands.WorkshopTypeEnum;
 import no.java.moosehead.controller.SystemSetup;
 import no.java.moosehead.domain.WorkshopReservation;
+import no.java.moosehead.eventstore.core.LogTailer;
+import no.java.moosehead.eventstore.core.ReplicationFollower;
+import no.java.moosehead.eventstore.core.ReplicationLeader;
 import no.java.moosehead.projections.Participant;
 import org.jsonbuddy.JsonArray;
 import org.jsonbuddy.JsonFactory;
@@ -29,6 +32,7 @@ import java.util.stream.Collectors;
 
 import static no.java.moosehead.web.Utils.readField;
 import static no.java.moosehead.web.Utils.readJson;
+import static no.java.moosehead.web.Utils.sendToPrimary;
 
 @WebServlet(urlPatterns = {"/data/*"})
 public class DataServlet extends HttpServlet {
@@ -56,6 +60,9 @@ public class DataServlet extends HttpServlet {
         } else if ("/teacherList".equals(req.getPathInfo())) {
             resp.setContentType("text/json");
             printTeacherList(req, resp);
+        } else if ("/replicaStatus".equals(req.getPathInfo())) {
+            resp.setContentType("text/json");
+            printReplicaStatus(resp);
         } else if ("/userLogin".equals(req.getPathInfo())) {
             resp.setContentType("text/json");
             JsonObject node = (JsonObject) req.getSession().getAttribute("user");
@@ -66,6 +73,46 @@ public class DataServlet extends HttpServlet {
 
     }
 
+    private void printReplicaStatus(HttpServletResponse resp) throws IOException {
+        JsonObject result = JsonFactory.jsonObject();
+        LogTailer logTailer = SystemSetup.instance().logTailer();
+        result.put("readReplica", logTailer != null);
+        result.put("events", SystemSetup.instance().eventstore().numberOfEvents());
+        if (logTailer != null) {
+            result.put("lagMillis", logTailer.lagMillis());
+            result.put("readEvents", logTailer.readEvents());
+            if (logTailer.lastError() != null) {
+                result.put("error", logTailer.lastError());
+            }
+        }
+        ReplicationFollower follower = SystemSetup.instance().replicationFollower();
+        if (follower != null) {
+            JsonObject replication = JsonFactory.jsonObject();
+            replication.put("role", "follower");
+            replication.put("connected", follower.isConnected());
+            replication.put("lagEvents", follower.lagEvents());
+            replication.put("lagMillis", follower.lagMillis());
+            replication.put("receivedEvents", follower.receivedEvents());
+            if (follower.lastError() != null) {
+                replication.put("error", follower.lastError());
+            }
+            result.put("replication", replication);
+        }
+        ReplicationLeader leader = SystemSetup.instance().replicationLeader();
+        if (leader != null) {
+            JsonObject replication = JsonFactory.jsonObject();
+            replication.put("role", "leader");
+            replication.put("ackPolicy", leader.ackPolicy().name());
+            replication.put("followers", leader.connectedFollowers());
+            JsonArray lag = JsonFactory.jsonArray();
+            leader.followerLag().forEach(lag::add);
+            replication.put("followerLagEvents", lag);
+            replication.put("ackTimeouts", leader.ackTimeouts());
+            result.put("replication", replication);
+        }
+        result.toJson(resp.getWriter());
+    }
+
     private void printTeacherList(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         String workshop = req.getParameter("workshop");
         if (workshop == null || workshop.isEmpty()) {
@@ -209,6 +256,9 @@ public class DataServlet extends HttpServlet {
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        if (sendToPrimary(req, resp)) {
+            return;
+        }
         JsonObject jsonInput = readJson(req.getInputStream());
         if (jsonInput == null) {
             resp.sendError(HttpServletResponse.SC_BAD_REQUEST,"Illegal json input");
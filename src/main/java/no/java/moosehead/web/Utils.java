@@ -2,12 +2,16 @@ package no.java.moosehead.web;
 
 
 import no.java.moosehead.commands.WorkshopTypeEnum;
+import no.java.moosehead.controller.SystemSetup;
+import org.jsonbuddy.JsonArray;
 import org.jsonbuddy.JsonNode;
 import org.jsonbuddy.JsonObject;
 import org.jsonbuddy.parse.JsonParseException;
 import org.jsonbuddy.parse.JsonParser;
 
 import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.time.Instant;
 import java.time.LocalDateTime;
@@ -46,6 +50,27 @@ public class Utils {
     }
 
 
+    /**
+     * On a read replica or a replication follower, requests that change data are sent on to the primary if its
+     * location is configured, and rejected otherwise
+     * @return true if the request is handled
+     */
+    public static boolean sendToPrimary(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        boolean following = Configuration.replicationLeader() != null && SystemSetup.instance().isFollowing();
+        if (!Configuration.eventstoreReadReplica() && !following) {
+            return false;
+        }
+        String primaryLocation = Configuration.primaryLocation();
+        if (primaryLocation == null) {
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "This server is a read replica");
+            return true;
+        }
+        // 307 keeps the method and body when the client follows the redirect
+        resp.setStatus(307);
+        resp.setHeader("Location", primaryLocation + req.getRequestURI() + (req.getQueryString() != null ? "?" + req.getQueryString() : ""));
+        return true;
+    }
+
     public static JsonObject readJson(ServletInputStream inputStream) throws IOException {
         try {
             return (JsonObject) JsonParser.parse(inputStream);
@@ -54,6 +79,18 @@ public class Utils {
         }
     }
 
+    /**
+     * Parses the array straight from the request, without reading the body into a string first
+     * @return null if the input is not a JSON array
+     */
+    public static JsonArray readJsonArray(ServletInputStream inputStream) throws IOException {
+        try {
+            return (JsonArray) JsonParser.parse(inputStream);
+        } catch (ClassCastException | JsonParseException e) {
+            return null;
+        }
+    }
+
 
     public static Optional<Instant> toInstant(String datestring) {
         if (datestring == null) {
@@ -0,0 +1,101 @@
+package no.java.moosehead.aggregate;
+
+import no.java.moosehead.commands.AddReservationCommand;
+import no.java.moosehead.commands.AuthorEnum;
+import no.java.moosehead.commands.CancelReservationCommand;
+import no.java.moosehead.commands.ConfirmEmailCommand;
+import no.java.moosehead.controller.SystemSetup;
+import no.java.moosehead.domain.WorkshopReservation;
+import no.java.moosehead.eventstore.ReservationAddedByUser;
+import no.java.moosehead.eventstore.SyntheticEvents;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.utils.TokenGenerator;
+import no.java.moosehead.saga.EmailSender;
+import no.java.moosehead.web.Configuration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures how long the aggregate takes to validate a command with 10k, 100k and 1M events behind it.
+ * Run the main method with optional event counts.
+ */
+public class WorkshopAggregateBenchmark {
+    private static final int COMMANDS = 20_000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        SystemSetup systemSetup = mock(SystemSetup.class);
+        when(systemSetup.revisionGenerator()).thenReturn(new TokenGenerator());
+        SystemSetup.setSetup(systemSetup);
+        Map<String, String> confdata = new HashMap<>();
+        confdata.put("openTime", "201501010000");
+        Configuration.initData(confdata);
+
+        long[] sizes = {10_000, 100_000, 1_000_000};
+        if (args.length > 0) {
+            sizes = new long[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Long.parseLong(args[i]);
+            }
+        }
+        for (long size : sizes) {
+            run((int) size);
+        }
+    }
+
+    private static void run(int size) {
+        // The synthetic log has about 1.9 events per reservation
+        int reservations = (int) (size / 1.9);
+        List<AbstractEvent> events = SyntheticEvents.generate(reservations);
+        WorkshopAggregate workshopAggregate = new WorkshopAggregate();
+        workshopAggregate.setEmailSender(mock(EmailSender.class));
+        List<String> tokens = new ArrayList<>();
+        for (AbstractEvent event : events) {
+            workshopAggregate.eventAdded(event);
+            if (event instanceof ReservationAddedByUser) {
+                tokens.add(((ReservationAddedByUser) event).getReservationToken());
+            }
+        }
+        int participants = Math.max(1, reservations / 4);
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            Random random = new Random(round);
+            int rejected = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < COMMANDS; i++) {
+                String workshopId = SyntheticEvents.workshopId(random.nextInt(SyntheticEvents.WORKSHOPS));
+                try {
+                    switch (i % 3) {
+                        case 0:
+                            WorkshopReservation reservation = WorkshopReservation.builder()
+                                    .setEmail("new" + i + "@example.com")
+                                    .setFullname("New participant")
+                                    .setWorkshopId(workshopId)
+                                    .setNumberOfSeatsReserved(1)
+                                    .create();
+                            workshopAggregate.createEvent(new AddReservationCommand(reservation, AuthorEnum.USER));
+                            break;
+                        case 1:
+                            String email = SyntheticEvents.email(random.nextInt(participants));
+                            workshopAggregate.createEvent(new CancelReservationCommand(email, workshopId, AuthorEnum.USER));
+                            break;
+                        default:
+                            workshopAggregate.createEvent(new ConfirmEmailCommand(tokens.get(random.nextInt(tokens.size()))));
+                    }
+                } catch (RuntimeException e) {
+                    rejected++;
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.println(String.format("%,d events, round %d: %,d ns/command (%d of %d commands rejected)",
+                    events.size(), round, nanos / COMMANDS, rejected, COMMANDS));
+        }
+    }
+}
@@ -436,6 +436,89 @@ public class WorkshopAggregateTest {
         assertThat(emailConfirmedByUser.getEmail()).isEqualToIgnoringCase("bal@gmail.com");
     }
 
+    @Test
+    public void shouldCancelTheSeatsLeftAfterPartialCancellation() throws Exception {
+        WorkshopData data = new WorkshopData(w1,"title","desc",null,null,Optional.empty(),WorkshopTypeEnum.KIDSAKODER_WORKSHOP);
+        eventstore.addEvent(new WorkshopAddedByAdmin(System.currentTimeMillis(),1L, w1, 0,null,null,data));
+        WorkshopReservation workshopReservation = WorkshopReservation.builder()
+                .setEmail("bla@email")
+                .setFullname("Donnie Darko")
+                .setWorkshopId(w1)
+                .setGoogleUserEmail(Optional.empty())
+                .setNumberOfSeatsReserved(3)
+                .create();
+        eventstore.addEvent(workshopAggregate.createEvent(new AddReservationCommand(workshopReservation,AuthorEnum.USER)));
+        eventstore.addEvent(workshopAggregate.createEvent(new ParitalCancellationCommand("bla@email",w1,1)));
+
+        AbstractReservationCancelled cancelled = workshopAggregate.createEvent(new CancelReservationCommand("bla@email",w1, AuthorEnum.USER));
+        assertThat(cancelled.getNumSpotsCancelled()).isEqualTo(2);
+        eventstore.addEvent(cancelled);
+
+        try {
+            workshopAggregate.createEvent(new CancelReservationCommand("bla@email",w1, AuthorEnum.USER));
+            fail("Expected NoReservationFoundException");
+        } catch (NoReservationFoundException e) {
+        }
+    }
+
+    @Test(expected = NoReservationFoundException.class)
+    public void shouldNotConfirmEmailTwice() throws Exception {
+        eventstore.addEvent(new WorkshopAddedBySystem(System.currentTimeMillis(), 1L, w1, 0));
+        ReservationAddedByUser reservationAddedByUser = new ReservationAddedByUser(WorkshopReservation.builder()
+                        .setSystemTimeInMillis(System.currentTimeMillis())
+                        .setRevisionId(2L)
+                        .setEmail("bal@gmail.com")
+                        .setFullname("Darth Vader")
+                        .setWorkshopId(w1)
+                        .setNumberOfSeatsReserved(1)
+                        .create()
+                );
+        eventstore.addEvent(reservationAddedByUser);
+        ConfirmEmailCommand confirmEmailCommand = new ConfirmEmailCommand(reservationAddedByUser.getReservationToken());
+        eventstore.addEvent(workshopAggregate.createEvent(confirmEmailCommand));
+
+        workshopAggregate.createEvent(confirmEmailCommand);
+    }
+
+    @Test
+    public void shouldForgetTheLinkOfCancelledReservationOnceEmailIsConfirmed() throws Exception {
+        eventstore.addEvent(new WorkshopAddedBySystem(System.currentTimeMillis(), 1L, w1, 0));
+        eventstore.addEvent(new WorkshopAddedBySystem(System.currentTimeMillis(), 2L, "W2", 0));
+        ReservationAddedByUser cancelledReservation = new ReservationAddedByUser(WorkshopReservation.builder()
+                        .setSystemTimeInMillis(System.currentTimeMillis())
+                        .setRevisionId(3L)
+                        .setEmail("bal@gmail.com")
+                        .setFullname("Darth Vader")
+                        .setWorkshopId(w1)
+                        .setNumberOfSeatsReserved(1)
+                        .create()
+                );
+        eventstore.addEvent(cancelledReservation);
+        eventstore.addEvent(new ReservationCancelledByUser(System.currentTimeMillis(), 4L, "bal@gmail.com", w1, 1));
+        ReservationAddedByUser reservation = new ReservationAddedByUser(WorkshopReservation.builder()
+                        .setSystemTimeInMillis(System.currentTimeMillis())
+                        .setRevisionId(5L)
+                        .setEmail("bal@gmail.com")
+                        .setFullname("Darth Vader")
+                        .setWorkshopId("W2")
+                        .setNumberOfSeatsReserved(1)
+                        .create()
+                );
+        eventstore.addEvent(reservation);
+
+        assertThat(workshopAggregate.emailForReservationToken(cancelledReservation.getReservationToken())).isEqualTo("bal@gmail.com");
+        assertThat(workshopAggregate.workshopsForEmail("bal@gmail.com")).containsOnly("W2");
+
+        eventstore.addEvent(workshopAggregate.createEvent(new ConfirmEmailCommand(reservation.getReservationToken())));
+
+        assertThat(workshopAggregate.emailForReservationToken(reservation.getReservationToken())).isEqualTo("bal@gmail.com");
+        try {
+            workshopAggregate.emailForReservationToken(cancelledReservation.getReservationToken());
+            fail("Expected NoReservationFoundException");
+        } catch (NoReservationFoundException e) {
+        }
+    }
+
     @Test(expected = NoReservationFoundException.class)
     public void shouldNotConfirmWhenReservationDoesNotExist() throws Exception {
         ConfirmEmailCommand confirmEmailCommand = new ConfirmEmailCommand("DribbleDrobbleTokenting");
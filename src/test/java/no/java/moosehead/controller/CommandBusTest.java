@@ -0,0 +1,150 @@
+package no.java.moosehead.controller;
+
+import no.java.moosehead.aggregate.WorkshopAggregate;
+import no.java.moosehead.api.ParticipantActionResult;
+import no.java.moosehead.commands.AddReservationCommand;
+import no.java.moosehead.commands.AuthorEnum;
+import no.java.moosehead.domain.WorkshopReservation;
+import no.java.moosehead.eventstore.WorkshopAddedBySystem;
+import no.java.moosehead.eventstore.core.Eventstore;
+import no.java.moosehead.eventstore.utils.DurabilityMode;
+import no.java.moosehead.eventstore.utils.FileHandler;
+import no.java.moosehead.eventstore.utils.TokenGenerator;
+import no.java.moosehead.saga.EmailSender;
+import no.java.moosehead.web.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CommandBusTest {
+    private File file;
+    private FileHandler fileHandler;
+    private Eventstore eventstore;
+    private WorkshopAggregate workshopAggregate;
+    private CommandBus commandBus;
+
+    @Before
+    public void setUp() throws Exception {
+        SystemSetup systemSetup = mock(SystemSetup.class);
+        when(systemSetup.revisionGenerator()).thenReturn(new TokenGenerator());
+        SystemSetup.setSetup(systemSetup);
+        Map<String, String> confdata = new HashMap<>();
+        confdata.put("openTime", "201501010000");
+        Configuration.initData(confdata);
+        file = File.createTempFile("commandbus", null);
+        fileHandler = new FileHandler(file.getPath(), DurabilityMode.FSYNC_GROUP, 2);
+        eventstore = new Eventstore(fileHandler, 1);
+        workshopAggregate = new WorkshopAggregate();
+        workshopAggregate.setEmailSender(mock(EmailSender.class));
+        eventstore.addEventSubscriber(workshopAggregate);
+        for (int i = 0; i < 8; i++) {
+            eventstore.addEvent(new WorkshopAddedBySystem(System.currentTimeMillis(), i + 1, "W" + i, 30));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (commandBus != null) {
+            commandBus.close();
+        }
+        fileHandler.close();
+        file.delete();
+        new File(file.getPath() + ".idx").delete();
+        Configuration.initData(null);
+        SystemSetup.setSetup(null);
+    }
+
+    @Test
+    public void shouldAppendCommandsSubmittedFromManyThreads() throws Exception {
+        commandBus = new CommandBus(eventstore, 1024, 64);
+        List<CompletableFuture<ParticipantActionResult>> results = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    results.add(submitReservation("W" + (i % 8), "p" + thread + "-" + i + "@example.com"));
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (CompletableFuture<ParticipantActionResult> result : results) {
+            assertThat(result.get(10, TimeUnit.SECONDS).getStatus()).isEqualTo(ParticipantActionResult.Status.OK);
+        }
+        assertThat(eventstore.numberOfEvents()).isEqualTo(8 + 400);
+        long streamEvents = 0;
+        for (int i = 0; i < 8; i++) {
+            streamEvents += eventstore.streamVersion(Eventstore.workshopStream("W" + i));
+        }
+        assertThat(streamEvents).isEqualTo(8 + 400);
+    }
+
+    @Test
+    public void shouldValidateAgainstEventsEarlierInTheBatch() throws Exception {
+        commandBus = new CommandBus(eventstore, 1024, 64);
+        CompletableFuture<ParticipantActionResult> first = submitReservation("W1", "same@example.com");
+        CompletableFuture<ParticipantActionResult> second = submitReservation("W1", "same@example.com");
+        CompletableFuture<ParticipantActionResult> unknownWorkshop = submitReservation("W99", "other@example.com");
+
+        assertThat(first.get(10, TimeUnit.SECONDS).getStatus()).isEqualTo(ParticipantActionResult.Status.OK);
+        assertThat(second.get(10, TimeUnit.SECONDS).getStatus()).isEqualTo(ParticipantActionResult.Status.ERROR);
+        assertThat(unknownWorkshop.get(10, TimeUnit.SECONDS).getStatus()).isEqualTo(ParticipantActionResult.Status.ERROR);
+        assertThat(eventstore.numberOfEvents()).isEqualTo(8 + 1);
+    }
+
+    @Test
+    public void shouldRejectCommandsWhenTheQueueIsFull() throws Exception {
+        commandBus = new CommandBus(eventstore, 1, 1);
+        CountDownLatch writerBusy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<ParticipantActionResult> blocking = commandBus.submit(Eventstore.workshopStream("W1"), () -> {
+            writerBusy.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return workshopAggregate.createEvent(reservation("W1", "first@example.com"));
+        }, event -> ParticipantActionResult.ok());
+        assertThat(writerBusy.await(10, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<ParticipantActionResult> queued = submitReservation("W2", "second@example.com");
+        CompletableFuture<ParticipantActionResult> rejected = submitReservation("W3", "third@example.com");
+        assertThat(rejected.getNow(null).getErrormessage()).contains("busy");
+
+        release.countDown();
+        assertThat(blocking.get(10, TimeUnit.SECONDS).getStatus()).isEqualTo(ParticipantActionResult.Status.OK);
+        assertThat(queued.get(10, TimeUnit.SECONDS).getStatus()).isEqualTo(ParticipantActionResult.Status.OK);
+    }
+
+    private CompletableFuture<ParticipantActionResult> submitReservation(String workshopId, String email) {
+        AddReservationCommand command = reservation(workshopId, email);
+        return commandBus.submit(Eventstore.workshopStream(workshopId), () -> workshopAggregate.createEvent(command),
+                event -> ParticipantActionResult.ok());
+    }
+
+    private static AddReservationCommand reservation(String workshopId, String email) {
+        return new AddReservationCommand(WorkshopReservation.builder()
+                .setEmail(email)
+                .setFullname("Participant")
+                .setWorkshopId(workshopId)
+                .setNumberOfSeatsReserved(1)
+                .create(), AuthorEnum.USER);
+    }
+}
@@ -0,0 +1,99 @@
+package no.java.moosehead.controller;
+
+import no.java.moosehead.MoosheadException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class CommandPartitionsTest {
+    private final CommandPartitions commandPartitions = new CommandPartitions(4);
+
+    @Test
+    public void shouldRunCommandsOnTheSameStreamOneAtATime() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        List<Integer> concurrent = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        CountDownLatch done = new CountDownLatch(200);
+        for (int i = 0; i < 200; i++) {
+            callers.execute(() -> {
+                commandPartitions.execute("workshop/W1", () -> {
+                    concurrent.add(running.incrementAndGet());
+                    Thread.yield();
+                    return running.decrementAndGet();
+                });
+                done.countDown();
+            });
+        }
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        callers.shutdown();
+        assertThat(concurrent).hasSize(200).containsOnly(1);
+    }
+
+    @Test
+    public void shouldThrowExceptionFromCommand() throws Exception {
+        try {
+            commandPartitions.execute("workshop/W1", () -> {
+                throw new MoosheadException("Workshop is full");
+            });
+            fail("Expected exception");
+        } catch (MoosheadException e) {
+            assertThat(e.getMessage()).isEqualTo("Workshop is full");
+        }
+    }
+
+    @Test
+    public void shouldRunNestedCommandOnTheCallingThread() throws Exception {
+        String threadName = commandPartitions.execute("workshop/W1",
+                () -> commandPartitions.execute("workshop/W1", () -> Thread.currentThread().getName()));
+        assertThat(threadName).isEqualTo(Thread.currentThread().getName());
+    }
+
+    @Test
+    public void shouldLockSeveralPartitionsWithoutDeadlock() throws Exception {
+        List<String> streams = new ArrayList<>();
+        for (int i = 0; streams.size() < 4; i++) {
+            String streamId = "workshop/W" + i;
+            if (commandPartitions.partitionOf(streamId) == streams.size()) {
+                streams.add(streamId);
+            }
+        }
+        AtomicInteger running = new AtomicInteger();
+        List<Integer> concurrent = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        CountDownLatch done = new CountDownLatch(400);
+        for (int i = 0; i < 400; i++) {
+            // Confirmations lock the streams in opposite orders, reservations lock one of them
+            List<String> locked = new ArrayList<>(streams);
+            if (i % 2 == 0) {
+                Collections.reverse(locked);
+            }
+            String single = streams.get(i % streams.size());
+            callers.execute(() -> {
+                commandPartitions.execute(locked, () -> {
+                    concurrent.add(running.incrementAndGet());
+                    Thread.yield();
+                    return running.decrementAndGet();
+                });
+                commandPartitions.execute(single, () -> {
+                    running.incrementAndGet();
+                    Thread.yield();
+                    return running.decrementAndGet();
+                });
+                done.countDown();
+            });
+        }
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        callers.shutdown();
+        assertThat(concurrent).hasSize(400).containsOnly(1);
+    }
+}
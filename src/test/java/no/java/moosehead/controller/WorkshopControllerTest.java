@@ -8,8 +8,11 @@ import no.java.moosehead.api.WorkshopStatus;
 import no.java.moosehead.commands.*;
 import no.java.moosehead.domain.WorkshopReservation;
 import no.java.moosehead.eventstore.EmailConfirmedByUser;
+import no.java.moosehead.eventstore.ReservationAddedByAdmin;
 import no.java.moosehead.eventstore.ReservationAddedByUser;
+import no.java.moosehead.eventstore.ReservationCancelledByAdmin;
 import no.java.moosehead.eventstore.ReservationCancelledByUser;
+import no.java.moosehead.eventstore.ReservationPartallyCancelled;
 import no.java.moosehead.eventstore.core.Eventstore;
 import no.java.moosehead.eventstore.utils.TokenGenerator;
 import no.java.moosehead.projections.Participant;
@@ -26,7 +29,9 @@ import org.mockito.ArgumentCaptor;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
@@ -52,8 +57,10 @@ public class WorkshopControllerTest {
         when(systemSetup.workshopAggregate()).thenReturn(workshopAggregate);
         eventstore = mock(Eventstore.class);
         when(systemSetup.eventstore()).thenReturn(eventstore);
+        when(eventstore.awaitSubscriber(any(), anyLong(), anyLong())).thenReturn(true);
         TokenGenerator tokenGenerator = new TokenGenerator();
         when(systemSetup.revisionGenerator()).thenReturn(tokenGenerator);
+        when(systemSetup.commandPartitions()).thenReturn(new CommandPartitions(2));
     }
 
     @After
@@ -188,7 +195,7 @@ public class WorkshopControllerTest {
 
         assertThat(result.getStatus()).isEqualTo(ParticipantActionResult.Status.CONFIRM_EMAIL);
 
-        verify(eventstore).addEvent(rad);
+        verify(eventstore).append(Eventstore.workshopStream("one"), 0L, rad);
         verify(workshopAggregate).createEvent(any(AddReservationCommand.class));
         AddReservationCommand value = resCmndCapture.getValue();
 
@@ -237,6 +244,80 @@ public class WorkshopControllerTest {
         assertThat(cancelReservationCommand.getWorkshopId()).isEqualTo("one");
     }
 
+    @Test
+    public void shouldValidateEachReservationInBatch() throws Exception {
+        ReservationAddedByAdmin rad = new ReservationAddedByAdmin(WorkshopReservation.builder()
+                        .setSystemTimeInMillis(System.currentTimeMillis())
+                        .setRevisionId(5L)
+                        .setEmail("darth@deathstar.com")
+                        .setFullname("Darth Vader")
+                        .setWorkshopId("one")
+                        .setNumberOfSeatsReserved(1)
+                        .create()
+                );
+        when(workshopAggregate.createEvent(any(AddReservationCommand.class)))
+                .thenReturn(rad)
+                .thenThrow(new MoosheadException("Already reserved"));
+        when(workshopListProjection.isEmailConfirmed("darth@deathstar.com")).thenReturn(false);
+
+        WorkshopReservation workshopReservation = WorkshopReservation.builder()
+                .setWorkshopId("one")
+                .setEmail("darth@deathstar.com")
+                .setFullname("Darth Vader")
+                .create();
+        List<ParticipantActionResult> results = workshopController.reservationBatch(Arrays.asList(workshopReservation, workshopReservation));
+
+        assertThat(results).hasSize(2);
+        assertThat(results.get(0).getStatus()).isEqualTo(ParticipantActionResult.Status.CONFIRM_EMAIL);
+        assertThat(results.get(1).getStatus()).isEqualTo(ParticipantActionResult.Status.ERROR);
+        assertThat(results.get(1).getErrormessage()).isEqualTo("Already reserved");
+        verify(eventstore).appendAsync(Eventstore.workshopStream("one"), 0L, rad);
+        verify(eventstore, never()).append(anyString(), anyLong(), any());
+    }
+
+    @Test
+    public void shouldRejectUnknownTokensInCancellationBatch() throws Exception {
+        ReservationCancelledByAdmin cancelled = new ReservationCancelledByAdmin(System.currentTimeMillis(),5L,"darth@deathstar.com","one",1);
+        when(workshopAggregate.createEvent(any(CancelReservationCommand.class))).thenReturn(cancelled);
+        Participant participant = mock(Participant.class);
+        when(participant.getWorkshopReservation()).thenReturn(WorkshopReservation.builder().setEmail("darth@deathstar.com").create());
+        when(participant.getWorkshopId()).thenReturn("one");
+        when(workshopListProjection.findByReservationToken("ReservasjonsToken")).thenReturn(Optional.of(participant));
+        when(workshopListProjection.findByReservationToken("Unknown")).thenReturn(Optional.empty());
+
+        List<ParticipantActionResult> results = workshopController.cancellationBatch(Arrays.asList("Unknown", "ReservasjonsToken"));
+
+        assertThat(results.get(0).getStatus()).isEqualTo(ParticipantActionResult.Status.ERROR);
+        assertThat(results.get(1).getStatus()).isEqualTo(ParticipantActionResult.Status.OK);
+        ArgumentCaptor<CancelReservationCommand> command = ArgumentCaptor.forClass(CancelReservationCommand.class);
+        verify(workshopAggregate).createEvent(command.capture());
+        assertThat(command.getValue().getAuthorEnum()).isEqualTo(AuthorEnum.ADMIN);
+        verify(eventstore).appendAsync(Eventstore.workshopStream("one"), 0L, cancelled);
+    }
+
+    @Test
+    public void shouldReportFailedWritesForEachCommandInBatch() throws Exception {
+        ParitalCancellationCommand first = new ParitalCancellationCommand("darth@deathstar.com", "one", 1);
+        ParitalCancellationCommand second = new ParitalCancellationCommand("luke@tatooine.com", "two", 1);
+        ReservationPartallyCancelled firstEvent = new ReservationPartallyCancelled(System.currentTimeMillis(), 5L, "darth@deathstar.com", "one", 1);
+        ReservationPartallyCancelled secondEvent = new ReservationPartallyCancelled(System.currentTimeMillis(), 6L, "luke@tatooine.com", "two", 1);
+        when(workshopAggregate.createEvent(first)).thenReturn(firstEvent);
+        when(workshopAggregate.createEvent(second)).thenReturn(secondEvent);
+        CompletableFuture<Long> firstAppended = CompletableFuture.completedFuture(0L);
+        CompletableFuture<Long> secondAppended = new CompletableFuture<>();
+        secondAppended.completeExceptionally(new IOException("Disk full"));
+        when(eventstore.appendAsync(Eventstore.workshopStream("one"), 0L, firstEvent)).thenReturn(firstAppended);
+        when(eventstore.appendAsync(Eventstore.workshopStream("two"), 0L, secondEvent)).thenReturn(secondAppended);
+        when(eventstore.awaitAppended(secondAppended)).thenThrow(new RuntimeException("Disk full"));
+
+        List<ParticipantActionResult> results = workshopController.partialCancelBatch(Arrays.asList(first, second));
+
+        assertThat(results.get(0).getStatus()).isEqualTo(ParticipantActionResult.Status.OK);
+        assertThat(results.get(1).getStatus()).isEqualTo(ParticipantActionResult.Status.ERROR);
+        assertThat(results.get(1).getErrormessage()).isEqualTo("Disk full");
+        verify(eventstore).awaitAppended(firstAppended);
+    }
+
     //TODO: Finne ut hvorfor i allverden denne testen feiler.. findAny og findFirst gir null og ikke en Optional??
     @Ignore
     @Test
@@ -300,7 +381,23 @@ public class WorkshopControllerTest {
         ConfirmEmailCommand value = confirmEmailCommandArgumentCaptor.getValue();
         assertThat(value.getReservationToken()).isEqualTo("Dribbledrobbletoken");
 
-        verify(eventstore).addEvent(emailConfirmedByUser);
+        verify(eventstore).append(anyString(), eq(0L), eq(emailConfirmedByUser));
+    }
+
+    @Test
+    public void shouldLockWorkshopsReservedWhileWaitingForTheLocks() throws Exception {
+        EmailConfirmedByUser emailConfirmedByUser = new EmailConfirmedByUser("dart@a.com",System.currentTimeMillis(),45L);
+        when(workshopAggregate.emailForReservationToken("Dribbledrobbletoken")).thenReturn("dart@a.com");
+        when(workshopAggregate.workshopsForEmail("dart@a.com"))
+                .thenReturn(new HashSet<>(Collections.singletonList("one")))
+                .thenReturn(new HashSet<>(Arrays.asList("one", "two")));
+        when(workshopAggregate.createEvent(any(ConfirmEmailCommand.class))).thenReturn(emailConfirmedByUser);
+
+        workshopController.confirmEmail("Dribbledrobbletoken");
+
+        // Looked up before and after locking, then again with the lock of the new workshop
+        verify(workshopAggregate, times(4)).workshopsForEmail("dart@a.com");
+        verify(eventstore).append(Eventstore.emailStream("dart@a.com"), 0L, emailConfirmedByUser);
     }
 
     @Test
@@ -0,0 +1,137 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.controller.SystemSetup;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.core.EventCursor;
+import no.java.moosehead.eventstore.core.Eventstore;
+import no.java.moosehead.eventstore.utils.AppendOnlyArray;
+import no.java.moosehead.eventstore.utils.FileHandler;
+import no.java.moosehead.eventstore.utils.TokenGenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AppendOnlyArrayTest {
+    private static final int READERS = 4;
+
+    @Before
+    public void setUp() throws Exception {
+        SystemSetup systemSetup = mock(SystemSetup.class);
+        when(systemSetup.revisionGenerator()).thenReturn(new TokenGenerator());
+        SystemSetup.setSetup(systemSetup);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SystemSetup.setSetup(null);
+    }
+
+    @Test
+    public void shouldGiveViewsThatDoNotChange() throws Exception {
+        AppendOnlyArray<Integer> array = new AppendOnlyArray<>();
+        for (int i = 0; i < 3000; i++) {
+            array.add(i);
+        }
+        List<Integer> view = array.view();
+        array.add(3000);
+
+        assertThat(view).hasSize(3000);
+        assertThat(array.size()).isEqualTo(3001);
+        assertThat(view.subList(1020, 1030)).containsExactly(1020, 1021, 1022, 1023, 1024, 1025, 1026, 1027, 1028, 1029);
+        assertThat(view.subList(1000, 2000).subList(24, 26)).containsExactly(1024, 1025);
+    }
+
+    @Test
+    public void shouldNeverShowReadersPartialState() throws Exception {
+        AppendOnlyArray<long[]> array = new AppendOnlyArray<>();
+        int elements = 200_000;
+        List<String> failures = runReaders(() -> {
+            List<long[]> view = array.view();
+            for (int i = 0; i < view.size(); i++) {
+                long[] element = view.get(i);
+                if (element == null || element[0] != i || element[1] != i * 31L) {
+                    return "Element " + i + " of " + view.size() + " is torn";
+                }
+            }
+            return null;
+        }, () -> {
+            for (long i = 0; i < elements; i++) {
+                array.add(new long[] {i, i * 31L});
+            }
+        });
+
+        assertThat(failures).isEmpty();
+        assertThat(array.size()).isEqualTo(elements);
+    }
+
+    @Test
+    public void shouldReadEventstoreWhileEventsAreAdded() throws Exception {
+        Eventstore eventstore = new Eventstore(new FileHandler());
+        List<AbstractEvent> events = SyntheticEvents.generate(20_000);
+        List<String> failures = runReaders(() -> {
+            List<AbstractEvent> view = eventstore.eventsView();
+            for (int i = 0; i < view.size(); i++) {
+                if (view.get(i) != events.get(i)) {
+                    return "Event " + i + " of " + view.size() + " is not the event added";
+                }
+            }
+            int read = 0;
+            try (EventCursor cursor = eventstore.openCursor()) {
+                while (cursor.hasNext()) {
+                    if (cursor.next() != events.get(read++)) {
+                        return "Cursor event " + (read - 1) + " is not the event added";
+                    }
+                }
+            }
+            return read < view.size() ? "Cursor saw fewer events than an earlier view" : null;
+        }, () -> events.forEach(eventstore::addEvent));
+
+        assertThat(failures).isEmpty();
+        assertThat(eventstore.eventsView()).hasSize(events.size());
+    }
+
+    private interface Check {
+        String failure();
+    }
+
+    /**
+     * Runs the check repeatedly on several threads while the writer runs
+     * @return the failures the readers found
+     */
+    private static List<String> runReaders(Check check, Runnable writer) throws Exception {
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            Thread reader = new Thread(() -> {
+                do {
+                    String failure = check.failure();
+                    if (failure != null) {
+                        failures.add(failure);
+                        return;
+                    }
+                } while (writing.get());
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        try {
+            writer.run();
+        } finally {
+            writing.set(false);
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        return new ArrayList<>(failures);
+    }
+}
@@ -0,0 +1,95 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.controller.SystemSetup;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.core.AsyncSubscription;
+import no.java.moosehead.eventstore.core.EventSubscription;
+import no.java.moosehead.eventstore.core.Eventstore;
+import no.java.moosehead.eventstore.system.SystemBootstrapDone;
+import no.java.moosehead.eventstore.utils.TokenGenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AsyncSubscriptionTest {
+    @Before
+    public void setUp() throws Exception {
+        SystemSetup systemSetup = mock(SystemSetup.class);
+        when(systemSetup.revisionGenerator()).thenReturn(new TokenGenerator());
+        SystemSetup.setSetup(systemSetup);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SystemSetup.setSetup(null);
+    }
+
+    @Test
+    public void shouldDeliverEventsInOrderThroughSmallBuffer() throws Exception {
+        List<Long> handled = Collections.synchronizedList(new ArrayList<>());
+        AsyncSubscription subscription = new AsyncSubscription(event -> handled.add(event.getRevisionId()), 4, "test-subscriber");
+
+        for (long revision = 1; revision <= 10000; revision++) {
+            subscription.eventAdded(new WorkshopAddedBySystem(revision, revision, "W" + revision, 10));
+        }
+
+        assertThat(subscription.awaitRevision(10000, 10, TimeUnit.SECONDS)).isTrue();
+        assertThat(handled).hasSize(10000);
+        for (int i = 0; i < handled.size(); i++) {
+            assertThat(handled.get(i)).isEqualTo(i + 1L);
+        }
+        assertThat(subscription.lag()).isEqualTo(0);
+        subscription.close();
+    }
+
+    @Test
+    public void shouldReportLagWhileSubscriberIsBusy() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AsyncSubscription subscription = new AsyncSubscription(event -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }, 16, "test-subscriber");
+
+        subscription.eventAdded(new WorkshopAddedBySystem(1L, 1L, "W1", 10));
+        subscription.eventAdded(new WorkshopAddedBySystem(2L, 5L, "W2", 10));
+
+        assertThat(subscription.lag()).isEqualTo(5);
+        assertThat(subscription.awaitRevision(5, 50, TimeUnit.MILLISECONDS)).isFalse();
+        release.countDown();
+        assertThat(subscription.awaitRevision(5, 10, TimeUnit.SECONDS)).isTrue();
+        assertThat(subscription.lag()).isEqualTo(0);
+        subscription.close();
+    }
+
+    @Test
+    public void shouldWaitForAsyncSubscribersAfterPlayback() throws Exception {
+        Eventstore eventstore = new Eventstore();
+        List<AbstractEvent> events = SyntheticEvents.generate(2000);
+        for (AbstractEvent event : events) {
+            eventstore.addEvent(event);
+        }
+        List<AbstractEvent> handled = new ArrayList<>();
+        EventSubscription subscriber = handled::add;
+        eventstore.addAsyncEventSubscriber(subscriber, 64);
+
+        eventstore.playbackEventsToSubscribers();
+
+        assertThat(handled).hasSize(events.size() + 1);
+        assertThat(handled.get(handled.size() - 1)).isInstanceOf(SystemBootstrapDone.class);
+        assertThat(eventstore.lag(subscriber)).isEqualTo(0);
+        assertThat(eventstore.awaitSubscriber(subscriber, handled.get(handled.size() - 1).getRevisionId(), 0)).isTrue();
+    }
+}
@@ -0,0 +1,160 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.commands.WorkshopTypeEnum;
+import no.java.moosehead.controller.SystemSetup;
+import no.java.moosehead.domain.WorkshopReservation;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.core.Eventstore;
+import no.java.moosehead.eventstore.tools.ConvertEventLog;
+import no.java.moosehead.eventstore.utils.*;
+import no.java.moosehead.repository.WorkshopData;
+import org.jsonbuddy.JsonFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BinaryEventCodecTest {
+    private final List<File> files = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        SystemSetup systemSetup = mock(SystemSetup.class);
+        when(systemSetup.revisionGenerator()).thenReturn(new TokenGenerator());
+        SystemSetup.setSetup(systemSetup);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        files.forEach(File::delete);
+        SystemSetup.setSetup(null);
+    }
+
+    @Test
+    public void shouldRoundTripReservationsWithOptionalsAndJson() throws Exception {
+        BinaryEventCodec codec = new BinaryEventCodec();
+        ReservationAddedByUser event = new ReservationAddedByUser(WorkshopReservation.builder()
+                .setSystemTimeInMillis(1L)
+                .setRevisionId(42L)
+                .setEmail("a@a.com")
+                .setFullname("Darth Vader")
+                .setWorkshopId("xx")
+                .setGoogleUserEmail(Optional.of("a@a.com"))
+                .setNumberOfSeatsReserved(2)
+                .setAdditionalInfo(JsonFactory.jsonObject().put("shirts", JsonFactory.jsonArray().add(JsonFactory.jsonObject().put("size", "small"))))
+                .create());
+
+        ReservationAddedByUser copy = (ReservationAddedByUser) new BinaryEventCodec().decode(ByteBuffer.wrap(codec.encode(event)));
+
+        assertThat(copy.getRevisionId()).isEqualTo(42L);
+        assertThat(copy.getEmail()).isEqualTo("a@a.com");
+        assertThat(copy.getFullname()).isEqualTo("Darth Vader");
+        assertThat(copy.getNumberOfSeatsReserved()).isEqualTo(2);
+        assertThat(copy.getGoogleUserEmail()).contains("a@a.com");
+        assertThat(copy.getAdditionalInfo().requiredArray("shirts").objectStream().findAny().get().requiredString("size")).isEqualTo("small");
+    }
+
+    @Test
+    public void shouldRoundTripWorkshopDataWithEnumsAndInstants() throws Exception {
+        BinaryEventCodec codec = new BinaryEventCodec();
+        Instant start = Instant.parse("2015-09-08T09:00:00.123Z");
+        WorkshopData workshopData = new WorkshopData("id", "title", "description; with <special> chars & more", start, start.plusSeconds(3600), Optional.empty(), WorkshopTypeEnum.KIDSAKODER_WORKSHOP);
+        WorkshopAddedByAdmin event = new WorkshopAddedByAdmin(1L, 1L, "id", 30, start, null, workshopData);
+
+        WorkshopAddedByAdmin copy = (WorkshopAddedByAdmin) new BinaryEventCodec().decode(ByteBuffer.wrap(codec.encode(event)));
+
+        assertThat(copy.getWorkshopData().get().getWorkshopTypeEnum()).isEqualTo(WorkshopTypeEnum.KIDSAKODER_WORKSHOP);
+        assertThat(copy.getWorkshopData().get().getDescription()).isEqualTo("description; with <special> chars & more");
+        assertThat(copy.getWorkshopData().get().getStartTime()).isEqualTo(start);
+        assertThat(copy.getStartTime()).isEqualTo(start);
+        assertThat(copy.getEndTime()).isNull();
+    }
+
+    @Test
+    public void shouldOnlyDefineDictionaryEntriesOnce() throws Exception {
+        BinaryEventCodec codec = new BinaryEventCodec();
+        byte[] first = codec.encode(new ReservationCancelledByUser(1L, 1L, "a@a.com", "workshop_one", 1));
+        byte[] second = codec.encode(new ReservationCancelledByUser(2L, 2L, "a@a.com", "workshop_one", 1));
+
+        assertThat(second.length).isLessThan(first.length / 2);
+        BinaryEventCodec reader = new BinaryEventCodec();
+        reader.decode(ByteBuffer.wrap(first));
+        ReservationCancelledByUser copy = (ReservationCancelledByUser) reader.decode(ByteBuffer.wrap(second));
+        assertThat(copy.getEmail()).isEqualTo("a@a.com");
+        assertThat(copy.getWorkshopId()).isEqualTo("workshop_one");
+    }
+
+    @Test
+    public void shouldConvertTextLogToSmallerBinaryLog() throws Exception {
+        File textFile = tempFile();
+        Eventstore textStore = new Eventstore(new FileHandler(textFile.getPath()));
+        addEvents(textStore);
+
+        File binaryFile = tempFile();
+        binaryFile.delete();
+        int converted = ConvertEventLog.convert(new FileHandler(textFile.getPath()), new FileHandler(binaryFile.getPath(), DurabilityMode.OS_BUFFERED, 0, LogFormat.BINARY));
+
+        assertThat(converted).isEqualTo(textStore.numberOfEvents());
+        assertThat(binaryFile.length()).isLessThan(textFile.length() / 2);
+        FileHandler binaryLog = new FileHandler(binaryFile.getPath());
+        assertThat(binaryLog.format()).isEqualTo(LogFormat.BINARY);
+        Eventstore binaryStore = new Eventstore(binaryLog);
+        List<AbstractEvent> original = textStore.getEventstorageCopy();
+        List<AbstractEvent> copy = binaryStore.getEventstorageCopy();
+        assertThat(copy).hasSize(original.size());
+        for (int i = 0; i < original.size(); i++) {
+            assertThat(copy.get(i).getClass()).isEqualTo(original.get(i).getClass());
+            assertThat(copy.get(i).getRevisionId()).isEqualTo(original.get(i).getRevisionId());
+        }
+        assertThat(binaryStore.numberOfWorkshops()).isEqualTo(10);
+    }
+
+    @Test
+    public void shouldAppendToExistingBinaryLog() throws Exception {
+        File file = tempFile();
+        Eventstore eventstore = new Eventstore(new FileHandler(file.getPath(), DurabilityMode.OS_BUFFERED, 0, LogFormat.BINARY));
+        eventstore.addEvent(new EmailConfirmedByUser("a@a.com", 1L, 1L));
+
+        Eventstore reopened = new Eventstore(new FileHandler(file.getPath(), DurabilityMode.OS_BUFFERED, 0, LogFormat.TEXT));
+        reopened.addEvent(new EmailConfirmedByUser("a@a.com", 2L, 2L));
+        reopened.addEvent(new EmailConfirmedByUser("b@a.com", 3L, 3L));
+
+        List<AbstractEvent> events = new Eventstore(new FileHandler(file.getPath())).getEventstorageCopy();
+        assertThat(events).hasSize(3);
+        assertThat(((EmailConfirmedByUser) events.get(2)).getEmail()).isEqualTo("b@a.com");
+    }
+
+    private void addEvents(Eventstore eventstore) {
+        long revision = 1;
+        for (int i = 0; i < 10; i++) {
+            eventstore.addEvent(new WorkshopAddedBySystem(System.currentTimeMillis(), revision++, "workshop_" + i, 30));
+        }
+        for (int i = 0; i < 100; i++) {
+            String email = "participant" + (i % 20) + "@example.com";
+            eventstore.addEvent(new ReservationAddedByUser(WorkshopReservation.builder()
+                    .setSystemTimeInMillis(System.currentTimeMillis())
+                    .setRevisionId(revision++)
+                    .setEmail(email)
+                    .setFullname("Participant " + (i % 20))
+                    .setWorkshopId("workshop_" + (i % 10))
+                    .create()));
+            eventstore.addEvent(new EmailConfirmedByUser(email, System.currentTimeMillis(), revision++));
+        }
+    }
+
+    private File tempFile() throws Exception {
+        File file = File.createTempFile("binarycodec", null);
+        files.add(file);
+        return file;
+    }
+}
@@ -0,0 +1,114 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.controller.SystemSetup;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.core.EventCursor;
+import no.java.moosehead.eventstore.core.Eventstore;
+import no.java.moosehead.eventstore.system.SystemBootstrapDone;
+import no.java.moosehead.eventstore.utils.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BoundedEventstoreTest {
+    private File file;
+    private List<AbstractEvent> events = SyntheticEvents.generate(3000);
+
+    @Before
+    public void setUp() throws Exception {
+        SystemSetup systemSetup = mock(SystemSetup.class);
+        when(systemSetup.revisionGenerator()).thenReturn(new TokenGenerator());
+        SystemSetup.setSetup(systemSetup);
+        file = File.createTempFile("bounded", null);
+        file.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+        SystemSetup.setSetup(null);
+    }
+
+    @Test
+    public void shouldPlaybackTextLogFromDisk() throws Exception {
+        assertPlaysBackFromDisk(LogFormat.TEXT);
+    }
+
+    @Test
+    public void shouldPlaybackBinaryLogFromDisk() throws Exception {
+        assertPlaysBackFromDisk(LogFormat.BINARY);
+    }
+
+    @Test
+    public void shouldStreamAppendedEventsFromCursor() throws Exception {
+        writeLog(LogFormat.BINARY);
+        FileHandler log = new FileHandler(file.getPath());
+        try {
+            Eventstore eventstore = new Eventstore(log, 2, false);
+            eventstore.playbackEventsToSubscribers();
+            EventCursor before = eventstore.openCursor();
+            eventstore.addEvent(new WorkshopAddedBySystem(1L, 5000L, "late", 10));
+            EventCursor after = eventstore.openCursor();
+
+            assertThat(revisions(before)).hasSize(events.size());
+            List<Long> revisions = revisions(after);
+            assertThat(revisions).hasSize(events.size() + 1);
+            assertThat(revisions.get(events.size())).isEqualTo(5000L);
+            assertThat(eventstore.numberOfWorkshops()).isEqualTo(SyntheticEvents.WORKSHOPS - SyntheticEvents.WORKSHOPS / 5 + 1);
+        } finally {
+            log.close();
+        }
+    }
+
+    private void assertPlaysBackFromDisk(LogFormat format) {
+        writeLog(format);
+        List<Long> inMemory = playback(true);
+        List<Long> fromDisk = playback(false);
+
+        assertThat(fromDisk).isEqualTo(inMemory);
+        assertThat(fromDisk).hasSize(events.size() + 1);
+    }
+
+    private List<Long> playback(boolean keepEventsInMemory) {
+        FileHandler log = new FileHandler(file.getPath());
+        try {
+            Eventstore eventstore = new Eventstore(log, 2, keepEventsInMemory);
+            assertThat(eventstore.numberOfEvents()).isEqualTo(events.size());
+            assertThat(eventstore.numberOfWorkshops()).isEqualTo(SyntheticEvents.WORKSHOPS - SyntheticEvents.WORKSHOPS / 5);
+            List<Long> revisions = new ArrayList<>();
+            eventstore.addEventSubscriber(event -> revisions.add(event instanceof SystemBootstrapDone ? -1L : event.getRevisionId()));
+            eventstore.playbackEventsToSubscribers();
+            return revisions;
+        } finally {
+            log.close();
+        }
+    }
+
+    private void writeLog(LogFormat format) {
+        FileHandler log = new FileHandler(file.getPath(), DurabilityMode.OS_BUFFERED, 0, format);
+        EventCodec codec = format.newCodec();
+        log.openForAppend();
+        for (AbstractEvent event : events) {
+            log.append(codec.encode(event));
+        }
+        log.close();
+    }
+
+    private static List<Long> revisions(EventCursor cursor) {
+        List<Long> revisions = new ArrayList<>();
+        try {
+            cursor.forEachRemaining(event -> revisions.add(event.getRevisionId()));
+        } finally {
+            cursor.close();
+        }
+        return revisions;
+    }
+}
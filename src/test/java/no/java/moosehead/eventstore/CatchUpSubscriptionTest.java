@@ -0,0 +1,167 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.controller.SystemSetup;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.core.CatchUpSubscription;
+import no.java.moosehead.eventstore.core.CheckpointStore;
+import no.java.moosehead.eventstore.core.Eventstore;
+import no.java.moosehead.eventstore.system.SystemBootstrapDone;
+import no.java.moosehead.eventstore.utils.DurabilityMode;
+import no.java.moosehead.eventstore.utils.EventCodec;
+import no.java.moosehead.eventstore.utils.FileHandler;
+import no.java.moosehead.eventstore.utils.LogFormat;
+import no.java.moosehead.eventstore.utils.TokenGenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CatchUpSubscriptionTest {
+    private final List<AbstractEvent> events = SyntheticEvents.generate(2000);
+    private File file;
+    private File checkpoints;
+
+    @Before
+    public void setUp() throws Exception {
+        SystemSetup systemSetup = mock(SystemSetup.class);
+        when(systemSetup.revisionGenerator()).thenReturn(new TokenGenerator());
+        SystemSetup.setSetup(systemSetup);
+        file = File.createTempFile("catchup", null);
+        file.delete();
+        checkpoints = Files.createTempDirectory("checkpoints").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+        File[] files = checkpoints.listFiles();
+        if (files != null) {
+            for (File checkpoint : files) {
+                checkpoint.delete();
+            }
+        }
+        checkpoints.delete();
+        SystemSetup.setSetup(null);
+    }
+
+    @Test
+    public void shouldSwitchToLiveEventsWithoutGapsOrDuplicates() throws Exception {
+        Eventstore eventstore = new Eventstore();
+        for (AbstractEvent event : events) {
+            eventstore.addEvent(event);
+        }
+        eventstore.playbackEventsToSubscribers();
+        List<Long> handled = Collections.synchronizedList(new ArrayList<>());
+
+        Thread writer = new Thread(() -> {
+            for (long revision = 10001; revision <= 12000; revision++) {
+                eventstore.addEvent(new WorkshopAddedBySystem(revision, revision, "W" + revision, 10));
+            }
+        });
+        writer.start();
+        CatchUpSubscription subscription = eventstore.subscribeFrom(event -> handled.add(event.getRevisionId()), 100, 16);
+        writer.join();
+
+        assertThat(subscription.awaitCaughtUp(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(subscription.isLive()).isTrue();
+        List<Long> stored = new ArrayList<>();
+        for (AbstractEvent event : eventstore.getEventstorageCopy()) {
+            if (!(event instanceof SystemBootstrapDone)) {
+                stored.add(event.getRevisionId());
+            }
+        }
+        assertThat(handled).isEqualTo(stored.subList(100, stored.size()));
+        assertThat(subscription.position()).isEqualTo(stored.size());
+        subscription.close();
+    }
+
+    @Test
+    public void shouldReadFromTheLogInsteadOfHoldingUpAppendsWhenFallingBehind() throws Exception {
+        Eventstore eventstore = new Eventstore();
+        eventstore.playbackEventsToSubscribers();
+        List<Long> handled = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = new CountDownLatch(1);
+        CatchUpSubscription subscription = eventstore.subscribeFrom(event -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            handled.add(event.getRevisionId());
+        }, 0, 4);
+        assertThat(subscription.awaitLive(10, TimeUnit.SECONDS)).isTrue();
+
+        Thread writer = new Thread(() -> events.forEach(eventstore::addEvent));
+        writer.setDaemon(true);
+        writer.start();
+        writer.join(5_000);
+        assertThat(writer.isAlive()).isFalse();
+
+        release.countDown();
+        assertThat(subscription.awaitCaughtUp(10, TimeUnit.SECONDS)).isTrue();
+        List<Long> expected = new ArrayList<>();
+        for (AbstractEvent event : events) {
+            expected.add(event.getRevisionId());
+        }
+        assertThat(handled).isEqualTo(expected);
+        assertThat(subscription.position()).isEqualTo(events.size());
+        subscription.close();
+    }
+
+    @Test
+    public void shouldResumeFromCheckpointAfterRestart() throws Exception {
+        writeLog();
+        CheckpointStore checkpointStore = new CheckpointStore(checkpoints.getPath());
+
+        List<AbstractEvent> first = new ArrayList<>();
+        FileHandler log = new FileHandler(file.getPath());
+        try {
+            Eventstore eventstore = new Eventstore(log, 2, false);
+            eventstore.playbackEventsToSubscribers();
+            CatchUpSubscription subscription = eventstore.subscribe("report", first::add, checkpointStore, 500, 64);
+            assertThat(subscription.awaitCaughtUp(10, TimeUnit.SECONDS)).isTrue();
+            subscription.close();
+        } finally {
+            log.close();
+        }
+        assertThat(first).hasSize(events.size());
+        assertThat(checkpointStore.read("report")).isEqualTo(events.size());
+
+        List<AbstractEvent> second = new ArrayList<>();
+        log = new FileHandler(file.getPath());
+        try {
+            Eventstore eventstore = new Eventstore(log, 2, false);
+            eventstore.playbackEventsToSubscribers();
+            CatchUpSubscription subscription = eventstore.subscribe("report", second::add, checkpointStore, 500, 64);
+            eventstore.addEvent(new WorkshopAddedBySystem(1L, 5000L, "late", 10));
+            assertThat(subscription.awaitCaughtUp(10, TimeUnit.SECONDS)).isTrue();
+            subscription.close();
+        } finally {
+            log.close();
+        }
+        assertThat(second).hasSize(1);
+        assertThat(second.get(0).getRevisionId()).isEqualTo(5000L);
+        assertThat(checkpointStore.read("report")).isEqualTo(events.size() + 1);
+    }
+
+    private void writeLog() {
+        FileHandler log = new FileHandler(file.getPath(), DurabilityMode.OS_BUFFERED, 0, LogFormat.BINARY);
+        EventCodec codec = LogFormat.BINARY.newCodec();
+        log.openForAppend();
+        for (AbstractEvent event : events) {
+            log.append(codec.encode(event));
+        }
+        log.close();
+    }
+}
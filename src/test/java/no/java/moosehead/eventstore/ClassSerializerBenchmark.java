@@ -0,0 +1,45 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.utils.ClassSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures encode and decode cost per event of the text format.
+ * Run the main method with an optional number of reservations (default 100000).
+ */
+public class ClassSerializerBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int reservations = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        List<AbstractEvent> events = SyntheticEvents.generate(reservations);
+        ClassSerializer classSerializer = new ClassSerializer();
+        List<String> encoded = new ArrayList<>(events.size());
+        for (AbstractEvent event : events) {
+            encoded.add(classSerializer.asString(event));
+        }
+        System.out.println("Events: " + events.size());
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            long length = 0;
+            for (AbstractEvent event : events) {
+                length += classSerializer.asString(event).length();
+            }
+            long encodeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long revisions = 0;
+            for (String line : encoded) {
+                revisions += classSerializer.asObject(line).getRevisionId();
+            }
+            long decodeNanos = System.nanoTime() - start;
+
+            System.out.println(String.format("Round %d: encode %,d ns/event, decode %,d ns/event (%d chars, checksum %d)",
+                    round, encodeNanos / events.size(), decodeNanos / events.size(), length, revisions));
+        }
+    }
+}
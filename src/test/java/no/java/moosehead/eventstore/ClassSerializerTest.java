@@ -3,10 +3,16 @@ package no.java.moosehead.eventstore;
 import no.java.moosehead.commands.WorkshopTypeEnum;
 import no.java.moosehead.domain.WorkshopReservation;
 import no.java.moosehead.eventstore.utils.ClassSerializer;
+import no.java.moosehead.eventstore.utils.StringInterner;
 import no.java.moosehead.repository.WorkshopData;
 import org.jsonbuddy.JsonFactory;
 import org.junit.*;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -76,4 +82,73 @@ public class ClassSerializerTest {
         assertThat(copy.getAdditionalInfo().requiredArray("shirts").objectStream().findAny().get().requiredString("size")).isEqualTo("small");
 
     }
+
+    @Test
+    public void shouldEscapeSpecialCharactersAndKeepPlainValuesAsIs() throws Exception {
+        ClassSerializer classSerializer = new ClassSerializer();
+        WorkshopData workshopData = new WorkshopData("plain_id", "title", "a<b>;c=d&e", null, null, Optional.empty(), WorkshopTypeEnum.NORMAL_WORKSHOP);
+        WorkshopAddedByAdmin workshopAddedByAdmin = new WorkshopAddedByAdmin(1L, 1L, "plain_id", 30, null, null, workshopData);
+
+        String asString = classSerializer.asString(workshopAddedByAdmin);
+        WorkshopAddedByAdmin copy = (WorkshopAddedByAdmin) new ClassSerializer().asObject(asString);
+
+        assertThat(asString).contains("description=a&ltb&gt&semic&eqd&ampe").contains("workshopId=plain_id");
+        assertThat(copy.getWorkshopData().get().getDescription()).isEqualTo("a<b>;c=d&e");
+        assertThat(copy.getWorkshopId()).isEqualTo("plain_id");
+    }
+
+    @Test
+    public void shouldShareWorkshopIdsAndEmailsBetweenDecodedEvents() throws Exception {
+        ClassSerializer classSerializer = new ClassSerializer(new StringInterner(64));
+        ReservationAddedByUser first = (ReservationAddedByUser) classSerializer.asObject(classSerializer.asString(reservation("Darth Vader")));
+        ReservationAddedByUser second = (ReservationAddedByUser) classSerializer.asObject(classSerializer.asString(reservation("Luke Skywalker")));
+
+        assertThat(second.getWorkshopId()).isSameAs(first.getWorkshopId());
+        assertThat(second.getEmail()).isSameAs(first.getEmail());
+        assertThat(second.getGoogleUserEmail().get()).isSameAs(first.getGoogleUserEmail().get());
+        assertThat(second.getFullname()).isEqualTo("Luke Skywalker");
+
+        ClassSerializer withoutInterning = new ClassSerializer(null);
+        ReservationAddedByUser copy = (ReservationAddedByUser) withoutInterning.asObject(withoutInterning.asString(reservation("Darth Vader")));
+        assertThat(copy.getWorkshopId()).isEqualTo(first.getWorkshopId()).isNotSameAs(first.getWorkshopId());
+    }
+
+    private static ReservationAddedByUser reservation(String fullname) {
+        return new ReservationAddedByUser(WorkshopReservation.builder()
+                .setSystemTimeInMillis(1L)
+                .setRevisionId(1L)
+                .setEmail("a@a.com")
+                .setFullname(fullname)
+                .setWorkshopId("xx")
+                .setGoogleUserEmail(Optional.of("a@a.com"))
+                .setNumberOfSeatsReserved(1)
+                .create());
+    }
+
+    @Test
+    public void shouldDecodeGoldenLogToTheSameObjectsAsBefore() throws Exception {
+        List<String> lines = Files.readAllLines(Paths.get("src/test/resources/golden/text-events.txt"), StandardCharsets.UTF_8);
+        List<String> dumps = Files.readAllLines(Paths.get("src/test/resources/golden/text-events.dump"), StandardCharsets.UTF_8);
+        assertThat(lines).hasSize(dumps.size());
+
+        ClassSerializer classSerializer = new ClassSerializer(null);
+        for (int i = 0; i < lines.size(); i++) {
+            assertThat(EventDump.dump(classSerializer.asObject(lines.get(i)))).isEqualTo(dumps.get(i));
+            ByteBuffer record = ByteBuffer.wrap(lines.get(i).getBytes(StandardCharsets.UTF_8));
+            assertThat(EventDump.dump(classSerializer.decode(record))).isEqualTo(dumps.get(i));
+            assertThat(classSerializer.asString(classSerializer.asObject(lines.get(i)))).isEqualTo(lines.get(i));
+        }
+    }
+
+    @Test
+    public void shouldKeepTextThatLooksLikeAnEscape() throws Exception {
+        ClassSerializer classSerializer = new ClassSerializer();
+        WorkshopData workshopData = new WorkshopData("id", "&semi &amp &lt", "&", null, null, Optional.empty(), WorkshopTypeEnum.NORMAL_WORKSHOP);
+        WorkshopAddedByAdmin workshopAddedByAdmin = new WorkshopAddedByAdmin(1L, 1L, "id", 30, null, null, workshopData);
+
+        WorkshopAddedByAdmin copy = (WorkshopAddedByAdmin) classSerializer.asObject(classSerializer.asString(workshopAddedByAdmin));
+
+        assertThat(copy.getWorkshopData().get().getTitle()).isEqualTo("&semi &amp &lt");
+        assertThat(copy.getWorkshopData().get().getDescription()).isEqualTo("&");
+    }
 }
@@ -0,0 +1,158 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.controller.SystemSetup;
+import no.java.moosehead.domain.WorkshopReservation;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.tools.CompactEventLog;
+import no.java.moosehead.eventstore.utils.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CompactEventLogTest {
+    private File directory;
+    private long revision = 1;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("compaction").toFile();
+        SystemSetup systemSetup = mock(SystemSetup.class);
+        when(systemSetup.revisionGenerator()).thenReturn(new TokenGenerator());
+        SystemSetup.setSetup(systemSetup);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+        SystemSetup.setSetup(null);
+    }
+
+    @Test
+    public void shouldReplayCompactedLogToTheSameState() throws Exception {
+        List<AbstractEvent> events = conference(3000);
+        File source = new File(directory, "events.log");
+        source.createNewFile();
+        FileHandler log = new FileHandler(source.getPath(), DurabilityMode.OS_BUFFERED, 0, LogFormat.BINARY);
+        log.openForAppend();
+        EventCodec codec = log.format().newCodec();
+        for (AbstractEvent event : events) {
+            log.append(codec.encode(event));
+        }
+        log.close();
+        File target = new File(directory, "compacted.log");
+
+        CompactEventLog.main(new String[] {source.getPath(), target.getPath(), "CHECKSUMMED"});
+
+        List<AbstractEvent> compacted = CompactEventLog.readAll(new FileHandler(target.getPath()));
+        assertThat(compacted.size()).isLessThan(events.size() * 3 / 4);
+        assertThat(compacted).extracting(AbstractEvent::getRevisionId).isSorted();
+        assertThat(CompactEventLog.replayedState(compacted)).isEqualTo(CompactEventLog.replayedState(events));
+    }
+
+    @Test
+    public void shouldKeepCancelledReservationThatMovedTheWaitingList() throws Exception {
+        List<AbstractEvent> events = new ArrayList<>();
+        events.add(new WorkshopAddedBySystem(1L, revision++, "small", 3));
+        reserve(events, "a@example.com", "small", 2);
+        reserve(events, "b@example.com", "small", 2);
+        events.add(new ReservationPartallyCancelled(1L, revision++, "b@example.com", "small", 1));
+        reserve(events, "c@example.com", "small", 1);
+        events.add(new ReservationCancelledByUser(1L, revision++, "c@example.com", "small", 1));
+
+        assertThat(CompactEventLog.compact(events)).isEqualTo(events);
+
+        events.set(0, new WorkshopAddedBySystem(1L, 1L, "small", 10));
+        assertThat(CompactEventLog.compact(events)).hasSize(events.size() - 2);
+        assertThat(CompactEventLog.replayedState(CompactEventLog.compact(events))).isEqualTo(CompactEventLog.replayedState(events));
+    }
+
+    @Test
+    public void shouldKeepCancelledReservationWithUsableConfirmationLink() throws Exception {
+        List<AbstractEvent> events = new ArrayList<>();
+        events.add(new WorkshopAddedBySystem(1L, revision++, "workshop", 10));
+        events.add(new ReservationAddedByUser(reservation("unconfirmed@example.com", "workshop", 1)));
+        events.add(new ReservationCancelledByUser(1L, revision++, "unconfirmed@example.com", "workshop", 1));
+        events.add(new ReservationAddedByAdmin(reservation("admin@example.com", "workshop", 1)));
+        events.add(new ReservationCancelledByAdmin(1L, revision++, "admin@example.com", "workshop", 1));
+
+        assertThat(CompactEventLog.compact(events)).containsExactlyElementsOf(events.subList(0, 3));
+    }
+
+    private void reserve(List<AbstractEvent> events, String email, String workshopId, int seats) {
+        events.add(new ReservationAddedByUser(reservation(email, workshopId, seats)));
+        events.add(new EmailConfirmedByUser(email, 1L, revision++));
+    }
+
+    private WorkshopReservation reservation(String email, String workshopId, int seats) {
+        return WorkshopReservation.builder()
+                .setSystemTimeInMillis(1L)
+                .setRevisionId(revision++)
+                .setEmail(email)
+                .setFullname(email)
+                .setWorkshopId(workshopId)
+                .setNumberOfSeatsReserved(seats)
+                .create();
+    }
+
+    /**
+     * Reservations that are confirmed, cancelled and partially cancelled in workshops that get full
+     */
+    private List<AbstractEvent> conference(int reservations) {
+        Random random = new Random(7);
+        List<AbstractEvent> events = new ArrayList<>();
+        long time = 1_400_000_000_000L;
+        for (int i = 0; i < 10; i++) {
+            events.add(new WorkshopAddedBySystem(time++, revision++, SyntheticEvents.workshopId(i), 20));
+        }
+        Map<String, Integer> reserved = new HashMap<>();
+        Set<String> byAdmin = new HashSet<>();
+        Set<String> confirmed = new HashSet<>();
+        for (int i = 0; i < reservations; i++) {
+            String email = SyntheticEvents.email(random.nextInt(reservations / 30));
+            String workshopId = SyntheticEvents.workshopId(random.nextInt(10));
+            String key = email + "/" + workshopId;
+            Integer seats = reserved.get(key);
+            if (seats == null) {
+                WorkshopReservation reservation = WorkshopReservation.builder()
+                        .setSystemTimeInMillis(time++)
+                        .setRevisionId(revision++)
+                        .setEmail(email)
+                        .setFullname("Participant " + i)
+                        .setWorkshopId(workshopId)
+                        .setNumberOfSeatsReserved(1 + random.nextInt(2))
+                        .create();
+                if (i % 15 == 0) {
+                    events.add(new ReservationAddedByAdmin(reservation));
+                    byAdmin.add(key);
+                } else {
+                    events.add(new ReservationAddedByUser(reservation));
+                }
+                reserved.put(key, reservation.getNumberOfSeatsReserved());
+            } else if (byAdmin.remove(key)) {
+                events.add(new ReservationCancelledByAdmin(time++, revision++, email, workshopId, seats));
+                reserved.remove(key);
+            } else if (seats > 1 && random.nextBoolean()) {
+                events.add(new ReservationPartallyCancelled(time++, revision++, email, workshopId, 1));
+                reserved.put(key, seats - 1);
+            } else {
+                events.add(new ReservationCancelledByUser(time++, revision++, email, workshopId, seats));
+                reserved.remove(key);
+            }
+            if (random.nextInt(3) == 0 && confirmed.add(email)) {
+                events.add(new EmailConfirmedByUser(email, time++, revision++));
+            }
+        }
+        return events;
+    }
+}
@@ -0,0 +1,131 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.aggregate.WorkshopAggregate;
+import no.java.moosehead.commands.AddReservationCommand;
+import no.java.moosehead.commands.AddWorkshopCommand;
+import no.java.moosehead.commands.AuthorEnum;
+import no.java.moosehead.controller.CommandPartitions;
+import no.java.moosehead.controller.SystemSetup;
+import no.java.moosehead.domain.WorkshopReservation;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.core.ConcurrencyConflictException;
+import no.java.moosehead.eventstore.core.Eventstore;
+import no.java.moosehead.eventstore.utils.DurabilityMode;
+import no.java.moosehead.eventstore.utils.FileHandler;
+import no.java.moosehead.eventstore.utils.TokenGenerator;
+import no.java.moosehead.web.Configuration;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures reservations per second from several threads against a group committed log, with every command
+ * under one global lock like before, with per workshop stream appends that only retry on conflicts, and with
+ * the appends run holding the lock of the command partition of the workshop.
+ * Run the main method with an optional number of reservations per round (default 4000) and number of workshops (default 16).
+ */
+public class ConcurrentAppendBenchmark {
+    private static final int[] THREADS = {1, 2, 4, 8, 16};
+
+    private enum Mode {
+        GLOBAL_LOCK, STREAM_APPEND, PARTITIONED
+    }
+
+    public static void main(String[] args) throws Exception {
+        int reservations = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int workshops = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        SystemSetup systemSetup = mock(SystemSetup.class);
+        when(systemSetup.revisionGenerator()).thenReturn(new TokenGenerator());
+        SystemSetup.setSetup(systemSetup);
+        Configuration.setConfdata(new HashMap<>());
+        System.out.println("Cores: " + Runtime.getRuntime().availableProcessors());
+
+        for (Mode mode : Mode.values()) {
+            for (int threads : THREADS) {
+                run(reservations, workshops, threads, mode);
+            }
+        }
+    }
+
+    private static void run(int reservations, int workshops, int threads, Mode mode) throws Exception {
+        File file = File.createTempFile("concurrent", ".log");
+        FileHandler fileHandler = new FileHandler(file.getPath(), DurabilityMode.FSYNC_GROUP, 2);
+        CommandPartitions commandPartitions = new CommandPartitions(threads);
+        try {
+            Eventstore eventstore = new Eventstore(fileHandler);
+            WorkshopAggregate workshopAggregate = new WorkshopAggregate();
+            eventstore.addEventSubscriber(workshopAggregate);
+            for (int i = 0; i < workshops; i++) {
+                AddWorkshopCommand command = AddWorkshopCommand.builder()
+                        .withWorkshopId(SyntheticEvents.workshopId(i))
+                        .withNumberOfSeats(30)
+                        .withAuthor(AuthorEnum.SYSTEM)
+                        .create();
+                eventstore.addEvent(workshopAggregate.createEvent(command));
+            }
+            AtomicLong next = new AtomicLong();
+            AtomicLong conflicts = new AtomicLong();
+            CountDownLatch done = new CountDownLatch(threads);
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                new Thread(() -> {
+                    long i;
+                    while ((i = next.getAndIncrement()) < reservations) {
+                        String workshopId = SyntheticEvents.workshopId((int) (i % workshops));
+                        AddReservationCommand command = new AddReservationCommand(WorkshopReservation.builder()
+                                .setEmail(SyntheticEvents.email((int) i))
+                                .setFullname("Participant " + i)
+                                .setWorkshopId(workshopId)
+                                .setNumberOfSeatsReserved(1)
+                                .create(), AuthorEnum.ADMIN);
+                        String streamId = Eventstore.workshopStream(workshopId);
+                        switch (mode) {
+                            case GLOBAL_LOCK:
+                                synchronized (workshopAggregate) {
+                                    eventstore.addEvent(workshopAggregate.createEvent(command));
+                                }
+                                break;
+                            case STREAM_APPEND:
+                                append(eventstore, streamId, () -> workshopAggregate.createEvent(command), conflicts);
+                                break;
+                            case PARTITIONED:
+                                commandPartitions.execute(streamId, () -> {
+                                    append(eventstore, streamId, () -> workshopAggregate.createEvent(command), conflicts);
+                                    return null;
+                                });
+                                break;
+                        }
+                    }
+                    done.countDown();
+                }).start();
+            }
+            done.await();
+            long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+            System.out.println(String.format("%s, %2d threads: %,d reservations in %,d ms (%,d/s), %d conflicts",
+                    mode, threads, reservations, millis, reservations * 1000L / millis, conflicts.get()));
+        } finally {
+            fileHandler.close();
+            file.delete();
+            new File(file.getPath() + ".idx").delete();
+        }
+    }
+
+    private static void append(Eventstore eventstore, String streamId, Supplier<AbstractEvent> createEvent, AtomicLong conflicts) {
+        while (true) {
+            long version = eventstore.streamVersion(streamId);
+            AbstractEvent event = createEvent.get();
+            try {
+                eventstore.append(streamId, version, event);
+                return;
+            } catch (ConcurrencyConflictException e) {
+                conflicts.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.utils.EventCodec;
+import no.java.moosehead.eventstore.utils.LogFormat;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the log size and the single threaded encode and decode time of each log format.
+ * Run the main method with an optional number of reservations (default 160000, about 300k events).
+ */
+public class EventCodecBenchmark {
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        int reservations = args.length > 0 ? Integer.parseInt(args[0]) : 160_000;
+        List<AbstractEvent> events = SyntheticEvents.generate(reservations);
+        System.out.println("Events: " + events.size() + ", Java " + System.getProperty("java.version"));
+
+        for (LogFormat format : LogFormat.values()) {
+            for (int round = 1; round <= ROUNDS; round++) {
+                // A new codec each round, as when a log is written and read by separate runs
+                EventCodec encoder = format.newCodec();
+                List<byte[]> records = new ArrayList<>(events.size());
+                long bytes = 0;
+                long start = System.nanoTime();
+                for (AbstractEvent event : events) {
+                    byte[] record = format.frame(encoder.encode(event));
+                    records.add(record);
+                    bytes += record.length;
+                }
+                long encodeNanos = System.nanoTime() - start;
+
+                EventCodec decoder = format.newCodec();
+                long revisions = 0;
+                start = System.nanoTime();
+                for (byte[] record : records) {
+                    ByteBuffer data = format.nextRecord(ByteBuffer.wrap(record));
+                    revisions += decoder.decode(data).getRevisionId();
+                }
+                long decodeNanos = System.nanoTime() - start;
+
+                System.out.println(String.format("%s round %d: %,.1f MB, encode %,d ms, decode %,d ms (checksum %d)",
+                        format, round, bytes / 1_000_000.0, encodeNanos / 1_000_000, decodeNanos / 1_000_000, revisions));
+            }
+        }
+    }
+}
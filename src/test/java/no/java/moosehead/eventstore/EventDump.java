@@ -0,0 +1,81 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.eventstore.utils.ClassSerializer;
+import org.jsonbuddy.JsonNode;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Writes every field of a decoded event on one line, so that two decoders can be compared field by field
+ */
+public class EventDump {
+    public static String dump(Object value) {
+        StringBuilder result = new StringBuilder();
+        dump(result, value);
+        return result.toString();
+    }
+
+    private static void dump(StringBuilder result, Object value) {
+        if (value == null) {
+            result.append("null");
+        } else if (value instanceof String) {
+            result.append('"');
+            for (char c : ((String) value).toCharArray()) {
+                if (c == '"' || c == '\\') {
+                    result.append('\\').append(c);
+                } else if (c < ' ' || c > '~') {
+                    result.append(String.format("\\u%04x", (int) c));
+                } else {
+                    result.append(c);
+                }
+            }
+            result.append('"');
+        } else if (value instanceof JsonNode) {
+            result.append("json ");
+            dump(result, ((JsonNode) value).toJson());
+        } else if (value instanceof Optional) {
+            result.append("Optional(");
+            dump(result, ((Optional<?>) value).orElse(null));
+            result.append(")");
+        } else if (value instanceof List) {
+            result.append("[");
+            for (Object element : (List<?>) value) {
+                dump(result, element);
+                result.append(",");
+            }
+            result.append("]");
+        } else if (value instanceof Map) {
+            result.append("{");
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                dump(result, entry.getKey());
+                result.append(":");
+                dump(result, entry.getValue());
+                result.append(",");
+            }
+            result.append("}");
+        } else if (value.getClass().getName().startsWith("no.java.moosehead.") && !value.getClass().isEnum()) {
+            result.append(value.getClass().getSimpleName()).append("(");
+            for (Field field : ClassSerializer.getAllFields(new ArrayList<>(), value.getClass())) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                field.setAccessible(true);
+                result.append(field.getName()).append("=");
+                try {
+                    dump(result, field.get(value));
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+                result.append(";");
+            }
+            result.append(")");
+        } else {
+            result.append(value.getClass().getSimpleName()).append(":").append(value);
+        }
+    }
+}
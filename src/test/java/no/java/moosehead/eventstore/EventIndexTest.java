@@ -0,0 +1,156 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.controller.SystemSetup;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.core.Eventstore;
+import no.java.moosehead.eventstore.snapshot.SnapshotStore;
+import no.java.moosehead.eventstore.utils.FileHandler;
+import no.java.moosehead.eventstore.utils.TokenGenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class EventIndexTest {
+    private File directory;
+    private File logFile;
+    private List<AbstractEvent> events = SyntheticEvents.generate(2000);
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("eventindex").toFile();
+        logFile = new File(directory, "events.log");
+        logFile.createNewFile();
+        SystemSetup systemSetup = mock(SystemSetup.class);
+        when(systemSetup.revisionGenerator()).thenReturn(new TokenGenerator());
+        SystemSetup.setSetup(systemSetup);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+        SystemSetup.setSetup(null);
+    }
+
+    @Test
+    public void shouldFindEventsKeptInMemory() throws Exception {
+        writeLog();
+        assertFindsEvents(true);
+    }
+
+    @Test
+    public void shouldFindEventsKeptInTheLog() throws Exception {
+        writeLog();
+        assertFindsEvents(false);
+    }
+
+    @Test
+    public void shouldFindEventsBeforePlayback() throws Exception {
+        writeLog();
+        FileHandler fileHandler = new FileHandler(logFile.getPath());
+        try {
+            Eventstore eventstore = new Eventstore(fileHandler, 1);
+            assertMatches(eventstore, events);
+            eventstore.playbackEventsToSubscribers();
+            assertMatches(eventstore, events);
+        } finally {
+            fileHandler.close();
+        }
+    }
+
+    @Test
+    public void shouldRestoreIndexFromSnapshot() throws Exception {
+        SnapshotStore snapshotStore = new SnapshotStore(directory.getPath());
+        FileHandler fileHandler = new FileHandler(logFile.getPath());
+        try {
+            Eventstore eventstore = new Eventstore(fileHandler, 1);
+            eventstore.enableSnapshots(snapshotStore, 500, Runnable::run);
+            eventstore.playbackEventsToSubscribers();
+            for (AbstractEvent event : events) {
+                eventstore.addEvent(event);
+            }
+        } finally {
+            fileHandler.close();
+        }
+        assertThat(snapshotStore.readNewestFirst().get(0).getStates()).containsKey("eventIndex");
+
+        fileHandler = new FileHandler(logFile.getPath());
+        try {
+            Eventstore eventstore = new Eventstore(fileHandler, 1, false);
+            eventstore.enableSnapshots(snapshotStore, Integer.MAX_VALUE);
+            eventstore.playbackEventsToSubscribers();
+            assertMatches(eventstore, events);
+        } finally {
+            fileHandler.close();
+        }
+    }
+
+    private void writeLog() {
+        FileHandler fileHandler = new FileHandler(logFile.getPath());
+        try {
+            Eventstore eventstore = new Eventstore(fileHandler, 1);
+            for (AbstractEvent event : events) {
+                eventstore.addEvent(event);
+            }
+        } finally {
+            fileHandler.close();
+        }
+    }
+
+    private void assertFindsEvents(boolean keepEventsInMemory) {
+        FileHandler fileHandler = new FileHandler(logFile.getPath());
+        try {
+            Eventstore eventstore = new Eventstore(fileHandler, 1, keepEventsInMemory);
+            eventstore.playbackEventsToSubscribers();
+            assertMatches(eventstore, events);
+
+            AbstractEvent added = new ReservationCancelledByUser(1L, 10_000L, SyntheticEvents.email(7), SyntheticEvents.workshopId(3), 1);
+            eventstore.addEvent(added);
+            List<AbstractEvent> all = new ArrayList<>(events);
+            all.add(added);
+            assertMatches(eventstore, all);
+        } finally {
+            fileHandler.close();
+        }
+    }
+
+    private static void assertMatches(Eventstore eventstore, List<AbstractEvent> events) {
+        String workshopId = SyntheticEvents.workshopId(3);
+        String email = SyntheticEvents.email(7);
+        assertThat(revisions(eventstore.eventsOfType(AbstractReservationAdded.class)))
+                .isEqualTo(revisions(events, event -> event instanceof AbstractReservationAdded));
+        assertThat(revisions(eventstore.eventsOfType(WorkshopAddedBySystem.class)))
+                .isEqualTo(revisions(events, event -> event instanceof WorkshopAddedBySystem));
+        assertThat(revisions(eventstore.eventsForWorkshop(workshopId)))
+                .isEqualTo(revisions(events, event -> event instanceof UserWorkshopEvent && ((UserWorkshopEvent) event).getWorkshopId().equals(workshopId)
+                        || event instanceof WorkshopAddedEvent && ((WorkshopAddedEvent) event).getWorkshopId().equals(workshopId)));
+        assertThat(revisions(eventstore.eventsForEmail(email)))
+                .isNotEmpty()
+                .isEqualTo(revisions(events, event -> event instanceof UserWorkshopEvent && ((UserWorkshopEvent) event).getEmail().equals(email)
+                        || event instanceof EmailConfirmedByUser && ((EmailConfirmedByUser) event).getEmail().equals(email)));
+        assertThat(revisions(eventstore.eventsForWorkshopAndEmail(workshopId, email)))
+                .isEqualTo(revisions(events, event -> event instanceof UserWorkshopEvent && ((UserWorkshopEvent) event).getWorkshopId().equals(workshopId)
+                        && ((UserWorkshopEvent) event).getEmail().equals(email)));
+    }
+
+    private static List<Long> revisions(List<AbstractEvent> events) {
+        return revisions(events, event -> true);
+    }
+
+    private static List<Long> revisions(List<AbstractEvent> events, Predicate<AbstractEvent> filter) {
+        return events.stream().filter(filter).map(AbstractEvent::getRevisionId).collect(Collectors.toList());
+    }
+}
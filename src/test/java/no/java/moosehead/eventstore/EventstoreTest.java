@@ -1,11 +1,18 @@
 package no.java.moosehead.eventstore;
 
 import no.java.moosehead.aggregate.WorkshopAggregate;
+import no.java.moosehead.eventstore.core.ConcurrencyConflictException;
 import no.java.moosehead.eventstore.core.Eventstore;
 import no.java.moosehead.eventstore.utils.FileHandler;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
 
 
 public class EventstoreTest {
@@ -30,5 +37,73 @@ public class EventstoreTest {
         assertThat(eventstore.numberOfListeners()).isGreaterThan(0);
     }
 
+    @Test
+    public void shouldRejectAppendToChangedStream() {
+        Eventstore eventstore = new Eventstore(new FileHandler());
+        String w1 = Eventstore.workshopStream("W1");
+        eventstore.append(w1, 0, new WorkshopAddedByAdmin(System.currentTimeMillis(), 1L, "W1", 10));
+        eventstore.append(Eventstore.workshopStream("W2"), 0, new WorkshopAddedByAdmin(System.currentTimeMillis(), 2L, "W2", 10));
+        eventstore.append(w1, 1, new ReservationCancelledByUser(System.currentTimeMillis(), 3L, "a@example.com", "W1", 1));
+        try {
+            eventstore.append(w1, 1, new ReservationCancelledByUser(System.currentTimeMillis(), 4L, "b@example.com", "W1", 1));
+            fail("Expected conflict");
+        } catch (ConcurrencyConflictException e) {
+            assertThat(e.getActualVersion()).isEqualTo(2);
+        }
+        assertThat(eventstore.streamVersion(w1)).isEqualTo(2);
+        assertThat(eventstore.streamVersion(Eventstore.workshopStream("W2"))).isEqualTo(1);
+        assertThat(eventstore.numberOfEvents()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldReadStreamVersionsFromLog() throws Exception {
+        File file = File.createTempFile("streams", ".log");
+        try {
+            FileHandler fileHandler = new FileHandler(file.getPath());
+            Eventstore eventstore = new Eventstore(fileHandler);
+            eventstore.append(Eventstore.workshopStream("W1"), 0, new WorkshopAddedByAdmin(System.currentTimeMillis(), 1L, "W1", 10));
+            eventstore.append(Eventstore.emailStream("a@example.com"), 0, new EmailConfirmedByUser("a@example.com", System.currentTimeMillis(), 2L));
+            fileHandler.close();
+
+            fileHandler = new FileHandler(file.getPath());
+            eventstore = new Eventstore(fileHandler);
+            assertThat(eventstore.streamVersion(Eventstore.workshopStream("W1"))).isEqualTo(1);
+            assertThat(eventstore.streamVersion(Eventstore.emailStream("a@example.com"))).isEqualTo(1);
+            assertThat(eventstore.streamVersion(Eventstore.emailStream("b@example.com"))).isEqualTo(0);
+            fileHandler.close();
+        } finally {
+            file.delete();
+            new File(file.getPath() + ".idx").delete();
+        }
+    }
 
+    @Test
+    public void shouldRejectEventsAfterTheLogFailedToWrite() {
+        AtomicBoolean failNextWrite = new AtomicBoolean(false);
+        Eventstore eventstore = new Eventstore(new FileHandler() {
+            @Override
+            public CompletableFuture<Long> appendAsync(byte[] record) {
+                if (failNextWrite.getAndSet(false)) {
+                    CompletableFuture<Long> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(new IOException("Disk full"));
+                    return failed;
+                }
+                return super.appendAsync(record);
+            }
+        });
+        eventstore.addEvent(new WorkshopAddedByAdmin(System.currentTimeMillis(), 1L, "W1", 10));
+        failNextWrite.set(true);
+        try {
+            eventstore.addEvent(new WorkshopAddedByAdmin(System.currentTimeMillis(), 2L, "W2", 10));
+            fail("Expected the write to fail");
+        } catch (RuntimeException e) {
+            assertThat(e).isNotInstanceOf(IllegalStateException.class);
+        }
+        try {
+            eventstore.addEvent(new WorkshopAddedByAdmin(System.currentTimeMillis(), 3L, "W3", 10));
+            fail("Expected the eventstore to refuse events after a failed write");
+        } catch (IllegalStateException e) {
+            assertThat(e.getCause()).isInstanceOf(IOException.class);
+        }
+    }
 }
@@ -0,0 +1,146 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.eventstore.utils.DurabilityMode;
+import no.java.moosehead.eventstore.utils.FileHandler;
+import no.java.moosehead.eventstore.utils.GroupCommitWriter;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class GroupCommitWriterTest {
+
+    private static class CountingTarget implements GroupCommitWriter.Target {
+        private final AtomicInteger writes = new AtomicInteger();
+        private final AtomicInteger forces = new AtomicInteger();
+        private final AtomicInteger bytes = new AtomicInteger();
+
+        @Override
+        public void write(ByteBuffer[] buffers, long[] positions) throws IOException {
+            writes.incrementAndGet();
+            for (int i = 0; i < buffers.length; i++) {
+                ByteBuffer buffer = buffers[i];
+                positions[i] = bytes.getAndAdd(buffer.remaining());
+                buffer.position(buffer.limit());
+            }
+        }
+
+        @Override
+        public void force() throws IOException {
+            forces.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void shouldForceEveryWriteWhenFsyncEach() throws Exception {
+        CountingTarget target = new CountingTarget();
+        GroupCommitWriter writer = new GroupCommitWriter(target, DurabilityMode.FSYNC_EACH, 0, "test-writer");
+        for (int i = 0; i < 10; i++) {
+            writer.write("line\n".getBytes(StandardCharsets.UTF_8));
+        }
+        writer.close();
+
+        assertThat(target.forces.get()).isEqualTo(10);
+        assertThat(target.bytes.get()).isEqualTo(50);
+    }
+
+    @Test
+    public void shouldGroupConcurrentWritesIntoFewerForces() throws Exception {
+        CountingTarget target = new CountingTarget();
+        GroupCommitWriter writer = new GroupCommitWriter(target, DurabilityMode.FSYNC_GROUP, 20, "test-writer");
+        List<CompletableFuture<Long>> pending = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            pending.add(writer.submit("line\n".getBytes(StandardCharsets.UTF_8)));
+        }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture[pending.size()])).get();
+        writer.close();
+
+        assertThat(target.bytes.get()).isEqualTo(500);
+        assertThat(target.forces.get()).isLessThan(100);
+        assertThat(target.forces.get()).isEqualTo(target.writes.get());
+    }
+
+    @Test
+    public void shouldFailPendingAndLaterWritesWhenTheTargetThrows() throws Exception {
+        GroupCommitWriter.Target target = new GroupCommitWriter.Target() {
+            @Override
+            public void write(ByteBuffer[] buffers, long[] positions) {
+                throw new BufferOverflowException();
+            }
+
+            @Override
+            public void force() {
+            }
+        };
+        GroupCommitWriter writer = new GroupCommitWriter(target, DurabilityMode.FSYNC_GROUP, 0, "test-writer");
+        CompletableFuture<Long> pending = writer.submit("line\n".getBytes(StandardCharsets.UTF_8));
+        try {
+            pending.get(10, TimeUnit.SECONDS);
+            fail("Expected the write to fail");
+        } catch (ExecutionException expected) {
+            assertThat(expected.getCause()).isInstanceOf(BufferOverflowException.class);
+        }
+        assertThat(writer.submit("line\n".getBytes(StandardCharsets.UTF_8)).isCompletedExceptionally()).isTrue();
+        writer.close();
+    }
+
+    @Test
+    public void shouldNotForceWhenOsBuffered() throws Exception {
+        CountingTarget target = new CountingTarget();
+        GroupCommitWriter writer = new GroupCommitWriter(target, DurabilityMode.OS_BUFFERED, 0, "test-writer");
+        writer.write("line\n".getBytes(StandardCharsets.UTF_8));
+        writer.close();
+
+        assertThat(target.forces.get()).isEqualTo(0);
+        assertThat(target.bytes.get()).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldKeepOrderOfEachWriterWhenWritingConcurrently() throws Exception {
+        File f = File.createTempFile("groupcommit", null);
+        f.deleteOnExit();
+        FileHandler fileHandler = new FileHandler(f.getCanonicalPath(), DurabilityMode.FSYNC_GROUP, 1);
+        fileHandler.openForAppend();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int threadNo = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 50; i++) {
+                    fileHandler.append((threadNo + ";" + i).getBytes(StandardCharsets.UTF_8));
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        fileHandler.close();
+
+        List<String> lines = Files.readAllLines(f.toPath(), StandardCharsets.UTF_8);
+        assertThat(lines).hasSize(400);
+        int[] lastSeen = new int[8];
+        Arrays.fill(lastSeen, -1);
+        for (String line : lines) {
+            String[] parts = line.split(";");
+            int threadNo = Integer.parseInt(parts[0]);
+            int i = Integer.parseInt(parts[1]);
+            assertThat(i).isEqualTo(lastSeen[threadNo] + 1);
+            lastSeen[threadNo] = i;
+        }
+    }
+}
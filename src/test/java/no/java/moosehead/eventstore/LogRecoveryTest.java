@@ -0,0 +1,163 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.controller.SystemSetup;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.core.Eventstore;
+import no.java.moosehead.eventstore.utils.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LogRecoveryTest {
+    private File directory;
+    private File logFile;
+    private List<AbstractEvent> events = SyntheticEvents.generate(2000);
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("recovery").toFile();
+        logFile = new File(directory, "events.log");
+        logFile.createNewFile();
+        SystemSetup systemSetup = mock(SystemSetup.class);
+        when(systemSetup.revisionGenerator()).thenReturn(new TokenGenerator());
+        SystemSetup.setSetup(systemSetup);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+        SystemSetup.setSetup(null);
+    }
+
+    @Test
+    public void shouldCutTornLineOffTextLog() throws Exception {
+        writeLog(LogFormat.TEXT);
+        long length = logFile.length();
+        try (FileOutputStream out = new FileOutputStream(logFile, true)) {
+            out.write("no.java.moosehead.eventstore.WorkshopAddedBySystem;revisionId=".getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertThat(openAndAppend(LogFormat.TEXT)).isEqualTo(events.size());
+        assertThat(new FileHandler(logFile.getPath()).verify(1).getTornBytes()).isEqualTo(0);
+        assertThat(logFile.length()).isGreaterThan(length);
+        assertThat(new Eventstore(new FileHandler(logFile.getPath())).numberOfEvents()).isEqualTo(events.size() + 1);
+    }
+
+    @Test
+    public void shouldCutTornRecordOffChecksummedLog() throws Exception {
+        writeLog(LogFormat.CHECKSUMMED);
+        long length = logFile.length();
+        byte[] frame = LogFormat.CHECKSUMMED.frame(new byte[100]);
+        try (FileOutputStream out = new FileOutputStream(logFile, true)) {
+            out.write(Arrays.copyOf(frame, 50));
+        }
+
+        LogVerifier.Result result = new FileHandler(logFile.getPath()).verify(2);
+        assertThat(result.isDamaged()).isFalse();
+        assertThat(result.getValidEnd()).isEqualTo(length);
+        assertThat(result.getRecords()).isEqualTo(events.size());
+
+        assertThat(openAndAppend(LogFormat.CHECKSUMMED)).isEqualTo(events.size());
+        assertThat(new Eventstore(new FileHandler(logFile.getPath())).numberOfEvents()).isEqualTo(events.size() + 1);
+    }
+
+    @Test
+    public void shouldTreatRecordWithWrongChecksumAtTheEndAsTorn() throws Exception {
+        writeLog(LogFormat.CHECKSUMMED);
+        flipByte(logFile, logFile.length() - 1);
+
+        LogVerifier.Result result = new FileHandler(logFile.getPath()).verify(2);
+        assertThat(result.isDamaged()).isFalse();
+        assertThat(result.getRecords()).isEqualTo(events.size() - 1);
+        assertThat(openAndAppend(LogFormat.CHECKSUMMED)).isEqualTo(events.size() - 1);
+    }
+
+    @Test
+    public void shouldRefuseLogDamagedInTheMiddle() throws Exception {
+        writeLog(LogFormat.CHECKSUMMED);
+        flipByte(logFile, logFile.length() / 2);
+
+        LogVerifier.Result result = new FileHandler(logFile.getPath()).verify(2);
+        assertThat(result.isDamaged()).isTrue();
+        assertThat(result.getDamagedAt()).isBetween(result.getValidEnd(), logFile.length() / 2);
+        try {
+            openAndAppend(LogFormat.CHECKSUMMED);
+            fail("Expected damaged log to be refused");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage()).contains("damaged at position " + result.getDamagedAt());
+        }
+    }
+
+    @Test
+    public void shouldFindDamageInSealedSegment() throws Exception {
+        SegmentedEventLog log = new SegmentedEventLog(directory.getPath(), 64 * 1024, DurabilityMode.OS_BUFFERED, 0, LogFormat.CHECKSUMMED);
+        Eventstore eventstore = new Eventstore(log);
+        for (AbstractEvent event : events) {
+            eventstore.addEvent(event);
+        }
+        log.close();
+        assertThat(new SegmentedEventLog(directory.getPath(), 64 * 1024, DurabilityMode.OS_BUFFERED, 0).verify(2).getRecords()).isEqualTo(events.size());
+
+        flipByte(new File(directory, String.format("%020d.seg", 0)), 1000);
+
+        log = new SegmentedEventLog(directory.getPath(), 64 * 1024, DurabilityMode.OS_BUFFERED, 0);
+        assertThat(log.verify(2).isDamaged()).isTrue();
+        try {
+            new Eventstore(log);
+            fail("Expected damaged segment to be refused");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage()).contains("Damaged record");
+        }
+    }
+
+    private void writeLog(LogFormat format) {
+        FileHandler log = new FileHandler(logFile.getPath(), DurabilityMode.OS_BUFFERED, 0, format);
+        EventCodec codec = format.newCodec();
+        log.openForAppend();
+        for (AbstractEvent event : events) {
+            log.append(codec.encode(event));
+        }
+        log.close();
+    }
+
+    /**
+     * Opens the log like at startup and appends one event
+     * @return the number of events read at startup
+     */
+    private int openAndAppend(LogFormat format) {
+        FileHandler log = new FileHandler(logFile.getPath(), DurabilityMode.OS_BUFFERED, 0, format);
+        try {
+            Eventstore eventstore = new Eventstore(log, 2);
+            int read = eventstore.numberOfEvents();
+            eventstore.addEvent(new WorkshopAddedBySystem(1L, 10_000L, "after", 10));
+            return read;
+        } finally {
+            log.close();
+        }
+    }
+
+    private static void flipByte(File file, long position) throws Exception {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.seek(position);
+            int value = randomAccessFile.read();
+            randomAccessFile.seek(position);
+            randomAccessFile.write(value ^ 0x01);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.controller.SystemSetup;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.core.Eventstore;
+import no.java.moosehead.eventstore.utils.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ParallelEventDecoderTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        SystemSetup systemSetup = mock(SystemSetup.class);
+        when(systemSetup.revisionGenerator()).thenReturn(new TokenGenerator());
+        SystemSetup.setSetup(systemSetup);
+        file = File.createTempFile("parallelreplay", null);
+        file.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+        SystemSetup.setSetup(null);
+    }
+
+    @Test
+    public void shouldReplayTextLogInOrderOnSeveralThreads() throws Exception {
+        assertReplaysInOrder(LogFormat.TEXT);
+    }
+
+    @Test
+    public void shouldReplayBinaryLogInOrderOnSeveralThreads() throws Exception {
+        assertReplaysInOrder(LogFormat.BINARY);
+    }
+
+    private void assertReplaysInOrder(LogFormat format) {
+        List<AbstractEvent> events = SyntheticEvents.generate(5000);
+        FileHandler log = new FileHandler(file.getPath(), DurabilityMode.OS_BUFFERED, 0, format);
+        EventCodec codec = format.newCodec();
+        log.openForAppend();
+        for (AbstractEvent event : events) {
+            log.append(codec.encode(event));
+        }
+        log.close();
+
+        List<AbstractEvent> replayed = new Eventstore(new FileHandler(file.getPath()), 4).getEventstorageCopy();
+
+        assertThat(replayed).hasSize(events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertThat(replayed.get(i).getClass()).isEqualTo(events.get(i).getClass());
+            assertThat(replayed.get(i).getRevisionId()).isEqualTo(events.get(i).getRevisionId());
+            assertThat(replayed.get(i).getSystemTimeInMillis()).isEqualTo(events.get(i).getSystemTimeInMillis());
+        }
+    }
+}
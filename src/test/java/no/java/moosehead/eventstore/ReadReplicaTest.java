@@ -0,0 +1,127 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.controller.SystemSetup;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.core.Eventstore;
+import no.java.moosehead.eventstore.core.LogTailer;
+import no.java.moosehead.eventstore.system.SystemBootstrapDone;
+import no.java.moosehead.eventstore.utils.ClassSerializer;
+import no.java.moosehead.eventstore.utils.DurabilityMode;
+import no.java.moosehead.eventstore.utils.FileHandler;
+import no.java.moosehead.eventstore.utils.LogFormat;
+import no.java.moosehead.eventstore.utils.TokenGenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ReadReplicaTest {
+    private final List<AbstractEvent> events = SyntheticEvents.generate(500);
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        SystemSetup systemSetup = mock(SystemSetup.class);
+        when(systemSetup.revisionGenerator()).thenReturn(new TokenGenerator());
+        SystemSetup.setSetup(systemSetup);
+        file = File.createTempFile("replica", null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+        new File(file.getPath() + ".idx").delete();
+        SystemSetup.setSetup(null);
+    }
+
+    @Test
+    public void shouldTailTextLog() throws Exception {
+        assertTailsLog(LogFormat.TEXT, true);
+    }
+
+    @Test
+    public void shouldTailBinaryLogFromDisk() throws Exception {
+        assertTailsLog(LogFormat.BINARY, false);
+    }
+
+    @Test
+    public void shouldLeaveRecordBeingWrittenForNextPoll() throws Exception {
+        FileHandler primaryLog = new FileHandler(file.getPath(), DurabilityMode.OS_BUFFERED, 0, LogFormat.TEXT);
+        Eventstore primary = new Eventstore(primaryLog, 1);
+        primary.addEvent(events.get(0));
+        primaryLog.close();
+
+        Eventstore replica = new Eventstore(new FileHandler(file.getPath()), 1, true, true);
+        List<Long> revisions = Collections.synchronizedList(new ArrayList<>());
+        replica.addEventSubscriber(event -> revisions.add(event instanceof SystemBootstrapDone ? -1L : event.getRevisionId()));
+        replica.playbackEventsToSubscribers();
+        LogTailer tailer = replica.tailLog(60_000);
+
+        String line = new ClassSerializer().asString(events.get(1));
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(line.substring(0, 20).getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertThat(tailer.poll()).isEqualTo(0);
+            out.write((line.substring(20) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        assertThat(tailer.poll()).isEqualTo(1);
+        assertThat(tailer.poll()).isEqualTo(0);
+        tailer.close();
+
+        assertThat(revisions).containsExactly(events.get(0).getRevisionId(), -1L, events.get(1).getRevisionId());
+    }
+
+    private void assertTailsLog(LogFormat format, boolean keepEventsInMemory) {
+        FileHandler primaryLog = new FileHandler(file.getPath(), DurabilityMode.OS_BUFFERED, 0, format);
+        Eventstore primary = new Eventstore(primaryLog, 1);
+        int half = events.size() / 2;
+        for (AbstractEvent event : events.subList(0, half)) {
+            primary.addEvent(event);
+        }
+
+        FileHandler replicaLog = new FileHandler(file.getPath());
+        Eventstore replica = new Eventstore(replicaLog, 2, keepEventsInMemory, true);
+        List<Long> revisions = Collections.synchronizedList(new ArrayList<>());
+        replica.addEventSubscriber(event -> revisions.add(event instanceof SystemBootstrapDone ? -1L : event.getRevisionId()));
+        replica.playbackEventsToSubscribers();
+        LogTailer tailer = replica.tailLog(60_000);
+        assertThat(tailer.poll()).isEqualTo(0);
+
+        for (AbstractEvent event : events.subList(half, events.size())) {
+            primary.addEvent(event);
+        }
+        assertThat(tailer.poll()).isEqualTo(events.size() - half);
+        tailer.close();
+        primaryLog.close();
+
+        List<Long> expected = new ArrayList<>();
+        for (AbstractEvent event : events.subList(0, half)) {
+            expected.add(event.getRevisionId());
+        }
+        expected.add(-1L);
+        for (AbstractEvent event : events.subList(half, events.size())) {
+            expected.add(event.getRevisionId());
+        }
+        assertThat(revisions).isEqualTo(expected);
+        assertThat(replica.numberOfEvents()).isEqualTo(events.size() + 1);
+        assertThat(replica.readEvent(events.get(events.size() - 1).getRevisionId())).isPresent();
+        assertThat(tailer.lagMillis()).isLessThan(60_000);
+        try {
+            replica.addEvent(events.get(0));
+            fail("Expected the replica to refuse events");
+        } catch (IllegalStateException expectedException) {
+            assertThat(expectedException.getMessage()).contains("read replica");
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.controller.SystemSetup;
+import no.java.moosehead.domain.WorkshopReservation;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.core.Eventstore;
+import no.java.moosehead.eventstore.core.ReplicationAckPolicy;
+import no.java.moosehead.eventstore.core.ReplicationFollower;
+import no.java.moosehead.eventstore.core.ReplicationLeader;
+import no.java.moosehead.eventstore.system.SystemBootstrapDone;
+import no.java.moosehead.eventstore.utils.DurabilityMode;
+import no.java.moosehead.eventstore.utils.FileHandler;
+import no.java.moosehead.eventstore.utils.LogFormat;
+import no.java.moosehead.eventstore.utils.TokenGenerator;
+import no.java.moosehead.saga.EmailSaga;
+import no.java.moosehead.saga.EmailSender;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+public class ReplicationTest {
+    private final List<AbstractEvent> events = SyntheticEvents.generate(300);
+    private final TokenGenerator tokenGenerator = new TokenGenerator();
+    private final List<File> files = new ArrayList<>();
+    private final List<AutoCloseable> closeables = new ArrayList<>();
+    private final EmailSender emailSender = mock(EmailSender.class);
+
+    @Before
+    public void setUp() throws Exception {
+        SystemSetup systemSetup = mock(SystemSetup.class);
+        when(systemSetup.revisionGenerator()).thenReturn(tokenGenerator);
+        when(systemSetup.emailSender()).thenReturn(emailSender);
+        SystemSetup.setSetup(systemSetup);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Collections.reverse(closeables);
+        for (AutoCloseable closeable : closeables) {
+            closeable.close();
+        }
+        for (File file : files) {
+            file.delete();
+            new File(file.getPath() + ".idx").delete();
+        }
+        SystemSetup.setSetup(null);
+    }
+
+    @Test
+    public void shouldCatchUpAndFollowLeader() throws Exception {
+        Eventstore leaderStore = eventstore(LogFormat.BINARY);
+        int half = events.size() / 2;
+        for (AbstractEvent event : events.subList(0, half)) {
+            leaderStore.addEvent(event);
+        }
+        ReplicationLeader leader = leaderStore.startReplication(0, ReplicationAckPolicy.ONE_FOLLOWER, 10_000, 64);
+        closeables.add(leader);
+
+        Eventstore followerStore = eventstore(LogFormat.TEXT);
+        List<Long> revisions = Collections.synchronizedList(new ArrayList<>());
+        followerStore.addEventSubscriber(event -> revisions.add(event instanceof SystemBootstrapDone ? -1L : event.getRevisionId()));
+        followerStore.playbackEventsToSubscribers();
+        ReplicationFollower follower = followerStore.follow("localhost", leader.port(), 10);
+        closeables.add(follower);
+        assertThat(follower.awaitEvents(half, 10, TimeUnit.SECONDS)).isTrue();
+
+        // Each event is acknowledged by the follower before addEvent returns
+        for (int i = half; i < events.size(); i++) {
+            leaderStore.addEvent(events.get(i));
+            assertThat(followerStore.numberOfEvents()).isEqualTo(i + 2);
+        }
+        assertThat(leader.ackTimeouts()).isEqualTo(0);
+        assertThat(leader.connectedFollowers()).isEqualTo(1);
+        assertThat(leader.followerLag()).containsExactly(0L);
+        assertThat(follower.lagEvents()).isEqualTo(0);
+        // The count is updated after the event is stored, so stop the follower thread before reading it
+        follower.close();
+        assertThat(follower.receivedEvents()).isEqualTo(events.size());
+
+        List<Long> expected = new ArrayList<>();
+        expected.add(-1L);
+        for (AbstractEvent event : events) {
+            expected.add(event.getRevisionId());
+        }
+        assertThat(revisions).isEqualTo(expected);
+        try {
+            followerStore.addEvent(events.get(0));
+            fail("Expected the follower to refuse events");
+        } catch (IllegalStateException expectedException) {
+            assertThat(expectedException.getMessage()).contains("leader");
+        }
+    }
+
+    @Test
+    public void shouldContinueFromStoredEventsAfterReconnect() throws Exception {
+        Eventstore leaderStore = eventstore(LogFormat.TEXT);
+        ReplicationLeader leader = leaderStore.startReplication(0, ReplicationAckPolicy.LEADER, 0, 64);
+        int port = leader.port();
+        File followerFile = newFile();
+        FileHandler followerLog = new FileHandler(followerFile.getPath(), DurabilityMode.OS_BUFFERED, 0, LogFormat.TEXT);
+        Eventstore followerStore = new Eventstore(followerLog, 1);
+        followerStore.playbackEventsToSubscribers();
+        ReplicationFollower follower = followerStore.follow("localhost", port, 10);
+
+        int half = events.size() / 2;
+        for (AbstractEvent event : events.subList(0, half)) {
+            leaderStore.addEvent(event);
+        }
+        assertThat(follower.awaitEvents(half, 10, TimeUnit.SECONDS)).isTrue();
+        follower.close();
+        followerLog.close();
+        leader.close();
+
+        for (AbstractEvent event : events.subList(half, events.size())) {
+            leaderStore.addEvent(event);
+        }
+        leader = leaderStore.startReplication(port, ReplicationAckPolicy.LEADER, 0, 64);
+        closeables.add(leader);
+        Eventstore restarted = new Eventstore(new FileHandler(followerFile.getPath()), 1);
+        restarted.playbackEventsToSubscribers();
+        follower = restarted.follow("localhost", port, 10);
+        closeables.add(follower);
+        assertThat(follower.awaitEvents(events.size(), 10, TimeUnit.SECONDS)).isTrue();
+
+        // The count is updated after the event is stored, so stop the follower thread before reading it
+        follower.close();
+        assertThat(follower.receivedEvents()).isEqualTo(events.size() - half);
+        List<Long> revisions = new ArrayList<>();
+        for (AbstractEvent event : restarted.getEventstorageCopy()) {
+            if (!(event instanceof SystemBootstrapDone)) {
+                revisions.add(event.getRevisionId());
+            }
+        }
+        List<Long> expected = new ArrayList<>();
+        for (AbstractEvent event : events) {
+            expected.add(event.getRevisionId());
+        }
+        assertThat(revisions).isEqualTo(expected);
+    }
+
+    @Test
+    public void shouldTakeEventsAfterPromotion() throws Exception {
+        Eventstore leaderStore = eventstore(LogFormat.TEXT);
+        ReplicationLeader leader = leaderStore.startReplication(0, ReplicationAckPolicy.ONE_FOLLOWER, 10_000, 64);
+        Eventstore followerStore = eventstore(LogFormat.TEXT);
+        followerStore.playbackEventsToSubscribers();
+        ReplicationFollower follower = followerStore.follow("localhost", leader.port(), 10);
+        closeables.add(follower);
+        awaitConnected(leader);
+        for (AbstractEvent event : events.subList(0, 10)) {
+            leaderStore.addEvent(event);
+        }
+        leader.close();
+
+        follower.promote();
+        assertThat(leader.ackTimeouts()).isEqualTo(0);
+        assertThat(followerStore.isFollowing()).isFalse();
+        assertThat(tokenGenerator.nextRevisionId()).isGreaterThan(events.get(9).getRevisionId());
+        followerStore.addEvent(events.get(10));
+        assertThat(followerStore.numberOfEvents()).isEqualTo(12);
+    }
+
+    @Test
+    public void shouldSendEmailsOnlyAfterPromotion() throws Exception {
+        Eventstore leaderStore = eventstore(LogFormat.TEXT);
+        ReplicationLeader leader = leaderStore.startReplication(0, ReplicationAckPolicy.ONE_FOLLOWER, 10_000, 64);
+        Eventstore followerStore = eventstore(LogFormat.TEXT);
+        EmailSaga emailSaga = new EmailSaga(false);
+        followerStore.addEventSubscriber(emailSaga);
+        followerStore.playbackEventsToSubscribers();
+        ReplicationFollower follower = followerStore.follow("localhost", leader.port(), 10);
+        closeables.add(follower);
+        awaitConnected(leader);
+        leaderStore.addEvent(new WorkshopAddedBySystem(System.currentTimeMillis(), tokenGenerator.nextRevisionId(), "W1", 30));
+        leaderStore.addEvent(reservation("before@example.com"));
+        leader.close();
+
+        emailSaga.sendEmailsFrom(follower.promote());
+        ReservationAddedByUser reservation = reservation("after@example.com");
+        followerStore.addEvent(reservation);
+
+        verify(emailSender).sendEmailConfirmation("after@example.com", reservation.getReservationToken(), "W1");
+        verifyNoMoreInteractions(emailSender);
+    }
+
+    private ReservationAddedByUser reservation(String email) {
+        return new ReservationAddedByUser(WorkshopReservation.builder()
+                .setSystemTimeInMillis(System.currentTimeMillis())
+                .setRevisionId(tokenGenerator.nextRevisionId())
+                .setEmail(email)
+                .setFullname("Participant")
+                .setWorkshopId("W1")
+                .setNumberOfSeatsReserved(1)
+                .create());
+    }
+
+    @Test
+    public void shouldNotHoldUpAppendsForAFollowerThatStopsReading() throws Exception {
+        Eventstore leaderStore = eventstore(LogFormat.BINARY);
+        ReplicationLeader leader = leaderStore.startReplication(0, ReplicationAckPolicy.LEADER, 0, 4);
+        closeables.add(leader);
+        // Connects like a follower, then neither reads the events nor answers them
+        Socket stalled = new Socket();
+        closeables.add(stalled);
+        stalled.setReceiveBufferSize(1024);
+        stalled.connect(new InetSocketAddress("localhost", leader.port()));
+        DataOutputStream out = new DataOutputStream(stalled.getOutputStream());
+        out.writeLong(0);
+        out.flush();
+        awaitConnected(leader);
+
+        List<AbstractEvent> manyEvents = SyntheticEvents.generate(20_000);
+        Thread writer = new Thread(() -> manyEvents.forEach(leaderStore::addEvent));
+        writer.setDaemon(true);
+        writer.start();
+        // Well within the ten seconds after which the leader disconnects a follower that does not answer
+        writer.join(5_000);
+        assertThat(writer.isAlive()).isFalse();
+        assertThat(leaderStore.numberOfEvents()).isEqualTo(manyEvents.size());
+    }
+
+    private static void awaitConnected(ReplicationLeader leader) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (leader.connectedFollowers() == 0) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private Eventstore eventstore(LogFormat format) throws Exception {
+        FileHandler eventLog = new FileHandler(newFile().getPath(), DurabilityMode.OS_BUFFERED, 0, format);
+        closeables.add(eventLog::close);
+        return new Eventstore(eventLog, 1);
+    }
+
+    private File newFile() throws Exception {
+        File file = File.createTempFile("replication", null);
+        files.add(file);
+        return file;
+    }
+}
@@ -0,0 +1,151 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.controller.SystemSetup;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.core.Eventstore;
+import no.java.moosehead.eventstore.utils.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RevisionIndexTest {
+    private File directory;
+    private File logFile;
+    private List<AbstractEvent> events = SyntheticEvents.generate(1000);
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("revisionindex").toFile();
+        logFile = new File(directory, "events.log");
+        logFile.createNewFile();
+        SystemSetup systemSetup = mock(SystemSetup.class);
+        when(systemSetup.revisionGenerator()).thenReturn(new TokenGenerator());
+        SystemSetup.setSetup(systemSetup);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+        SystemSetup.setSetup(null);
+    }
+
+    @Test
+    public void shouldReadEventsFromTextLog() throws Exception {
+        assertReadsEvents(() -> new FileHandler(logFile.getPath(), DurabilityMode.OS_BUFFERED, 0, LogFormat.TEXT));
+    }
+
+    @Test
+    public void shouldReadEventsFromBinaryLog() throws Exception {
+        assertReadsEvents(() -> new FileHandler(logFile.getPath(), DurabilityMode.OS_BUFFERED, 0, LogFormat.BINARY));
+    }
+
+    @Test
+    public void shouldReadEventsFromSegmentedLog() throws Exception {
+        assertReadsEvents(() -> new SegmentedEventLog(directory.getPath(), 16 * 1024, DurabilityMode.OS_BUFFERED, 0, LogFormat.BINARY));
+    }
+
+    @Test
+    public void shouldRebuildMissingOrDamagedIndex() throws Exception {
+        LogFactory logFactory = () -> new FileHandler(logFile.getPath(), DurabilityMode.OS_BUFFERED, 0, LogFormat.BINARY);
+        writeLog(logFactory);
+        File indexFile = new File(logFile.getPath() + ".idx");
+        long indexLength = indexFile.length();
+
+        indexFile.delete();
+        assertFindsEvents(logFactory);
+        assertThat(indexFile.length()).isEqualTo(indexLength);
+
+        try (FileOutputStream out = new FileOutputStream(indexFile, true)) {
+            out.write(new byte[] {1, 2, 3});
+        }
+        assertFindsEvents(logFactory);
+        assertThat(indexFile.length()).isEqualTo(indexLength);
+
+        try (FileOutputStream out = new FileOutputStream(indexFile)) {
+            out.write(new byte[100]);
+        }
+        assertFindsEvents(logFactory);
+        assertThat(indexFile.length()).isEqualTo(indexLength);
+    }
+
+    @Test
+    public void shouldFindEventsAppendedOutOfRevisionOrder() throws Exception {
+        EventLog log = new FileHandler(logFile.getPath(), DurabilityMode.OS_BUFFERED, 0, LogFormat.TEXT);
+        try {
+            Eventstore eventstore = new Eventstore(log, 1);
+            for (AbstractEvent event : events.subList(0, 500)) {
+                eventstore.addEvent(event);
+            }
+            eventstore.addEvent(new WorkshopAddedBySystem(1L, 20_000L, "late", 10));
+            eventstore.addEvent(new WorkshopAddedBySystem(1L, 10_000L, "early", 10));
+
+            assertThat(eventstore.readEvent(10_000L).map(AbstractEvent::getRevisionId)).contains(10_000L);
+            assertThat(eventstore.readEvents(5_000L, 30_000L)).extracting(AbstractEvent::getRevisionId).containsExactly(20_000L, 10_000L);
+        } finally {
+            log.close();
+        }
+    }
+
+    private void assertReadsEvents(LogFactory logFactory) throws Exception {
+        writeLog(logFactory);
+        assertFindsEvents(logFactory);
+
+        EventLog log = logFactory.open();
+        try {
+            Eventstore eventstore = new Eventstore(log, 1, false);
+            eventstore.addEvent(new WorkshopAddedBySystem(1L, 5000L, "late", 10));
+            assertThat(eventstore.readEvent(5000L).map(AbstractEvent::getRevisionId)).contains(5000L);
+        } finally {
+            log.close();
+        }
+    }
+
+    private void writeLog(LogFactory logFactory) {
+        EventLog log = logFactory.open();
+        try {
+            Eventstore eventstore = new Eventstore(log, 1);
+            for (AbstractEvent event : events) {
+                eventstore.addEvent(event);
+            }
+        } finally {
+            log.close();
+        }
+    }
+
+    private void assertFindsEvents(LogFactory logFactory) {
+        EventLog log = logFactory.open();
+        try {
+            Eventstore eventstore = new Eventstore(log, 2, false);
+            for (int i = 0; i < events.size(); i += 37) {
+                long revision = events.get(i).getRevisionId();
+                if (revision == 0) {
+                    continue;
+                }
+                assertThat(eventstore.readEvent(revision).map(AbstractEvent::getRevisionId)).contains(revision);
+            }
+            assertThat(eventstore.readEvent(events.size() * 2L)).isEmpty();
+
+            List<Long> expected = events.stream().map(AbstractEvent::getRevisionId).filter(revision -> revision >= 200 && revision <= 600).collect(Collectors.toList());
+            assertThat(eventstore.readEvents(200, 600)).extracting(AbstractEvent::getRevisionId).isEqualTo(expected);
+        } finally {
+            log.close();
+        }
+    }
+
+    private interface LogFactory {
+        EventLog open();
+    }
+}
@@ -0,0 +1,62 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.controller.SystemSetup;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.core.Eventstore;
+import no.java.moosehead.eventstore.utils.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures disk footprint and replay time of a segmented log with and without compressed segments.
+ * Run the main method with an optional number of reservations (default 200000).
+ */
+public class SegmentCompressionBenchmark {
+    private static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int reservations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        SystemSetup systemSetup = mock(SystemSetup.class);
+        when(systemSetup.revisionGenerator()).thenReturn(new TokenGenerator());
+        SystemSetup.setSetup(systemSetup);
+        List<AbstractEvent> events = SyntheticEvents.generate(reservations);
+        System.out.println("Events: " + events.size());
+
+        for (LogFormat format : LogFormat.values()) {
+            for (boolean compress : new boolean[] {false, true}) {
+                File directory = Files.createTempDirectory("compression").toFile();
+                try {
+                    SegmentedEventLog log = new SegmentedEventLog(directory.getPath(), SEGMENT_SIZE, DurabilityMode.OS_BUFFERED, 0, format, compress);
+                    EventCodec codec = format.newCodec();
+                    log.openForAppend();
+                    for (AbstractEvent event : events) {
+                        log.append(codec.encode(event));
+                    }
+                    log.close();
+                    long bytes = 0;
+                    for (File file : directory.listFiles((dir, name) -> name.contains(".seg"))) {
+                        bytes += file.length();
+                    }
+                    for (int round = 1; round <= ROUNDS; round++) {
+                        long start = System.nanoTime();
+                        Eventstore eventstore = new Eventstore(new SegmentedEventLog(directory.getPath(), SEGMENT_SIZE, DurabilityMode.OS_BUFFERED, 0, format, false));
+                        long millis = (System.nanoTime() - start) / 1_000_000;
+                        System.out.println(String.format("%s %s: %,d bytes on disk, replay round %d %,d ms (%d events)",
+                                format, compress ? "compressed" : "plain", bytes, round, millis, eventstore.numberOfEvents()));
+                    }
+                } finally {
+                    for (File file : directory.listFiles()) {
+                        file.delete();
+                    }
+                    directory.delete();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.controller.SystemSetup;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.core.Eventstore;
+import no.java.moosehead.eventstore.utils.DurabilityMode;
+import no.java.moosehead.eventstore.utils.LogFormat;
+import no.java.moosehead.eventstore.utils.RecordReader;
+import no.java.moosehead.eventstore.utils.SegmentedEventLog;
+import no.java.moosehead.eventstore.utils.TokenGenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SegmentedEventLogTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("segments").toFile();
+        SystemSetup systemSetup = mock(SystemSetup.class);
+        when(systemSetup.revisionGenerator()).thenReturn(new TokenGenerator());
+        SystemSetup.setSetup(systemSetup);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        SystemSetup.setSetup(null);
+    }
+
+    @Test
+    public void shouldRollOverToNewSegmentsAndReadEverythingBack() throws Exception {
+        SegmentedEventLog log = new SegmentedEventLog(directory.getPath(), 256, DurabilityMode.OS_BUFFERED, 0);
+        log.openForAppend();
+        for (int i = 0; i < 50; i++) {
+            log.append(("record number " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        log.close();
+
+        assertThat(directory.listFiles().length).isGreaterThan(1);
+        assertThat(readAll(new SegmentedEventLog(directory.getPath(), 256, DurabilityMode.OS_BUFFERED, 0))).hasSize(50).startsWith("record number 0").endsWith("record number 49");
+    }
+
+    @Test
+    public void shouldContinueInActiveSegmentAfterReopen() throws Exception {
+        SegmentedEventLog log = new SegmentedEventLog(directory.getPath(), 4096, DurabilityMode.FSYNC_GROUP, 0);
+        log.openForAppend();
+        log.append("first".getBytes(StandardCharsets.UTF_8));
+        log.close();
+
+        log = new SegmentedEventLog(directory.getPath(), 4096, DurabilityMode.FSYNC_GROUP, 0);
+        assertThat(readAll(log)).containsExactly("first");
+        log.openForAppend();
+        log.append("second".getBytes(StandardCharsets.UTF_8));
+        log.close();
+
+        assertThat(directory.listFiles()).hasSize(1);
+        assertThat(readAll(new SegmentedEventLog(directory.getPath(), 4096, DurabilityMode.FSYNC_GROUP, 0))).containsExactly("first", "second");
+    }
+
+    @Test
+    public void shouldDropIncompleteRecordWhenReopening() throws Exception {
+        SegmentedEventLog log = new SegmentedEventLog(directory.getPath(), 4096, DurabilityMode.OS_BUFFERED, 0);
+        log.openForAppend();
+        log.append("complete".getBytes(StandardCharsets.UTF_8));
+        log.close();
+        try (RandomAccessFile raf = new RandomAccessFile(directory.listFiles()[0], "rw")) {
+            raf.seek(32 + "complete\n".length());
+            raf.write("torn".getBytes(StandardCharsets.UTF_8));
+        }
+
+        log = new SegmentedEventLog(directory.getPath(), 4096, DurabilityMode.OS_BUFFERED, 0);
+        assertThat(readAll(log)).containsExactly("complete");
+        log.openForAppend();
+        log.append("next".getBytes(StandardCharsets.UTF_8));
+        log.close();
+
+        assertThat(readAll(new SegmentedEventLog(directory.getPath(), 4096, DurabilityMode.OS_BUFFERED, 0))).containsExactly("complete", "next");
+    }
+
+    @Test
+    public void shouldTreatLastSegmentWithoutHeaderAsEmpty() throws Exception {
+        SegmentedEventLog log = new SegmentedEventLog(directory.getPath(), 256, DurabilityMode.OS_BUFFERED, 0);
+        log.openForAppend();
+        for (int i = 0; i < 50; i++) {
+            log.append(("record number " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        log.close();
+        // As left by a crash after the new segment was sized but before its header was written
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+        File last = files[files.length - 1];
+        try (RandomAccessFile raf = new RandomAccessFile(last, "rw")) {
+            raf.write(new byte[(int) raf.length()]);
+        }
+
+        log = new SegmentedEventLog(directory.getPath(), 256, DurabilityMode.OS_BUFFERED, 0);
+        List<String> stored = readAll(log);
+        assertThat(stored).isNotEmpty().startsWith("record number 0");
+        assertThat(log.verify(1).isDamaged()).isFalse();
+        log.openForAppend();
+        log.append("after restart".getBytes(StandardCharsets.UTF_8));
+        log.close();
+
+        List<String> expected = new ArrayList<>(stored);
+        expected.add("after restart");
+        assertThat(readAll(new SegmentedEventLog(directory.getPath(), 256, DurabilityMode.OS_BUFFERED, 0))).isEqualTo(expected);
+    }
+
+    @Test
+    public void shouldReplayEventsStoredInSegments() throws Exception {
+        Eventstore eventstore = new Eventstore(new SegmentedEventLog(directory.getPath(), 1024, DurabilityMode.OS_BUFFERED, 0));
+        for (int i = 0; i < 20; i++) {
+            eventstore.addEvent(new WorkshopAddedBySystem(System.currentTimeMillis(), i, "W" + i, 10));
+        }
+
+        Eventstore reopened = new Eventstore(new SegmentedEventLog(directory.getPath(), 1024, DurabilityMode.OS_BUFFERED, 0));
+        assertThat(reopened.numberOfEvents()).isEqualTo(20);
+        assertThat(reopened.numberOfWorkshops()).isEqualTo(20);
+    }
+
+    @Test
+    public void shouldKeepBinaryFormatAcrossSegmentsAndReopen() throws Exception {
+        Eventstore eventstore = new Eventstore(new SegmentedEventLog(directory.getPath(), 256, DurabilityMode.OS_BUFFERED, 0, LogFormat.BINARY));
+        for (int i = 0; i < 20; i++) {
+            eventstore.addEvent(new WorkshopAddedBySystem(System.currentTimeMillis(), i, "W" + i, 10));
+        }
+
+        SegmentedEventLog reopenedLog = new SegmentedEventLog(directory.getPath(), 256, DurabilityMode.OS_BUFFERED, 0, LogFormat.TEXT);
+        assertThat(reopenedLog.format()).isEqualTo(LogFormat.BINARY);
+        Eventstore reopened = new Eventstore(reopenedLog);
+        reopened.addEvent(new WorkshopAddedBySystem(System.currentTimeMillis(), 20, "W20", 10));
+
+        assertThat(directory.listFiles().length).isGreaterThan(1);
+        assertThat(new Eventstore(new SegmentedEventLog(directory.getPath(), 256, DurabilityMode.OS_BUFFERED, 0)).numberOfWorkshops()).isEqualTo(21);
+    }
+
+    @Test
+    public void shouldReadEventsFromCompressedSegments() throws Exception {
+        List<AbstractEvent> events = SyntheticEvents.generate(2000);
+        SegmentedEventLog log = new SegmentedEventLog(directory.getPath(), 64 * 1024, DurabilityMode.OS_BUFFERED, 0, LogFormat.TEXT, true);
+        Eventstore eventstore = new Eventstore(log);
+        for (AbstractEvent event : events) {
+            eventstore.addEvent(event);
+        }
+        log.close();
+
+        assertThat(directory.listFiles((dir, name) -> name.endsWith(".seg"))).hasSize(1);
+        assertThat(directory.listFiles((dir, name) -> name.endsWith(".segz")).length).isGreaterThan(1);
+        log = new SegmentedEventLog(directory.getPath(), 64 * 1024, DurabilityMode.OS_BUFFERED, 0, LogFormat.TEXT, true);
+        Eventstore reopened = new Eventstore(log, 2);
+        assertThat(revisions(reopened.getEventstorageCopy())).isEqualTo(revisions(events));
+        for (int i = 0; i < events.size(); i += 101) {
+            long revision = events.get(i).getRevisionId();
+            if (revision != 0) {
+                assertThat(reopened.readEvent(revision).map(AbstractEvent::getRevisionId)).contains(revision);
+            }
+        }
+        log.close();
+    }
+
+    @Test
+    public void shouldPreferCompressedSegmentLeftNextToSealedOne() throws Exception {
+        SegmentedEventLog log = new SegmentedEventLog(directory.getPath(), 256, DurabilityMode.OS_BUFFERED, 0);
+        log.openForAppend();
+        for (int i = 0; i < 50; i++) {
+            log.append(("record number " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        log.close();
+        File sealed = new File(directory, String.format("%020d.seg", 0));
+        File copy = new File(directory, "copy");
+        Files.copy(sealed.toPath(), copy.toPath());
+
+        log = new SegmentedEventLog(directory.getPath(), 256, DurabilityMode.OS_BUFFERED, 0, LogFormat.TEXT, true);
+        log.openForAppend();
+        log.close();
+        assertThat(sealed).doesNotExist();
+        Files.move(copy.toPath(), sealed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        List<String> records = readAll(new SegmentedEventLog(directory.getPath(), 256, DurabilityMode.OS_BUFFERED, 0));
+        assertThat(records).hasSize(50).startsWith("record number 0").endsWith("record number 49");
+    }
+
+    private static List<Long> revisions(List<AbstractEvent> events) {
+        return events.stream().map(AbstractEvent::getRevisionId).collect(Collectors.toList());
+    }
+
+    private List<String> readAll(SegmentedEventLog log) {
+        List<String> result = new ArrayList<>();
+        try (RecordReader reader = log.openReader()) {
+            ByteBuffer record;
+            while ((record = reader.next()) != null) {
+                result.add(StandardCharsets.UTF_8.decode(record).toString());
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,434 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.aggregate.WorkshopAggregate;
+import no.java.moosehead.controller.SystemSetup;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.core.EventSubscription;
+import no.java.moosehead.eventstore.core.Eventstore;
+import no.java.moosehead.eventstore.snapshot.Snapshot;
+import no.java.moosehead.eventstore.snapshot.SnapshotInput;
+import no.java.moosehead.eventstore.snapshot.SnapshotOutput;
+import no.java.moosehead.eventstore.snapshot.SnapshotStore;
+import no.java.moosehead.eventstore.snapshot.SnapshotWriter;
+import no.java.moosehead.eventstore.snapshot.Snapshotable;
+import no.java.moosehead.eventstore.system.SystemBootstrapDone;
+import no.java.moosehead.eventstore.utils.FileHandler;
+import no.java.moosehead.eventstore.utils.TokenGenerator;
+import no.java.moosehead.projections.WorkshopListProjection;
+import no.java.moosehead.repository.WorkshopData;
+import no.java.moosehead.repository.WorkshopRepository;
+import no.java.moosehead.saga.EmailSaga;
+import no.java.moosehead.saga.EmailSender;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SnapshotTest {
+    private File directory;
+    private File logFile;
+    private List<AbstractEvent> events = withoutUnknownCancellations(SyntheticEvents.generate(2000));
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("snapshots").toFile();
+        logFile = new File(directory, "events.log");
+        logFile.createNewFile();
+        SystemSetup systemSetup = mock(SystemSetup.class);
+        WorkshopRepository workshopRepository = mock(WorkshopRepository.class);
+        when(workshopRepository.workshopById(anyString())).thenAnswer(invocation -> Optional.of(new WorkshopData((String) invocation.getArguments()[0], "title", "description")));
+        when(systemSetup.workshopRepository()).thenReturn(workshopRepository);
+        when(systemSetup.revisionGenerator()).thenReturn(new TokenGenerator());
+        when(systemSetup.emailSender()).thenReturn(mock(EmailSender.class));
+        SystemSetup.setSetup(systemSetup);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void shouldRestoreTheSameStateAsFullReplay() throws Exception {
+        SnapshotStore snapshotStore = writeLogWithSnapshots();
+
+        Subscribers fromSnapshot = startWith(snapshotStore);
+        Subscribers fullReplay = startWith(null);
+
+        assertThat(fromSnapshot.state()).isEqualTo(fullReplay.state());
+    }
+
+    @Test
+    public void shouldRestoreWhenEventsAreNotKeptInMemory() throws Exception {
+        SnapshotStore snapshotStore = writeLogWithSnapshots();
+
+        assertThat(startWith(snapshotStore, false).state()).isEqualTo(startWith(null).state());
+    }
+
+    @Test
+    public void shouldPlayBackEverythingToSubscriberWithoutSnapshot() throws Exception {
+        SnapshotStore snapshotStore = writeLogWithSnapshots();
+        List<AbstractEvent> handled = new ArrayList<>();
+        FileHandler fileHandler = new FileHandler(logFile.getPath());
+        try {
+            Eventstore eventstore = new Eventstore(fileHandler, 1, false);
+            Subscribers subscribers = new Subscribers(eventstore);
+            eventstore.addEventSubscriber(handled::add);
+            eventstore.enableSnapshots(snapshotStore, Integer.MAX_VALUE);
+            eventstore.playbackEventsToSubscribers();
+
+            assertThat(subscribers.state()).isEqualTo(startWith(null).state());
+        } finally {
+            fileHandler.close();
+        }
+        assertThat(handled).extracting(AbstractEvent::getRevisionId)
+                .startsWith(events.get(0).getRevisionId())
+                .hasSize(events.size() + 1);
+    }
+
+    @Test
+    public void shouldUseOlderSnapshotWhenNewestIsCorrupt() throws Exception {
+        SnapshotStore snapshotStore = writeLogWithSnapshots();
+        File[] snapshots = snapshotFiles();
+        assertThat(snapshots).hasSize(2);
+        flipByte(snapshots[1], 40);
+
+        assertThat(startWith(snapshotStore).state()).isEqualTo(startWith(null).state());
+    }
+
+    @Test
+    public void shouldReplayEverythingWhenNoSnapshotIsUsable() throws Exception {
+        SnapshotStore snapshotStore = writeLogWithSnapshots();
+        for (File snapshot : snapshotFiles()) {
+            flipByte(snapshot, snapshot.length() - 1);
+        }
+
+        assertThat(snapshotStore.readNewestFirst()).isEmpty();
+        assertThat(startWith(snapshotStore).state()).isEqualTo(startWith(null).state());
+    }
+
+    @Test
+    public void shouldIgnoreSnapshotsOfAnotherLog() throws Exception {
+        SnapshotStore snapshotStore = writeLogWithSnapshots();
+        logFile.delete();
+        logFile.createNewFile();
+        FileHandler fileHandler = new FileHandler(logFile.getPath());
+        try {
+            Eventstore eventstore = new Eventstore(fileHandler);
+            eventstore.addEvent(new WorkshopAddedBySystem(1L, 1L, "another", 10));
+            for (AbstractEvent event : events) {
+                eventstore.addEvent(event);
+            }
+        } finally {
+            fileHandler.close();
+        }
+
+        assertThat(snapshotStore.readNewestFirst()).isNotEmpty();
+        assertThat(startWith(snapshotStore).state()).isEqualTo(startWith(null).state());
+    }
+
+    @Test
+    public void shouldNotBlockAppendsWhileWaitingForSlowSubscriber() throws Exception {
+        SnapshotStore snapshotStore = new SnapshotStore(directory.getPath());
+        FileHandler fileHandler = new FileHandler(logFile.getPath());
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Eventstore eventstore = new Eventstore(fileHandler);
+            eventstore.addAsyncEventSubscriber(new BlockingSubscriber(release), 1024);
+            eventstore.enableSnapshots(snapshotStore, 10);
+            eventstore.playbackEventsToSubscribers();
+
+            long start = System.nanoTime();
+            for (AbstractEvent event : events.subList(0, 50)) {
+                eventstore.addEvent(event);
+            }
+            assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)).isLessThan(5);
+            assertThat(snapshotFiles()).isEmpty();
+
+            release.countDown();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (snapshotFiles().length == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(snapshotFiles()).hasSize(1);
+        } finally {
+            release.countDown();
+            fileHandler.close();
+        }
+    }
+
+    @Test
+    public void shouldWriteSnapshotWithoutHoldingUpAppends() throws Exception {
+        SnapshotStore snapshotStore = new SnapshotStore(directory.getPath());
+        FileHandler fileHandler = new FileHandler(logFile.getPath());
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Eventstore eventstore = new Eventstore(fileHandler);
+            SlowlyWrittenSubscriber subscriber = new SlowlyWrittenSubscriber(release);
+            eventstore.addEventSubscriber(subscriber);
+            eventstore.enableSnapshots(snapshotStore, 10);
+            eventstore.playbackEventsToSubscribers();
+
+            long start = System.nanoTime();
+            for (AbstractEvent event : events.subList(0, 50)) {
+                eventstore.addEvent(event);
+            }
+            assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)).isLessThan(5);
+            assertThat(snapshotFiles()).isEmpty();
+
+            release.countDown();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (snapshotFiles().length == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(snapshotFiles()).hasSize(1);
+            // The state is the one at the snapshot position, not the one when it was written
+            Snapshot snapshot = snapshotStore.readNewestFirst().get(0);
+            DataInputStream state = new DataInputStream(new ByteArrayInputStream(snapshot.getStates().get("slowlyWritten")));
+            assertThat(state.readInt()).isEqualTo((int) snapshot.getEventCount());
+            assertThat(subscriber.handled).isEqualTo(50);
+        } finally {
+            release.countDown();
+            fileHandler.close();
+        }
+    }
+
+    private SnapshotStore writeLogWithSnapshots() throws Exception {
+        SnapshotStore snapshotStore = new SnapshotStore(directory.getPath());
+        FileHandler fileHandler = new FileHandler(logFile.getPath());
+        try {
+            Eventstore eventstore = new Eventstore(fileHandler);
+            for (AbstractEvent event : events.subList(0, 1000)) {
+                eventstore.addEvent(event);
+            }
+        } finally {
+            fileHandler.close();
+        }
+        fileHandler = new FileHandler(logFile.getPath());
+        try {
+            Eventstore eventstore = new Eventstore(fileHandler);
+            new Subscribers(eventstore);
+            eventstore.enableSnapshots(snapshotStore, 500, Runnable::run);
+            eventstore.playbackEventsToSubscribers();
+            for (AbstractEvent event : events.subList(1000, events.size())) {
+                eventstore.addEvent(event);
+            }
+        } finally {
+            fileHandler.close();
+        }
+        return snapshotStore;
+    }
+
+    private Subscribers startWith(SnapshotStore snapshotStore) {
+        return startWith(snapshotStore, true);
+    }
+
+    private Subscribers startWith(SnapshotStore snapshotStore, boolean keepEventsInMemory) {
+        FileHandler fileHandler = new FileHandler(logFile.getPath());
+        try {
+            Eventstore eventstore = new Eventstore(fileHandler, 1, keepEventsInMemory);
+            Subscribers subscribers = new Subscribers(eventstore);
+            if (snapshotStore != null) {
+                eventstore.enableSnapshots(snapshotStore, Integer.MAX_VALUE);
+            }
+            eventstore.playbackEventsToSubscribers();
+            return subscribers;
+        } finally {
+            fileHandler.close();
+        }
+    }
+
+    private File[] snapshotFiles() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".snap"));
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static void flipByte(File file, long position) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.seek(position);
+            int value = randomAccessFile.read();
+            randomAccessFile.seek(position);
+            randomAccessFile.write(value ^ 0xff);
+        }
+    }
+
+    /**
+     * The saga expects a cancellation to match a reservation made by the user, which the generated events do not guarantee
+     */
+    private static List<AbstractEvent> withoutUnknownCancellations(List<AbstractEvent> events) {
+        Map<String, Integer> reservations = new HashMap<>();
+        List<AbstractEvent> result = new ArrayList<>();
+        for (AbstractEvent event : events) {
+            if (event instanceof ReservationAddedByUser) {
+                ReservationAddedByUser reservation = (ReservationAddedByUser) event;
+                reservations.merge(reservation.getEmail() + "/" + reservation.getWorkshopId(), 1, Integer::sum);
+            } else if (event instanceof ReservationCancelledByUser) {
+                ReservationCancelledByUser cancellation = (ReservationCancelledByUser) event;
+                String key = cancellation.getEmail() + "/" + cancellation.getWorkshopId();
+                if (reservations.getOrDefault(key, 0) == 0) {
+                    continue;
+                }
+                reservations.merge(key, -1, Integer::sum);
+            } else if (event instanceof ReservationPartallyCancelled) {
+                ReservationPartallyCancelled cancellation = (ReservationPartallyCancelled) event;
+                if (reservations.getOrDefault(cancellation.getEmail() + "/" + cancellation.getWorkshopId(), 0) == 0) {
+                    continue;
+                }
+            }
+            result.add(event);
+        }
+        return result;
+    }
+
+    /**
+     * Handles no events after playback until released
+     */
+    private static class BlockingSubscriber implements EventSubscription, Snapshotable {
+        private final CountDownLatch release;
+        private int handled = 0;
+
+        BlockingSubscriber(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void eventAdded(AbstractEvent event) {
+            try {
+                if (!(event instanceof SystemBootstrapDone)) {
+                    release.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            handled++;
+        }
+
+        @Override
+        public String snapshotName() {
+            return "blocking";
+        }
+
+        @Override
+        public SnapshotWriter captureSnapshot() {
+            int captured = handled;
+            return out -> out.writeInt(captured);
+        }
+
+        @Override
+        public Runnable readSnapshot(SnapshotInput in) throws IOException {
+            int restored = in.readInt();
+            return () -> handled = restored;
+        }
+    }
+
+    /**
+     * Handles events at once, but writes its snapshots only when released
+     */
+    private static class SlowlyWrittenSubscriber implements EventSubscription, Snapshotable {
+        private final CountDownLatch release;
+        private int handled = 0;
+
+        SlowlyWrittenSubscriber(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void eventAdded(AbstractEvent event) {
+            if (!(event instanceof SystemBootstrapDone)) {
+                handled++;
+            }
+        }
+
+        @Override
+        public String snapshotName() {
+            return "slowlyWritten";
+        }
+
+        @Override
+        public SnapshotWriter captureSnapshot() {
+            int captured = handled;
+            return out -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                out.writeInt(captured);
+            };
+        }
+
+        @Override
+        public Runnable readSnapshot(SnapshotInput in) throws IOException {
+            int restored = in.readInt();
+            return () -> handled = restored;
+        }
+    }
+
+    private static class Subscribers {
+        private final WorkshopListProjection workshopListProjection = new WorkshopListProjection();
+        private final EmailSaga emailSaga = new EmailSaga();
+        private final WorkshopAggregate workshopAggregate = new WorkshopAggregate();
+
+        Subscribers(Eventstore eventstore) {
+            eventstore.addEventSubscriber(workshopListProjection);
+            eventstore.addEventSubscriber(emailSaga);
+            eventstore.addEventSubscriber(workshopAggregate);
+        }
+
+        String state() {
+            return serialize(workshopListProjection) + "/" + serialize(emailSaga) + "/" + serialize(workshopAggregate);
+        }
+
+        private static String serialize(Snapshotable snapshotable) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (SnapshotOutput out = new SecondsSnapshotOutput(bytes)) {
+                snapshotable.captureSnapshot().write(out);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return Base64.getEncoder().encodeToString(bytes.toByteArray());
+        }
+    }
+
+    /**
+     * Writes the state so that it can be compared: sets are sorted, and confirmedAt is truncated since
+     * Participant takes its fraction of a second from the clock
+     */
+    private static class SecondsSnapshotOutput extends SnapshotOutput {
+        SecondsSnapshotOutput(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void writeStrings(Collection<String> values) throws IOException {
+            super.writeStrings(values instanceof Set ? new TreeSet<>(values) : values);
+        }
+
+        @Override
+        public void writeOffsetDateTime(OffsetDateTime value) throws IOException {
+            super.writeOffsetDateTime(value != null ? value.truncatedTo(ChronoUnit.SECONDS) : null);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.eventstore.utils.ClassSerializer;
+import no.java.moosehead.eventstore.utils.StringInterner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the heap taken by the events decoded from the text format, with and without sharing
+ * workshop ids and emails. Run the main method with an optional number of reservations
+ * (default 500000, which gives about a million events).
+ */
+public class StringInterningBenchmark {
+    public static void main(String[] args) {
+        int reservations = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        List<String> encoded = new ArrayList<>();
+        ClassSerializer encoder = new ClassSerializer(null);
+        for (AbstractEvent event : SyntheticEvents.generate(reservations)) {
+            encoded.add(encoder.asString(event));
+        }
+        System.out.println("Events: " + encoded.size());
+
+        report("Without interning", encoded, new ClassSerializer(null));
+        report("With interning", encoded, new ClassSerializer(new StringInterner(1 << 16)));
+    }
+
+    private static void report(String what, List<String> encoded, ClassSerializer classSerializer) {
+        long before = usedHeap();
+        long start = System.nanoTime();
+        List<AbstractEvent> events = new ArrayList<>(encoded.size());
+        for (String line : encoded) {
+            events.add(classSerializer.asObject(line));
+        }
+        long decodeNanos = System.nanoTime() - start;
+        long after = usedHeap();
+        System.out.println(String.format("%s: %,d bytes for %d events (%,d bytes/event), decode %,d ns/event",
+                what, after - before, events.size(), (after - before) / events.size(), decodeNanos / events.size()));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,75 @@
+package no.java.moosehead.eventstore;
+
+import no.java.moosehead.commands.WorkshopTypeEnum;
+import no.java.moosehead.domain.WorkshopReservation;
+import no.java.moosehead.eventstore.core.AbstractEvent;
+import no.java.moosehead.repository.WorkshopData;
+import org.jsonbuddy.JsonFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+/**
+ * Generates a log that looks like a conference season: some workshops, and reservations that are
+ * confirmed, cancelled and partially cancelled. Used by the benchmarks.
+ */
+public class SyntheticEvents {
+    public static final int WORKSHOPS = 50;
+
+    public static String workshopId(int workshop) {
+        return "workshop_number_" + workshop;
+    }
+
+    public static String email(int participant) {
+        return "participant" + participant + "@example.com";
+    }
+
+    public static List<AbstractEvent> generate(int reservations) {
+        Random random = new Random(42);
+        List<AbstractEvent> events = new ArrayList<>();
+        long revision = 1;
+        long time = 1_400_000_000_000L;
+        Instant start = Instant.parse("2015-09-08T09:00:00Z");
+        for (int i = 0; i < WORKSHOPS; i++) {
+            if (i % 5 == 0) {
+                WorkshopData workshopData = new WorkshopData(workshopId(i), "Workshop " + i, "A description of workshop " + i, start, start.plusSeconds(7200), Optional.empty(), WorkshopTypeEnum.NORMAL_WORKSHOP);
+                events.add(new WorkshopAddedByAdmin(time++, revision++, workshopId(i), 30, start, start.plusSeconds(7200), workshopData));
+            } else {
+                events.add(new WorkshopAddedBySystem(time++, revision++, workshopId(i), 30));
+            }
+        }
+        int participants = Math.max(1, reservations / 4);
+        for (int i = 0; i < reservations; i++) {
+            String email = email(random.nextInt(participants));
+            String workshopId = workshopId(random.nextInt(WORKSHOPS));
+            WorkshopReservation.Builder builder = WorkshopReservation.builder()
+                    .setSystemTimeInMillis(time++)
+                    .setRevisionId(revision++)
+                    .setEmail(email)
+                    .setFullname("Participant " + email.hashCode())
+                    .setWorkshopId(workshopId)
+                    .setNumberOfSeatsReserved(1 + random.nextInt(3));
+            if (i % 10 == 0) {
+                builder.setGoogleUserEmail(Optional.of(email));
+            }
+            if (i % 7 == 0) {
+                builder.setAdditionalInfo(JsonFactory.jsonObject().put("shirts", JsonFactory.jsonArray().add(JsonFactory.jsonObject().put("size", "medium"))));
+            }
+            events.add(i % 20 == 0 ? new ReservationAddedByAdmin(builder.create()) : new ReservationAddedByUser(builder.create()));
+            int next = random.nextInt(10);
+            if (next < 6) {
+                events.add(new EmailConfirmedByUser(email, time++, revision++));
+            } else if (next == 6) {
+                events.add(new ReservationCancelledByUser(time++, revision++, email, workshopId, 1));
+            } else if (next == 7) {
+                events.add(new ReservationPartallyCancelled(time++, revision++, email, workshopId, 1));
+            } else if (next == 8) {
+                events.add(new EmailConfimationSentByEmailSaga(revision - 1));
+            }
+        }
+        return events;
+    }
+}
@@ -22,6 +22,8 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -300,5 +302,42 @@ public class DataServletTest {
         assertThat(jsonObject.requiredString("message")).isEqualTo("Name and email must be present without spesial characters");
     }
 
+    @Test
+    public void shouldRejectReservationOnReadReplica() throws Exception {
+        Map<String, String> confdata = new HashMap<>();
+        confdata.put("eventstoreReadReplica", "true");
+        Configuration.initData(confdata);
+        try {
+            when(req.getMethod()).thenReturn("POST");
+            when(req.getPathInfo()).thenReturn("/reserve");
+
+            servlet.service(req, resp);
+
+            verify(participantApi, never()).reservation(any(WorkshopReservation.class), any(AuthorEnum.class));
+            verify(resp).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "This server is a read replica");
+        } finally {
+            Configuration.initData(null);
+        }
+    }
 
+    @Test
+    public void shouldSendReservationToPrimaryFromReadReplica() throws Exception {
+        Map<String, String> confdata = new HashMap<>();
+        confdata.put("eventstoreReadReplica", "true");
+        confdata.put("primaryLocation", "http://primary:8088");
+        Configuration.initData(confdata);
+        try {
+            when(req.getMethod()).thenReturn("POST");
+            when(req.getPathInfo()).thenReturn("/reserve");
+            when(req.getRequestURI()).thenReturn("/data/reserve");
+
+            servlet.service(req, resp);
+
+            verify(participantApi, never()).reservation(any(WorkshopReservation.class), any(AuthorEnum.class));
+            verify(resp).setStatus(307);
+            verify(resp).setHeader("Location", "http://primary:8088/data/reserve");
+        } finally {
+            Configuration.initData(null);
+        }
+    }
 }